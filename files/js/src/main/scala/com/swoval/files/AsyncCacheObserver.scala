@@ -0,0 +1,96 @@
+package com.swoval.files
+
+import com.swoval.files.FileTreeDataViews.CacheObserver
+import com.swoval.files.FileTreeDataViews.Entry
+import com.swoval.files.FileTreeViews.Observer
+import java.io.IOException
+import java.nio.file.Path
+
+object AsyncCacheObserver {
+
+  /**
+   * An enum like class that determines what happens to a notification that arrives while the queue
+   * of an [[AsyncCacheObserver]] is full.
+   */
+  class OverflowPolicy private (private val name: String) {
+    override def toString(): String = name
+    override def equals(other: Any): Boolean = other match {
+      case that: OverflowPolicy => this.name == that.name
+      case _                    => false
+    }
+    override def hashCode(): Int = name.hashCode
+  }
+
+  object OverflowPolicy {
+
+    /** Wait until the observer has processed a notification. */
+    val Block: OverflowPolicy = new OverflowPolicy("Block")
+
+    /** Discard the oldest pending notification. */
+    val DropOldest: OverflowPolicy = new OverflowPolicy("DropOldest")
+
+    /**
+     * Discard all of the pending notifications and instead notify the observer, with a
+     * [[RescanException]], that it should list the directory that contains all of their paths
+     * again.
+     */
+    val Rescan: OverflowPolicy = new OverflowPolicy("Rescan")
+  }
+
+  /**
+   * Passed to [[CacheObserver.onError]] when notifications were discarded by the
+   * [[OverflowPolicy.Rescan]] policy.
+   *
+   * @param path the directory to rescan or null if the whole cache should be listed again
+   */
+  @SerialVersionUID(1L)
+  class RescanException private[files] (@transient path: Path)
+      extends IOException("Notifications were dropped" + (if (path == null) "" else " for " + path)) {
+    def getPath(): Path = path
+  }
+}
+
+/**
+ * Wraps a [[CacheObserver]] so that it is notified on its own thread. Scala.js is single threaded
+ * so, for source compatibility with the jvm, the notifications are delivered synchronously and the
+ * queue never overflows.
+ *
+ * @param observer the observer to notify
+ * @param capacity the maximum number of pending notifications. Must be positive.
+ * @param overflowPolicy determines what happens when a notification arrives while the queue is full
+ * @tparam T the cache value type
+ */
+class AsyncCacheObserver[T <: AnyRef](observer: CacheObserver[T],
+                                      capacity: Int,
+                                      overflowPolicy: AsyncCacheObserver.OverflowPolicy)
+    extends CacheObserver[T]
+    with AutoCloseable {
+  if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity)
+  private[this] var closed = false
+
+  def this(observer: Observer[_ >: Entry[T]],
+           capacity: Int,
+           overflowPolicy: AsyncCacheObserver.OverflowPolicy) =
+    this(CacheObservers.fromObserver[T](observer), capacity, overflowPolicy)
+
+  /**
+   * Returns the number of notifications that arrived while the queue was full.
+   *
+   * @return the number of overflows.
+   */
+  def getOverflowCount(): Long = 0L
+
+  override def onCreate(newEntry: Entry[T]): Unit = if (!closed) observer.onCreate(newEntry)
+
+  override def onDelete(oldEntry: Entry[T]): Unit = if (!closed) observer.onDelete(oldEntry)
+
+  override def onUpdate(oldEntry: Entry[T], newEntry: Entry[T]): Unit =
+    if (!closed) observer.onUpdate(oldEntry, newEntry)
+
+  override def onError(exception: IOException): Unit = if (!closed) observer.onError(exception)
+
+  override def close(): Unit = closed = true
+
+  override def toString(): String =
+    "AsyncCacheObserver(" + observer + ", " + capacity + ", " + overflowPolicy + ")"
+}
@@ -6,7 +6,10 @@ import com.swoval.files.FileTreeDataViews.CacheObserver
 import com.swoval.files.FileTreeDataViews.Entry
 import com.swoval.files.FileTreeViews.Observer
 import java.io.IOException
+import java.nio.file.Path
 import java.util.ArrayList
+import java.util.Collections
+import java.util.HashMap
 import java.util.Iterator
 import java.util.LinkedHashMap
 import java.util.List
@@ -16,6 +19,9 @@ import CacheObservers._
 
 object CacheObservers {
 
+  private def isLiteral(name: String): Boolean =
+    name.indexOf('*') == -1 && name.indexOf('?') == -1 && name.indexOf('[') == -1
+
   def fromObserver[T](observer: Observer[_ >: Entry[T]]): CacheObserver[T] =
     new CacheObserver[T]() {
       override def onCreate(newEntry: Entry[T]): Unit = {
@@ -35,63 +41,55 @@ object CacheObservers {
       }
     }
 
+  private class Subscription[T](val observer: CacheObserver[T],
+                                val prefix: Array[String],
+                                val pattern: Array[String])
+
+  private class Node[T] {
+
+    val subscriptions: List[Subscription[T]] = new ArrayList()
+
+    val children: Map[String, Node[T]] = new HashMap()
+
+  }
+
 }
 
+/**
+ * Container class that wraps multiple [[CacheObserver]] instances. An observer may subscribe to
+ * every path in the cache or only to the paths in the subtree of a prefix or to the paths matching
+ * a glob. The subscriptions are indexed by prefix in a tree of path names, so notifying the
+ * observers of an entry only visits the observers whose prefix contains the path of the entry. The
+ * index is copied on write whenever an observer is added or removed, so notifying the observers
+ * neither locks nor copies the observers.
+ *
+ * @tparam T the cache value type
+ */
 class CacheObservers[T] extends CacheObserver[T] with AutoCloseable {
 
   private val counter: AtomicInteger = new AtomicInteger(0)
 
-  private val observers: Map[Integer, CacheObserver[T]] = new LinkedHashMap()
+  private val subscriptions: Map[Integer, Subscription[T]] = new LinkedHashMap()
 
-  override def onCreate(newEntry: Entry[T]): Unit = {
-    var cbs: List[CacheObserver[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[CacheObserver[T]] = cbs.iterator()
-    while (it.hasNext)
-      try it.next().onCreate(newEntry)
-      catch {
-        case e: Exception => e.printStackTrace()
+  @volatile private var index: Node[T] = new Node()
 
-      }
+  @volatile private var all: List[Subscription[T]] = Collections.emptyList()
+
+  override def onCreate(newEntry: Entry[T]): Unit = {
+    dispatch(newEntry.getTypedPath.getPath, null, newEntry)
   }
 
   override def onDelete(oldEntry: Entry[T]): Unit = {
-    var cbs: List[CacheObserver[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[CacheObserver[T]] = cbs.iterator()
-    while (it.hasNext)
-      try it.next().onDelete(oldEntry)
-      catch {
-        case e: Exception => e.printStackTrace()
-
-      }
+    dispatch(oldEntry.getTypedPath.getPath, oldEntry, null)
   }
 
   override def onUpdate(oldEntry: Entry[T], newEntry: Entry[T]): Unit = {
-    var cbs: List[CacheObserver[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[CacheObserver[T]] = cbs.iterator()
-    while (it.hasNext)
-      try it.next().onUpdate(oldEntry, newEntry)
-      catch {
-        case e: Exception => e.printStackTrace()
-
-      }
+    dispatch(newEntry.getTypedPath.getPath, oldEntry, newEntry)
   }
 
   override def onError(exception: IOException): Unit = {
-    var cbs: List[CacheObserver[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[CacheObserver[T]] = cbs.iterator()
-    while (it.hasNext) it.next().onError(exception)
+    val it: Iterator[Subscription[T]] = all.iterator()
+    while (it.hasNext) it.next().observer.onError(exception)
   }
 
   /**
@@ -100,20 +98,51 @@ class CacheObservers[T] extends CacheObserver[T] with AutoCloseable {
    * @param observer the new cacheObserver
    * @return a handle to the added cacheObserver that can be used to halt observation using [[    com.swoval.files.Observers.removeObserver]] .
    */
-  def addObserver(observer: Observer[_ >: Entry[T]]): Int = {
-    val key: Int = counter.getAndIncrement
-    observers.synchronized {
-      observers.put(key, CacheObservers.fromObserver(observer))
-    }
-    key
-  }
+  def addObserver(observer: Observer[_ >: Entry[T]]): Int =
+    addCacheObserver(CacheObservers.fromObserver(observer))
 
-  def addCacheObserver(cacheObserver: CacheObserver[T]): Int = {
-    val key: Int = counter.getAndIncrement
-    observers.synchronized {
-      observers.put(key, cacheObserver)
+  def addCacheObserver(cacheObserver: CacheObserver[T]): Int =
+    subscribe(new Subscription(cacheObserver, Array.ofDim[String](0), null))
+
+  /**
+   * Add a cacheObserver that only receives the events for the paths in the subtree of a prefix,
+   * including the prefix itself.
+   *
+   * @param cacheObserver the new cacheObserver
+   * @param prefix the absolute path of the subtree
+   * @return a handle to the added cacheObserver.
+   */
+  def addCacheObserver(cacheObserver: CacheObserver[T], prefix: Path): Int =
+    subscribe(new Subscription(cacheObserver, Exclusions.names(prefix), null))
+
+  /**
+   * Add a cacheObserver that only receives the events for the paths that an [[Exclusions]]
+   * compiled from the same glob would exclude, i.e. the paths that match the glob and the paths
+   * in the subtrees of the directories that match it. The names of an anchored glob that precede
+   * its first wildcard are used to index the observer.
+   *
+   * @param cacheObserver the new cacheObserver
+   * @param glob the glob that the paths must match
+   * @return a handle to the added cacheObserver.
+   */
+  def addCacheObserver(cacheObserver: CacheObserver[T], glob: String): Int = {
+    val names: Array[String] = Exclusions.compile(glob)
+    if (names.length == 0) throw new IllegalArgumentException("The glob " + glob + " is empty")
+    var literal: Int = 0
+    while (literal < names.length && isLiteral(names(literal))) literal += 1
+    val prefix: Array[String] = Array.ofDim[String](literal)
+    var i: Int = 0
+    while (i < literal) {
+      prefix(i) = names(i)
+      i += 1
     }
-    key
+    val pattern: Array[String] = Array.ofDim[String](names.length - literal)
+    i = 0
+    while (i < pattern.length) {
+      pattern(i) = names(literal + i)
+      i += 1
+    }
+    subscribe(new Subscription(cacheObserver, prefix, pattern))
   }
 
   /**
@@ -122,13 +151,88 @@ class CacheObservers[T] extends CacheObserver[T] with AutoCloseable {
    * @param handle the handle to remove
    */
   def removeObserver(handle: Int): Unit = {
-    observers.synchronized {
-      observers.remove(handle)
+    subscriptions.synchronized {
+      if (subscriptions.remove(handle) != null) reindex()
     }
   }
 
   override def close(): Unit = {
-    observers.clear()
+    subscriptions.synchronized {
+      subscriptions.clear()
+      reindex()
+    }
+  }
+
+  private def subscribe(subscription: Subscription[T]): Int = {
+    val key: Int = counter.getAndIncrement
+    subscriptions.synchronized {
+      subscriptions.put(key, subscription)
+      reindex()
+    }
+    key
+  }
+
+  /*
+   * Must be called while holding the subscriptions lock. The observers of each node stay in the
+   * order in which they were added.
+   */
+  private def reindex(): Unit = {
+    val root: Node[T] = new Node()
+    val list: List[Subscription[T]] = new ArrayList(subscriptions.values)
+    val it: Iterator[Subscription[T]] = list.iterator()
+    while (it.hasNext) {
+      val subscription: Subscription[T] = it.next()
+      var node: Node[T] = root
+      var i: Int = 0
+      while (i < subscription.prefix.length) {
+        var child: Node[T] = node.children.get(subscription.prefix(i))
+        if (child == null) {
+          child = new Node()
+          node.children.put(subscription.prefix(i), child)
+        }
+        node = child
+        i += 1
+      }
+      node.subscriptions.add(subscription)
+    }
+    index = root
+    all = Collections.unmodifiableList(list)
+  }
+
+  private def dispatch(path: Path, oldEntry: Entry[T], newEntry: Entry[T]): Unit = {
+    val count: Int = path.getNameCount
+    val string: String = path.toString
+    var node: Node[T] = index
+    var depth: Int = 0
+    // The index of the first character of the name at the current depth in the path string.
+    var start: Int = Exclusions.namesStart(path, string)
+    while (node != null) {
+      if (!node.subscriptions.isEmpty) {
+        val it: Iterator[Subscription[T]] = node.subscriptions.iterator()
+        while (it.hasNext) {
+          val subscription: Subscription[T] = it.next()
+          if (subscription.pattern == null ||
+              Exclusions.matches(subscription.pattern, string, start, string.length, true)) {
+            try if (oldEntry == null) {
+              subscription.observer.onCreate(newEntry)
+            } else if (newEntry == null) {
+              subscription.observer.onDelete(oldEntry)
+            } else {
+              subscription.observer.onUpdate(oldEntry, newEntry)
+            } catch {
+              case e: Exception => e.printStackTrace()
+
+            }
+          }
+        }
+      }
+      node =
+        if (depth < count && !node.children.isEmpty)
+          node.children.get(path.getName(depth).toString)
+        else null
+      if (depth < count) start = Exclusions.nameEnd(string, start) + 1
+      depth += 1
+    }
   }
 
 }
@@ -60,6 +60,18 @@ trait CachedDirectory[T <: AnyRef]
    */
   override def list(path: Path, maxDepth: Int, filter: Filter[_ >: TypedPath]): List[TypedPath]
 
+  /**
+   * Visits all of the entries for the `path` in place. Unlike [[CachedDirectory.listEntries]], the entries are neither copied into a list nor
+   * resolved into new [[Entry]] instances. Instead, a single reusable [[EntryCursor]] is
+   * moved to each entry. The cache is locked for the duration of the traversal so the visitor
+   * should not block or modify the cache.
+   *
+   * @param path the root path to visit. If this is a file, only the entry for the file is visited.
+   * @param maxDepth the maximum depth of subdirectories to visit (see [[DirectoryView.getMaxDepth]])
+   * @param visitor the visitor to invoke for each entry
+   */
+  def forEach(path: Path, maxDepth: Int, visitor: EntryVisitor[T]): Unit
+
   /**
    * Returns the [[FileTreeDataViews.Entry]] associated with the path specified by [[CachedDirectory.getPath]].
    *
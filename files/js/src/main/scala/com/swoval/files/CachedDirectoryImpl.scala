@@ -16,6 +16,7 @@ import java.nio.file.Path
 import java.util.ArrayList
 import java.util.Collection
 import java.util.Collections
+import java.util.Comparator
 import java.util.HashMap
 import java.util.Iterator
 import java.util.List
@@ -25,6 +26,12 @@ import CachedDirectoryImpl._
 
 object CachedDirectoryImpl {
 
+  private val DIRECTORY_ORDER: Comparator[CachedDirectoryImpl[_]] =
+    new Comparator[CachedDirectoryImpl[_]]() {
+      override def compare(left: CachedDirectoryImpl[_], right: CachedDirectoryImpl[_]): Int =
+        MapOps.comparePaths(left.getPath, right.getPath)
+    }
+
   private trait ListTransformer[T, R] {
 
     def apply(entry: Entry[T]): R
@@ -166,6 +173,27 @@ class CachedDirectoryImpl[T <: AnyRef](
       Collections.emptyList()
     }
 
+  override def forEach(path: Path, maxDepth: Int, visitor: EntryVisitor[T]): Unit = {
+    if (this.subdirectories.lock()) {
+      try {
+        val findResult: Either[Entry[T], CachedDirectoryImpl[T]] = find(path)
+        if (findResult != null) {
+          val cursor: EntryCursor[T] = new EntryCursor[T]()
+          if (findResult.isRight) {
+            findResult.get.forEachImpl(maxDepth, cursor, visitor)
+          } else {
+            val entry: Entry[T] = leftProjection(findResult).getValue
+            if (entry != null) {
+              val entryPath: Path = entry.getTypedPath.getPath
+              cursor.set(entryPath.getParent, entry.getTypedPath, entry.getValue)
+              visitor.visit(cursor)
+            }
+          }
+        }
+      } finally this.subdirectories.unlock()
+    }
+  }
+
   override def listEntries(maxDepth: Int, filter: Filter[_ >: Entry[T]]): List[Entry[T]] =
     listEntries(getPath, maxDepth, filter)
 
@@ -234,6 +262,127 @@ class CachedDirectoryImpl[T <: AnyRef](
       Collections.emptyList()
     }
 
+  /**
+   * Moves a path, and its subtree when it is a directory, to a new path. The existing entries are
+   * re-parented, so neither the new path is listed nor are the cache values recomputed. Moves that
+   * the cache can't represent by re-parenting, e.g. those of symbolic links or of directories to a
+   * parent with a different maximum depth, are rejected.
+   *
+   * @param source the path that was moved
+   * @param destination the new path
+   * @return the updates for the moved entries or null if the move was rejected, in which case the
+   *     directory is unchanged.
+   */
+  override def move(source: Path, destination: TypedPath): Updates[T] = {
+    val path: Path = destination.getPath
+    val root: Path = getPath
+    if (!source.isAbsolute || !source.startsWith(root) || !path.startsWith(root) ||
+        source == root ||
+        path == root ||
+        path.startsWith(source) ||
+        !destination.exists() ||
+        destination.isSymbolicLink ||
+        !pathFilter.accept(destination)) {
+      return null
+    }
+    if (this.subdirectories.lock()) {
+      try {
+        val sourceParent: Either[Entry[T], CachedDirectoryImpl[T]] =
+          find(source.getParent)
+        val parent: Either[Entry[T], CachedDirectoryImpl[T]] =
+          find(path.getParent)
+        if (sourceParent == null || sourceParent.isLeft || parent == null ||
+            parent.isLeft) {
+          return null
+        }
+        val sourceName: Path = source.getFileName
+        val name: Path = path.getFileName
+        return moveImpl(sourceParent.get, sourceName, parent.get, destination, name)
+      } finally this.subdirectories.unlock()
+    }
+    null
+  }
+
+  private def moveImpl(sourceParent: CachedDirectoryImpl[T],
+                       sourceName: Path,
+                       parent: CachedDirectoryImpl[T],
+                       destination: TypedPath,
+                       name: Path): Updates[T] = {
+    val dir: CachedDirectoryImpl[T] = sourceParent.subdirectories.get(sourceName)
+    val file: Entry[T] =
+      if (dir == null) sourceParent.files.get(sourceName) else null
+    val replaced: Entry[T] = parent.files.get(name)
+    if (parent.depth < 0 || parent.subdirectories.get(name) != null ||
+        (replaced != null && replaced.getTypedPath.isDirectory)) {
+      return null
+    }
+    val path: Path = destination.getPath
+    val oldEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
+    val newEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
+    if (dir != null) {
+      if (dir.getTypedPath.isSymbolicLink || !destination.isDirectory ||
+          parent.depth == 0 ||
+          dir.depth != parent.subdirectoryDepth()) {
+        return null
+      }
+      oldEntries.add(dir.getEntry)
+      dir.listSortedEntries(java.lang.Integer.MAX_VALUE, oldEntries)
+      sourceParent.subdirectories.remove(sourceName)
+      parent.files.remove(name)
+      dir.reroot(path)
+      parent.subdirectories.put(name, dir)
+      newEntries.add(dir.getEntry)
+      dir.listSortedEntries(java.lang.Integer.MAX_VALUE, newEntries)
+    } else if (file != null) {
+      if (file.getTypedPath.isSymbolicLink ||
+          (destination.isDirectory && parent.depth > 0)) {
+        return null
+      }
+      oldEntries.add(Entries.resolve(sourceParent.getPath, file))
+      sourceParent.files.remove(sourceName)
+      val entry: Entry[T] = Entries.setPath(file, name)
+      parent.files.put(name, entry)
+      newEntries.add(Entries.resolve(parent.getPath, entry))
+    } else {
+      return null
+    }
+    val result: Updates[T] = new Updates[T]()
+    val oldIterator: Iterator[Entry[T]] = oldEntries.iterator()
+    while (oldIterator.hasNext) result.onDelete(oldIterator.next())
+    val newIterator: Iterator[Entry[T]] = newEntries.iterator()
+    val entry: Entry[T] = newIterator.next()
+    if (replaced == null) result.onCreate(entry)
+    else result.onUpdate(Entries.resolve(parent.getPath, replaced), entry)
+    while (newIterator.hasNext) result.onCreate(newIterator.next())
+    result
+  }
+
+  /*
+   * Moves this directory and all of its entries to a new path. Entries that are no longer accepted
+   * by the path filter at the new path are dropped.
+   */
+  private def reroot(path: Path): Unit = {
+    _cacheEntry.set(Entries.setPath(getEntry, path))
+    val filesIterator: Iterator[Map.Entry[Path, Entry[T]]] =
+      files.entrySet().iterator()
+    while (filesIterator.hasNext) {
+      val entry: Map.Entry[Path, Entry[T]] = filesIterator.next()
+      val file: Entry[T] = Entries.setPath(entry.getValue, entry.getKey)
+      if (pathFilter.accept(Entries.resolve(path, file).getTypedPath))
+        entry.setValue(file)
+      else filesIterator.remove()
+    }
+    val subdirIterator: Iterator[Map.Entry[Path, CachedDirectoryImpl[T]]] =
+      subdirectories.iterator()
+    while (subdirIterator.hasNext) {
+      val entry: Map.Entry[Path, CachedDirectoryImpl[T]] = subdirIterator.next()
+      val subdir: CachedDirectoryImpl[T] = entry.getValue
+      subdir.reroot(path.resolve(entry.getKey))
+      if (!pathFilter.accept(subdir.getTypedPath))
+        subdirectories.remove(entry.getKey)
+    }
+  }
+
   override def toString(): String =
     "CachedDirectory(" + getPath + ", maxDepth = " + depth +
       ")"
@@ -271,27 +420,17 @@ class CachedDirectoryImpl[T <: AnyRef](
 
     }
     if (exists) {
-      val oldEntries: Map[Path, Entry[T]] = new HashMap[Path, Entry[T]]()
-      val newEntries: Map[Path, Entry[T]] = new HashMap[Path, Entry[T]]()
+      val oldEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
       val previous: CachedDirectoryImpl[T] =
         currentDir.subdirectories.put(path.getFileName, dir)
       if (previous != null) {
-        oldEntries.put(previous.getPath, previous.getEntry)
-        val entryIterator: Iterator[Entry[T]] =
-          previous.listEntries(java.lang.Integer.MAX_VALUE, AllPass).iterator()
-        while (entryIterator.hasNext) {
-          val entry: Entry[T] = entryIterator.next()
-          oldEntries.put(entry.getTypedPath.getPath, entry)
-        }
+        oldEntries.add(previous.getEntry)
+        previous.listSortedEntries(java.lang.Integer.MAX_VALUE, oldEntries)
         previous.close()
       }
-      newEntries.put(dir.getPath, dir.getEntry)
-      val it: Iterator[Entry[T]] =
-        dir.listEntries(java.lang.Integer.MAX_VALUE, AllPass).iterator()
-      while (it.hasNext) {
-        val entry: Entry[T] = it.next()
-        newEntries.put(entry.getTypedPath.getPath, entry)
-      }
+      val newEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
+      newEntries.add(dir.getEntry)
+      dir.listSortedEntries(java.lang.Integer.MAX_VALUE, newEntries)
       MapOps.diffDirectoryEntries(oldEntries, newEntries, updates)
     } else {
       val it: Iterator[Entry[T]] = remove(dir.getPath).iterator()
@@ -396,9 +535,11 @@ class CachedDirectoryImpl[T <: AnyRef](
           }
         }
       } else if (typedPath.isDirectory && rescanOnDirectoryUpdate) {
-        val oldEntries: List[Entry[T]] = listEntries(getMaxDepth, AllPass)
+        val oldEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
+        listSortedEntries(getMaxDepth, oldEntries)
         init()
-        val newEntries: List[Entry[T]] = listEntries(getMaxDepth, AllPass)
+        val newEntries: List[Entry[T]] = new ArrayList[Entry[T]]()
+        listSortedEntries(getMaxDepth, newEntries)
         MapOps.diffDirectoryEntries(oldEntries, newEntries, result)
       } else {
         val oldEntry: Entry[T] = getEntry
@@ -483,6 +624,89 @@ class CachedDirectoryImpl[T <: AnyRef](
     }
   }
 
+  /*
+   * Lists the same entries as listEntries(maxDepth, AllPass), but in the order defined by
+   * MapOps.ENTRY_ORDER so that MapOps.diffDirectoryEntries doesn't have to sort the whole list.
+   * The children are stored unordered, so the children of each directory are sorted here.
+   */
+
+  private def listSortedEntries(maxDepth: Int, result: List[Entry[T]]): Unit = {
+    if (getEntry.getTypedPath.exists() && this.subdirectories.lock()) {
+      try listSortedImpl(maxDepth, result)
+      finally this.subdirectories.unlock()
+    }
+  }
+
+  private def listSortedImpl(maxDepth: Int, result: List[Entry[T]]): Unit = {
+    if (this.depth < 0 || maxDepth < 0) {
+      result.add(this.getEntry)
+    } else {
+      if (subdirectories.lock()) {
+        try {
+          val files: List[Entry[T]] = new ArrayList[Entry[T]](this.files.size)
+          val filesIterator: Iterator[Entry[T]] = this.files.values.iterator()
+          while (filesIterator.hasNext) files.add(Entries.resolve(getPath, filesIterator.next()))
+          Collections.sort[Entry[T]](files, MapOps.ENTRY_ORDER)
+          val subdirectories: List[CachedDirectoryImpl[T]] =
+            new ArrayList[CachedDirectoryImpl[T]](this.subdirectories.liveValues())
+          Collections.sort[CachedDirectoryImpl[T]](subdirectories, DIRECTORY_ORDER)
+          val fileCount: Int = files.size
+          val subdirectoryCount: Int = subdirectories.size
+          var i: Int = 0
+          var j: Int = 0
+          while (i < fileCount || j < subdirectoryCount) {
+            if (j == subdirectoryCount ||
+                (i < fileCount &&
+                MapOps.comparePaths(files.get(i).getTypedPath.getPath,
+                                    subdirectories.get(j).getPath) <
+                  0)) {
+              result.add(files.get(i))
+              i += 1
+            } else {
+              val subdir: CachedDirectoryImpl[T] = subdirectories.get(j)
+              result.add(Entries.resolve(getPath, subdir.getEntry))
+              if (maxDepth > 0 && subdir.depth >= 0)
+                subdir.listSortedImpl(maxDepth - 1, result)
+              j += 1
+            }
+          }
+        } finally subdirectories.unlock()
+      }
+    }
+  }
+
+  private def forEachImpl(maxDepth: Int, cursor: EntryCursor[T], visitor: EntryVisitor[T]): Unit = {
+    if (this.depth < 0 || maxDepth < 0) {
+      val entry: Entry[T] = getEntry
+      val path: Path = entry.getTypedPath.getPath
+      cursor.set(path.getParent, entry.getTypedPath, entry.getValue)
+      visitor.visit(cursor)
+    } else {
+      if (subdirectories.lock()) {
+        try {
+          val path: Path = getPath
+          val filesIterator: Iterator[Entry[T]] = files.values.iterator()
+          while (filesIterator.hasNext) {
+            val entry: Entry[T] = filesIterator.next()
+            cursor.set(path, entry.getTypedPath, entry.getValue)
+            visitor.visit(cursor)
+          }
+          val subdirIterator: Iterator[CachedDirectoryImpl[T]] =
+            subdirectories.liveValues().iterator()
+          while (subdirIterator.hasNext) {
+            val subdir: CachedDirectoryImpl[T] = subdirIterator.next()
+            val entry: Entry[T] = subdir.getEntry
+            cursor.set(path, entry.getTypedPath, entry.getValue)
+            visitor.visit(cursor)
+            if (maxDepth > 0 && subdir.depth >= 0) {
+              subdir.forEachImpl(maxDepth - 1, cursor, visitor)
+            }
+          }
+        } finally subdirectories.unlock()
+      }
+    }
+  }
+
   private def removeImpl(parts: List[Path]): List[Entry[T]] = {
     val result: List[Entry[T]] = new ArrayList[Entry[T]]()
     if (this.subdirectories.lock()) {
@@ -524,9 +748,18 @@ class CachedDirectoryImpl[T <: AnyRef](
     result
   }
 
-  def init(): CachedDirectoryImpl[T] = init(getTypedPath.getPath)
+  def init(): CachedDirectoryImpl[T] = init(getTypedPath.getPath, fileTreeView)
+
+  /**
+   * Lists the directory and its subdirectories with a view that is only used for this listing. The
+   * subdirectories keep the default view for their later updates.
+   *
+   * @param view the view with which the tree is listed
+   * @return this directory.
+   */
+  def init(view: FileTreeView): CachedDirectoryImpl[T] = init(getTypedPath.getPath, view)
 
-  private def init(realPath: Path): CachedDirectoryImpl[T] = {
+  private def init(realPath: Path, view: FileTreeView): CachedDirectoryImpl[T] = {
     if (subdirectories.lock()) {
       try {
         subdirectories.clear()
@@ -536,7 +769,7 @@ class CachedDirectoryImpl[T <: AnyRef](
           (!this.getPath.startsWith(realPath) || this.getPath == realPath)
         ) {
           val it: Iterator[TypedPath] =
-            fileTreeView.list(this.getPath, 0, pathFilter).iterator()
+            view.list(this.getPath, 0, pathFilter).iterator()
           while (it.hasNext) {
             val file: TypedPath = it.next()
             val path: Path = file.getPath
@@ -553,7 +786,7 @@ class CachedDirectoryImpl[T <: AnyRef](
                     followLinks
                   )
                   try {
-                    dir.init()
+                    dir.init(view)
                     subdirectories.put(key, dir)
                   } catch {
                     case e: IOException =>
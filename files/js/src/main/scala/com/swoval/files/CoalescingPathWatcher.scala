@@ -0,0 +1,226 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+import com.swoval.files.PathWatchers.Event.Kind.Create
+import com.swoval.files.PathWatchers.Event.Kind.Delete
+import com.swoval.files.PathWatchers.Event.Kind.Error
+import com.swoval.files.PathWatchers.Event.Kind.Modify
+import com.swoval.files.PathWatchers.Event.Kind.Move
+import com.swoval.files.PathWatchers.Event.Kind.Overflow
+import com.swoval.files.FileTreeViews.Observer
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.functional.Either
+import com.swoval.logging.Logger
+import com.swoval.logging.Loggers
+import com.swoval.logging.Loggers.Level
+import java.io.IOException
+import java.nio.file.Path
+import java.util.ArrayList
+import java.util.Collections
+import java.util.HashMap
+import java.util.Iterator
+import java.util.LinkedHashMap
+import java.util.List
+import java.util.Map
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+object CoalescingPathWatcher {
+
+  /**
+   * Combines two consecutive events for the same path.
+   *
+   * @param previous the pending event for the path
+   * @param next the event that was just received for the path
+   * @return the event that has the same effect on the cache as both events.
+   */
+  def merge(previous: Event, next: Event): Event = {
+    val previousKind: Kind = previous.getKind
+    val nextKind: Kind = next.getKind
+    val typedPath: TypedPath = next.getTypedPath
+    if (previousKind == Error || previousKind == Overflow) {
+      new Event(typedPath, previousKind)
+    } else if (nextKind == Error || nextKind == Overflow || nextKind == Delete) {
+      /*
+       * A create followed by a delete is reduced to the delete rather than dropped. The cache
+       * ignores the delete if it never saw the path, but a spurious create for a path that was
+       * already cached must not leave a stale entry behind.
+       */
+      next
+    } else if (nextKind == Move) {
+      next
+    } else if (previousKind == Move && nextKind == Modify && typedPath.isDirectory) {
+      new Event(typedPath, Move, previous.getPreviousTypedPath)
+    } else if (previousKind == Create || previousKind == Move) {
+      new Event(typedPath, Create)
+    } else if (previousKind == Delete && typedPath.isDirectory) {
+      new Event(typedPath, Overflow)
+    } else {
+      new Event(typedPath, Modify)
+    }
+  }
+
+}
+
+/**
+ * Wraps a [[PathWatcher]] and collapses the events that it emits for the same path within a
+ * latency window into a single event. Bursts of events, e.g. those caused by a version control
+ * checkout, then only update the cache once per path. The pending events are emitted in the order
+ * in which their paths were first seen, so the events for any given path are never reordered.
+ *
+ * <p>An event that follows a create is reduced to a create, unless it is a delete, and an event
+ * that follows a modify or a delete is reduced to a modify, unless it is also a delete. A directory
+ * that is deleted and then created again is reported as an overflow so that its subtree is
+ * rescanned. Overflow and error events are never downgraded.
+ *
+ * <p>A move is kept as long as no other event is received for its source or its destination. Once
+ * one is, the move is split into a delete of the source and a create of the destination and those
+ * are merged with the other events as usual.
+ *
+ * <p>In addition to the usual observers, which receive the events one at a time, batch observers
+ * receive all of the events that are flushed together in a single list.
+ */
+class CoalescingPathWatcher(private val pathWatcher: PathWatcher[PathWatchers.Event],
+                            latency: Long,
+                            timeUnit: TimeUnit,
+                            private val logger: Logger)
+    extends PathWatcher[PathWatchers.Event] {
+
+  private val observers: Observers[PathWatchers.Event] = new Observers()
+
+  private val batchObservers: Observers[List[PathWatchers.Event]] =
+    new Observers()
+
+  private val pending: LinkedHashMap[Path, Event] = new LinkedHashMap()
+
+  private val moveDestinations: Map[Path, Path] = new HashMap()
+
+  private val flushLock: AnyRef = new AnyRef()
+
+  private val closed: AtomicBoolean = new AtomicBoolean(false)
+
+  pathWatcher.addObserver(new Observer[Event]() {
+    override def onError(t: Throwable): Unit = {
+      observers.onError(t)
+    }
+
+    override def onNext(event: Event): Unit = {
+      add(event)
+    }
+  })
+
+  private val flushTask: PeriodicTask = new PeriodicTask(new Runnable() {
+    override def run(): Unit = {
+      flush()
+    }
+  }, Math.max(1, timeUnit.toMillis(latency)))
+
+  private def add(event: Event): Unit = {
+    val path: Path = event.getTypedPath.getPath
+    pending.synchronized {
+      split(moveDestinations.get(path))
+      if (event.getKind != Modify || !event.getTypedPath.isDirectory) split(path)
+      val previousTypedPath: TypedPath = event.getPreviousTypedPath
+      if (event.getKind == Move && previousTypedPath != null) {
+        val source: Path = previousTypedPath.getPath
+        split(moveDestinations.get(source))
+        split(source)
+        if (pending.containsKey(source) || pending.containsKey(path)) {
+          merge(new Event(previousTypedPath, Delete))
+          merge(new Event(event.getTypedPath, Create))
+        } else {
+          pending.put(path, event)
+          moveDestinations.put(source, path)
+        }
+      } else {
+        merge(event)
+      }
+    }
+  }
+
+  private def merge(event: Event): Unit = {
+    val path: Path = event.getTypedPath.getPath
+    val previous: Event = pending.get(path)
+    pending.put(path, if (previous == null) event else CoalescingPathWatcher.merge(previous, event))
+  }
+
+  /**
+   * Splits the pending move to a destination, if there is one, into a create of the destination
+   * and a delete of the source. This must be called while holding the lock on pending.
+   *
+   * @param destination the destination of the move
+   */
+  private def split(destination: Path): Unit = {
+    val move: Event = if (destination == null) null else pending.get(destination)
+    if (move != null && move.getKind == Move && move.getPreviousTypedPath != null) {
+      moveDestinations.remove(move.getPreviousTypedPath.getPath)
+      pending.put(destination, new Event(move.getTypedPath, Create))
+      merge(new Event(move.getPreviousTypedPath, Delete))
+    }
+  }
+
+  private def flush(): Unit = {
+    flushLock.synchronized {
+      var events: List[Event] = null
+      pending.synchronized {
+        if (pending.isEmpty) return
+        events = new ArrayList(pending.values)
+        pending.clear()
+        moveDestinations.clear()
+      }
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " flushing " + events.size + " coalesced events")
+      batchObservers.onNext(Collections.unmodifiableList(events))
+      val it: Iterator[Event] = events.iterator()
+      while (it.hasNext) {
+        observers.onNext(it.next())
+      }
+    }
+  }
+
+  override def register(path: Path, maxDepth: Int): Either[IOException, Boolean] =
+    pathWatcher.register(path, maxDepth)
+
+  override def unregister(path: Path): Unit = {
+    pathWatcher.unregister(path)
+  }
+
+  override def close(): Unit = {
+    if (closed.compareAndSet(false, true)) {
+      flushTask.close()
+      pathWatcher.close()
+      flush()
+      observers.close()
+      batchObservers.close()
+    }
+  }
+
+  override def addObserver(observer: Observer[_ >: PathWatchers.Event]): Int =
+    observers.addObserver(observer)
+
+  override def removeObserver(handle: Int): Unit = {
+    observers.removeObserver(handle)
+  }
+
+  /**
+   * Add an observer of the batches of coalesced events. Each batch contains at most one event per
+   * path.
+   *
+   * @param observer the observer to add
+   * @return the handle to the observer.
+   */
+  def addBatchObserver(observer: Observer[_ >: List[PathWatchers.Event]]): Int =
+    batchObservers.addObserver(observer)
+
+  /**
+   * Remove a batch observer.
+   *
+   * @param handle the handle that was returned by addBatchObserver
+   */
+  def removeBatchObserver(handle: Int): Unit = {
+    batchObservers.removeObserver(handle)
+  }
+
+}
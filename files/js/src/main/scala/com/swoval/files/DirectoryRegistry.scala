@@ -5,11 +5,10 @@ package com.swoval.files
 import java.util.Map.Entry
 import com.swoval.functional.Filter
 import java.nio.file.Path
-import java.util.Collections
 import java.util.HashMap
 import java.util.Iterator
 import java.util.Map
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReference
 import DirectoryRegistryImpl._
 
 /**
@@ -63,6 +62,14 @@ trait DirectoryRegistry extends Filter[Path] with AutoCloseable {
    */
   def acceptPrefix(path: Path): Boolean
 
+  /**
+   * Returns the paths that are never accepted by this registry, even if they are in the subtree of
+   * a registered directory.
+   *
+   * @return the exclusions.
+   */
+  def exclusions(): Exclusions
+
   override def close(): Unit
 
 }
@@ -79,139 +86,222 @@ object DirectoryRegistries {
 
 object DirectoryRegistryImpl {
 
-  private class RegisteredDirectory(val path: Path, val maxDepth: Int) {
-
-    val compMaxDepth: Int =
-      if (maxDepth == java.lang.Integer.MAX_VALUE) maxDepth else maxDepth + 1
-
-    def accept(path: Path): Boolean =
-      path.startsWith(this.path) &&
-        (path == this.path ||
-          this.path.relativize(path).getNameCount <= compMaxDepth)
+  private val EMPTY: Node =
+    new Node(new HashMap[Path, Node](), null, java.lang.Integer.MIN_VALUE)
 
-    override def toString(): String =
-      "RegisteredDirectory(path = " + path + ", depth = " +
-        maxDepth +
-        ")"
+  /*
+   * The components of a path are its root, if it has one, followed by each of its names.
+   */
+  private def componentCount(path: Path): Int =
+    if (path.getRoot == null) path.getNameCount else path.getNameCount + 1
 
+  private def component(path: Path, index: Int): Path = {
+    val pathRoot: Path = path.getRoot
+    if (pathRoot == null) {
+      path.getName(index)
+    } else {
+      if (index == 0) pathRoot else path.getName(index - 1)
+    }
   }
 
-}
-
-class DirectoryRegistryImpl extends DirectoryRegistry {
+  private def find(root: Node, path: Path, count: Int): Node = {
+    var node: Node = root
+    var i: Int = 0
+    while (i < count && node != null) {
+      node = node.children.get(component(path, i))
+      i += 1
+    }
+    node
+  }
 
-  private val registeredDirectoriesByPath: LockableMap[Path, RegisteredDirectory] =
-    new LockableMap(new ConcurrentHashMap[Path, RegisteredDirectory]())
+  private def add(node: Node, path: Path, index: Int, maxDepth: Int): Node =
+    if (index == componentCount(path)) {
+      new Node(node.children, path, maxDepth)
+    } else {
+      val name: Path = component(path, index)
+      val child: Node = node.children.get(name)
+      val children: Map[Path, Node] = new HashMap[Path, Node](node.children)
+      children.put(name, add(if (child == null) EMPTY else child, path, index + 1, maxDepth))
+      new Node(children, node.path, node.maxDepth)
+    }
 
-  override def addDirectory(path: Path, maxDepth: Int): Boolean =
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        val registeredDirectory: RegisteredDirectory =
-          registeredDirectoriesByPath.get(path)
-        if (registeredDirectory == null || maxDepth > registeredDirectory.maxDepth) {
-          registeredDirectoriesByPath.put(path, new RegisteredDirectory(path, maxDepth))
-          true
+  /*
+   * Returns the node unchanged if the path is not registered in its subtree, null if the node no
+   * longer leads to any registered directory once the path is removed and a copy of the node with
+   * the path removed otherwise.
+   */
+  private def remove(node: Node, path: Path, index: Int): Node =
+    if (index == componentCount(path)) {
+      if (node.path == null) {
+        node
+      } else {
+        if (node.children.isEmpty) null
+        else new Node(node.children, null, java.lang.Integer.MIN_VALUE)
+      }
+    } else {
+      val name: Path = component(path, index)
+      val child: Node = node.children.get(name)
+      val updated: Node =
+        if (child == null) null else remove(child, path, index + 1)
+      if (updated == child) {
+        node
+      } else {
+        val children: Map[Path, Node] = new HashMap[Path, Node](node.children)
+        if (updated == null) {
+          children.remove(name)
         } else {
-          false
+          children.put(name, updated)
         }
-      } finally registeredDirectoriesByPath.unlock()
-    } else {
-      false
+        if (children.isEmpty && node.path == null) null
+        else new Node(children, node.path, node.maxDepth)
+      }
     }
 
-  override def maxDepthFor(path: Path): Int =
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        var maxDepth: Int = java.lang.Integer.MIN_VALUE
-        val it: Iterator[RegisteredDirectory] =
-          registeredDirectoriesByPath.values.iterator()
-        while (it.hasNext) {
-          val dir: RegisteredDirectory = it.next()
-          if (path.startsWith(dir.path)) {
-            val depth: Int =
-              if (dir.path == path) 0
-              else dir.path.relativize(path).getNameCount
-            val possibleMaxDepth: Int = dir.maxDepth - depth
-            if (possibleMaxDepth > maxDepth) {
-              maxDepth = possibleMaxDepth
-            }
-          }
-        }
-        maxDepth
-      } finally registeredDirectoriesByPath.unlock()
-    } else {
-      -1
+  private def addRegistered(node: Node, result: Map[Path, Integer]): Unit = {
+    if (node.path != null) {
+      result.put(node.path, node.maxDepth)
+    }
+    val it: Iterator[Node] = node.children.values.iterator()
+    while (it.hasNext) addRegistered(it.next(), result)
+  }
+
+  /*
+   * A node in the registry tree. The children are never modified after the node is created. If
+   * the path is null, then the node is only an ancestor of registered directories.
+   */
+  private class Node(val children: Map[Path, Node], val path: Path, val maxDepth: Int)
+
+}
+
+/**
+ * A [[DirectoryRegistry]] that stores the registered directories in a tree keyed by path name.
+ * The tree is immutable: [[addDirectory]] and [[removeDirectory]] build
+ * a copy of the nodes on the path to the registered directory and atomically swap in the new root.
+ * This allows [[accept]], [[acceptPrefix]] and [[maxDepthFor]],
+ * which are invoked for every path that is listed or that a watcher reports, to run without
+ * locking in time proportional to the depth of the path rather than the number of registered
+ * directories. Paths that match the [[Exclusions]] are never accepted and can not be
+ * registered.
+ */
+class DirectoryRegistryImpl(private val excluded: Exclusions) extends DirectoryRegistry {
+
+  private val root: AtomicReference[Node] = new AtomicReference(EMPTY)
+
+  def this() = this(Exclusions.NONE)
+
+  override def addDirectory(path: Path, maxDepth: Int): Boolean = {
+    if (excluded.isExcluded(path)) return false
+    while (true) {
+      val current: Node = root.get
+      val node: Node = find(current, path, componentCount(path))
+      if (node != null && node.path != null && maxDepth <= node.maxDepth) {
+        return false
+      } else if (root.compareAndSet(current, add(current, path, 0, maxDepth))) {
+        return true
+      }
     }
+    false
+  }
 
-  override def registered(): Map[Path, Integer] =
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        val result: Map[Path, Integer] = new HashMap[Path, Integer]()
-        val it: Iterator[RegisteredDirectory] =
-          registeredDirectoriesByPath.values.iterator()
-        while (it.hasNext) {
-          val dir: RegisteredDirectory = it.next()
-          result.put(dir.path, dir.maxDepth)
+  override def maxDepthFor(path: Path): Int = {
+    var maxDepth: Int = java.lang.Integer.MIN_VALUE
+    val count: Int = componentCount(path)
+    var node: Node = root.get
+    var registeredRoot: Path = null
+    var i: Int = 0
+    while (node != null) {
+      if (node.path != null) {
+        if (registeredRoot == null) registeredRoot = node.path
+        val possibleMaxDepth: Int = node.maxDepth - (count - i)
+        if (possibleMaxDepth > maxDepth) {
+          maxDepth = possibleMaxDepth
         }
-        result
-      } finally registeredDirectoriesByPath.unlock()
-    } else {
-      Collections.emptyMap()
+      }
+      node = if (i < count) node.children.get(component(path, i)) else null
+      i += 1
     }
+    if (maxDepth != java.lang.Integer.MIN_VALUE && excluded.isExcluded(path, registeredRoot))
+      java.lang.Integer.MIN_VALUE
+    else maxDepth
+  }
+
+  override def registered(): Map[Path, Integer] = {
+    val result: Map[Path, Integer] = new HashMap[Path, Integer]()
+    addRegistered(root.get, result)
+    result
+  }
 
   override def removeDirectory(path: Path): Unit = {
-    if (registeredDirectoriesByPath.lock()) {
-      try registeredDirectoriesByPath.remove(path)
-      finally registeredDirectoriesByPath.unlock()
+    while (true) {
+      val current: Node = root.get
+      val updated: Node = remove(current, path, 0)
+      if (updated == current || root.compareAndSet(current, if (updated == null) EMPTY else updated)) {
+        return
+      }
     }
   }
 
-  private def acceptImpl(path: Path, acceptPrefix: Boolean): Boolean =
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        var result: Boolean = false
-        val it: Iterator[Entry[Path, RegisteredDirectory]] =
-          registeredDirectoriesByPath.iterator()
-        while (!result && it.hasNext) {
-          val entry: Entry[Path, RegisteredDirectory] = it.next()
-          val registeredDirectory: RegisteredDirectory = entry.getValue
-          val watchPath: Path = entry.getKey
-          if (acceptPrefix && watchPath.startsWith(path)) {
-            result = true
-          } else if (path.startsWith(watchPath)) {
-            result = registeredDirectory.accept(path)
-          }
+  /*
+   * Returns the outermost registered directory that contains the path if the path is accepted. If
+   * acceptPrefix is true and the path is the ancestor of a registered directory, the path itself
+   * is returned. Otherwise, returns null.
+   */
+
+  private def acceptedRoot(path: Path, acceptPrefix: Boolean): Path = {
+    val count: Int = componentCount(path)
+    var node: Node = root.get
+    var registeredRoot: Path = null
+    var i: Int = 0
+    while (node != null) {
+      if (node.path != null) {
+        if (registeredRoot == null) registeredRoot = node.path
+        val depth: Int = count - i
+        if (
+          depth == 0 || node.maxDepth == java.lang.Integer.MAX_VALUE ||
+          depth <= node.maxDepth + 1
+        ) {
+          return registeredRoot
         }
-        result
-      } finally registeredDirectoriesByPath.unlock()
-    } else {
-      false
+      }
+      if (i == count) {
+        // Every node in the tree either is or is the ancestor of a registered directory.
+        return if (acceptPrefix) path else null
+      }
+      node = node.children.get(component(path, i))
+      i += 1
     }
+    null
+  }
 
-  override def accept(path: Path): Boolean = acceptImpl(path, false)
+  override def accept(path: Path): Boolean = {
+    val registeredRoot: Path = acceptedRoot(path, false)
+    registeredRoot != null && !excluded.isExcluded(path, registeredRoot)
+  }
 
-  override def acceptPrefix(path: Path): Boolean = acceptImpl(path, true)
+  override def acceptPrefix(path: Path): Boolean = {
+    val registeredRoot: Path = acceptedRoot(path, true)
+    registeredRoot != null && !excluded.isExcluded(path, registeredRoot)
+  }
+
+  override def exclusions(): Exclusions = excluded
 
   override def close(): Unit = {
-    registeredDirectoriesByPath.clear()
+    root.set(EMPTY)
   }
 
-  override def toString(): String =
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        val result: StringBuilder = new StringBuilder()
-        result.append("DirectoryRegistry:\n")
-        val it: Iterator[RegisteredDirectory] =
-          registeredDirectoriesByPath.values.iterator()
-        while (it.hasNext) {
-          result.append("  ")
-          result.append(it.next())
-          result.append('\n')
-        }
-        result.toString
-      } finally registeredDirectoriesByPath.unlock()
-    } else {
-      ""
+  override def toString(): String = {
+    val result: StringBuilder = new StringBuilder()
+    result.append("DirectoryRegistry:\n")
+    val it: Iterator[Entry[Path, Integer]] = registered().entrySet().iterator()
+    while (it.hasNext) {
+      val entry: Entry[Path, Integer] = it.next()
+      result.append("  RegisteredDirectory(path = ")
+      result.append(entry.getKey)
+      result.append(", depth = ")
+      result.append(entry.getValue)
+      result.append(")\n")
     }
+    result.toString
+  }
 
 }
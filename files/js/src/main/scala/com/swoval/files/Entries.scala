@@ -47,11 +47,20 @@ object Entries {
     }
   }
 
-  def resolve[T](path: Path, entry: Entry[T]): Entry[T] = {
+  def resolve[T](path: Path, entry: Entry[T]): Entry[T] =
+    setPath(entry, path.resolve(entry.getTypedPath.getPath))
+
+  /*
+   * Returns an entry with the same kind and value for a different path. A relative path is kept
+   * relative, like the paths of the file entries of a CachedDirectoryImpl.
+   */
+  def setPath[T](entry: Entry[T], path: Path): Entry[T] = {
     val value: Either[IOException, T] = entry.getValue
-    val kind: Int = getKind(entry)
+    val kindPath: TypedPath =
+      TypedPaths.get(entry.getTypedPath.getPath, getKind(entry))
     val typedPath: TypedPath =
-      TypedPaths.get(path.resolve(entry.getTypedPath.getPath), kind)
+      if (path.isAbsolute) TypedPaths.get(path, getKind(entry))
+      else TypedPaths.getDelegate(path, kindPath)
     if (value.isRight) new ValidEntry(typedPath, value.get)
     else new InvalidEntry[T](typedPath, leftProjection(value).getValue)
   }
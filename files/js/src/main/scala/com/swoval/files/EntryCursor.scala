@@ -0,0 +1,72 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+import com.swoval.functional.Either
+import java.io.IOException
+import java.nio.file.Path
+
+/**
+ * A reusable, mutable view of a single entry in a [[CachedDirectory]]. The cursor is moved to
+ * each entry that is visited by an [[EntryVisitor]] so that no objects need to be allocated for
+ * the visited entries.
+ *
+ * @tparam T the cached value type
+ */
+class EntryCursor[T <: AnyRef] {
+
+  private var directory: Path = _
+
+  private var typedPath: TypedPath = _
+
+  private var value: Either[IOException, T] = _
+
+  private var resolved: Path = _
+
+  def set(directory: Path, typedPath: TypedPath, value: Either[IOException, T]): Unit = {
+    this.directory = directory
+    this.typedPath = typedPath
+    this.value = value
+    this.resolved = null
+  }
+
+  /**
+   * Returns the directory that contains the entry.
+   *
+   * @return the parent directory of the entry.
+   */
+  def getDirectory(): Path = directory
+
+  /**
+   * Returns the absolute path of the entry. The cache stores the entries for regular files by name,
+   * so the absolute path is lazily resolved against the parent directory the first time it is
+   * requested.
+   *
+   * @return the path of the entry.
+   */
+  def getPath(): Path = {
+    if (resolved == null) {
+      val path: Path = typedPath.getPath
+      resolved = if (path.isAbsolute) path else directory.resolve(path)
+    }
+    resolved
+  }
+
+  /**
+   * Returns the kind of the entry as a bit set of the flags defined in [[Entries]], e.g. [[Entries.DIRECTORY]] and [[Entries.LINK]].
+   *
+   * @return the kind of the entry.
+   */
+  def getKind(): Int = TypedPaths.getKind(typedPath)
+
+  /**
+   * Returns the cached value of the entry.
+   *
+   * @return the cached value of the entry.
+   */
+  def getValue(): Either[IOException, T] = value
+
+  override def toString(): String =
+    "EntryCursor(" + getPath + ", " + getKind + ", " + value + ")"
+
+}
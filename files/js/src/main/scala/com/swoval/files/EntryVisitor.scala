@@ -0,0 +1,20 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+/**
+ * Visits the entries of a [[CachedDirectory]] in place. See [[CachedDirectory.forEach]].
+ *
+ * @tparam T the cached value type
+ */
+trait EntryVisitor[T <: AnyRef] {
+
+  /**
+   * Visit a cached entry. The cursor is reused for every entry so it must not be retained after
+   * this method returns.
+   *
+   * @param cursor the cursor positioned at the visited entry
+   */
+  def visit(cursor: EntryCursor[T]): Unit
+
+}
@@ -0,0 +1,338 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+import com.swoval.functional.Filter
+import java.io.File
+import java.nio.file.Path
+import java.util.ArrayList
+import java.util.Iterator
+import java.util.List
+import Exclusions._
+
+object Exclusions {
+
+  private val ANY_NAMES: String = "**"
+
+  private val SEPARATOR: Char = File.separatorChar
+
+  val MAX_NAMES: Int = 63
+
+  val NONE: Exclusions = new Exclusions(Array.ofDim[Array[String]](0), null)
+
+  /**
+   * Compiles the glob patterns.
+   *
+   * @param globs the glob patterns. A null value is treated as empty.
+   * @return the compiled exclusions.
+   */
+  def get(globs: java.lang.Iterable[String]): Exclusions = get(globs, false)
+
+  /**
+   * Compiles the glob patterns.
+   *
+   * @param globs the glob patterns. A null value is treated as empty.
+   * @param respectIgnoreFiles toggles whether or not the paths ignored by the .gitignore and
+   *     .ignore files of their parent directories are also excluded.
+   * @return the compiled exclusions.
+   */
+  def get(globs: java.lang.Iterable[String], respectIgnoreFiles: Boolean): Exclusions = {
+    val patterns: List[Array[String]] = new ArrayList[Array[String]]()
+    val it: Iterator[String] =
+      if (globs == null) new ArrayList[String]().iterator() else globs.iterator()
+    while (it.hasNext) {
+      val pattern: Array[String] = compile(it.next())
+      if (pattern.length > 0) patterns.add(pattern)
+    }
+    if (patterns.isEmpty && !respectIgnoreFiles) return NONE
+    val result: Array[Array[String]] = Array.ofDim[Array[String]](patterns.size)
+    var i: Int = 0
+    while (i < result.length) {
+      result(i) = patterns.get(i)
+      i += 1
+    }
+    new Exclusions(result, if (respectIgnoreFiles) new IgnoreFiles() else null)
+  }
+
+  /**
+   * Splits a glob into the names that are matched by [[matches]]. A glob that doesn't start
+   * with '/' is prefixed with '**' so that it may match starting at any name. The platform
+   * separator is also a separator in the glob, so on windows a metacharacter can't be escaped with
+   * a backslash and a bracket expression such as '[*]' must be used instead.
+   *
+   * @param glob the glob to compile
+   * @return the names of the glob. They are empty if the glob has no names.
+   */
+  def compile(glob: String): Array[String] = {
+    val normalized: String = glob.replace(SEPARATOR, '/')
+    val names: List[String] = new ArrayList[String]()
+    val parts: Array[String] = normalized.split("/")
+    var i: Int = 0
+    while (i < parts.length) {
+      if (!parts(i).isEmpty) names.add(parts(i))
+      i += 1
+    }
+    if (names.isEmpty) return Array.ofDim[String](0)
+    if (!normalized.startsWith("/") && names.get(0) != ANY_NAMES) names.add(0, ANY_NAMES)
+    if (names.size > MAX_NAMES) {
+      throw new IllegalArgumentException(
+        "The glob " + glob + " has more than " + MAX_NAMES + " names")
+    }
+    val result: Array[String] = Array.ofDim[String](names.size)
+    i = 0
+    while (i < result.length) {
+      result(i) = names.get(i)
+      i += 1
+    }
+    result
+  }
+
+  def names(path: Path): Array[String] = {
+    val count: Int = path.getNameCount
+    val names: Array[String] = Array.ofDim[String](count)
+    var i: Int = 0
+    while (i < count) {
+      names(i) = path.getName(i).toString
+      i += 1
+    }
+    names
+  }
+
+  /**
+   * Returns the index of the first character of the first name in the string of a path. The names
+   * of the path are the separated names that follow that index, so the root of the path is skipped.
+   *
+   * @param path the path
+   * @param string the string of the path
+   * @return the index of the first name or the length of the string if the path has no names.
+   */
+  def namesStart(path: Path, string: String): Int = {
+    var count: Int = path.getNameCount
+    var result: Int = string.length
+    while (count > 0) {
+      result = string.lastIndexOf(SEPARATOR, result - 1) + 1
+      count -= 1
+      if (count > 0) result -= 1
+    }
+    result
+  }
+
+  /**
+   * Returns the index that follows the last character of the name that starts at an index.
+   *
+   * @param string the string of a path
+   * @param start the index of the first character of a name
+   * @return the index of the separator after the name or the length of the string.
+   */
+  def nameEnd(string: String, start: Int): Int = {
+    val end: Int = string.indexOf(SEPARATOR, start)
+    if (end == -1) string.length else end
+  }
+
+  /*
+   * Simulates the pattern as a non-deterministic automaton whose states are indices into the
+   * pattern. The states are the bits of a long, which is why a pattern may have at most MAX_NAMES
+   * names. The names are the separated names of the string between the from and to indices. If
+   * prefix is true, returns true as soon as the names from the start up to some name match the
+   * whole pattern. Otherwise all of the names must match the pattern.
+   */
+  def matches(pattern: Array[String],
+              string: String,
+              from: Int,
+              to: Int,
+              prefix: Boolean): Boolean = {
+    val accept: Long = 1L << pattern.length
+    var states: Long = close(pattern, 1L)
+    if ((states & accept) != 0 && (prefix || from >= to)) return true
+    var start: Int = from
+    while (start < to) {
+      val end: Int = Math.min(nameEnd(string, start), to)
+      var next: Long = 0L
+      var i: Int = 0
+      while (i < pattern.length) {
+        if ((states & (1L << i)) != 0) {
+          if (pattern(i) == ANY_NAMES) {
+            next |= 1L << i
+          } else if (matchesName(pattern(i), string, start, end)) {
+            next |= 1L << (i + 1)
+          }
+        }
+        i += 1
+      }
+      if (next == 0L) return false
+      states = close(pattern, next)
+      if ((states & accept) != 0 && (prefix || end == to)) return true
+      start = end + 1
+    }
+    false
+  }
+
+  /*
+   * Adds the states reachable by matching '**' with no names.
+   */
+  private def close(pattern: Array[String], states: Long): Long = {
+    var result: Long = states
+    var i: Int = 0
+    while (i < pattern.length) {
+      if ((result & (1L << i)) != 0 && pattern(i) == ANY_NAMES) result |= 1L << (i + 1)
+      i += 1
+    }
+    result
+  }
+
+  private def matchesName(glob: String, string: String, start: Int, end: Int): Boolean = {
+    var g: Int = 0
+    var n: Int = start
+    var star: Int = -1
+    var mark: Int = start
+    while (n < end) {
+      val next: Int = if (g < glob.length) matchesChar(glob, g, string.charAt(n)) else -1
+      if (next != -1) {
+        g = next
+        n += 1
+      } else if (g < glob.length && glob.charAt(g) == '*') {
+        star = g
+        mark = n
+        g += 1
+      } else if (star != -1) {
+        g = star + 1
+        mark += 1
+        n = mark
+      } else {
+        return false
+      }
+    }
+    while (g < glob.length && glob.charAt(g) == '*') g += 1
+    g == glob.length
+  }
+
+  /*
+   * Returns the index in the glob following the token at index g if that token matches the
+   * character and -1 otherwise. The tokens are '?', a bracket expression such as '[a-z]' or '[!.]'
+   * or a literal character, which may be escaped with a backslash. A '*' never matches here.
+   */
+  private def matchesChar(glob: String, g: Int, c: Char): Int = {
+    val token: Char = glob.charAt(g)
+    if (token == '*') {
+      -1
+    } else if (token == '?') {
+      g + 1
+    } else if (token == '\\' && g + 1 < glob.length) {
+      if (glob.charAt(g + 1) == c) g + 2 else -1
+    } else if (token == '[') {
+      var i: Int = g + 1
+      val negated: Boolean = i < glob.length && (glob.charAt(i) == '!' || glob.charAt(i) == '^')
+      if (negated) i += 1
+      var matched: Boolean = false
+      var first: Boolean = true
+      while (i < glob.length && (first || glob.charAt(i) != ']')) {
+        val low: Char = glob.charAt(i)
+        if (i + 2 < glob.length && glob.charAt(i + 1) == '-' && glob.charAt(i + 2) != ']') {
+          if (low <= c && c <= glob.charAt(i + 2)) matched = true
+          i += 3
+        } else {
+          if (low == c) matched = true
+          i += 1
+        }
+        first = false
+      }
+      if (i == glob.length) {
+        // There is no closing bracket so the '[' is a literal.
+        return if (c == '[') g + 1 else -1
+      }
+      if (matched != negated) i + 1 else -1
+    } else {
+      if (token == c) g + 1 else -1
+    }
+  }
+
+}
+
+/**
+ * A set of glob patterns for paths that should never be listed, watched or cached. Patterns are
+ * matched one path name at a time using '/' as the separator: '*' matches any sequence of
+ * characters within a name, '?' matches any single character within a name and a name that is
+ * exactly '**' matches zero or more names. A pattern that starts with '/' is matched from the root
+ * of the path. Any other pattern may match starting at any name, so 'target' excludes every
+ * directory named target, like '/**&#47;target' would. Names may also contain bracket expressions,
+ * e.g. '*.py[cod]', and a metacharacter may be escaped with a backslash. A path is excluded if it,
+ * or any of its parents, matches a pattern, so excluding a directory excludes its entire subtree.
+ * The exclusions may optionally honor the ignore files in the parent directories of a path (see
+ * [[IgnoreFiles]]). A pattern may have at most 63 names.
+ *
+ * <p>The patterns are matched against the string of a path in place, name by name, so checking a
+ * path allocates nothing. This matters because the exclusions are checked for every path that the
+ * [[DirectoryRegistry]] accepts.
+ */
+class Exclusions private (private val patterns: Array[Array[String]],
+                          private val ignoreFiles: IgnoreFiles) {
+
+  def isEmpty(): Boolean = patterns.length == 0 && ignoreFiles == null
+
+  /**
+   * Returns true if the path, or any of its parents, matches one of the patterns or is ignored by
+   * an ignore file.
+   *
+   * @param path the path to check
+   * @return true if the path is excluded.
+   */
+  def isExcluded(path: Path): Boolean = isExcluded(path, null)
+
+  /**
+   * Returns true if the path, or any of its parents, matches one of the patterns or is ignored by
+   * an ignore file. Unless the registered directory is inside of a repository, the ignore files
+   * above the registered directory are not consulted.
+   *
+   * @param path the path to check
+   * @param root the registered directory that contains the path, or null if it is unknown
+   * @return true if the path is excluded.
+   */
+  def isExcluded(path: Path, root: Path): Boolean = {
+    if (patterns.length > 0) {
+      val string: String = path.toString
+      val start: Int = namesStart(path, string)
+      var i: Int = 0
+      while (i < patterns.length) {
+        if (matches(patterns(i), string, start, string.length, true)) return true
+        i += 1
+      }
+    }
+    ignoreFiles != null && ignoreFiles.isIgnored(path, root)
+  }
+
+  /**
+   * Discards the cached rules for the directory of an ignore file. This should be called whenever
+   * the ignore file is created, modified or deleted.
+   *
+   * @param path the path of a file that may be an ignore file
+   * @return true if the path is an ignore file that these exclusions honor. In that case, the
+   *     excluded paths in the directory of the ignore file may have changed.
+   */
+  def invalidate(path: Path): Boolean =
+    ignoreFiles != null && ignoreFiles.invalidate(path)
+
+  def toTypedPathFilter(): Filter[TypedPath] = new Filter[TypedPath]() {
+    override def accept(typedPath: TypedPath): Boolean =
+      !isExcluded(typedPath.getPath)
+  }
+
+  override def toString(): String = {
+    val result: StringBuilder = new StringBuilder()
+    result.append("Exclusions(")
+    var i: Int = 0
+    while (i < patterns.length) {
+      if (i > 0) result.append(", ")
+      val pattern: Array[String] = patterns(i)
+      var j: Int = 0
+      while (j < pattern.length) {
+        result.append('/')
+        result.append(pattern(j))
+        j += 1
+      }
+      i += 1
+    }
+    result.append(')')
+    result.toString
+  }
+
+}
@@ -17,6 +17,22 @@ private[files] abstract class Executor extends AutoCloseable {
   }
   def run(runnable: Runnable): Unit = run(runnable, -1)
 
+  /**
+   * Runs the task on the thread assigned to a partition. There is only one partition in scala.js.
+   *
+   * @param runnable task to run
+   * @param priority the priority of the task
+   * @param partition unused but exists for jvm source compatibility
+   */
+  def run(runnable: Runnable, priority: Int, partition: Int): Unit = run(runnable, priority)
+
+  /**
+   * Returns the number of threads that run tasks concurrently.
+   *
+   * @return 1 since scala.js is single threaded.
+   */
+  def parallelism(): Int = 1
+
   /**
    * Is this executor available to invoke callbacks?
    *
@@ -39,4 +55,13 @@ object Executor {
     new Executor {
       override def run(runnable: Runnable): Unit = runnable.run()
     }
+
+  /**
+   * Make a new instance of an Executor
+   *
+   * @param name Unused but exists for jvm source compatibility
+   * @param parallelism Unused but exists for jvm source compatibility
+   * @return
+   */
+  def make(name: String, parallelism: Int): Executor = make(name)
 }
@@ -6,14 +6,18 @@ import com.swoval.files.PathWatchers.Event.Kind.Create
 import com.swoval.files.PathWatchers.Event.Kind.Delete
 import com.swoval.files.PathWatchers.Event.Kind.Error
 import com.swoval.files.PathWatchers.Event.Kind.Modify
+import com.swoval.files.PathWatchers.Event.Kind.Move
 import com.swoval.files.PathWatchers.Event.Kind.Overflow
 import com.swoval.functional.Filters.AllPass
+import com.swoval.files.FileTreeDataViews.BatchCacheObserver
 import com.swoval.files.FileTreeDataViews.CacheObserver
+import com.swoval.files.FileTreeDataViews.ChangeSet
 import com.swoval.files.FileTreeDataViews.Converter
 import com.swoval.files.FileTreeDataViews.Entry
 import com.swoval.files.FileTreeDataViews.ObservableCache
 import com.swoval.files.FileTreeRepositoryImpl.Callback
 import com.swoval.files.FileTreeViews.Observer
+import com.swoval.files.FileTreeViews.Updates
 import com.swoval.files.PathWatchers.Event
 import com.swoval.files.PathWatchers.Event.Kind
 import com.swoval.functional.Filter
@@ -38,9 +42,157 @@ import java.util.Map
 import java.util.Set
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.locks.ReentrantLock
+import FileCacheDirectories._
+import FileCacheDirectoryTree._
 
+object FileCacheDirectories {
+
+  private class Node[T <: AnyRef] {
+
+    val children: Map[Path, Node[T]] = new HashMap()
+
+    var directory: CachedDirectory[T] = _
+
+  }
+
+  private def getNode[T <: AnyRef](node: Node[T], name: Path, create: Boolean): Node[T] = {
+    var result: Node[T] = node.children.get(name)
+    if (result == null && create) {
+      result = new Node[T]()
+      node.children.put(name, result)
+    }
+    result
+  }
+
+  private def addDescendants[T <: AnyRef](
+      node: Node[T],
+      result: List[CachedDirectory[T]]
+  ): Unit = {
+    val it: Iterator[Node[T]] = node.children.values.iterator()
+    while (it.hasNext) {
+      val child: Node[T] = it.next()
+      if (child.directory != null) result.add(child.directory)
+      addDescendants(child, result)
+    }
+  }
+
+}
+
+/**
+ * Stores the cached root directories of a [[FileCacheDirectoryTree]]. In addition to the map of
+ * root directories, the roots are indexed in a tree keyed by path name so that the roots that
+ * contain a path, or that are contained by a path, can be found in time proportional to the depth
+ * of the path rather than the number of roots.
+ *
+ * @tparam T the cache value type
+ */
 class FileCacheDirectories[T <: AnyRef](lock: ReentrantLock)
-    extends LockableMap[Path, CachedDirectory[T]](new HashMap[Path, CachedDirectory[T]](), lock)
+    extends LockableMap[Path, CachedDirectory[T]](new HashMap[Path, CachedDirectory[T]](), lock) {
+
+  private val root: Node[T] = new Node[T]()
+
+  override def put(path: Path, directory: CachedDirectory[T]): CachedDirectory[T] =
+    if (lock()) {
+      try {
+        val previous: CachedDirectory[T] = super.put(path, directory)
+        if (path.getRoot != null) {
+          var node: Node[T] = getNode(root, path.getRoot, true)
+          val nameCount: Int = path.getNameCount
+          var i: Int = 0
+          while (i < nameCount) {
+            node = getNode(node, path.getName(i), true)
+            i += 1
+          }
+          node.directory = directory
+        }
+        previous
+      } finally unlock()
+    } else {
+      null
+    }
+
+  override def remove(path: Path): CachedDirectory[T] =
+    if (lock()) {
+      try {
+        val previous: CachedDirectory[T] = super.remove(path)
+        if (previous != null && path.getRoot != null) remove(root, path, 0)
+        previous
+      } finally unlock()
+    } else {
+      null
+    }
+
+  override def clear(): Unit = {
+    if (lock()) {
+      try {
+        super.clear()
+        root.children.clear()
+      } finally unlock()
+    }
+  }
+
+  /**
+   * Returns the directories whose paths are equal to or a prefix of the path, ordered from the
+   * least to the most specific. The caller must hold the lock.
+   *
+   * @param path the path whose ancestors are returned
+   * @return the list of ancestor directories.
+   */
+  def ancestors(path: Path): List[CachedDirectory[T]] = {
+    val result: List[CachedDirectory[T]] = new ArrayList[CachedDirectory[T]]()
+    if (path.getRoot != null) {
+      var node: Node[T] = getNode(root, path.getRoot, false)
+      val nameCount: Int = path.getNameCount
+      var i: Int = 0
+      while (node != null) {
+        if (node.directory != null) result.add(node.directory)
+        node = if (i < nameCount) getNode(node, path.getName(i), false) else null
+        i += 1
+      }
+    }
+    result
+  }
+
+  /**
+   * Returns the directories whose paths have the path as a prefix, excluding the directory for the
+   * path itself. The caller must hold the lock.
+   *
+   * @param path the path whose descendants are returned
+   * @return the list of descendant directories.
+   */
+  def descendants(path: Path): List[CachedDirectory[T]] = {
+    val result: List[CachedDirectory[T]] = new ArrayList[CachedDirectory[T]]()
+    if (path.getRoot != null) {
+      var node: Node[T] = getNode(root, path.getRoot, false)
+      val nameCount: Int = path.getNameCount
+      var i: Int = 0
+      while (i < nameCount && node != null) {
+        node = getNode(node, path.getName(i), false)
+        i += 1
+      }
+      if (node != null) addDescendants(node, result)
+    }
+    result
+  }
+
+  /*
+   * Removes the directory for the path from the subtree of the node and prunes the nodes that no
+   * longer lead to any directory. The node corresponds to the first depth components of the path,
+   * where the first component is the root of the path. Returns true if the node can be pruned.
+   */
+  private def remove(node: Node[T], path: Path, depth: Int): Boolean = {
+    if (depth == path.getNameCount + 1) {
+      node.directory = null
+    } else {
+      val name: Path = if (depth == 0) path.getRoot else path.getName(depth - 1)
+      val child: Node[T] = node.children.get(name)
+      if (child != null && remove(child, path, depth + 1))
+        node.children.remove(name)
+    }
+    node.directory == null && node.children.isEmpty
+  }
+
+}
 
 class FileCachePendingFiles(reentrantLock: ReentrantLock) extends Lockable(reentrantLock) {
 
@@ -79,23 +231,42 @@ class FileCachePendingFiles(reentrantLock: ReentrantLock) extends Lockable(reent
 
 }
 
+object FileCacheDirectoryTree {
+
+  private val PATH_ORDER: Comparator[Event] = new Comparator[Event]() {
+    override def compare(left: Event, right: Event): Int =
+      left.getTypedPath.getPath.compareTo(right.getTypedPath.getPath)
+  }
+
+  private def addSorted(events: List[Event], sorted: List[Event]): Unit = {
+    val run: List[Event] = new ArrayList[Event](events)
+    // The sort is stable so the events for each path stay in order.
+    Collections.sort(run, PATH_ORDER)
+    sorted.addAll(run)
+  }
+
+}
+
 class FileCacheDirectoryTree[T <: AnyRef](
     private val converter: Converter[T],
     private val callbackExecutor: Executor,
     val symlinkWatcher: SymlinkWatcher,
     private val rescanOnDirectoryUpdate: Boolean,
+    exclusions: Exclusions,
     private val logger: Logger
 ) extends ObservableCache[T]
     with FileTreeDataView[T] {
 
   private val directoryRegistry: DirectoryRegistry =
-    new DirectoryRegistryImpl()
+    new DirectoryRegistryImpl(exclusions)
 
   private val filter: Filter[TypedPath] =
     DirectoryRegistries.toTypedPathFilter(directoryRegistry)
 
   private val observers: CacheObservers[T] = new CacheObservers()
 
+  private val batchObservers: Observers[ChangeSet[T]] = new Observers()
+
   private val followLinks: Boolean = symlinkWatcher != null
 
   private val closed: AtomicBoolean = new AtomicBoolean(false)
@@ -116,6 +287,22 @@ class FileCacheDirectoryTree[T <: AnyRef](
 
   val reentrantLock: ReentrantLock = new ReentrantLock()
 
+  def this(
+      converter: Converter[T],
+      callbackExecutor: Executor,
+      symlinkWatcher: SymlinkWatcher,
+      rescanOnDirectoryUpdate: Boolean,
+      logger: Logger
+  ) =
+    this(
+      converter,
+      callbackExecutor,
+      symlinkWatcher,
+      rescanOnDirectoryUpdate,
+      Exclusions.NONE,
+      logger
+    )
+
   def this(
       converter: Converter[T],
       callbackExecutor: Executor,
@@ -146,6 +333,8 @@ class FileCacheDirectoryTree[T <: AnyRef](
         directoryRegistry.acceptPrefix(path)
 
       override def accept(path: Path): Boolean = directoryRegistry.accept(path)
+
+      override def exclusions(): Exclusions = directoryRegistry.exclusions()
     }
 
   def readOnlyDirectoryRegistry(): DirectoryRegistry =
@@ -175,134 +364,130 @@ class FileCacheDirectoryTree[T <: AnyRef](
 
   private def find(path: Path): CachedDirectory[T] = {
     var foundDir: CachedDirectory[T] = null
-    val dirs: List[CachedDirectory[T]] = directories.values
-    Collections.sort(
-      dirs,
-      new Comparator[CachedDirectory[T]]() {
-        override def compare(
-            left: CachedDirectory[T],
-            right: CachedDirectory[T]
-        ): Int = // Descending order so that we find the most specific path
-          right.getPath.compareTo(left.getPath)
-      }
-    )
-    val it: Iterator[CachedDirectory[T]] = dirs.iterator()
-    while (it.hasNext && foundDir == null) {
-      val dir: CachedDirectory[T] = it.next()
-      if (path.startsWith(dir.getPath)) {
-        if (dir.getMaxDepth == java.lang.Integer.MAX_VALUE || path == dir.getPath) {
+    // The ancestors are ordered from least to most specific and we want the most specific.
+    val dirs: List[CachedDirectory[T]] = directories.ancestors(path)
+    var i: Int = dirs.size - 1
+    while (i >= 0 && foundDir == null) {
+      val dir: CachedDirectory[T] = dirs.get(i)
+      if (dir.getMaxDepth == java.lang.Integer.MAX_VALUE || path == dir.getPath) {
+        foundDir = dir
+      } else {
+        val depth: Int = path.getNameCount - dir.getPath.getNameCount - 1
+        if (depth <= dir.getMaxDepth) {
           foundDir = dir
-        } else {
-          val depth: Int = dir.getPath.relativize(path).getNameCount - 1
-          if (depth <= dir.getMaxDepth) {
-            foundDir = dir
-          }
         }
       }
+      i -= 1
     }
     foundDir
   }
 
-  private def runCallbacks(callbacks: List[Callback]): Unit = {
+  private def runCallbacks(callbacks: List[EntryCallback]): Unit = {
     if (!callbacks.isEmpty && !closed.get) {
-      callbackExecutor.run(new Runnable() {
-        override def run(): Unit = {
-          Collections.sort(callbacks)
-          val it: Iterator[Callback] = callbacks.iterator()
-          while (it.hasNext) {
-            val callback: Callback = it.next()
-            if (Loggers.shouldLog(logger, Level.DEBUG))
-              logger.debug(this + " running callback " + callback)
-            try callback.run()
-            catch {
-              case e: Exception => {}
-
-            }
+      val parallelism: Int = callbackExecutor.parallelism()
+      if (parallelism == 1) {
+        callbackExecutor.run(callbackRunnable(callbacks))
+      } else {
+        /*
+         * Partition the callbacks by path so that the callbacks for any given path always run on the
+         * same thread and, therefore, in order. Slow observers of one path then no longer delay the
+         * callbacks for the paths in the other partitions.
+         */
+        val partitions: List[List[EntryCallback]] =
+          new ArrayList[List[EntryCallback]](parallelism)
+        var i: Int = 0
+        while (i < parallelism) {
+          partitions.add(new ArrayList[EntryCallback]())
+          i += 1
+        }
+        val it: Iterator[EntryCallback] = callbacks.iterator()
+        while (it.hasNext) {
+          val callback: EntryCallback = it.next()
+          val hash: Int = callback.getPath.hashCode & java.lang.Integer.MAX_VALUE
+          partitions.get(hash % parallelism).add(callback)
+        }
+        var j: Int = 0
+        while (j < parallelism) {
+          val partition: List[EntryCallback] = partitions.get(j)
+          if (!partition.isEmpty) {
+            callbackExecutor.run(callbackRunnable(partition), java.lang.Integer.MAX_VALUE, j)
           }
+          j += 1
         }
-      })
+      }
     }
   }
 
-  def handleEvent(event: Event): Unit = {
-    if (Loggers.shouldLog(logger, Level.DEBUG))
-      logger.debug(this + " received event " + event)
-    val typedPath: TypedPath = event.getTypedPath
-    val symlinks: List[TypedPath] = new ArrayList[TypedPath]()
-    val callbacks: List[Callback] = new ArrayList[Callback]()
-    if (!closed.get && directories.lock()) {
-      try {
-        val path: Path = typedPath.getPath
-        if (typedPath.exists()) {
-          val dir: CachedDirectory[T] = find(typedPath.getPath)
-          if (dir != null) {
-            try {
-              val updatePath: TypedPath =
-                if ((followLinks || !typedPath.isSymbolicLink)) typedPath
-                else TypedPaths.get(typedPath.getPath, Entries.LINK)
-              val rescan: Boolean = rescanOnDirectoryUpdate || event.getKind == Overflow
-              if (Loggers.shouldLog(logger, Level.DEBUG))
-                logger.debug(this + " updating " + updatePath.getPath + " in " + dir.getTypedPath)
-              dir
-                .update(updatePath, rescan)
-                .observe(callbackObserver(callbacks, symlinks))
-            } catch {
-              case e: IOException => handleDelete(path, callbacks, symlinks)
+  private def callbackRunnable(callbacks: List[EntryCallback]): Runnable =
+    new Runnable() {
+      override def run(): Unit = {
+        Collections.sort(callbacks)
+        val changes: Updates[T] = new Updates[T]()
+        val it: Iterator[EntryCallback] = callbacks.iterator()
+        while (it.hasNext) {
+          val callback: EntryCallback = it.next()
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " running callback " + callback)
+          try callback.run()
+          catch {
+            case e: Exception => {}
 
-            }
-          } else if (pendingFiles.contains(path)) {
-            if (Loggers.shouldLog(logger, Level.DEBUG))
-              logger.debug(this + " found pending file for " + path)
-            try {
-              var cachedDirectory: CachedDirectory[T] = null
-              try {
-                cachedDirectory = newCachedDirectory(path, directoryRegistry.maxDepthFor(path))
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(this + " successfully initialiazed directory for " + path)
-              } catch {
-                case nde: NotDirectoryException => {
-                  if (Loggers.shouldLog(logger, Level.DEBUG))
-                    logger.debug(this + " unable to initialize directory for " + path)
-                  cachedDirectory = newCachedDirectory(path, -1)
-                }
-
-              }
-              val previous: CachedDirectory[T] =
-                directories.put(path, cachedDirectory)
-              if (previous != null) previous.close()
-              addCallback(
-                callbacks,
-                symlinks,
-                cachedDirectory.getEntry,
-                null,
-                cachedDirectory.getEntry,
-                Create,
-                null
-              )
-              val it: Iterator[FileTreeDataViews.Entry[T]] = cachedDirectory
-                .listEntries(cachedDirectory.getMaxDepth, AllPass)
-                .iterator()
-              while (it.hasNext) {
-                val entry: FileTreeDataViews.Entry[T] = it.next()
-                addCallback(callbacks, symlinks, entry, null, entry, Create, null)
-              }
-            } catch {
-              case e: IOException => {
-                System.err.println(
-                  "Caught unexpected io exception handling event for " +
-                    path
-                )
-                e.printStackTrace(System.err)
-                pendingFiles.add(path)
-              }
+          }
+          if (callback.ioException != null) {
+            batchObservers.onError(callback.ioException)
+          } else {
+            callback.deliver(changes)
+          }
+        }
+        if (!changes.isEmpty) {
+          try batchObservers.onNext(changes)
+          catch {
+            case e: Exception => {}
 
-            }
           }
-        } else {
-          if (Loggers.shouldLog(logger, Level.DEBUG))
-            logger.debug(this + " deleting directory for " + path)
-          handleDelete(path, callbacks, symlinks)
         }
+      }
+    }
+
+  def handleEvent(event: Event): Unit = {
+    handleEvents(Collections.singletonList(event))
+  }
+
+  /**
+   * Applies a batch of events to the cache. The directories are locked once for the whole batch and
+   * the callbacks for all of the events are run as a single task by the callback executor. The
+   * events are applied in path order, so that a directory is updated before its children and the
+   * events for sibling paths are applied consecutively, but the events for any given path keep
+   * their relative order. A move changes two paths, so it isn't reordered: the events before it
+   * and the events after it are sorted separately.
+   *
+   * @param events the events to apply
+   */
+  def handleEvents(events: List[Event]): Unit = {
+    var sorted: List[Event] = null
+    if (events.size > 1) {
+      sorted = new ArrayList[Event](events.size)
+      var start: Int = 0
+      var i: Int = 0
+      while (i < events.size) {
+        val event: Event = events.get(i)
+        if (event.getKind == Move && event.getPreviousTypedPath != null) {
+          addSorted(events.subList(start, i), sorted)
+          sorted.add(event)
+          start = i + 1
+        }
+        i += 1
+      }
+      addSorted(events.subList(start, events.size), sorted)
+    } else {
+      sorted = events
+    }
+    val symlinks: List[TypedPath] = new ArrayList[TypedPath]()
+    val callbacks: List[EntryCallback] = new ArrayList[EntryCallback]()
+    if (!closed.get && directories.lock()) {
+      try {
+        val eventIterator: Iterator[Event] = sorted.iterator()
+        while (eventIterator.hasNext) applyEvent(eventIterator.next(), callbacks, symlinks)
       } finally directories.unlock()
       val it: Iterator[TypedPath] = symlinks.iterator()
       while (it.hasNext) {
@@ -324,34 +509,186 @@ class FileCacheDirectoryTree[T <: AnyRef](
     }
   }
 
+  private def applyEvent(event: Event,
+                         callbacks: List[EntryCallback],
+                         symlinks: List[TypedPath]): Unit = {
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " received event " + event)
+    val typedPath: TypedPath = event.getTypedPath
+    val path: Path = typedPath.getPath
+    val previousTypedPath: TypedPath = event.getPreviousTypedPath
+    if (event.getKind == Move && previousTypedPath != null) {
+      val source: Path = previousTypedPath.getPath
+      val moved: Boolean = applyMove(source, typedPath, callbacks, symlinks)
+      if (!moved) handleDelete(source, callbacks, symlinks)
+      if (directoryRegistry.exclusions().invalidate(source)) {
+        rescanIgnoreFileDirectory(source.getParent, callbacks, symlinks)
+      }
+      /*
+       * The source may already have been recreated, e.g. by an editor that renames a file to a
+       * backup and then writes a new one. The event for the new file may only come in a later
+       * batch, or not at all if the watch service dropped it, so the source is added right away.
+       */
+      val recreated: TypedPath = TypedPaths.get(source)
+      if (recreated.exists()) applyEvent(new Event(recreated, Create), callbacks, symlinks)
+      if (moved) {
+        if (directoryRegistry.exclusions().invalidate(path)) {
+          rescanIgnoreFileDirectory(path.getParent, callbacks, symlinks)
+        }
+        return
+      }
+    }
+    if (typedPath.exists()) {
+      val dir: CachedDirectory[T] = find(typedPath.getPath)
+      if (dir != null) {
+        try {
+          val updatePath: TypedPath =
+            if ((followLinks || !typedPath.isSymbolicLink)) typedPath
+            else TypedPaths.get(typedPath.getPath, Entries.LINK)
+          val rescan: Boolean = rescanOnDirectoryUpdate || event.getKind == Overflow
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " updating " + updatePath.getPath + " in " + dir.getTypedPath)
+          dir
+            .update(updatePath, rescan)
+            .observe(callbackObserver(callbacks, symlinks))
+        } catch {
+          case e: IOException => handleDelete(path, callbacks, symlinks)
+
+        }
+      } else if (pendingFiles.contains(path)) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " found pending file for " + path)
+        try {
+          var cachedDirectory: CachedDirectory[T] = null
+          try {
+            cachedDirectory = newCachedDirectory(path, directoryRegistry.maxDepthFor(path))
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " successfully initialiazed directory for " + path)
+          } catch {
+            case nde: NotDirectoryException => {
+              if (Loggers.shouldLog(logger, Level.DEBUG))
+                logger.debug(this + " unable to initialize directory for " + path)
+              cachedDirectory = newCachedDirectory(path, -1)
+            }
+
+          }
+          val previous: CachedDirectory[T] =
+            directories.put(path, cachedDirectory)
+          if (previous != null) previous.close()
+          addCallback(
+            callbacks,
+            symlinks,
+            cachedDirectory.getEntry,
+            null,
+            cachedDirectory.getEntry,
+            Create,
+            null
+          )
+          val it: Iterator[FileTreeDataViews.Entry[T]] = cachedDirectory
+            .listEntries(cachedDirectory.getMaxDepth, AllPass)
+            .iterator()
+          while (it.hasNext) {
+            val entry: FileTreeDataViews.Entry[T] = it.next()
+            addCallback(callbacks, symlinks, entry, null, entry, Create, null)
+          }
+        } catch {
+          case e: IOException => {
+            System.err.println(
+              "Caught unexpected io exception handling event for " +
+                path
+            )
+            e.printStackTrace(System.err)
+            pendingFiles.add(path)
+          }
+
+        }
+      }
+    } else {
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " deleting directory for " + path)
+      handleDelete(path, callbacks, symlinks)
+    }
+    if (directoryRegistry.exclusions().invalidate(path)) {
+      rescanIgnoreFileDirectory(path.getParent, callbacks, symlinks)
+    }
+  }
+
+  /*
+   * Re-parents the cached entries for a move within a single cached directory so that the moved
+   * subtree is neither listed nor converted again. Returns false, without changing the cache, if
+   * the move involves a registered path or if the directory can't apply it, in which case the
+   * caller handles the move as a delete followed by a create.
+   */
+  private def applyMove(source: Path,
+                        typedPath: TypedPath,
+                        callbacks: List[EntryCallback],
+                        symlinks: List[TypedPath]): Boolean = {
+    val path: Path = typedPath.getPath
+    val sourceDirectories: List[CachedDirectory[T]] = directories.ancestors(source)
+    val pathDirectories: List[CachedDirectory[T]] = directories.ancestors(path)
+    if (sourceDirectories.size != 1 || sourceDirectories != pathDirectories ||
+        find(path) != sourceDirectories.get(0)) {
+      return false
+    }
+    val it: Iterator[Path] = directoryRegistry.registered().keySet.iterator()
+    while (it.hasNext) {
+      val registered: Path = it.next()
+      if (registered.startsWith(source) || registered.startsWith(path)) return false
+    }
+    val updates: Updates[T] = sourceDirectories.get(0).move(source, typedPath)
+    if (updates == null) return false
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " moved " + source + " to " + path)
+    updates.observe(callbackObserver(callbacks, symlinks))
+    true
+  }
+
+  /*
+   * The paths that are excluded in a directory may change when one of its ignore files changes.
+   * Rescanning the directory removes the paths that are now ignored and adds the paths that are no
+   * longer ignored.
+   */
+  private def rescanIgnoreFileDirectory(
+      path: Path,
+      callbacks: List[EntryCallback],
+      symlinks: List[TypedPath]
+  ): Unit = {
+    val dir: CachedDirectory[T] = find(path)
+    if (dir != null) {
+      try dir.update(TypedPaths.get(path), true).observe(callbackObserver(callbacks, symlinks))
+      catch {
+        case e: IOException => {}
+
+      }
+    }
+  }
+
   private def handleDelete(
       path: Path,
-      callbacks: List[Callback],
+      callbacks: List[EntryCallback],
       symlinks: List[TypedPath]
   ): Unit = {
     val removeIterators: List[Iterator[FileTreeDataViews.Entry[T]]] =
       new ArrayList[Iterator[FileTreeDataViews.Entry[T]]]()
     val directoryIterator: Iterator[CachedDirectory[T]] =
-      new ArrayList(directories.values).iterator()
+      directories.ancestors(path).iterator()
     while (directoryIterator.hasNext) {
       val dir: CachedDirectory[T] = directoryIterator.next()
-      if (path.startsWith(dir.getPath)) {
-        val updates: List[FileTreeDataViews.Entry[T]] =
-          if (path == dir.getPath)
-            dir.listEntries(java.lang.Integer.MAX_VALUE, AllPass)
-          else new ArrayList[FileTreeDataViews.Entry[T]]()
-        updates.addAll(dir.remove(path))
-        val it: Iterator[Path] =
-          directoryRegistry.registered().keySet.iterator()
-        while (it.hasNext) if (it.next() == path) {
-          pendingFiles.add(path)
-        }
-        if (dir.getPath == path) {
-          directories.remove(path)
-          updates.add(dir.getEntry)
-        }
-        removeIterators.add(updates.iterator())
+      val updates: List[FileTreeDataViews.Entry[T]] =
+        if (path == dir.getPath)
+          dir.listEntries(java.lang.Integer.MAX_VALUE, AllPass)
+        else new ArrayList[FileTreeDataViews.Entry[T]]()
+      updates.addAll(dir.remove(path))
+      val it: Iterator[Path] =
+        directoryRegistry.registered().keySet.iterator()
+      while (it.hasNext) if (it.next() == path) {
+        pendingFiles.add(path)
+      }
+      if (dir.getPath == path) {
+        directories.remove(path)
+        updates.add(dir.getEntry)
       }
+      removeIterators.add(updates.iterator())
     }
     val it: Iterator[Iterator[FileTreeDataViews.Entry[T]]] =
       removeIterators.iterator()
@@ -374,6 +711,7 @@ class FileCacheDirectoryTree[T <: AnyRef](
         if (symlinkWatcher != null) symlinkWatcher.close()
         directories.clear()
         observers.close()
+        batchObservers.close()
         directoryRegistry.close()
         pendingFiles.clear()
       } finally directories.unlock()
@@ -395,28 +733,17 @@ class FileCacheDirectoryTree[T <: AnyRef](
     ) {
       try {
         watcher.register(absolutePath, maxDepth)
-        val dirs: List[CachedDirectory[T]] =
-          new ArrayList[CachedDirectory[T]](directories.values)
-        Collections.sort(
-          dirs,
-          new Comparator[CachedDirectory[T]]() {
-            override def compare(left: CachedDirectory[T], right: CachedDirectory[T]): Int =
-              left.getPath.compareTo(right.getPath)
-          }
-        )
-        val it: Iterator[CachedDirectory[T]] = dirs.iterator()
+        // The ancestors are ordered from least to most specific.
+        val it: Iterator[CachedDirectory[T]] =
+          directories.ancestors(absolutePath).iterator()
         var existing: CachedDirectory[T] = null
         while (it.hasNext && existing == null) {
           val dir: CachedDirectory[T] = it.next()
-          if (absolutePath.startsWith(dir.getPath)) {
-            val depth: Int = dir.getPath
-              .relativize(absolutePath)
-              .getNameCount - 1
-            if (
-              dir.getMaxDepth == java.lang.Integer.MAX_VALUE || dir.getMaxDepth - depth > maxDepth
-            ) {
-              existing = dir
-            }
+          val depth: Int = dir.getPath.relativize(absolutePath).getNameCount - 1
+          if (
+            dir.getMaxDepth == java.lang.Integer.MAX_VALUE || dir.getMaxDepth - depth > maxDepth
+          ) {
+            existing = dir
           }
         }
         var dir: CachedDirectory[T] = null
@@ -451,18 +778,16 @@ class FileCacheDirectoryTree[T <: AnyRef](
   }
 
   private def cleanupDirectories(path: Path, maxDepth: Int): Unit = {
-    val it: Iterator[CachedDirectory[T]] = directories.values.iterator()
+    val it: Iterator[CachedDirectory[T]] = directories.descendants(path).iterator()
     val toRemove: List[Path] = new ArrayList[Path]()
     while (it.hasNext) {
       val dir: CachedDirectory[T] = it.next()
-      if (dir.getPath.startsWith(path) && dir.getPath != path) {
-        if (maxDepth == java.lang.Integer.MAX_VALUE) {
+      if (maxDepth == java.lang.Integer.MAX_VALUE) {
+        toRemove.add(dir.getPath)
+      } else {
+        val depth: Int = dir.getPath.getNameCount - path.getNameCount
+        if (maxDepth - depth >= dir.getMaxDepth) {
           toRemove.add(dir.getPath)
-        } else {
-          val depth: Int = path.relativize(dir.getPath).getNameCount
-          if (maxDepth - depth >= dir.getMaxDepth) {
-            toRemove.add(dir.getPath)
-          }
         }
       }
     }
@@ -471,7 +796,7 @@ class FileCacheDirectoryTree[T <: AnyRef](
   }
 
   private def addCallback(
-      callbacks: List[Callback],
+      callbacks: List[EntryCallback],
       symlinks: List[TypedPath],
       entry: FileTreeDataViews.Entry[T],
       oldEntry: FileTreeDataViews.Entry[T],
@@ -483,22 +808,7 @@ class FileCacheDirectoryTree[T <: AnyRef](
     if (typedPath != null && typedPath.isSymbolicLink && followLinks) {
       symlinks.add(typedPath)
     }
-    callbacks.add(new Callback(if (typedPath == null) Paths.get("") else typedPath.getPath) {
-      override def run(): Unit = {
-        try if (ioException != null) {
-          observers.onError(ioException)
-        } else if (kind == Create) {
-          observers.onCreate(newEntry)
-        } else if (kind == Delete) {
-          observers.onDelete(Entries.setExists(oldEntry, false))
-        } else if (kind == Modify) {
-          observers.onUpdate(oldEntry, newEntry)
-        } catch {
-          case e: Exception => e.printStackTrace()
-
-        }
-      }
-    })
+    callbacks.add(new EntryCallback(typedPath, oldEntry, newEntry, kind, ioException))
   }
 
   override def addObserver(observer: Observer[_ >: Entry[T]]): Int =
@@ -511,6 +821,27 @@ class FileCacheDirectoryTree[T <: AnyRef](
   override def addCacheObserver(observer: CacheObserver[T]): Int =
     observers.addCacheObserver(observer)
 
+  def addCacheObserver(observer: CacheObserver[T], prefix: Path): Int =
+    observers.addCacheObserver(observer, prefix)
+
+  def addCacheObserver(observer: CacheObserver[T], glob: String): Int =
+    observers.addCacheObserver(observer, glob)
+
+  def addBatchObserver(observer: BatchCacheObserver[T]): Int =
+    batchObservers.addObserver(new Observer[ChangeSet[T]]() {
+      override def onError(t: Throwable): Unit = {
+        observer.onError(t.asInstanceOf[IOException])
+      }
+
+      override def onNext(changes: ChangeSet[T]): Unit = {
+        observer.onChanges(changes)
+      }
+    })
+
+  def removeBatchObserver(handle: Int): Unit = {
+    batchObservers.removeObserver(handle)
+  }
+
   override def listEntries(
       path: Path,
       maxDepth: Int,
@@ -538,7 +869,7 @@ class FileCacheDirectoryTree[T <: AnyRef](
     }
 
   private def callbackObserver(
-      callbacks: List[Callback],
+      callbacks: List[EntryCallback],
       symlinks: List[TypedPath]
   ): CacheObserver[T] =
     new CacheObserver[T]() {
@@ -604,4 +935,33 @@ class FileCacheDirectoryTree[T <: AnyRef](
     result
   }
 
+  private class EntryCallback(typedPath: TypedPath,
+                              private val oldEntry: Entry[T],
+                              private val newEntry: Entry[T],
+                              private val kind: Kind,
+                              val ioException: IOException)
+      extends Callback(if (typedPath == null) Paths.get("") else typedPath.getPath) {
+
+    override def run(): Unit = {
+      try deliver(observers)
+      catch {
+        case e: Exception => e.printStackTrace()
+
+      }
+    }
+
+    def deliver(observer: CacheObserver[T]): Unit = {
+      if (ioException != null) {
+        observer.onError(ioException)
+      } else if (kind == Create) {
+        observer.onCreate(newEntry)
+      } else if (kind == Delete) {
+        observer.onDelete(Entries.setExists(oldEntry, false))
+      } else if (kind == Modify) {
+        observer.onUpdate(oldEntry, newEntry)
+      }
+    }
+
+  }
+
 }
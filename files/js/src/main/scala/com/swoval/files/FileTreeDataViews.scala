@@ -7,6 +7,7 @@ import com.swoval.functional.Either
 import com.swoval.functional.Filters
 import java.io.IOException
 import java.nio.file.Path
+import java.util.List
 
 object FileTreeDataViews {
 
@@ -72,6 +73,22 @@ object FileTreeDataViews {
 
   }
 
+  /**
+   * Converts a Path into a primitive long value to be cached, e.g. the last modified time of the
+   * path. Unlike a [[Converter Converter&lt;Long&gt;]], the result is never boxed.
+   */
+  trait LongConverter {
+
+    /**
+     * Convert the typedPath to a value.
+     *
+     * @param typedPath the typedPath to convert
+     * @return the converted value
+     */
+    def apply(typedPath: TypedPath): Long
+
+  }
+
   /**
    * Provides callbacks to run when different types of file events are detected by the cache.
    *
@@ -110,6 +127,62 @@ object FileTreeDataViews {
 
   }
 
+  /**
+   * The changes to a cache that were made by a single update of the cache. The updates for
+   * different paths are not in any particular order.
+   *
+   * @tparam T the type for the [[Entry]] data
+   */
+  trait ChangeSet[T] {
+
+    /**
+     * Returns the entries for the newly created paths.
+     *
+     * @return the created entries.
+     */
+    def getCreations(): List[Entry[T]]
+
+    /**
+     * Returns the updated entries. The first element of each array is the previous entry for the
+     * path and the second element is the new entry.
+     *
+     * @return the updated entries.
+     */
+    def getUpdates(): List[Array[Entry[T]]]
+
+    /**
+     * Returns the entries for the deleted paths.
+     *
+     * @return the deleted entries.
+     */
+    def getDeletions(): List[Entry[T]]
+
+  }
+
+  /**
+   * Provides a callback that receives all of the changes made by an update of a cache at once.
+   * Observers that process many events can use it to avoid the overhead of a callback per path.
+   *
+   * @tparam T the type for the [[Entry]] data
+   */
+  trait BatchCacheObserver[T] {
+
+    /**
+     * Callback to fire when the cache is updated.
+     *
+     * @param changes the changes made by the update. It is never empty.
+     */
+    def onChanges(changes: ChangeSet[T]): Unit
+
+    /**
+     * Callback to fire when an error is encountered generating while updating a path.
+     *
+     * @param exception The exception thrown by the computation
+     */
+    def onError(exception: IOException): Unit
+
+  }
+
   /**
    * A file tree cache that can be monitored for events.
    *
@@ -127,4 +200,71 @@ object FileTreeDataViews {
 
   }
 
+  /**
+   * A cache that can be monitored by observers that receive all of the changes made by each update
+   * of the cache at once. The repositories created by [[FileTreeRepositories]] implement this
+   * interface.
+   *
+   * @tparam T the type of data stored in the cache.
+   */
+  trait BatchObservable[T] {
+
+    /**
+     * Add an observer that receives all of the changes made by each update of the cache at once. A
+     * batch observer is notified after the regular observers of the cache have been notified of
+     * the same changes. When the cache runs its callbacks on multiple threads, the changes of an
+     * update may be split into several batches that are delivered concurrently.
+     *
+     * @param observer the observer to add
+     * @return the handle to the observer.
+     */
+    def addBatchObserver(observer: BatchCacheObserver[T]): Int
+
+    /**
+     * Remove a batch observer.
+     *
+     * @param handle the handle that was returned by
+     *     [[BatchObservable.addBatchObserver]]
+     */
+    def removeBatchObserver(handle: Int): Unit
+
+  }
+
+  /**
+   * A cache that can be monitored by observers that are only interested in part of the cache. The
+   * repositories created by [[FileTreeRepositories]] implement this interface.
+   *
+   * @tparam T the type of data stored in the cache.
+   */
+  trait ScopedObservable[T] {
+
+    /**
+     * Add an observer of the cache events for the paths in the subtree of a prefix, including the
+     * prefix itself. The observers are indexed by prefix, so observers of other subtrees cost
+     * nothing when an event is dispatched.
+     *
+     * @param observer the observer to add
+     * @param prefix the root of the subtree of interest
+     * @return the handle to the observer. It can be removed with
+     *     [[ObservableCache.removeObserver]].
+     */
+    def addCacheObserver(observer: CacheObserver[T], prefix: Path): Int
+
+    /**
+     * Add an observer of the cache events for the paths that match a glob. The glob is compiled
+     * exactly like the exclusions passed to [[FileTreeRepositories]], so the observer receives
+     * the events for precisely the paths that an exclusion with the same glob would exclude,
+     * including the subtree of a matching directory. An anchored glob, e.g.
+     * "/foo/bar/**&#47;*.scala", is indexed by the names preceding its first wildcard, so it is as
+     * cheap to dispatch as a prefix.
+     *
+     * @param observer the observer to add
+     * @param glob the glob that the paths of interest match
+     * @return the handle to the observer. It can be removed with
+     *     [[ObservableCache.removeObserver]].
+     */
+    def addCacheObserver(observer: CacheObserver[T], glob: String): Int
+
+  }
+
 }
@@ -8,6 +8,8 @@ import com.swoval.files.PathWatchers.Event
 import com.swoval.logging.Logger
 import com.swoval.logging.Loggers
 import java.io.IOException
+import java.util.List
+import java.util.concurrent.TimeUnit
 
 object FileTreeRepositories {
 
@@ -50,32 +52,221 @@ object FileTreeRepositories {
       followLinks: Boolean,
       rescanOnDirectoryUpdates: Boolean,
       logger: Logger
-  ): FileTreeRepository[T] = {
+  ): FileTreeRepository[T] =
+    get(converter,
+        followLinks,
+        new Options().rescanOnDirectoryUpdates(rescanOnDirectoryUpdates).logger(logger))
+
+  /**
+   * Create a file tree repository that is configured by the [[Options]]. The default options
+   * create the same file tree repository as [[FileTreeRepositories.get(Converter, Boolean)]].
+   *
+   * @param converter converts a path to the cached value type T
+   * @param followLinks toggles whether or not to follow symbolic links. See
+   *     [[FileTreeRepositories.get(Converter, Boolean, Boolean, Logger)]].
+   * @param options the options for the file tree repository
+   * @tparam T the value type of the cache entries
+   * @return a file tree repository.
+   */
+  def get[T <: AnyRef](converter: Converter[T],
+                       followLinks: Boolean,
+                       options: Options): FileTreeRepository[T] = {
+    val logger: Logger = options.repositoryLogger
+    val rescanOnDirectoryUpdates: Boolean = options.rescanDirectoryUpdates
+    val coalescingLatencyNanos: Long = options.coalescingLatencyNanos
+    val watcherOptions: PathWatchers.Options =
+      options.pathWatcherOptions.copy().reportMoves(false)
+    val compiledExclusions: Exclusions =
+      Exclusions.get(options.exclusionGlobs, options.parseIgnoreFiles)
     val symlinkWatcher: SymlinkWatcher =
       if (followLinks)
-        new SymlinkWatcher(PathWatchers.get(false, new DirectoryRegistryImpl(), logger), logger)
+        new SymlinkWatcher(
+          PathWatchers.get(false,
+                           new DirectoryRegistryImpl(compiledExclusions),
+                           watcherOptions,
+                           logger),
+          logger
+        )
       else null
     val callbackExecutor: Executor =
-      Executor.make("FileTreeRepository-callback-executor")
+      Executor.make("FileTreeRepository-callback-executor", options.callbackThreadCount)
     val tree: FileCacheDirectoryTree[T] = new FileCacheDirectoryTree[T](
       converter,
       callbackExecutor,
       symlinkWatcher,
       rescanOnDirectoryUpdates,
+      compiledExclusions,
       logger
     )
-    val pathWatcher: PathWatcher[PathWatchers.Event] =
-      PathWatchers.get(false, tree.readOnlyDirectoryRegistry(), logger)
-    pathWatcher.addObserver(new Observer[Event]() {
-      override def onError(t: Throwable): Unit = {}
-
-      override def onNext(event: Event): Unit = {
-        tree.handleEvent(event)
-      }
-    })
+    /*
+     * The tree moves the cached entries of a renamed directory instead of listing it again, so the
+     * watcher reports renames as moves. The cache observers still see a deletion and a creation.
+     */
+    val platformWatcher: PathWatcher[PathWatchers.Event] = PathWatchers.get(
+      false,
+      tree.readOnlyDirectoryRegistry(),
+      watcherOptions.copy().reportMoves(true),
+      logger)
+    var pathWatcher: PathWatcher[PathWatchers.Event] = null
+    if (coalescingLatencyNanos > 0) {
+      val coalescingPathWatcher: CoalescingPathWatcher = new CoalescingPathWatcher(
+        platformWatcher,
+        coalescingLatencyNanos,
+        TimeUnit.NANOSECONDS,
+        logger)
+      coalescingPathWatcher.addBatchObserver(new Observer[List[Event]]() {
+        override def onError(t: Throwable): Unit = {}
+
+        override def onNext(events: List[Event]): Unit = {
+          tree.handleEvents(events)
+        }
+      })
+      pathWatcher = coalescingPathWatcher
+    } else if (platformWatcher.isInstanceOf[NioPathWatcher]) {
+      // Apply everything that the watcher drains in one go as a single batch.
+      platformWatcher
+        .asInstanceOf[NioPathWatcher]
+        .addBatchObserver(new Observer[List[Event]]() {
+          override def onError(t: Throwable): Unit = {}
+
+          override def onNext(events: List[Event]): Unit = {
+            tree.handleEvents(events)
+          }
+        })
+      pathWatcher = platformWatcher
+    } else {
+      platformWatcher.addObserver(new Observer[Event]() {
+        override def onError(t: Throwable): Unit = {}
+
+        override def onNext(event: Event): Unit = {
+          tree.handleEvent(event)
+        }
+      })
+      pathWatcher = platformWatcher
+    }
     val watcher: FileCachePathWatcher[T] =
       new FileCachePathWatcher[T](tree, pathWatcher)
     new FileTreeRepositoryImpl(tree, watcher)
   }
 
+  /**
+   * The options for the file tree repositories created by [[FileTreeRepositories.get(Converter, Boolean, Options)]]. The default options create the same
+   * file tree repository as [[FileTreeRepositories.get(Converter, Boolean)]]. The options are
+   * read when the repository is created, so changing them later doesn't affect it.
+   */
+  class Options {
+
+    var rescanDirectoryUpdates: Boolean = false
+
+    var exclusionGlobs: java.lang.Iterable[String] = null
+
+    var parseIgnoreFiles: Boolean = false
+
+    var coalescingLatencyNanos: Long = 0
+
+    var callbackThreadCount: Int = 1
+
+    var pathWatcherOptions: PathWatchers.Options = new PathWatchers.Options()
+
+    var repositoryLogger: Logger = Loggers.getLogger
+
+    /**
+     * Toggles whether or not we rescan a directory's subtree when an update is detected for that
+     * directory. This can be very expensive since it will perform iops proportional to the number
+     * of files in the subtree. It generally should not be necessary since we are also watching the
+     * subtree for events. It is off by default.
+     *
+     * @param rescanOnDirectoryUpdates toggles whether or not subtrees are rescanned on updates
+     * @return these options
+     */
+    def rescanOnDirectoryUpdates(rescanOnDirectoryUpdates: Boolean): Options = {
+      this.rescanDirectoryUpdates = rescanOnDirectoryUpdates
+      this
+    }
+
+    /**
+     * Sets the glob patterns for the paths that are never listed, cached or watched. The glob
+     * syntax is described in [[PathWatchers.polling(Boolean, Long, TimeUnit, Iterable)]].
+     *
+     * @param exclusions glob patterns for the paths that should not be cached. A null value is
+     *     treated as empty.
+     * @return these options
+     */
+    def exclusions(exclusions: java.lang.Iterable[String]): Options = {
+      this.exclusionGlobs = exclusions
+      this
+    }
+
+    /**
+     * Toggles whether or not the paths that are ignored by the .gitignore and .ignore files in
+     * their parent directories are excluded. Only the ignore files up to the root of the enclosing
+     * git repository are considered. The ignore files are parsed when their directory is first
+     * listed and are parsed again whenever the repository detects that they have changed. The
+     * paths in the directory of a changed ignore file are then added to, or removed from, the
+     * repository. It is off by default.
+     *
+     * @param respectIgnoreFiles toggles whether or not ignored paths are excluded
+     * @return these options
+     */
+    def respectIgnoreFiles(respectIgnoreFiles: Boolean): Options = {
+      this.parseIgnoreFiles = respectIgnoreFiles
+      this
+    }
+
+    /**
+     * Sets the latency window within which the file events for each path are coalesced before
+     * they are applied to the cache. A burst of events for the same path, e.g. a file that is
+     * created and then written several times, then updates the cache and notifies the observers
+     * only once. The events for any given path are always applied in order. When it is not
+     * positive, which is the default, events are applied as soon as they are received.
+     *
+     * @param coalescingLatency the maximum time that an event may be held back
+     * @param timeUnit the time unit of the coalescing latency
+     * @return these options
+     */
+    def coalescingLatency(coalescingLatency: Long, timeUnit: TimeUnit): Options = {
+      this.coalescingLatencyNanos = timeUnit.toNanos(coalescingLatency)
+      this
+    }
+
+    /**
+     * Sets the number of threads on which the callbacks of the observers are run. The callbacks
+     * are partitioned by the hash of the path of the entry that they report, so the callbacks for
+     * any given path are always run on the same thread and in order, but the callbacks for
+     * different paths may run concurrently. Observers of a repository with more than one callback
+     * thread must therefore be thread safe. It is one by default.
+     *
+     * @param callbackThreads the number of threads on which the observer callbacks are run
+     * @return these options
+     */
+    def callbackThreads(callbackThreads: Int): Options = {
+      this.callbackThreadCount = callbackThreads
+      this
+    }
+
+    /**
+     * Sets the options for the path watchers that the repository creates, e.g. [[PathWatchers.Options.writeCompletion]]. The repository decides for itself how
+     * renames are reported, so [[PathWatchers.Options.reportMoves]] is ignored.
+     *
+     * @param watcherOptions the options for the path watchers
+     * @return these options
+     */
+    def watcherOptions(watcherOptions: PathWatchers.Options): Options = {
+      this.pathWatcherOptions = watcherOptions.copy()
+      this
+    }
+
+    /**
+     * Sets the logger for the debug events of the repository.
+     *
+     * @param logger logs debug events
+     * @return these options
+     */
+    def logger(logger: Logger): Options = {
+      this.repositoryLogger = logger
+      this
+    }
+
+  }
+
 }
@@ -2,8 +2,11 @@
 
 package com.swoval.files
 
+import com.swoval.files.FileTreeDataViews.BatchCacheObserver
+import com.swoval.files.FileTreeDataViews.BatchObservable
 import com.swoval.files.FileTreeDataViews.CacheObserver
 import com.swoval.files.FileTreeDataViews.Entry
+import com.swoval.files.FileTreeDataViews.ScopedObservable
 import com.swoval.files.FileTreeViews.Observer
 import com.swoval.functional.Either
 import com.swoval.functional.Filter
@@ -21,6 +24,8 @@ object FileTreeRepositoryImpl {
 
   abstract class Callback(private val path: Path) extends Runnable with Comparable[Callback] {
 
+    def getPath(): Path = path
+
     override def compareTo(that: Callback): Int =
       this.path.compareTo(that.path)
 
@@ -32,7 +37,9 @@ class FileTreeRepositoryImpl[T <: AnyRef](
     private val directoryTree: FileCacheDirectoryTree[T],
     private val watcher: FileCachePathWatcher[T],
     private val logger: Logger
-) extends FileTreeRepository[T] {
+) extends FileTreeRepository[T]
+    with BatchObservable[T]
+    with ScopedObservable[T] {
 
   private val closed: AtomicBoolean = new AtomicBoolean(false)
 
@@ -114,4 +121,18 @@ class FileTreeRepositoryImpl[T <: AnyRef](
   override def addCacheObserver(observer: CacheObserver[T]): Int =
     directoryTree.addCacheObserver(observer)
 
+  override def addCacheObserver(observer: CacheObserver[T], prefix: Path): Int =
+    directoryTree.addCacheObserver(observer,
+                                   if (prefix.isAbsolute) prefix else prefix.toAbsolutePath())
+
+  override def addCacheObserver(observer: CacheObserver[T], glob: String): Int =
+    directoryTree.addCacheObserver(observer, glob)
+
+  override def addBatchObserver(observer: BatchCacheObserver[T]): Int =
+    directoryTree.addBatchObserver(observer)
+
+  override def removeBatchObserver(handle: Int): Unit = {
+    directoryTree.removeBatchObserver(handle)
+  }
+
 }
@@ -3,6 +3,7 @@
 package com.swoval.files
 
 import com.swoval.files.FileTreeDataViews.CacheObserver
+import com.swoval.files.FileTreeDataViews.ChangeSet
 import com.swoval.files.FileTreeDataViews.Converter
 import com.swoval.files.FileTreeDataViews.Entry
 import com.swoval.functional.Filter
@@ -165,7 +166,7 @@ object FileTreeViews {
 
   }
 
-  class Updates[T] extends CacheObserver[T] {
+  class Updates[T] extends CacheObserver[T] with ChangeSet[T] {
 
     private val creations: List[Entry[T]] = new ArrayList()
 
@@ -186,6 +187,15 @@ object FileTreeViews {
         cacheObserver.onDelete(Entries.setExists(deletionIterator.next(), false))
     }
 
+    def isEmpty(): Boolean =
+      creations.isEmpty && deletions.isEmpty && updates.isEmpty
+
+    override def getCreations(): List[Entry[T]] = creations
+
+    override def getUpdates(): List[Array[Entry[T]]] = updates
+
+    override def getDeletions(): List[Entry[T]] = deletions
+
     override def onCreate(newEntry: Entry[T]): Unit = {
       creations.add(newEntry)
     }
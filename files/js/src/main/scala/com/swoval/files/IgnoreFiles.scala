@@ -0,0 +1,266 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.ArrayList
+import java.util.List
+import java.util.concurrent.ConcurrentHashMap
+import IgnoreFiles._
+
+object IgnoreFiles {
+
+  private val GITIGNORE: String = ".gitignore"
+
+  private val IGNORE: String = ".ignore"
+
+  private val GIT: String = ".git"
+
+  private val EMPTY: Rules = new Rules(Array.ofDim[Rule](0), false)
+
+  private val EMPTY_REPOSITORY_ROOT: Rules = new Rules(Array.ofDim[Rule](0), true)
+
+  val MAX_CACHED_DIRECTORIES: Int = 4096
+
+  private def definesRules(name: String): Boolean =
+    name == GITIGNORE || name == IGNORE || name == GIT
+
+  private def isDirectory(path: Path): Boolean = TypedPaths.get(path).isDirectory
+
+  private def parse(ignoreFile: Path, rules: List[Rule]): Unit = {
+    var content: String = null
+    try content = new String(Files.readAllBytes(ignoreFile), StandardCharsets.UTF_8)
+    catch {
+      case e: IOException => return
+
+    }
+    val lines: Array[String] = content.split("\r?\n")
+    var i: Int = 0
+    while (i < lines.length) {
+      val rule: Rule = parseRule(lines(i))
+      if (rule != null) rules.add(rule)
+      i += 1
+    }
+  }
+
+  private def parseRule(line: String): Rule = {
+    var end: Int = line.length
+    while (end > 0 && line.charAt(end - 1) == ' ' && !(end > 1 && line.charAt(end - 2) == '\\')) {
+      end -= 1
+    }
+    var text: String = line.substring(0, end)
+    if (text.isEmpty || text.startsWith("#")) return null
+    val negated: Boolean = text.startsWith("!")
+    if (negated) text = text.substring(1)
+    else if (text.startsWith("\\#") || text.startsWith("\\!"))
+      text = text.substring(1)
+    val directoryOnly: Boolean = text.endsWith("/")
+    while (text.endsWith("/")) text = text.substring(0, text.length - 1)
+    val anchored: Boolean = text.indexOf('/') != -1
+    val names: List[String] = new ArrayList[String]()
+    if (!anchored) names.add("**")
+    val parts: Array[String] = text.split("/")
+    var i: Int = 0
+    while (i < parts.length) {
+      if (!parts(i).isEmpty) names.add(parts(i))
+      i += 1
+    }
+    if (names.size == (if (anchored) 0 else 1) || names.size > Exclusions.MAX_NAMES) return null
+    val pattern: Array[String] = Array.ofDim[String](names.size)
+    var j: Int = 0
+    while (j < pattern.length) {
+      pattern(j) = names.get(j)
+      j += 1
+    }
+    new Rule(pattern, negated, directoryOnly)
+  }
+
+  private class Rule(val pattern: Array[String], val negated: Boolean, val directoryOnly: Boolean)
+
+  private class Rules(val rules: Array[Rule], val isRepositoryRoot: Boolean)
+
+}
+
+/**
+ * Determines which paths are ignored by the .gitignore and .ignore files in their parent
+ * directories. The rules follow the gitignore format: blank lines and lines starting with '#' are
+ * skipped, a leading '!' negates a rule, a trailing '/' only matches directories and a rule
+ * containing a '/' is matched relative to the directory of the ignore file. Any other rule matches
+ * a name at any depth below that directory. When several rules match a path, the last one wins and
+ * the rules of the .ignore file take precedence over the .gitignore file in the same directory. As
+ * with git, a path can not be re-included once one of its parent directories is ignored.
+ *
+ * <p>The rules of each directory are parsed the first time that a path in the directory is
+ * checked, which is typically when the directory is first listed, and are cached until
+ * [[invalidate]] is called for one of the directory's ignore files. Only the ignore files up to the
+ * nearest parent directory containing a .git entry are consulted. When the path is checked on
+ * behalf of a registered directory that isn't inside of a repository, only the ignore files up to
+ * the registered directory are consulted. At most [[IgnoreFiles.MAX_CACHED_DIRECTORIES]]
+ * directories are cached. The cache is cleared when it is full, so the rules of directories that
+ * are no longer being checked are eventually discarded.
+ */
+class IgnoreFiles {
+
+  private val rulesByDirectory: ConcurrentHashMap[Path, Rules] =
+    new ConcurrentHashMap()
+
+  /*
+   * The number of names in the outermost directory whose ignore files are consulted for the paths
+   * in each registered directory.
+   */
+  private val topsByRoot: ConcurrentHashMap[Path, Integer] = new ConcurrentHashMap()
+
+  /**
+   * Returns true if the path, or any of its parent directories, is ignored.
+   *
+   * @param path the path to check
+   * @return true if the path is ignored.
+   */
+  def isIgnored(path: Path): Boolean = isIgnored(path, null)
+
+  /**
+   * Returns true if the path, or any of its parent directories, is ignored. If the registered
+   * directory that contains the path is not inside of a repository, the ignore files above the
+   * registered directory are not consulted.
+   *
+   * @param path the path to check
+   * @param root the registered directory that contains the path. If null, the ignore files up to
+   *     the root of the file system are consulted when the path is not inside of a repository.
+   * @return true if the path is ignored.
+   */
+  def isIgnored(path: Path, root: Path): Boolean = {
+    val string: String = path.toString
+    val count: Int = path.getNameCount
+    /*
+     * The index of the first character of each name in the string of the path. The last element is
+     * one past the end of the string, as if the path ended with a separator.
+     */
+    val starts: Array[Int] = Array.ofDim[Int](count + 1)
+    starts(0) = Exclusions.namesStart(path, string)
+    var n: Int = 1
+    while (n <= count) {
+      starts(n) = Exclusions.nameEnd(string, starts(n - 1)) + 1
+      n += 1
+    }
+    /*
+     * Collect the rules of each parent directory, starting with the parent of the path. The index
+     * of each directory's rules is the number of names in the directory.
+     */
+    val rules: Array[Rules] = Array.ofDim[Rules](count)
+    val limit: Int = if (root == null) 0 else getTop(root)
+    var top: Int = count
+    var dir: Path = path.getParent
+    var depth: Int = count - 1
+    var done: Boolean = false
+    while (!done && dir != null && depth >= limit) {
+      val dirRules: Rules = getRules(dir)
+      rules(depth) = dirRules
+      top = depth
+      if (dirRules.isRepositoryRoot) {
+        done = true
+      } else {
+        dir = dir.getParent
+        depth -= 1
+      }
+    }
+    /*
+     * Check the path and each of its parents below the top directory, from the outermost in, so
+     * that we stop at the first ignored directory.
+     */
+    var end: Int = top + 1
+    while (end <= count) {
+      var ignored: Int = 0
+      var d: Int = top
+      while (d < end) {
+        val dirRules: Array[Rule] = rules(d).rules
+        var i: Int = 0
+        while (i < dirRules.length) {
+          val rule: Rule = dirRules(i)
+          if (Exclusions.matches(rule.pattern, string, starts(d), starts(end) - 1, false) &&
+              (!rule.directoryOnly || end < count || isDirectory(path))) {
+            ignored = if (rule.negated) -1 else 1
+          }
+          i += 1
+        }
+        d += 1
+      }
+      if (ignored == 1) return true
+      end += 1
+    }
+    false
+  }
+
+  /**
+   * Discards the cached rules of the directory containing the path if the path is an ignore file
+   * or the .git entry that marks the root of a repository.
+   *
+   * @param path the path that was created, modified or deleted
+   * @return true if the rules of the directory containing the path may have changed.
+   */
+  def invalidate(path: Path): Boolean = {
+    val fileName: Path = path.getFileName
+    val parent: Path = path.getParent
+    if (fileName != null && parent != null && definesRules(fileName.toString)) {
+      rulesByDirectory.remove(parent)
+      if (fileName.toString == GIT) topsByRoot.clear()
+      true
+    } else {
+      false
+    }
+  }
+
+  /*
+   * Returns the number of names in the root of the repository that contains the registered
+   * directory or, if there is no such repository, in the registered directory itself.
+   */
+
+  private def getTop(root: Path): Int = {
+    val cached: Integer = topsByRoot.get(root)
+    if (cached != null) return cached
+    var result: Int = root.getNameCount
+    var dir: Path = root
+    while (dir != null) {
+      val rules: Rules = rulesByDirectory.get(dir)
+      if (if (rules != null) rules.isRepositoryRoot else Files.exists(dir.resolve(GIT))) {
+        result = dir.getNameCount
+        dir = null
+      } else {
+        dir = dir.getParent
+      }
+    }
+    if (topsByRoot.size >= MAX_CACHED_DIRECTORIES) topsByRoot.clear()
+    topsByRoot.put(root, result)
+    result
+  }
+
+  private def getRules(dir: Path): Rules = {
+    val cached: Rules = rulesByDirectory.get(dir)
+    if (cached != null) return cached
+    val rules: List[Rule] = new ArrayList[Rule]()
+    parse(dir.resolve(GITIGNORE), rules)
+    parse(dir.resolve(IGNORE), rules)
+    val isRepositoryRoot: Boolean = Files.exists(dir.resolve(GIT))
+    var result: Rules = null
+    if (rules.isEmpty) {
+      result = if (isRepositoryRoot) EMPTY_REPOSITORY_ROOT else EMPTY
+    } else {
+      val array: Array[Rule] = Array.ofDim[Rule](rules.size)
+      var i: Int = 0
+      while (i < array.length) {
+        array(i) = rules.get(i)
+        i += 1
+      }
+      result = new Rules(array, isRepositoryRoot)
+    }
+    if (rulesByDirectory.size >= MAX_CACHED_DIRECTORIES) rulesByDirectory.clear()
+    rulesByDirectory.put(dir, result)
+    result
+  }
+
+  override def toString(): String =
+    "IgnoreFiles(" + GITIGNORE + ", " + IGNORE + ")"
+
+}
@@ -3,6 +3,7 @@
 package com.swoval.files
 
 import java.util.ArrayList
+import java.util.Collection
 import java.util.Collections
 import java.util.HashMap
 import java.util.Iterator
@@ -75,6 +76,14 @@ class LockableMap[K, V](private val map: Map[K, V], reentrantLock: ReentrantLock
       Collections.emptyList()
     }
 
+  /**
+   * Returns the values of the map without copying them. The returned collection is backed by the
+   * map so the lock must be held until the caller is done with it.
+   *
+   * @return the live values of the map.
+   */
+  def liveValues(): Collection[V] = map.values
+
   def get(key: K): V =
     if (lock()) {
       try map.get(key)
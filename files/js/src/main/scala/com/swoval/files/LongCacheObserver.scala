@@ -0,0 +1,33 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+/**
+ * Provides callbacks for the differences between two [[LongCachedDirectory]] snapshots of the
+ * same directory.
+ */
+trait LongCacheObserver {
+
+  /**
+   * Callback to fire when a new path is found.
+   *
+   * @param newEntry the [[LongEntry]] for the new path
+   */
+  def onCreate(newEntry: LongEntry): Unit
+
+  /**
+   * Callback to fire when a path is no longer found.
+   *
+   * @param oldEntry the [[LongEntry]] for the removed path
+   */
+  def onDelete(oldEntry: LongEntry): Unit
+
+  /**
+   * Callback to fire when either the value or the type of a path has changed.
+   *
+   * @param oldEntry the previous [[LongEntry]] for the path
+   * @param newEntry the current [[LongEntry]] for the path
+   */
+  def onUpdate(oldEntry: LongEntry, newEntry: LongEntry): Unit
+
+}
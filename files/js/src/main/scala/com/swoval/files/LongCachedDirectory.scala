@@ -0,0 +1,449 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+import com.swoval.files.FileTreeDataViews.LongConverter
+import com.swoval.functional.Filter
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Collections
+import java.util.Comparator
+import java.util.List
+import LongCachedDirectory._
+
+object LongCachedDirectory {
+
+  /*
+   * A directory that was modified within this many milliseconds of being listed may have been
+   * modified again after the listing without changing its last modified time, e.g. on a file
+   * system that only stores the last modified time in seconds.
+   */
+  private val RACY_MILLIS: Long = 2000
+
+  private val FILE_NAME_COMPARATOR: Comparator[TypedPath] =
+    new Comparator[TypedPath]() {
+      override def compare(left: TypedPath, right: TypedPath): Int =
+        left.getPath.getFileName.compareTo(right.getPath.getFileName)
+    }
+
+  /**
+   * Builds a new snapshot of a path.
+   *
+   * @param typedPath the path to snapshot
+   * @param converter computes the value for each path
+   * @param depth the maximum depth of children to include (see [[DirectoryView.getMaxDepth]])
+   * @param filter only include the children accepted by this filter
+   * @param fileTreeView the view with which the directories are listed
+   * @return the snapshot or null if the path does not exist. If the path is not a directory, the
+   *     snapshot will have no children.
+   */
+  def get(typedPath: TypedPath,
+          converter: LongConverter,
+          depth: Int,
+          filter: Filter[_ >: TypedPath],
+          fileTreeView: FileTreeView): LongCachedDirectory =
+    if (!typedPath.exists()) {
+      null
+    } else if (typedPath.isDirectory && depth >= 0) {
+      init(typedPath, converter, depth, filter, fileTreeView)
+    } else {
+      leaf(typedPath, converter)
+    }
+
+  /**
+   * Compares two snapshots of the same path and reports the paths that were created, deleted or
+   * updated to the observer. Either snapshot may be null, in which case every path in the other
+   * snapshot is reported as created or deleted.
+   *
+   * @param oldDirectory the previous snapshot
+   * @param newDirectory the current snapshot
+   * @param observer the observer of the differences
+   */
+  def diff(oldDirectory: LongCachedDirectory,
+           newDirectory: LongCachedDirectory,
+           observer: LongCacheObserver): Unit = {
+    if (oldDirectory == null) {
+      if (newDirectory != null) {
+        observer.onCreate(newDirectory.getEntry)
+        newDirectory.createAll(observer)
+      }
+    } else if (newDirectory == null) {
+      oldDirectory.deleteAll(observer)
+      observer.onDelete(oldDirectory.getDeletedEntry)
+    } else {
+      if (oldDirectory.value != newDirectory.value ||
+          TypedPaths.getKind(oldDirectory.typedPath) != TypedPaths.getKind(
+            newDirectory.typedPath)) {
+        observer.onUpdate(oldDirectory.getEntry, newDirectory.getEntry)
+      }
+      diffChildren(oldDirectory, newDirectory, observer)
+    }
+  }
+
+  /**
+   * Brings a snapshot up to date and reports the paths that were created, deleted or updated to
+   * the observer, just like [[LongCachedDirectory.diff]] would for a new snapshot of the same path. Only the
+   * directories whose last modified time has changed are listed again, whatever the converter
+   * computes for them. Writing to a file doesn't change the last modified time of its directory,
+   * so the values of the files in the other directories are still computed, but their names and
+   * kinds are reused.
+   *
+   * @param directory the previous snapshot, which may be null
+   * @param typedPath the path of the snapshot
+   * @param converter computes the value for each path
+   * @param depth the maximum depth of children to include (see [[DirectoryView.getMaxDepth]])
+   * @param filter only include the children accepted by this filter
+   * @param fileTreeView the view with which the directories are listed
+   * @param observer the observer of the differences
+   * @return the updated snapshot, which is the previous snapshot unless the kind of the path has
+   *     changed, or null if the path does not exist or can't be listed.
+   */
+  def update(directory: LongCachedDirectory,
+             typedPath: TypedPath,
+             converter: LongConverter,
+             depth: Int,
+             filter: Filter[_ >: TypedPath],
+             fileTreeView: FileTreeView,
+             observer: LongCacheObserver): LongCachedDirectory =
+    if (directory == null || !typedPath.isDirectory || depth < 0 ||
+        TypedPaths.getKind(typedPath) != TypedPaths.getKind(directory.typedPath)) {
+      var result: LongCachedDirectory = null
+      try result = get(typedPath, converter, depth, filter, fileTreeView)
+      catch {
+        case e: IOException => result = null
+
+      }
+      diff(directory, result, observer)
+      result
+    } else {
+      val newValue: Long = convert(converter, typedPath)
+      if (newValue != directory.value) {
+        observer.onUpdate(directory.getEntry, new LongEntry(typedPath, newValue))
+      }
+      directory.refresh(newValue, converter, depth, filter, fileTreeView, observer)
+      directory
+    }
+
+  private def leaf(typedPath: TypedPath, converter: LongConverter): LongCachedDirectory =
+    new LongCachedDirectory(typedPath,
+                            convert(converter, typedPath),
+                            0L,
+                            Array.ofDim[Path](0),
+                            Array.ofDim[Int](0),
+                            Array.ofDim[Long](0),
+                            Array.ofDim[LongCachedDirectory](0),
+                            false)
+
+  private def init(typedPath: TypedPath,
+                   converter: LongConverter,
+                   depth: Int,
+                   filter: Filter[_ >: TypedPath],
+                   fileTreeView: FileTreeView): LongCachedDirectory = {
+    val listed: Long = System.currentTimeMillis()
+    val lastModified: Long = LongCachedDirectory.lastModified(typedPath.getPath)
+    val children: List[TypedPath] =
+      fileTreeView.list(typedPath.getPath, 0, filter)
+    Collections.sort(children, FILE_NAME_COMPARATOR)
+    val size: Int = children.size
+    val names: Array[Path] = Array.ofDim[Path](size)
+    val kinds: Array[Int] = Array.ofDim[Int](size)
+    val values: Array[Long] = Array.ofDim[Long](size)
+    val subdirectories: Array[LongCachedDirectory] =
+      Array.ofDim[LongCachedDirectory](size)
+    val subdirectoryDepth: Int =
+      if (depth == java.lang.Integer.MAX_VALUE) depth
+      else if (depth > 0) depth - 1
+      else 0
+    var i: Int = 0
+    while (i < size) {
+      val child: TypedPath = children.get(i)
+      val path: Path = child.getPath
+      names(i) = path.getFileName
+      kinds(i) = TypedPaths.getKind(child)
+      values(i) = convert(converter, child)
+      if (shouldDescend(child, depth)) {
+        subdirectories(i) = initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView)
+      }
+      i += 1
+    }
+    new LongCachedDirectory(typedPath,
+                            convert(converter, typedPath),
+                            lastModified,
+                            names,
+                            kinds,
+                            values,
+                            subdirectories,
+                            listed - lastModified < RACY_MILLIS)
+  }
+
+  private def shouldDescend(child: TypedPath, depth: Int): Boolean =
+    child.isDirectory && depth > 0 &&
+      (!child.isSymbolicLink || !isLoop(child.getPath, TypedPaths.expanded(child)))
+
+  private def initOrNull(typedPath: TypedPath,
+                         converter: LongConverter,
+                         depth: Int,
+                         filter: Filter[_ >: TypedPath],
+                         fileTreeView: FileTreeView): LongCachedDirectory =
+    try init(typedPath, converter, depth, filter, fileTreeView)
+    catch {
+      case e: IOException => null
+
+    }
+
+  private def isLoop(path: Path, realPath: Path): Boolean =
+    path.startsWith(realPath) && path != realPath
+
+  private def lastModified(path: Path): Long =
+    try Files.getLastModifiedTime(path).toMillis()
+    catch {
+      case e: IOException => 0L
+
+    }
+
+  private def convert(converter: LongConverter, typedPath: TypedPath): Long =
+    try converter.apply(typedPath)
+    catch {
+      case e: IOException => 0L
+
+    }
+
+  private def diffChildren(oldDirectory: LongCachedDirectory,
+                           newDirectory: LongCachedDirectory,
+                           observer: LongCacheObserver): Unit = {
+    val oldNames: Array[Path] = oldDirectory.names
+    val newNames: Array[Path] = newDirectory.names
+    var i: Int = 0
+    var j: Int = 0
+    while (i < oldNames.length || j < newNames.length) {
+      val comparison: Int =
+        if (i == oldNames.length) 1
+        else if (j == newNames.length) -1
+        else oldNames(i).compareTo(newNames(j))
+      if (comparison < 0) {
+        oldDirectory.delete(i, observer)
+        i += 1
+      } else if (comparison > 0) {
+        newDirectory.create(j, observer)
+        j += 1
+      } else {
+        if (oldDirectory.values(i) != newDirectory.values(j) ||
+            oldDirectory.kinds(i) != newDirectory.kinds(j)) {
+          observer.onUpdate(oldDirectory.getEntry(i), newDirectory.getEntry(j))
+        }
+        val oldSubdirectory: LongCachedDirectory = oldDirectory.subdirectories(i)
+        val newSubdirectory: LongCachedDirectory = newDirectory.subdirectories(j)
+        if (oldSubdirectory != null && newSubdirectory != null) {
+          diffChildren(oldSubdirectory, newSubdirectory, observer)
+        } else if (oldSubdirectory != null) {
+          oldSubdirectory.deleteAll(observer)
+        } else if (newSubdirectory != null) {
+          newSubdirectory.createAll(observer)
+        }
+        i += 1
+        j += 1
+      }
+    }
+  }
+
+}
+
+/**
+ * A snapshot of a directory tree for caches whose values are primitive longs, e.g. the
+ * last modified times used by [[PollingPathWatcher]]. Unlike [[CachedDirectoryImpl]], which
+ * stores an [[FileTreeDataViews.Entry]] wrapping an [[com.swoval.functional.Either]] and a
+ * boxed value for each path, the children of each directory are stored in parallel arrays sorted by
+ * file name. Two snapshots of the same directory can then be compared in a single pass by [[LongCachedDirectory.diff]] without allocating anything for the paths that have not changed.
+ *
+ * <p>The depth semantics are the same as for [[CachedDirectoryImpl]]. If the converter throws
+ * an IOException for a path, the value for that path is 0, which matches the default last modified
+ * time converter of the [[PollingPathWatcher]].
+ *
+ * <p>A snapshot may also be brought up to date in place by [[LongCachedDirectory.update]],
+ * which only lists the directories whose last modified time has changed. The last modified time of
+ * each directory is stored alongside its value since the converter need not compute it. A snapshot
+ * that is updated must not be used concurrently.
+ */
+class LongCachedDirectory private (private val typedPath: TypedPath,
+                                   private var value: Long,
+                                   private var lastModified: Long,
+                                   private var names: Array[Path],
+                                   private var kinds: Array[Int],
+                                   private var values: Array[Long],
+                                   private var subdirectories: Array[LongCachedDirectory],
+                                   private var racy: Boolean) {
+
+  def getPath(): Path = typedPath.getPath
+
+  def getEntry(): LongEntry = new LongEntry(typedPath, value)
+
+  override def toString(): String =
+    "LongCachedDirectory(" + getPath + ", children = " + names.length +
+      ")"
+
+  /*
+   * Updates a directory whose new value has already been computed. The directory is only listed
+   * if its last modified time has changed, if it couldn't be read or if it was too close to the
+   * time of the previous listing to be trusted. Otherwise, only the values of its children are
+   * recomputed. The value itself isn't used for this since a custom converter may not change when
+   * the children of the directory do.
+   */
+  private def refresh(newValue: Long,
+                      converter: LongConverter,
+                      depth: Int,
+                      filter: Filter[_ >: TypedPath],
+                      fileTreeView: FileTreeView,
+                      observer: LongCacheObserver): Unit = {
+    val listed: Long = System.currentTimeMillis()
+    val newLastModified: Long = LongCachedDirectory.lastModified(getPath)
+    val relist: Boolean = racy || newLastModified != lastModified || newLastModified == 0
+    value = newValue
+    lastModified = newLastModified
+    val subdirectoryDepth: Int =
+      if (depth == java.lang.Integer.MAX_VALUE) depth
+      else if (depth > 0) depth - 1
+      else 0
+    if (relist) {
+      try {
+        val children: List[TypedPath] = fileTreeView.list(getPath, 0, filter)
+        Collections.sort(children, FILE_NAME_COMPARATOR)
+        merge(children, converter, depth, filter, fileTreeView, observer)
+        racy = listed - newLastModified < RACY_MILLIS
+      } catch {
+        case e: IOException => racy = true
+
+      }
+    } else {
+      var i: Int = 0
+      while (i < names.length) {
+        val child: TypedPath = TypedPaths.get(getPath.resolve(names(i)), kinds(i))
+        val childValue: Long = convert(converter, child)
+        if (childValue != values(i)) {
+          observer.onUpdate(getEntry(i), new LongEntry(child, childValue))
+          values(i) = childValue
+        }
+        if (subdirectories(i) != null) {
+          subdirectories(i).refresh(childValue,
+                                    converter,
+                                    subdirectoryDepth,
+                                    filter,
+                                    fileTreeView,
+                                    observer)
+        }
+        i += 1
+      }
+    }
+  }
+
+  /*
+   * Replaces the children with a new sorted listing, reusing the snapshots of the subdirectories
+   * that still exist, and reports the differences in the same order as diffChildren.
+   */
+  private def merge(children: List[TypedPath],
+                    converter: LongConverter,
+                    depth: Int,
+                    filter: Filter[_ >: TypedPath],
+                    fileTreeView: FileTreeView,
+                    observer: LongCacheObserver): Unit = {
+    val size: Int = children.size
+    val newNames: Array[Path] = Array.ofDim[Path](size)
+    val newKinds: Array[Int] = Array.ofDim[Int](size)
+    val newValues: Array[Long] = Array.ofDim[Long](size)
+    val newSubdirectories: Array[LongCachedDirectory] =
+      Array.ofDim[LongCachedDirectory](size)
+    val subdirectoryDepth: Int =
+      if (depth == java.lang.Integer.MAX_VALUE) depth
+      else if (depth > 0) depth - 1
+      else 0
+    var i: Int = 0
+    var j: Int = 0
+    while (j < size) {
+      val child: TypedPath = children.get(j)
+      val name: Path = child.getPath.getFileName
+      while (i < names.length && names(i).compareTo(name) < 0) {
+        delete(i, observer)
+        i += 1
+      }
+      newNames(j) = name
+      newKinds(j) = TypedPaths.getKind(child)
+      newValues(j) = convert(converter, child)
+      val descend: Boolean = shouldDescend(child, depth)
+      if (i < names.length && names(i) == name) {
+        if (newValues(j) != values(i) || newKinds(j) != kinds(i)) {
+          observer.onUpdate(getEntry(i), new LongEntry(child, newValues(j)))
+        }
+        val subdirectory: LongCachedDirectory = subdirectories(i)
+        if (subdirectory != null && descend && newKinds(j) == kinds(i)) {
+          subdirectory.refresh(newValues(j),
+                               converter,
+                               subdirectoryDepth,
+                               filter,
+                               fileTreeView,
+                               observer)
+          newSubdirectories(j) = subdirectory
+        } else {
+          if (subdirectory != null) subdirectory.deleteAll(observer)
+          if (descend) {
+            newSubdirectories(j) =
+              initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView)
+            if (newSubdirectories(j) != null) newSubdirectories(j).createAll(observer)
+          }
+        }
+        i += 1
+      } else {
+        observer.onCreate(new LongEntry(child, newValues(j)))
+        if (descend) {
+          newSubdirectories(j) =
+            initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView)
+          if (newSubdirectories(j) != null) newSubdirectories(j).createAll(observer)
+        }
+      }
+      j += 1
+    }
+    while (i < names.length) {
+      delete(i, observer)
+      i += 1
+    }
+    names = newNames
+    kinds = newKinds
+    values = newValues
+    subdirectories = newSubdirectories
+  }
+
+  private def getEntry(index: Int): LongEntry =
+    new LongEntry(TypedPaths.get(getPath.resolve(names(index)), kinds(index)), values(index))
+
+  private def getDeletedEntry(): LongEntry =
+    new LongEntry(TypedPaths.get(getPath, TypedPaths.getKind(typedPath) | Entries.NONEXISTENT),
+                  value)
+
+  private def create(index: Int, observer: LongCacheObserver): Unit = {
+    observer.onCreate(getEntry(index))
+    if (subdirectories(index) != null) subdirectories(index).createAll(observer)
+  }
+
+  private def delete(index: Int, observer: LongCacheObserver): Unit = {
+    if (subdirectories(index) != null) subdirectories(index).deleteAll(observer)
+    observer.onDelete(
+      new LongEntry(TypedPaths.get(getPath.resolve(names(index)), kinds(index) | Entries.NONEXISTENT),
+                    values(index)))
+  }
+
+  private def createAll(observer: LongCacheObserver): Unit = {
+    var i: Int = 0
+    while (i < names.length) {
+      create(i, observer)
+      i += 1
+    }
+  }
+
+  private def deleteAll(observer: LongCacheObserver): Unit = {
+    var i: Int = 0
+    while (i < names.length) {
+      delete(i, observer)
+      i += 1
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+// Do not edit this file manually. It is autogenerated.
+
+package com.swoval.files
+
+/**
+ * A primitive specialized analog of [[FileTreeDataViews.Entry]] for caches whose values are
+ * longs. These are only materialized for the paths reported to a [[LongCacheObserver]].
+ */
+class LongEntry(private val typedPath: TypedPath, private val value: Long)
+    extends Comparable[LongEntry] {
+
+  def getTypedPath(): TypedPath = typedPath
+
+  def getValue(): Long = value
+
+  override def compareTo(that: LongEntry): Int =
+    this.typedPath.getPath.compareTo(that.typedPath.getPath)
+
+  override def equals(other: Any): Boolean =
+    other.isInstanceOf[LongEntry] &&
+      other.asInstanceOf[LongEntry].typedPath.getPath == typedPath.getPath &&
+      other.asInstanceOf[LongEntry].value == value
+
+  override def hashCode(): Int =
+    typedPath.hashCode ^ (value ^ (value >>> 32)).toInt
+
+  override def toString(): String =
+    "LongEntry(" + typedPath.getPath + ", " + value + ")"
+
+}
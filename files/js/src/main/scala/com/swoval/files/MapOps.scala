@@ -2,65 +2,126 @@
 
 package com.swoval.files
 
-import java.util.Map.Entry
 import com.swoval.files.FileTreeDataViews.CacheObserver
+import java.io.File
 import java.nio.file.Path
-import java.util.ArrayList
-import java.util.HashMap
-import java.util.Iterator
+import java.util.Collections
+import java.util.Comparator
 import java.util.List
-import java.util.Map
 
+/**
+ * Provides a utility method for diffing two lists of directory entries. It is not in [[CachedDirectoryImpl]] because of a name class with java.util.Map.Entry and
+ * com.swoval.files.CachedDirectory.Entry that breaks code-gen.
+ */
 object MapOps {
 
-  def diffDirectoryEntries[T](
-      oldEntries: List[FileTreeDataViews.Entry[T]],
-      newEntries: List[FileTreeDataViews.Entry[T]],
-      cacheObserver: CacheObserver[T]
-  ): Unit = {
-    val oldMap: Map[Path, FileTreeDataViews.Entry[T]] =
-      new HashMap[Path, FileTreeDataViews.Entry[T]]()
-    val oldIterator: Iterator[FileTreeDataViews.Entry[T]] =
-      oldEntries.iterator()
-    while (oldIterator.hasNext) {
-      val entry: FileTreeDataViews.Entry[T] = oldIterator.next()
-      oldMap.put(entry.getTypedPath.getPath, entry)
+  /**
+   * Orders entries in the order that a depth first traversal visits them when the children of each
+   * directory are sorted by name, i.e. each directory is immediately followed by all of its
+   * descendants. This is the order in which [[CachedDirectoryImpl]] lists the entries that it
+   * diffs.
+   */
+  val ENTRY_ORDER: Comparator[FileTreeDataViews.Entry[_]] =
+    new Comparator[FileTreeDataViews.Entry[_]]() {
+      override def compare(left: FileTreeDataViews.Entry[_], right: FileTreeDataViews.Entry[_]): Int =
+        comparePaths(left.getTypedPath.getPath, right.getTypedPath.getPath)
     }
-    val newMap: Map[Path, FileTreeDataViews.Entry[T]] =
-      new HashMap[Path, FileTreeDataViews.Entry[T]]()
-    val newIterator: Iterator[FileTreeDataViews.Entry[T]] =
-      newEntries.iterator()
-    while (newIterator.hasNext) {
-      val entry: FileTreeDataViews.Entry[T] = newIterator.next()
-      newMap.put(entry.getTypedPath.getPath, entry)
+
+  /**
+   * Compares two paths name by name. Unlike [[Path.compareTo]], the name separator sorts
+   * before every other character so that, e.g., /foo/bar sorts before /foo-bar because /foo sorts
+   * before /foo-bar.
+   *
+   * @param left the left path
+   * @param right the right path
+   * @return a negative integer, zero or a positive integer if the left path sorts before, is equal
+   *     to or sorts after the right path.
+   */
+  def comparePaths(left: Path, right: Path): Int = {
+    val leftString: String = left.toString
+    val rightString: String = right.toString
+    val length: Int = Math.min(leftString.length, rightString.length)
+    var i: Int = 0
+    while (i < length) {
+      val leftChar: Char = leftString.charAt(i)
+      val rightChar: Char = rightString.charAt(i)
+      if (leftChar != rightChar) {
+        return if (leftChar == File.separatorChar) -1
+        else if (rightChar == File.separatorChar) 1
+        else leftChar - rightChar
+      }
+      i += 1
     }
-    diffDirectoryEntries(oldMap, newMap, cacheObserver)
+    leftString.length - rightString.length
   }
 
-  def diffDirectoryEntries[K, V](
-      oldMap: Map[K, FileTreeDataViews.Entry[V]],
-      newMap: Map[K, FileTreeDataViews.Entry[V]],
-      cacheObserver: CacheObserver[V]
-  ): Unit = {
-    val newIterator: Iterator[Entry[K, FileTreeDataViews.Entry[V]]] =
-      new ArrayList(newMap.entrySet()).iterator()
-    val oldIterator: Iterator[Entry[K, FileTreeDataViews.Entry[V]]] =
-      new ArrayList(oldMap.entrySet()).iterator()
-    while (newIterator.hasNext) {
-      val entry: Entry[K, FileTreeDataViews.Entry[V]] = newIterator.next()
-      val oldValue: FileTreeDataViews.Entry[V] = oldMap.get(entry.getKey)
-      if (oldValue != null) {
-        cacheObserver.onUpdate(oldValue, entry.getValue)
+  /**
+   * Diffs two lists of entries. The lists are sorted in place by [[MapOps.ENTRY_ORDER]] and
+   * then merged in a single linear pass so that, unlike a diff based on hash maps, no intermediate
+   * collections need to be allocated. When the lists are already sorted, sorting them is linear.
+   * [[CachedDirectoryImpl]] stores the children of each directory in hash maps, so it sorts
+   * them while it lists the entries that it diffs. That costs O(k log k) for a directory with k
+   * children, which is less than sorting the whole list, but it isn't free: for trees of around
+   * ten thousand entries, the hash map diff that this replaced was slightly faster. Paths that are
+   * in both lists are reported with [[CacheObserver.onUpdate]], paths that are only in the new
+   * list are reported with [[CacheObserver.onCreate]] and paths that are only in the old list
+   * are reported with [[CacheObserver.onDelete]]. If a path appears more than once in either
+   * list, only the last entry for that path is used.
+   *
+   * @param oldEntries the previous entries. This list will be sorted.
+   * @param newEntries the current entries. This list will be sorted.
+   * @param cacheObserver the observer of the differences
+   * @tparam T the cached value type
+   */
+  def diffDirectoryEntries[T](oldEntries: List[FileTreeDataViews.Entry[T]],
+                              newEntries: List[FileTreeDataViews.Entry[T]],
+                              cacheObserver: CacheObserver[T]): Unit = {
+    Collections.sort[FileTreeDataViews.Entry[T]](oldEntries, ENTRY_ORDER)
+    Collections.sort[FileTreeDataViews.Entry[T]](newEntries, ENTRY_ORDER)
+    val oldSize: Int = oldEntries.size
+    val newSize: Int = newEntries.size
+    var i: Int = skipDuplicates(oldEntries, 0)
+    var j: Int = skipDuplicates(newEntries, 0)
+    while (i < oldSize || j < newSize) {
+      val oldEntry: FileTreeDataViews.Entry[T] =
+        if (i < oldSize) oldEntries.get(i) else null
+      val newEntry: FileTreeDataViews.Entry[T] =
+        if (j < newSize) newEntries.get(j) else null
+      val comparison: Int =
+        if (oldEntry == null) 1
+        else if (newEntry == null) -1
+        else ENTRY_ORDER.compare(oldEntry, newEntry)
+      if (comparison < 0) {
+        cacheObserver.onDelete(oldEntry)
+        i = skipDuplicates(oldEntries, i + 1)
+      } else if (comparison > 0) {
+        cacheObserver.onCreate(newEntry)
+        j = skipDuplicates(newEntries, j + 1)
       } else {
-        cacheObserver.onCreate(entry.getValue)
+        cacheObserver.onUpdate(oldEntry, newEntry)
+        i = skipDuplicates(oldEntries, i + 1)
+        j = skipDuplicates(newEntries, j + 1)
       }
     }
-    while (oldIterator.hasNext) {
-      val entry: Entry[K, FileTreeDataViews.Entry[V]] = oldIterator.next()
-      if (!newMap.containsKey(entry.getKey)) {
-        cacheObserver.onDelete(entry.getValue)
+  }
+
+  /*
+   * Returns the index of the last entry whose path is the same as the path of the entry at the
+   * index. This mirrors the semantics of adding the entries to a map in order.
+   */
+
+  private def skipDuplicates[T](entries: List[FileTreeDataViews.Entry[T]], index: Int): Int = {
+    var result: Int = index
+    if (result < entries.size) {
+      val path: Path = entries.get(result).getTypedPath.getPath
+      while (result + 1 < entries.size && entries
+               .get(result + 1)
+               .getTypedPath
+               .getPath == path) {
+        result += 1
       }
     }
+    result
   }
 
 }
@@ -4,6 +4,7 @@ package com.swoval.files
 
 import com.swoval.files.PathWatchers.Event.Kind.Create
 import com.swoval.files.PathWatchers.Event.Kind.Delete
+import com.swoval.files.PathWatchers.Event.Kind.Move
 import com.swoval.files.PathWatchers.Event.Kind.Overflow
 import com.swoval.functional.Filters.AllPass
 import java.util.Map.Entry
@@ -12,6 +13,7 @@ import com.swoval.files.FileTreeDataViews.Converter
 import com.swoval.files.FileTreeViews.Observer
 import com.swoval.files.PathWatchers.Event
 import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.PathWatchers.Options
 import com.swoval.files.PathWatchers.Overflow
 import com.swoval.functional.Consumer
 import com.swoval.functional.Either
@@ -25,20 +27,27 @@ import java.nio.file.FileSystems
 import java.nio.file.NoSuchFileException
 import java.nio.file.Path
 import java.util.ArrayList
+import java.util.Collections
+import java.util.HashMap
 import java.util.HashSet
 import java.util.Iterator
 import java.util.List
+import java.util.Map
 import java.util.Set
 import java.util.concurrent.atomic.AtomicBoolean
 
 class RootDirectories extends LockableMap[Path, CachedDirectory[WatchedDirectory]]
 
 /**
- * Provides a PathWatcher that is backed by a [[java.nio.file.WatchService]].
+ * Provides a PathWatcher that is backed by a [[java.nio.file.WatchService]]. In addition to the
+ * usual observers, which receive the events one at a time, batch observers receive all of the
+ * events that result from each batch of events that the handler thread drains from the watch
+ * service.
  */
 class NioPathWatcher(
     private val directoryRegistry: DirectoryRegistry,
     watchService: RegisterableWatchService,
+    options: Options,
     private val logger: Logger
 ) extends PathWatcher[PathWatchers.Event]
     with AutoCloseable {
@@ -47,6 +56,8 @@ class NioPathWatcher(
 
   private val observers: Observers[PathWatchers.Event] = new Observers()
 
+  private val batchObservers: Observers[List[PathWatchers.Event]] = new Observers()
+
   private val rootDirectories: RootDirectories = new RootDirectories()
 
   private val converter: Converter[WatchedDirectory] =
@@ -57,6 +68,12 @@ class NioPathWatcher(
         else WatchedDirectories.INVALID
     }
 
+  private val directoryFilter: Filter[TypedPath] = new Filter[TypedPath]() {
+    override def accept(typedPath: TypedPath): Boolean =
+      typedPath.isDirectory && !typedPath.isSymbolicLink && directoryRegistry
+        .acceptPrefix(typedPath.getPath)
+  }
+
   private def updateCacheObserver(events: List[Event]): CacheObserver[WatchedDirectory] =
     new CacheObserver[WatchedDirectory]() {
       override def onCreate(newEntry: FileTreeDataViews.Entry[WatchedDirectory]): Unit = {
@@ -100,22 +117,33 @@ class NioPathWatcher(
     }
 
   private val service: NioPathWatcherService = new NioPathWatcherService(
-    new Consumer[Either[Overflow, Event]]() {
-      override def accept(either: Either[Overflow, Event]): Unit = {
+    new Consumer[List[Either[Overflow, Event]]]() {
+      override def accept(batch: List[Either[Overflow, Event]]): Unit = {
         if (!closed.get) {
-          if (either.isRight) {
-            val event: Event = either.get
-            handleEvent(event)
-          } else {
-            handleOverflow(Either.leftProjection(either).getValue)
+          val accepted: List[Event] = new ArrayList[Event]()
+          val it: Iterator[Either[Overflow, Event]] = batch.iterator()
+          while (it.hasNext) {
+            val either: Either[Overflow, Event] = it.next()
+            if (either.isRight) {
+              handleEvent(either.get, accepted)
+            } else {
+              handleOverflow(Either.leftProjection(either).getValue, accepted)
+            }
           }
+          runCallbacks(accepted)
         }
       }
     },
     watchService,
+    options,
     logger
   )
 
+  def this(directoryRegistry: DirectoryRegistry,
+           watchService: RegisterableWatchService,
+           logger: Logger) =
+    this(directoryRegistry, watchService, new Options(), logger)
+
   /**
    * Similar to register, but tracks all of the new files found in the directory. It polls the
    * directory until the contents stop changing to ensure that a callback is fired for each path in
@@ -176,6 +204,8 @@ class NioPathWatcher(
   override def register(path: Path, maxDepth: Int): Either[IOException, Boolean] = {
     val absolutePath: Path =
       if (path.isAbsolute) path else path.toAbsolutePath()
+    if (directoryRegistry.exclusions().isExcluded(absolutePath))
+      return Either.right(false)
     val existingMaxDepth: Int = directoryRegistry.maxDepthFor(absolutePath)
     val result: Boolean = existingMaxDepth < maxDepth
     val typedPath: TypedPath = TypedPaths.get(absolutePath)
@@ -188,9 +218,31 @@ class NioPathWatcher(
     if (result) {
       directoryRegistry.addDirectory(typedPath.getPath, maxDepth)
     }
-    val dir: CachedDirectory[WatchedDirectory] = getOrAdd(realPath)
+    /*
+     * Watch and list the new directories concurrently before they are cached. The cache is then
+     * built from those listings, so it doesn't list them again, and any directory that was created
+     * in the meantime is reported by the watch of its parent.
+     */
+
+    val created: Map[Path, WatchedDirectory] = new HashMap[Path, WatchedDirectory]()
+    val fileTreeView: FileTreeView =
+      if (result) service.registerTree(realPath, directoryFilter, created)
+      else FileTreeViews.getDefault(false)
+    var dir: CachedDirectory[WatchedDirectory] = null
+    var isNewRoot: Boolean = false
+    if (rootDirectories.lock()) {
+      try {
+        isNewRoot = find(realPath) == null
+        dir = getOrAdd(realPath, fileTreeView)
+      } finally rootDirectories.unlock()
+    }
     val events: List[Event] = new ArrayList[Event]()
-    if (dir != null) {
+    /*
+     * A new root has just listed the entire tree after watching it, so rescanning it could only
+     * find the directories that were created since, which the watches report anyway.
+     */
+
+    if (dir != null && !(isNewRoot && realPath == typedPath.getPath)) {
       val directories: List[FileTreeDataViews.Entry[WatchedDirectory]] =
         dir.listEntries(typedPath.getPath, -1, AllPass)
       if (
@@ -203,12 +255,48 @@ class NioPathWatcher(
         if (toUpdate != null) update(dir, typedPath, events, true)
       }
     }
-    runCallbacks(events)
+    try fileTreeView.close()
+    catch {
+      case e: Exception => {}
+
+    }
+    closeUnused(created)
+    val accepted: List[Event] = new ArrayList[Event]()
+    addAccepted(events, accepted)
+    runCallbacks(accepted)
     if (Loggers.shouldLog(logger, Level.DEBUG))
       logger.debug(this + " registered " + path + " with max depth " + maxDepth)
     Either.right(result)
   }
 
+  /*
+   * Closes the watches that were created by registerTree for the directories that aren't cached,
+   * e.g. because they were deleted before their parent was cached.
+   */
+
+  private def closeUnused(created: Map[Path, WatchedDirectory]): Unit = {
+    if (!created.isEmpty && rootDirectories.lock()) {
+      try {
+        val it: Iterator[Entry[Path, WatchedDirectory]] =
+          created.entrySet().iterator()
+        while (it.hasNext) {
+          val entry: Entry[Path, WatchedDirectory] = it.next()
+          val root: CachedDirectory[WatchedDirectory] = find(entry.getKey)
+          val entries: List[FileTreeDataViews.Entry[WatchedDirectory]] =
+            if (root == null)
+              Collections.emptyList[FileTreeDataViews.Entry[WatchedDirectory]]()
+            else root.listEntries(entry.getKey, -1, AllPass)
+          if (
+            entries.isEmpty || entries.get(0).getValue.isLeft ||
+            entries.get(0).getValue.get != entry.getValue
+          ) {
+            entry.getValue.close()
+          }
+        }
+      } finally rootDirectories.unlock()
+    }
+  }
+
   private def find(rawPath: Path): CachedDirectory[WatchedDirectory] =
     find(rawPath, null)
 
@@ -246,7 +334,10 @@ class NioPathWatcher(
     it.next()
   }
 
-  private def findOrAddRoot(rawPath: Path): CachedDirectory[WatchedDirectory] = {
+  private def findOrAddRoot(
+      rawPath: Path,
+      fileTreeView: FileTreeView
+  ): CachedDirectory[WatchedDirectory] = {
     val toRemove: List[Path] = new ArrayList[Path]()
     var result: CachedDirectory[WatchedDirectory] = find(rawPath, toRemove)
     if (result == null) {
@@ -263,13 +354,9 @@ class NioPathWatcher(
           TypedPaths.get(path),
           converter,
           java.lang.Integer.MAX_VALUE,
-          new Filter[TypedPath]() {
-            override def accept(typedPath: TypedPath): Boolean =
-              typedPath.isDirectory && !typedPath.isSymbolicLink && directoryRegistry
-                .acceptPrefix(typedPath.getPath)
-          },
+          directoryFilter,
           false
-        ).init()
+        ).init(fileTreeView)
         init = true
         rootDirectories.put(path, result)
       } catch {
@@ -282,11 +369,17 @@ class NioPathWatcher(
     result
   }
 
-  private def getOrAdd(path: Path): CachedDirectory[WatchedDirectory] = {
+  private def getOrAdd(path: Path): CachedDirectory[WatchedDirectory] =
+    getOrAdd(path, FileTreeViews.getDefault(false))
+
+  private def getOrAdd(
+      path: Path,
+      fileTreeView: FileTreeView
+  ): CachedDirectory[WatchedDirectory] = {
     var result: CachedDirectory[WatchedDirectory] = null
     if (rootDirectories.lock()) {
       try if (!closed.get) {
-        result = findOrAddRoot(path)
+        result = findOrAddRoot(path, fileTreeView)
       } finally rootDirectories.unlock()
     }
     result
@@ -360,7 +453,7 @@ class NioPathWatcher(
     }
   }
 
-  private def handleOverflow(overflow: Overflow): Unit = {
+  private def handleOverflow(overflow: Overflow, accepted: List[Event]): Unit = {
     val path: Path = overflow.getPath
     if (Loggers.shouldLog(logger, Level.DEBUG))
       logger.debug(this + " received overflow for " + path)
@@ -402,39 +495,92 @@ class NioPathWatcher(
     }
     val tp: TypedPath = TypedPaths.get(path)
     events.add(new Event(tp, if (tp.exists()) Overflow else Delete))
-    runCallbacks(events)
+    addAccepted(events, accepted)
   }
 
-  private def runCallbacks(events: List[Event]): Unit = {
+  /*
+   * Adds the first event for each of the paths that the registry accepts to the accepted events.
+   */
+
+  private def addAccepted(events: List[Event], accepted: List[Event]): Unit = {
     val it: Iterator[Event] = events.iterator()
     val handled: Set[Path] = new HashSet[Path]()
     while (it.hasNext) {
       val event: Event = it.next()
       val path: Path = event.getTypedPath.getPath
       if (directoryRegistry.accept(path) && handled.add(path)) {
-        observers.onNext(new Event(TypedPaths.get(path), event.getKind))
+        val typedPath: TypedPath =
+          if (TypedPaths.isKnown(event.getTypedPath)) event.getTypedPath
+          else TypedPaths.get(path)
+        accepted.add(new Event(typedPath, event.getKind, event.getPreviousTypedPath))
       }
     }
   }
 
-  private def handleEvent(event: Event): Unit = {
+  private def runCallbacks(events: List[Event]): Unit = {
+    val it: Iterator[Event] = events.iterator()
+    while (it.hasNext) observers.onNext(it.next())
+    if (!events.isEmpty) batchObservers.onNext(Collections.unmodifiableList(events))
+  }
+
+  private def handleEvent(event: Event, accepted: List[Event]): Unit = {
     if (Loggers.shouldLog(logger, Level.DEBUG))
       logger.debug(this + " received event " + event)
     val events: List[Event] = new ArrayList[Event]()
     if (!closed.get && rootDirectories.lock()) {
-      try if (directoryRegistry.acceptPrefix(event.getTypedPath.getPath)) {
-        val isDelete: Boolean = event.getKind == Delete
-        val typedPath: TypedPath = TypedPaths.get(event.getTypedPath.getPath)
-        if (isDelete) remove(typedPath.getPath, events)
-        if (typedPath.exists()) {
-          if (typedPath.isDirectory && !typedPath.isSymbolicLink)
-            add(typedPath, events)
-          events.add(event)
-        } else if (!isDelete) remove(typedPath.getPath, events)
-        else events.add(event)
+      try {
+        if (event.getKind == Move && event.getPreviousTypedPath != null) {
+          handleMove(event, events)
+        } else if (directoryRegistry.acceptPrefix(event.getTypedPath.getPath)) {
+          val isDelete: Boolean = event.getKind == Delete
+          val typedPath: TypedPath =
+            if (TypedPaths.isKnown(event.getTypedPath)) event.getTypedPath
+            else TypedPaths.get(event.getTypedPath.getPath)
+          val typedEvent: Event = new Event(typedPath, event.getKind)
+          if (isDelete) remove(typedPath.getPath, events)
+          if (typedPath.exists()) {
+            if (typedPath.isDirectory && !typedPath.isSymbolicLink)
+              add(typedPath, events)
+            events.add(typedEvent)
+          } else if (!isDelete) remove(typedPath.getPath, events)
+          else events.add(typedEvent)
+        }
+        if (directoryRegistry.exclusions().invalidate(event.getTypedPath.getPath)) {
+          // Watch or stop watching the directories whose ignore rules have changed.
+          val parent: TypedPath = TypedPaths.get(event.getTypedPath.getPath.getParent)
+          if (parent.isDirectory) add(parent, events)
+        }
       } finally rootDirectories.unlock()
     }
-    runCallbacks(events)
+    addAccepted(events, accepted)
+  }
+
+  /**
+   * Moves the watches of a renamed directory to its new path. The watch service has already
+   * reported the entries below the new path, so the events for the watches that are closed and
+   * opened are discarded. Only the move itself is reported, unless just one of the paths is
+   * accepted by the registry, in which case the move is reported as a deletion or a creation.
+   */
+  private def handleMove(event: Event, events: List[Event]): Unit = {
+    val previousTypedPath: TypedPath = event.getPreviousTypedPath
+    val typedPath: TypedPath =
+      if (TypedPaths.isKnown(event.getTypedPath)) event.getTypedPath
+      else TypedPaths.get(event.getTypedPath.getPath)
+    val discarded: List[Event] = new ArrayList[Event]()
+    remove(previousTypedPath.getPath, discarded)
+    val accepted: Boolean = directoryRegistry.acceptPrefix(typedPath.getPath)
+    if (accepted && typedPath.isDirectory && !typedPath.isSymbolicLink) {
+      add(typedPath, discarded)
+    }
+    val previousAccepted: Boolean =
+      directoryRegistry.accept(previousTypedPath.getPath)
+    if (accepted && typedPath.exists()) {
+      events.add(
+        if (previousAccepted) new Event(typedPath, Move, previousTypedPath)
+        else new Event(typedPath, Create))
+    } else if (previousAccepted) {
+      events.add(new Event(previousTypedPath, Delete))
+    }
   }
 
   override def addObserver(observer: Observer[_ >: Event]): Int =
@@ -444,4 +590,23 @@ class NioPathWatcher(
     observers.removeObserver(handle)
   }
 
+  /**
+   * Add an observer of the batches of events. Each batch contains the events that result from one
+   * batch of events drained from the watch service, or from one registration.
+   *
+   * @param observer the observer to add
+   * @return the handle to the observer.
+   */
+  def addBatchObserver(observer: Observer[_ >: List[PathWatchers.Event]]): Int =
+    batchObservers.addObserver(observer)
+
+  /**
+   * Remove a batch observer.
+   *
+   * @param handle the handle that was returned by addBatchObserver
+   */
+  def removeBatchObserver(handle: Int): Unit = {
+    batchObservers.removeObserver(handle)
+  }
+
 }
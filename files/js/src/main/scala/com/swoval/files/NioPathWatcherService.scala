@@ -20,13 +20,21 @@ import scala.scalajs.js.timers._
 import scala.util.Try
 
 /**
- * Native directory watcher implementation for Linux and Windows
+ * Native directory watcher implementation for Linux and Windows. Node reports every rename as a
+ * deletion and a creation, so the path watcher options don't change anything.
  */
 private[files] class NioPathWatcherService(
-    eventConsumer: Consumer[functional.Either[Overflow, Event]],
+    eventConsumer: Consumer[java.util.List[functional.Either[Overflow, Event]]],
     registerable: RegisterableWatchService,
+    pathWatcherOptions: PathWatchers.Options,
     logger: Logger
 ) extends AutoCloseable {
+  def this(
+      eventConsumer: Consumer[java.util.List[functional.Either[Overflow, Event]]],
+      registerable: RegisterableWatchService,
+      logger: Logger
+  ) = this(eventConsumer, registerable, new PathWatchers.Options(), logger)
+
   private[this] var closed = false
   private[this] val options = new FSWatcherOptions(recursive = false, persistent = false)
   private[this] var watchedDirectoriesByPath: Map[Path, WatchedDirectory] =
@@ -36,6 +44,17 @@ private[files] class NioPathWatcherService(
     watchedDirectoriesByPath.toIndexedSeq.sortBy(_._1.toString).reverse.foreach(_._2.close())
     watchedDirectoriesByPath = Map.empty
   }
+
+  /**
+   * Registers a directory tree. Node can't register directories concurrently, so the directories
+   * are registered when they are cached and the default view is returned.
+   */
+  def registerTree(
+      path: Path,
+      filter: functional.Filter[_ >: TypedPath],
+      created: java.util.Map[Path, WatchedDirectory]
+  ): FileTreeView = FileTreeViews.getDefault(false)
+
   def register(path: Path): functional.Either[IOException, WatchedDirectory] = {
     val realPath = Try(path.toRealPath()).getOrElse(path)
     if (Loggers.shouldLog(logger, Level.DEBUG)) {
@@ -72,7 +91,8 @@ private[files] class NioPathWatcherService(
               if (Loggers.shouldLog(logger, Level.DEBUG)) {
                 logger.debug(this + " received event " + event)
               }
-              eventConsumer.accept(functional.Either.right(event))
+              val either: functional.Either[Overflow, Event] = functional.Either.right(event)
+              eventConsumer.accept(java.util.Collections.singletonList(either))
             }
 
           val closed = new AtomicBoolean(false)
@@ -82,7 +102,9 @@ private[files] class NioPathWatcherService(
               closed.set(true)
               watcher.close()
               watchedDirectoriesByPath += path -> WatchedDirectories.INVALID
-              eventConsumer.accept(functional.Either.right(new Event(TypedPaths.get(path), Error)))
+              val error: functional.Either[Overflow, Event] =
+                functional.Either.right(new Event(TypedPaths.get(path), Error))
+              eventConsumer.accept(java.util.Collections.singletonList(error))
             }
             ()
           }
@@ -5,6 +5,7 @@ package com.swoval.files
 import com.swoval.files.FileTreeDataViews.CacheObserver
 import com.swoval.files.FileTreeViews.Observer
 import java.util.ArrayList
+import java.util.Collections
 import java.util.Iterator
 import java.util.LinkedHashMap
 import java.util.List
@@ -13,7 +14,8 @@ import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Container class that wraps multiple [[FileTreeViews.Observer]] and runs the callbacks for
- * each whenever the [[PathWatcher]] detects an event.
+ * each whenever the [[PathWatcher]] detects an event. The observers are copied on write when an
+ * observer is added or removed, so running the callbacks neither locks nor copies the observers.
  *
  * @tparam T the data type for the [[PathWatcher]] to which the observers correspond
  */
@@ -24,12 +26,10 @@ class Observers[T] extends FileTreeViews.Observer[T] with AutoCloseable {
   private val observers: Map[Integer, FileTreeViews.Observer[T]] =
     new LinkedHashMap()
 
+  @volatile private var snapshot: List[FileTreeViews.Observer[T]] = Collections.emptyList()
+
   override def onNext(t: T): Unit = {
-    var cbs: List[FileTreeViews.Observer[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[FileTreeViews.Observer[T]] = cbs.iterator()
+    val it: Iterator[FileTreeViews.Observer[T]] = snapshot.iterator()
     while (it.hasNext)
       try it.next().onNext(t)
       catch {
@@ -39,11 +39,7 @@ class Observers[T] extends FileTreeViews.Observer[T] with AutoCloseable {
   }
 
   override def onError(throwable: Throwable): Unit = {
-    var cbs: List[FileTreeViews.Observer[T]] = null
-    observers.synchronized {
-      cbs = new ArrayList(observers.values)
-    }
-    val it: Iterator[FileTreeViews.Observer[T]] = cbs.iterator()
+    val it: Iterator[FileTreeViews.Observer[T]] = snapshot.iterator()
     while (it.hasNext)
       try it.next().onError(throwable)
       catch {
@@ -62,6 +58,7 @@ class Observers[T] extends FileTreeViews.Observer[T] with AutoCloseable {
     val key: Int = counter.getAndIncrement
     observers.synchronized {
       observers.put(key, observer.asInstanceOf[Observer[T]])
+      snapshot = Collections.unmodifiableList(new ArrayList(observers.values))
     }
     key
   }
@@ -73,12 +70,17 @@ class Observers[T] extends FileTreeViews.Observer[T] with AutoCloseable {
    */
   def removeObserver(handle: Int): Unit = {
     observers.synchronized {
-      observers.remove(handle)
+      if (observers.remove(handle) != null) {
+        snapshot = Collections.unmodifiableList(new ArrayList(observers.values))
+      }
     }
   }
 
   override def close(): Unit = {
-    observers.clear()
+    observers.synchronized {
+      observers.clear()
+      snapshot = Collections.emptyList()
+    }
   }
 
 }
@@ -3,6 +3,7 @@
 package com.swoval.files
 
 import com.swoval.files.FileTreeDataViews.Converter
+import com.swoval.files.FileTreeDataViews.LongConverter
 import com.swoval.logging.Logger
 import com.swoval.logging.Loggers
 import com.swoval.runtime.Platform
@@ -23,6 +24,54 @@ object PathWatchers {
   def get(followLinks: Boolean): PathWatcher[PathWatchers.Event] =
     get(followLinks, new DirectoryRegistryImpl(), Loggers.getLogger)
 
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in [[PathWatchers.polling(Boolean, Long, TimeUnit, Iterable)]].
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return PathWatcher for the runtime platform
+   */
+  def get(followLinks: Boolean,
+          exclusions: java.lang.Iterable[String]): PathWatcher[PathWatchers.Event] =
+    get(followLinks, exclusions, false)
+
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in [[PathWatchers.polling(Boolean, Long, TimeUnit, Iterable)]]. In write completion mode, a modified
+   * file is only reported once it is closed after being written, so a file that is written in many
+   * chunks is reported once instead of once per chunk. Only the linux path watcher supports write
+   * completion mode. The path watchers for the other platforms report every modification.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @param writeCompletion toggles whether or not modifications are only reported for completed
+   *     writes
+   * @return PathWatcher for the runtime platform
+   */
+  def get(followLinks: Boolean,
+          exclusions: java.lang.Iterable[String],
+          writeCompletion: Boolean): PathWatcher[PathWatchers.Event] =
+    get(followLinks, exclusions, new Options().writeCompletion(writeCompletion))
+
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in [[PathWatchers.polling(Boolean, Long, TimeUnit, Iterable)]]. The path watcher is configured by
+   * the [[Options]]. The default options create the same path watcher as [[PathWatchers.get(Boolean, Iterable)]].
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @param options the options for the path watcher
+   * @return PathWatcher for the runtime platform
+   */
+  def get(followLinks: Boolean,
+          exclusions: java.lang.Iterable[String],
+          options: Options): PathWatcher[PathWatchers.Event] =
+    get(followLinks,
+        new DirectoryRegistryImpl(Exclusions.get(exclusions)),
+        options.copy(),
+        Loggers.getLogger)
+
   /**
    * Create a path watcher that periodically polls the file system to detect changes
    *
@@ -43,6 +92,26 @@ object PathWatchers {
   ): PathWatcher[PathWatchers.Event] =
     new PollingPathWatcher(converter, followLinks, pollInterval, timeUnit)
 
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Unlike [[PathWatchers.polling(Converter, Boolean, Long, TimeUnit)]], the converter returns a primitive
+   * long, so the last modified times are never boxed, even while they are being computed. This
+   * method has a different name than the [[Converter]] overload so that a lambda converter is
+   * never ambiguous.
+   *
+   * @param converter calculates the last modified time in milliseconds for the path watcher.
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval corresponds
+   * @return the polling path watcher.
+   */
+  def pollingLong(
+      converter: LongConverter,
+      followLinks: Boolean,
+      pollInterval: java.lang.Long,
+      timeUnit: TimeUnit
+  ): PathWatcher[PathWatchers.Event] =
+    new PollingPathWatcher(converter, followLinks, pollInterval, timeUnit)
+
   /**
    * Create a path watcher that periodically polls the file system to detect changes
    *
@@ -58,6 +127,64 @@ object PathWatchers {
   ): PathWatcher[PathWatchers.Event] =
     new PollingPathWatcher(followLinks, pollInterval, timeUnit)
 
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Paths that
+   * match any of the exclusion globs are never polled. The globs are matched one path name at a
+   * time: '*' matches any characters within a name, '?' matches a single character within a name
+   * and '**' matches any number of names. Globs that do not start with '/' may match at any depth,
+   * e.g. 'target' or '.git/objects'. Excluding a directory excludes all of its children.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval corresponds
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return the polling path watcher.
+   */
+  def polling(
+      followLinks: Boolean,
+      pollInterval: java.lang.Long,
+      timeUnit: TimeUnit,
+      exclusions: java.lang.Iterable[String]
+  ): PathWatcher[PathWatchers.Event] =
+    new PollingPathWatcher(followLinks, pollInterval, timeUnit, Exclusions.get(exclusions))
+
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Each
+   * registered directory is polled every pollInterval while it is changing. While it stays
+   * unchanged, the interval between its polls is doubled after each poll until it reaches
+   * maxLatency, which therefore bounds the time it may take to detect a change in a directory that
+   * has been idle. The polls of every polling path watcher share a small pool of threads, so a slow
+   * poll may delay the polls of the other directories while every thread is busy. Paths that match
+   * any of the exclusion globs are never polled. The glob syntax is described in [[PathWatchers.polling(Boolean, Long, TimeUnit, Iterable)]].
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param maxLatency maximum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval and maxLatency correspond
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return the polling path watcher.
+   * @throws IllegalArgumentException if maxLatency is less than pollInterval.
+   */
+  def polling(
+      followLinks: Boolean,
+      pollInterval: java.lang.Long,
+      maxLatency: java.lang.Long,
+      timeUnit: TimeUnit,
+      exclusions: java.lang.Iterable[String]
+  ): PathWatcher[PathWatchers.Event] = {
+    if (maxLatency < pollInterval) {
+      throw new IllegalArgumentException(
+        "The max latency " + maxLatency + " is less than the poll interval " + pollInterval)
+    }
+    new PollingPathWatcher(
+      followLinks,
+      pollInterval,
+      maxLatency,
+      timeUnit,
+      Exclusions.get(exclusions)
+    )
+  }
+
   /**
    * Create a PathWatcher for the runtime platform.
    *
@@ -68,8 +195,24 @@ object PathWatchers {
    *     initialized
    */
   def get(followLinks: Boolean, registry: DirectoryRegistry, logger: Logger): PathWatcher[Event] =
+    get(followLinks, registry, new Options(), logger)
+
+  /**
+   * Create a PathWatcher for the runtime platform.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param registry The registry of directories to monitor
+   * @param options the options for the path watcher
+   * @param logger the logger
+   * @return PathWatcher for the runtime platform
+   *     initialized
+   */
+  def get(followLinks: Boolean,
+          registry: DirectoryRegistry,
+          options: Options,
+          logger: Logger): PathWatcher[Event] =
     if (Platform.isMac) ApplePathWatchers.get(followLinks, registry, logger)
-    else PlatformWatcher.make(followLinks, registry, logger)
+    else PlatformWatcher.make(followLinks, null, registry, options, logger)
 
   /**
    * Create a PathWatcher for the runtime platform.
@@ -85,6 +228,98 @@ object PathWatchers {
   ): PathWatcher[Event] =
     PlatformWatcher.make(followLinks, service, registry, logger)
 
+  /**
+   * The options for the path watchers created by [[PathWatchers.get(Boolean, Iterable, Options)]]. The default options create the same path watcher as [[PathWatchers.get(Boolean,
+   * Iterable)]]. The path watcher is created with a copy of the options, so changing the options
+   * later doesn't affect it.
+   */
+  class Options {
+
+    var writeCompletionMode: Boolean = false
+
+    var reportMoveEvents: Boolean = false
+
+    var handlerThreadCount: Int = 0
+
+    var verifyIntervalMillis: Long = -1
+
+    /**
+     * Toggles whether or not a modified file is only reported once it is closed after being
+     * written, so that a file that is written in many chunks is reported once instead of once per
+     * chunk. Only the linux path watcher supports write completion mode. The path watchers for the
+     * other platforms report every modification. It is off by default.
+     *
+     * @param writeCompletion toggles whether or not modifications are only reported for completed
+     *     writes
+     * @return these options
+     */
+    def writeCompletion(writeCompletion: Boolean): Options = {
+      this.writeCompletionMode = writeCompletion
+      this
+    }
+
+    /**
+     * Toggles whether or not a path that is renamed within the watched directories is reported as
+     * a single [[Event.Kind.Move]] event for the new path, whose [[Event.getPreviousTypedPath]] is the old path. Otherwise, the rename is reported as a [[Event.Kind.Delete]] event for the old path followed by a [[Event.Kind.Create]] event for
+     * the new path. Only the linux path watcher can pair the two halves of a rename. The path
+     * watchers for the other platforms always report a rename as a deletion and a creation. It is
+     * off by default.
+     *
+     * @param reportMoves toggles whether or not renames are reported as move events
+     * @return these options
+     */
+    def reportMoves(reportMoves: Boolean): Options = {
+      this.reportMoveEvents = reportMoves
+      this
+    }
+
+    /**
+     * Sets the number of threads that handle the events of the path watcher. The events below a
+     * registered path are always handled by the same thread and in order, so more threads only
+     * help when several paths are registered. The observers of a path watcher with more than one
+     * handler thread must be thread safe. Only the path watchers that are backed by a [[java.nio.file.WatchService]], i.e. the path watchers for linux and windows, use more than one
+     * thread. By default, it is the value of the <code>swoval.watcher.handler.threads</code>
+     * system property, or one if it isn't set.
+     *
+     * @param handlerThreads the number of handler threads. Values that aren't positive select the
+     *     default.
+     * @return these options
+     */
+    def handlerThreads(handlerThreads: Int): Options = {
+      this.handlerThreadCount = handlerThreads
+      this
+    }
+
+    /**
+     * Sets the interval at which the watched directories are verified in the background, in
+     * case the watch service dropped some of their events. A directory is only listed if its last
+     * modified time has changed since it was last verified, and only the creations and deletions
+     * that the watch service didn't report are reported. An interval of zero turns the
+     * verification off. Only the path watchers for linux and windows verify their directories. By
+     * default, the interval is the value of the <code>swoval.watcher.verify.interval</code> system
+     * property in milliseconds, or zero if it isn't set.
+     *
+     * @param interval the verification interval. Negative values select the default.
+     * @param timeUnit the unit of the interval
+     * @return these options
+     */
+    def verifyInterval(interval: Long, timeUnit: TimeUnit): Options = {
+      this.verifyIntervalMillis =
+        if (interval > 0) Math.max(1, timeUnit.toMillis(interval))
+        else if (interval < 0) -1
+        else 0
+      this
+    }
+
+    def copy(): Options =
+      new Options()
+        .writeCompletion(writeCompletionMode)
+        .reportMoves(reportMoveEvents)
+        .handlerThreads(handlerThreadCount)
+        .verifyInterval(verifyIntervalMillis, TimeUnit.MILLISECONDS)
+
+  }
+
   class Overflow(@BeanProperty val path: Path)
 
   object Event {
@@ -111,6 +346,13 @@ object PathWatchers {
        */
       val Modify: Kind = new Kind("Modify")
 
+      /**
+       * A file was moved from the path returned by [[Event.getPreviousTypedPath]], which no
+       * longer exists. If the file is a directory, its children were moved with it. Moves are
+       * only reported by the path watchers that were created with [[Options.reportMoves]].
+       */
+      val Move: Kind = new Kind("Move")
+
       /**
        * The watching service overflowed so it may be necessary to poll.
        */
@@ -142,13 +384,21 @@ object PathWatchers {
   /**
    * Container for [[PathWatcher]] events.
    */
-  class Event(@BeanProperty val typedPath: TypedPath, @BeanProperty val kind: Event.Kind) {
+  class Event(
+      @BeanProperty val typedPath: TypedPath,
+      @BeanProperty val kind: Event.Kind,
+      @BeanProperty val previousTypedPath: TypedPath
+  ) {
+
+    def this(typedPath: TypedPath, kind: Event.Kind) = this(typedPath, kind, null)
 
     override def equals(other: Any): Boolean =
       other match {
         case other: Event => {
           val that: Event = other
-          this.typedPath == that.typedPath && this.kind == that.kind
+          this.typedPath == that.typedPath && this.kind == that.kind &&
+          (if (this.previousTypedPath == null) that.previousTypedPath == null
+           else this.previousTypedPath == that.previousTypedPath)
         }
         case _ => false
 
@@ -157,7 +407,10 @@ object PathWatchers {
     override def hashCode(): Int = typedPath.hashCode ^ kind.hashCode
 
     override def toString(): String =
-      "Event(" + typedPath.getPath + ", " + kind + ")"
+      if (previousTypedPath == null) "Event(" + typedPath.getPath + ", " + kind + ")"
+      else
+        "Event(" + typedPath.getPath + ", " + kind + ", " + previousTypedPath.getPath +
+          ")"
 
   }
 
@@ -8,7 +8,16 @@ private[files] object PlatformWatcher {
       directoryRegistry: DirectoryRegistry,
       logger: Logger
   ): PathWatcher[PathWatchers.Event] = {
-    val watcher = new NioPathWatcher(directoryRegistry, registerable, logger)
+    make(followLinks, registerable, directoryRegistry, new PathWatchers.Options(), logger)
+  }
+  def make(
+      followLinks: Boolean,
+      registerable: RegisterableWatchService,
+      directoryRegistry: DirectoryRegistry,
+      options: PathWatchers.Options,
+      logger: Logger
+  ): PathWatcher[PathWatchers.Event] = {
+    val watcher = new NioPathWatcher(directoryRegistry, registerable, options, logger)
     if (followLinks) new SymlinkFollowingPathWatcher(watcher, directoryRegistry, logger)
     else watcher
   }
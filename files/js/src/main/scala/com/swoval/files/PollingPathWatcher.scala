@@ -2,49 +2,97 @@
 
 package com.swoval.files
 
-import com.swoval.functional.Filters.AllPass
-import com.swoval.files.FileTreeDataViews.CacheObserver
 import com.swoval.files.FileTreeDataViews.Converter
+import com.swoval.files.FileTreeDataViews.LongConverter
 import com.swoval.files.FileTreeViews.Observer
 import com.swoval.files.PathWatchers.Event
 import com.swoval.files.PathWatchers.Event.Kind
 import com.swoval.functional.Either
+import com.swoval.functional.Filter
 import java.io.IOException
 import java.nio.file.Files
-import java.nio.file.NotDirectoryException
 import java.nio.file.Path
 import java.util.ArrayList
-import java.util.Collections
+import java.util.HashMap
 import java.util.Iterator
 import java.util.List
 import java.util.Map
-import java.util.Map.Entry
-import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
-class PollingPathWatcher(
-    private val converter: Converter[java.lang.Long],
-    private val followLinks: Boolean,
-    pollInterval: java.lang.Long,
-    timeUnit: TimeUnit
-) extends PathWatcher[PathWatchers.Event] {
+/**
+ * A [[PathWatcher]] that periodically polls the file system for changes. Each registered path
+ * is cached in a [[LongCachedDirectory]] that stores the last modified time of every path as a
+ * primitive long. On each poll, the snapshot of each registered path is brought up to date in
+ * place. Only the directories whose last modified time has changed are listed again, but the last
+ * modified time of every file is still read, since writing to a file doesn't change the last
+ * modified time of its directory.
+ *
+ * <p>Each registered path is polled by its own task on the shared [[PollingScheduler]]. The
+ * path is polled again after the poll interval once a change is found and progressively less
+ * often while it stays unchanged, but never less often than the maximum poll interval. A
+ * registered path that is entirely contained in the tree of another registered path is not polled
+ * separately.
+ */
+class PollingPathWatcher(private val converter: LongConverter,
+                         private val followLinks: Boolean,
+                         pollInterval: java.lang.Long,
+                         maxPollInterval: java.lang.Long,
+                         timeUnit: TimeUnit,
+                         exclusions: Exclusions)
+    extends PathWatcher[PathWatchers.Event] {
 
   private val isClosed: AtomicBoolean = new AtomicBoolean(false)
 
-  private val registry: DirectoryRegistry = new DirectoryRegistryImpl()
+  private val fileTreeView: FileTreeView = FileTreeViews.getDefault(followLinks)
+
+  private val registry: DirectoryRegistry = new DirectoryRegistryImpl(exclusions)
+
+  private val filter: Filter[TypedPath] = exclusions.toTypedPathFilter()
 
   private val observers: Observers[PathWatchers.Event] = new Observers()
 
-  private var oldEntries: Map[Path, FileTreeDataViews.Entry[java.lang.Long]] = getEntries
+  private val roots: Map[Path, Root] = new HashMap[Path, Root]()
 
-  private val periodicTask: PeriodicTask =
-    new PeriodicTask(new PollingRunnable(), timeUnit.toMillis(pollInterval))
+  private val pollIntervalNanos: Long = timeUnit.toNanos(pollInterval)
 
-  def this(followLinks: Boolean, pollInterval: java.lang.Long, timeUnit: TimeUnit) =
+  private val maxPollIntervalNanos: Long =
+    Math.max(pollIntervalNanos, timeUnit.toNanos(maxPollInterval))
+
+  def this(converter: LongConverter,
+           followLinks: Boolean,
+           pollInterval: java.lang.Long,
+           timeUnit: TimeUnit,
+           exclusions: Exclusions) =
+    this(converter, followLinks, pollInterval, pollInterval, timeUnit, exclusions)
+
+  def this(converter: LongConverter,
+           followLinks: Boolean,
+           pollInterval: java.lang.Long,
+           timeUnit: TimeUnit) =
+    this(converter, followLinks, pollInterval, timeUnit, Exclusions.NONE)
+
+  def this(converter: Converter[java.lang.Long],
+           followLinks: Boolean,
+           pollInterval: java.lang.Long,
+           timeUnit: TimeUnit) =
+    this(
+      new LongConverter() {
+        override def apply(typedPath: TypedPath): Long = converter.apply(typedPath)
+      },
+      followLinks,
+      pollInterval,
+      timeUnit
+    )
+
+  def this(followLinks: Boolean,
+           pollInterval: java.lang.Long,
+           maxPollInterval: java.lang.Long,
+           timeUnit: TimeUnit,
+           exclusions: Exclusions) =
     this(
-      new Converter[java.lang.Long]() {
-        override def apply(typedPath: TypedPath): java.lang.Long =
+      new LongConverter() {
+        override def apply(typedPath: TypedPath): Long =
           try Files.getLastModifiedTime(typedPath.getPath).toMillis()
           catch {
             case e: Exception => 0L
@@ -53,18 +101,52 @@ class PollingPathWatcher(
       },
       followLinks,
       pollInterval,
-      timeUnit
+      maxPollInterval,
+      timeUnit,
+      exclusions
     )
 
+  def this(followLinks: Boolean,
+           pollInterval: java.lang.Long,
+           timeUnit: TimeUnit,
+           exclusions: Exclusions) =
+    this(followLinks, pollInterval, pollInterval, timeUnit, exclusions)
+
+  def this(followLinks: Boolean, pollInterval: java.lang.Long, timeUnit: TimeUnit) =
+    this(followLinks, pollInterval, timeUnit, Exclusions.NONE)
+
   override def register(path: Path, maxDepth: Int): Either[IOException, Boolean] = {
     val absolutePath: Path =
       if (path.isAbsolute) path else path.toAbsolutePath()
+    if (registry.exclusions().isExcluded(absolutePath)) return Either.right(false)
+    val snapshot: LongCachedDirectory = getSnapshot(absolutePath, maxDepth)
     var result: Boolean = false
-    val entries: List[FileTreeDataViews.Entry[java.lang.Long]] =
-      getEntries(absolutePath, maxDepth)
-    this.synchronized {
-      addAll(oldEntries, entries)
-      result = registry.addDirectory(absolutePath, maxDepth)
+    var isNew: Boolean = false
+    var root: Root = null
+    roots.synchronized {
+      result = !isClosed.get && registry.addDirectory(absolutePath, maxDepth)
+      if (result) {
+        root = roots.get(absolutePath)
+        if (root == null) {
+          root = new Root(absolutePath)
+          roots.put(absolutePath, root)
+          isNew = true
+        }
+        root.maxDepth = maxDepth
+        root.snapshot = snapshot
+        root.stale = false
+        updateCoverage()
+      }
+    }
+    if (isNew) {
+      val handle: PollingScheduler.Handle = PollingScheduler
+        .get()
+        .schedule(root, pollIntervalNanos, maxPollIntervalNanos, TimeUnit.NANOSECONDS)
+      var cancel: Boolean = false
+      roots.synchronized {
+        if (roots.get(absolutePath) == root) root.handle = handle else cancel = true
+      }
+      if (cancel) handle.cancel()
     }
     Either.right(result)
   }
@@ -72,16 +154,27 @@ class PollingPathWatcher(
   override def unregister(path: Path): Unit = {
     val absolutePath: Path =
       if (path.isAbsolute) path else path.toAbsolutePath()
-    registry.removeDirectory(absolutePath)
+    var root: Root = null
+    roots.synchronized {
+      registry.removeDirectory(absolutePath)
+      root = roots.remove(absolutePath)
+      if (root != null) updateCoverage()
+    }
+    if (root != null && root.handle != null) root.handle.cancel()
   }
 
   override def close(): Unit = {
     if (isClosed.compareAndSet(false, true)) {
       registry.close()
-      try periodicTask.close()
-      catch {
-        case e: InterruptedException => e.printStackTrace(System.err)
-
+      var closed: List[Root] = null
+      roots.synchronized {
+        closed = new ArrayList(roots.values)
+        roots.clear()
+      }
+      val it: Iterator[Root] = closed.iterator()
+      while (it.hasNext) {
+        val root: Root = it.next()
+        if (root.handle != null) root.handle.cancel()
       }
     }
   }
@@ -93,89 +186,100 @@ class PollingPathWatcher(
     observers.removeObserver(handle)
   }
 
-  private def addAll(
-      map: Map[Path, FileTreeDataViews.Entry[java.lang.Long]],
-      list: List[FileTreeDataViews.Entry[java.lang.Long]]
-  ): Unit = {
-    val it: Iterator[FileTreeDataViews.Entry[java.lang.Long]] = list.iterator()
+  private def getSnapshot(path: Path, maxDepth: Int): LongCachedDirectory =
+    try LongCachedDirectory.get(TypedPaths.get(path), converter, maxDepth, filter, fileTreeView)
+    catch {
+      case e: IOException => null
+
+    }
+
+  /*
+   * Marks the roots whose entire tree is polled by the root of one of their ancestors. The
+   * snapshot of a covered root isn't updated, so it is marked stale and replaced without reporting
+   * any changes if the root is ever uncovered. This must be called while holding the roots lock.
+   */
+
+  private def updateCoverage(): Unit = {
+    val it: Iterator[Root] = roots.values.iterator()
     while (it.hasNext) {
-      val entry: FileTreeDataViews.Entry[java.lang.Long] = it.next()
-      map.put(entry.getTypedPath.getPath, entry)
+      val root: Root = it.next()
+      var covered: Boolean = false
+      val ancestors: Iterator[Root] = roots.values.iterator()
+      while (!covered && ancestors.hasNext) {
+        val ancestor: Root = ancestors.next()
+        if (ancestor != root && root.path.startsWith(ancestor.path)) {
+          val distance: Int = root.path.getNameCount - ancestor.path.getNameCount
+          covered = ancestor.maxDepth == java.lang.Integer.MAX_VALUE ||
+            (root.maxDepth != java.lang.Integer.MAX_VALUE &&
+              ancestor.maxDepth - distance >= root.maxDepth)
+        }
+      }
+      if (covered) root.stale = true
+      root.covered = covered
     }
   }
 
-  private def getEntries(path: Path, maxDepth: Int): List[FileTreeDataViews.Entry[java.lang.Long]] =
-    try {
-      val view: DirectoryDataView[java.lang.Long] =
-        FileTreeDataViews.cached(path, converter, maxDepth, followLinks)
-      val newEntries: List[FileTreeDataViews.Entry[java.lang.Long]] =
-        view.listEntries(maxDepth, AllPass)
-      val pathEntry: List[FileTreeDataViews.Entry[java.lang.Long]] =
-        view.listEntries(-1, AllPass)
-      if (pathEntry.size == 1) newEntries.add(pathEntry.get(0))
-      newEntries
-    } catch {
-      case e: NotDirectoryException => {
-        val result: List[FileTreeDataViews.Entry[java.lang.Long]] =
-          new ArrayList[FileTreeDataViews.Entry[java.lang.Long]]()
-        val typedPath: TypedPath = TypedPaths.get(path)
-        result.add(Entries.get(typedPath, converter, typedPath))
-        result
-      }
+  private class Root(val path: Path) extends PollingScheduler.Task {
 
-      case e: IOException => Collections.emptyList()
+    var maxDepth: Int = _
 
-    }
+    var snapshot: LongCachedDirectory = _
 
-  private def getEntries(): Map[Path, FileTreeDataViews.Entry[java.lang.Long]] = {
-// I have to use putAll because scala.js doesn't handle new HashMap(registry.registered()).
-    val map: Map[Path, Integer] = new ConcurrentHashMap[Path, Integer]()
-    this.synchronized {
-      map.putAll(registry.registered())
-    }
-    val it: Iterator[Entry[Path, Integer]] = map.entrySet().iterator()
-    val result: Map[Path, FileTreeDataViews.Entry[java.lang.Long]] =
-      new ConcurrentHashMap[Path, FileTreeDataViews.Entry[java.lang.Long]]()
-    while (it.hasNext) {
-      val entry: Entry[Path, Integer] = it.next()
-      val entries: List[FileTreeDataViews.Entry[java.lang.Long]] =
-        getEntries(entry.getKey, entry.getValue)
-      addAll(result, entries)
-    }
-    result
-  }
+    var covered: Boolean = _
 
-  private class PollingRunnable extends Runnable {
+    var stale: Boolean = _
 
-    val cacheObserver: CacheObserver[java.lang.Long] = new CacheObserver[java.lang.Long]() {
-      override def onCreate(newEntry: FileTreeDataViews.Entry[java.lang.Long]): Unit = {
-        observers.onNext(new Event(newEntry.getTypedPath, Kind.Create))
-      }
+    var handle: PollingScheduler.Handle = _
 
-      override def onDelete(oldEntry: FileTreeDataViews.Entry[java.lang.Long]): Unit = {
-        observers.onNext(new Event(oldEntry.getTypedPath, Kind.Delete))
+    override def run(): Boolean = {
+      var depth: Int = 0
+      var oldSnapshot: LongCachedDirectory = null
+      var isStale: Boolean = false
+      roots.synchronized {
+        if (roots.get(path) != this || covered) return false
+        depth = maxDepth
+        oldSnapshot = snapshot
+        isStale = stale
       }
+      val changed: AtomicBoolean = new AtomicBoolean(false)
+      var newSnapshot: LongCachedDirectory = null
+      if (isStale) {
+        newSnapshot = getSnapshot(path, depth)
+      } else {
+        val cacheObserver: LongCacheObserver = new LongCacheObserver() {
+          override def onCreate(newEntry: LongEntry): Unit = {
+            emit(newEntry.getTypedPath, Kind.Create)
+          }
 
-      override def onUpdate(
-          oldEntry: FileTreeDataViews.Entry[java.lang.Long],
-          newEntry: FileTreeDataViews.Entry[java.lang.Long]
-      ): Unit = {
-        if (oldEntry.getValue != newEntry.getValue) {
-          observers.onNext(new Event(newEntry.getTypedPath, Kind.Modify))
-        }
-      }
+          override def onDelete(oldEntry: LongEntry): Unit = {
+            emit(oldEntry.getTypedPath, Kind.Delete)
+          }
 
-      override def onError(exception: IOException): Unit = {
-        observers.onError(exception)
-      }
-    }
+          override def onUpdate(oldEntry: LongEntry, newEntry: LongEntry): Unit = {
+            emit(newEntry.getTypedPath, Kind.Modify)
+          }
 
-    override def run(): Unit = {
-      val newEntries: Map[Path, FileTreeDataViews.Entry[java.lang.Long]] = getEntries
-      MapOps.diffDirectoryEntries(oldEntries, newEntries, cacheObserver)
-      this.synchronized {
-        oldEntries = newEntries
+          private def emit(typedPath: TypedPath, kind: Kind): Unit = {
+            changed.set(true)
+            observers.onNext(new Event(typedPath, kind))
+          }
+        }
+        newSnapshot = LongCachedDirectory.update(oldSnapshot,
+                                                 TypedPaths.get(path),
+                                                 converter,
+                                                 depth,
+                                                 filter,
+                                                 fileTreeView,
+                                                 cacheObserver)
+      }
+      roots.synchronized {
+        // The path may have been registered again, with a new snapshot, during the update.
+        if (roots.get(path) == this && snapshot == oldSnapshot) {
+          snapshot = newSnapshot
+          if (isStale && !covered) stale = false
+        }
       }
+      changed.get
     }
 
   }
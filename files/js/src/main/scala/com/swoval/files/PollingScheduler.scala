@@ -0,0 +1,59 @@
+package com.swoval.files
+
+import java.util.concurrent.TimeUnit
+
+import scala.scalajs.js.timers._
+import scala.util.Random
+
+/**
+ * Runs the polls of every polling path watcher. Each task is run again once its interval has
+ * elapsed after it finished. The interval of a task is reset to its minimum whenever the task
+ * reports a change and is doubled, up to its maximum, whenever it doesn't. Each interval is
+ * randomly lengthened or shortened by up to a tenth so that the tasks that were scheduled together
+ * don't keep running in lockstep.
+ */
+private[files] class PollingScheduler private () {
+  def schedule(task: PollingScheduler.Task,
+               minimumInterval: Long,
+               maximumInterval: Long,
+               timeUnit: TimeUnit): PollingScheduler.Handle = {
+    val minimum = math.max(1.0, timeUnit.toNanos(minimumInterval) / 1.0e6)
+    val maximum = math.max(minimum, timeUnit.toNanos(maximumInterval) / 1.0e6)
+    new PollingScheduler.Handle(task, minimum, maximum)
+  }
+}
+
+private[files] object PollingScheduler {
+  private val instance = new PollingScheduler()
+  def get(): PollingScheduler = instance
+
+  trait Task {
+    def run(): Boolean
+  }
+
+  class Handle private[PollingScheduler] (task: Task, minimumMS: Double, maximumMS: Double) {
+    private[this] var intervalMS = minimumMS
+    private[this] var cancelled = false
+    private[this] var handle: SetTimeoutHandle = setTimeout(0)(run())
+
+    def cancel(): Unit = {
+      cancelled = true
+      clearTimeout(handle)
+    }
+
+    private def run(): Unit = if (!cancelled) {
+      val changed =
+        try task.run()
+        catch {
+          case e: Throwable =>
+            e.printStackTrace(System.err)
+            false
+        }
+      intervalMS = if (changed) minimumMS else math.min(maximumMS, intervalMS * 2)
+      if (!cancelled) {
+        val jitter = intervalMS / 10
+        handle = setTimeout(intervalMS + (Random.nextDouble() * 2 - 1) * jitter)(run())
+      }
+    }
+  }
+}
@@ -4,7 +4,9 @@ import java.nio.file.{ Path, WatchEvent, WatchKey, WatchService => JWatchService
 import java.util.concurrent.TimeUnit
 
 private[files] object RegisterableWatchServices {
-  def get(): RegisterableWatchService = new RegisterableWatchServiceImpl(null)
+  def get(): RegisterableWatchService = get(false)
+  def get(writeCompletion: Boolean): RegisterableWatchService =
+    new RegisterableWatchServiceImpl(null)
   private[files] class RegisterableWatchServiceImpl(underlying: JWatchService)
       extends JWatchService
       with RegisterableWatchService {
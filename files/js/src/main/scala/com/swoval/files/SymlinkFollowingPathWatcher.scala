@@ -22,8 +22,13 @@ class SymlinkFollowingPathWatcher(
 
   private val symlinkWatcher: SymlinkWatcher = new SymlinkWatcher(
     if (Platform.isMac)
-      new ApplePathWatcher(new DirectoryRegistryImpl(), logger)
-    else PlatformWatcher.make(false, new DirectoryRegistryImpl(), logger),
+      new ApplePathWatcher(new DirectoryRegistryImpl(directoryRegistry.exclusions()), logger)
+    else
+      PlatformWatcher.make(
+        false,
+        new DirectoryRegistryImpl(directoryRegistry.exclusions()),
+        logger
+      ),
     logger
   )
 
@@ -39,6 +44,9 @@ class SymlinkFollowingPathWatcher(
 
     override def onNext(event: Event): Unit = {
       val typedPath: TypedPath = event.getTypedPath
+      val previousTypedPath: TypedPath = event.getPreviousTypedPath
+      if (previousTypedPath != null)
+        symlinkWatcher.remove(previousTypedPath.getPath)
       if (typedPath.exists() && typedPath.isSymbolicLink) {
         try {
           val maxDepth: Int = directoryRegistry.maxDepthFor(typedPath.getPath)
@@ -49,6 +57,16 @@ class SymlinkFollowingPathWatcher(
         } catch {
           case e: IOException => observers.onError(e)
 
+        }
+      } else if (previousTypedPath != null && typedPath.isDirectory) {
+        // The watcher doesn't report the entries of a moved directory, so the symlinks
+        // below its new path have to be found by listing it.
+        try {
+          val path: Path = typedPath.getPath
+          handleNewDirectory(path, directoryRegistry.maxDepthFor(path), false)
+        } catch {
+          case e: IOException => observers.onError(e)
+
         }
       } else if (!typedPath.exists()) {
         symlinkWatcher.remove(typedPath.getPath)
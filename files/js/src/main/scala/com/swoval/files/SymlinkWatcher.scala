@@ -74,9 +74,14 @@ class SymlinkWatcher(
       if (Loggers.shouldLog(logger, Level.DEBUG))
         logger.debug(this + " received event " + event)
       if (!isClosed.get) {
+        val previousTypedPath: TypedPath = event.getPreviousTypedPath
+        // A move is reported through the links as a delete of its source and a create.
+        if (previousTypedPath != null)
+          onNext(new Event(previousTypedPath, Kind.Delete))
         val paths: List[Path] = new ArrayList[Path]()
         val path: Path = event.getTypedPath.getPath
-        val kind: Kind = event.getKind
+        val kind: Kind =
+          if (event.getKind == Kind.Move) Kind.Create else event.getKind
         if (watchedSymlinksByTarget.lock()) {
           try {
             val registeredPath: RegisteredPath =
@@ -90,6 +90,17 @@ object TypedPaths {
       (if (typedPath.isFile) Entries.FILE else 0) |
       (if (typedPath.isSymbolicLink) Entries.LINK else 0)
 
+  /**
+   * Returns true if the kind of the typed path was determined when it was created, i.e. it wasn't
+   * created with [[Entries.UNKNOWN]], so it doesn't need to be read from the file system again.
+   *
+   * @param typedPath the typed path
+   * @return true if the typed path is known to be a file, directory or symbolic link or to not exist.
+   */
+  def isKnown(typedPath: TypedPath): Boolean =
+    !typedPath.exists() || typedPath.isDirectory || typedPath.isFile ||
+      typedPath.isSymbolicLink
+
   def get(path: Path, kind: Int): TypedPath =
     new TypedPathImpl(if (path.isAbsolute) path else path.toAbsolutePath()) {
       override def exists(): Boolean = (kind & Entries.NONEXISTENT) == 0
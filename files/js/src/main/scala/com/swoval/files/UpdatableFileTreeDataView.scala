@@ -44,4 +44,15 @@ trait UpdatableFileTreeDataView[T <: AnyRef] {
    */
   def remove(path: Path): List[Entry[T]]
 
+  /**
+   * Move a path, and its subtree when it is a directory, to a new path without recomputing the
+   * cache values.
+   *
+   * @param source the path that was moved
+   * @param destination the new path
+   * @return the updates for the moved entries or null if the move could not be applied, in which
+   *     case nothing was changed.
+   */
+  def move(source: Path, destination: TypedPath): FileTreeViews.Updates[T]
+
 }
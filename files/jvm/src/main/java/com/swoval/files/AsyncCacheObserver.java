@@ -0,0 +1,318 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeViews.Observer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps a {@link CacheObserver} so that it is notified on its own thread. The notifications are
+ * buffered in a bounded queue, so a slow observer no longer delays the other observers of the same
+ * cache. When the queue is full, the {@link OverflowPolicy} of the observer determines what happens
+ * to the next notification. Every overflow is counted and the count is available from {@link
+ * AsyncCacheObserver#getOverflowCount()}.
+ *
+ * <p>An instance should be added to a cache with {@link
+ * FileTreeDataViews.ObservableCache#addCacheObserver(CacheObserver)} and closed once it has been
+ * removed from the cache, which stops its thread.
+ *
+ * @param <T> the cache value type
+ */
+public final class AsyncCacheObserver<T> implements CacheObserver<T>, AutoCloseable {
+  private static final AtomicInteger threadID = new AtomicInteger(0);
+  private final CacheObserver<T> observer;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final ArrayDeque<Notification<T>> queue = new ArrayDeque<>();
+  private final AtomicLong overflowCount = new AtomicLong(0);
+  private final Thread thread;
+  private boolean closed = false;
+
+  /**
+   * Creates a new AsyncCacheObserver.
+   *
+   * @param observer the observer to notify
+   * @param capacity the maximum number of pending notifications. Must be positive.
+   * @param overflowPolicy determines what happens when a notification arrives while the queue is
+   *     full
+   */
+  public AsyncCacheObserver(
+      final CacheObserver<T> observer, final int capacity, final OverflowPolicy overflowPolicy) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    this.observer = observer;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.thread =
+        new Thread("com.swoval.files.AsyncCacheObserver-" + threadID.getAndIncrement()) {
+          @Override
+          public void run() {
+            drain();
+          }
+        };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Creates a new AsyncCacheObserver that notifies a simple {@link Observer} of the entries.
+   *
+   * @param observer the observer to notify
+   * @param capacity the maximum number of pending notifications. Must be positive.
+   * @param overflowPolicy determines what happens when a notification arrives while the queue is
+   *     full
+   */
+  public AsyncCacheObserver(
+      final Observer<? super Entry<T>> observer,
+      final int capacity,
+      final OverflowPolicy overflowPolicy) {
+    this(CacheObservers.<T>fromObserver(observer), capacity, overflowPolicy);
+  }
+
+  /**
+   * Returns the number of notifications that arrived while the queue was full.
+   *
+   * @return the number of overflows.
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
+  }
+
+  @Override
+  public void onCreate(final Entry<T> newEntry) {
+    offer(
+        new Notification<T>(newEntry.getTypedPath().getPath()) {
+          @Override
+          void deliver(final CacheObserver<T> observer) {
+            observer.onCreate(newEntry);
+          }
+        });
+  }
+
+  @Override
+  public void onDelete(final Entry<T> oldEntry) {
+    offer(
+        new Notification<T>(oldEntry.getTypedPath().getPath()) {
+          @Override
+          void deliver(final CacheObserver<T> observer) {
+            observer.onDelete(oldEntry);
+          }
+        });
+  }
+
+  @Override
+  public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+    offer(
+        new Notification<T>(newEntry.getTypedPath().getPath()) {
+          @Override
+          void deliver(final CacheObserver<T> observer) {
+            observer.onUpdate(oldEntry, newEntry);
+          }
+        });
+  }
+
+  @Override
+  public void onError(final IOException exception) {
+    offer(
+        new Notification<T>(null) {
+          @Override
+          void deliver(final CacheObserver<T> observer) {
+            observer.onError(exception);
+          }
+        });
+  }
+
+  /** Stops the notification thread after the pending notifications have been delivered. */
+  @SuppressWarnings("EmptyCatchBlock")
+  @Override
+  public void close() {
+    synchronized (queue) {
+      if (closed) return;
+      closed = true;
+      queue.notifyAll();
+    }
+    if (Thread.currentThread() != thread) {
+      try {
+        thread.join(5000);
+      } catch (final InterruptedException e) {
+      }
+    }
+  }
+
+  private void offer(final Notification<T> notification) {
+    synchronized (queue) {
+      if (closed) return;
+      if (queue.size() >= capacity) {
+        overflowCount.incrementAndGet();
+        if (overflowPolicy.equals(OverflowPolicy.Block)) {
+          while (queue.size() >= capacity && !closed) {
+            try {
+              queue.wait();
+            } catch (final InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+          }
+          if (closed) return;
+        } else if (overflowPolicy.equals(OverflowPolicy.DropOldest)) {
+          queue.poll();
+        } else {
+          queue.add(notification);
+          final Notification<T> rescan = rescan(queue);
+          queue.add(rescan);
+          queue.notifyAll();
+          return;
+        }
+      }
+      queue.add(notification);
+      queue.notifyAll();
+    }
+  }
+
+  /*
+   * Replaces all of the queued notifications with a single rescan notification for the deepest
+   * directory that contains all of their paths. The directory of a previous rescan notification is
+   * included, so rescans can only widen. Dropped errors don't constrain the directory.
+   */
+  private static <T> Notification<T> rescan(final ArrayDeque<Notification<T>> queue) {
+    Path directory = null;
+    boolean first = true;
+    final Iterator<Notification<T>> it = queue.iterator();
+    while (it.hasNext()) {
+      final Notification<T> notification = it.next();
+      final boolean isRescan = notification instanceof RescanNotification;
+      if (notification.path != null || isRescan) {
+        final Path parent = isRescan ? null : notification.path.getParent();
+        final Path candidate = parent == null ? notification.path : parent;
+        directory = first ? candidate : commonAncestor(directory, candidate);
+        first = false;
+      }
+    }
+    queue.clear();
+    return new RescanNotification<>(directory);
+  }
+
+  private static Path commonAncestor(final Path left, final Path right) {
+    if (left == null || right == null) return null;
+    Path result = left;
+    while (result != null && !right.startsWith(result)) result = result.getParent();
+    return result;
+  }
+
+  private void drain() {
+    while (true) {
+      final Notification<T> notification;
+      synchronized (queue) {
+        while (queue.isEmpty() && !closed) {
+          try {
+            queue.wait();
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+        if (queue.isEmpty()) return;
+        notification = queue.poll();
+        queue.notifyAll();
+      }
+      try {
+        notification.deliver(observer);
+      } catch (final Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AsyncCacheObserver(" + observer + ", " + capacity + ", " + overflowPolicy + ")";
+  }
+
+  private abstract static class Notification<T> {
+    final Path path;
+
+    Notification(final Path path) {
+      this.path = path;
+    }
+
+    abstract void deliver(final CacheObserver<T> observer);
+  }
+
+  private static final class RescanNotification<T> extends Notification<T> {
+    RescanNotification(final Path path) {
+      super(path);
+    }
+
+    @Override
+    void deliver(final CacheObserver<T> observer) {
+      observer.onError(new RescanException(path));
+    }
+  }
+
+  /**
+   * An enum like class that determines what happens to a notification that arrives while the queue
+   * of an {@link AsyncCacheObserver} is full. It isn't an actual enum because the scala.js codegen
+   * has problems with enum types.
+   */
+  public static final class OverflowPolicy {
+
+    /** Wait until the observer has processed a notification. This may delay other observers. */
+    public static final OverflowPolicy Block = new OverflowPolicy("Block");
+    /** Discard the oldest pending notification. */
+    public static final OverflowPolicy DropOldest = new OverflowPolicy("DropOldest");
+    /**
+     * Discard all of the pending notifications and instead notify the observer, with a {@link
+     * RescanException}, that it should list the directory that contains all of their paths again.
+     */
+    public static final OverflowPolicy Rescan = new OverflowPolicy("Rescan");
+
+    private final String name;
+
+    private OverflowPolicy(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof OverflowPolicy && ((OverflowPolicy) other).name.equals(this.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+  }
+
+  /**
+   * Passed to {@link CacheObserver#onError(IOException)} when notifications were discarded by the
+   * {@link OverflowPolicy#Rescan} policy. The observer should list the subtree of {@link
+   * RescanException#getPath()} in the cache again to catch up.
+   */
+  public static final class RescanException extends IOException {
+    private static final long serialVersionUID = 1L;
+    // Path isn't serializable, so a deserialized exception has a null path.
+    private final transient Path path;
+
+    RescanException(final Path path) {
+      super("Notifications were dropped" + (path == null ? "" : " for " + path));
+      this.path = path;
+    }
+
+    /**
+     * Returns the deepest directory that contains the paths of all of the discarded notifications.
+     *
+     * @return the directory to rescan or null if the whole cache should be listed again.
+     */
+    public Path getPath() {
+      return path;
+    }
+  }
+}
@@ -4,73 +4,51 @@ import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeDataViews.Entry;
 import com.swoval.files.FileTreeViews.Observer;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Container class that wraps multiple {@link CacheObserver} instances. An observer may subscribe to
+ * every path in the cache or only to the paths in the subtree of a prefix or to the paths matching
+ * a glob. The subscriptions are indexed by prefix in a tree of path names, so notifying the
+ * observers of an entry only visits the observers whose prefix contains the path of the entry. The
+ * index is copied on write whenever an observer is added or removed, so notifying the observers
+ * neither locks nor copies the observers.
+ *
+ * @param <T> the cache value type
+ */
 class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
   private final AtomicInteger counter = new AtomicInteger(0);
-  private final Map<Integer, CacheObserver<T>> observers = new LinkedHashMap<>();
+  private final Map<Integer, Subscription<T>> subscriptions = new LinkedHashMap<>();
+  private volatile Node<T> index = new Node<>();
+  private volatile List<Subscription<T>> all = Collections.emptyList();
 
   @Override
   public void onCreate(final Entry<T> newEntry) {
-    final List<CacheObserver<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<CacheObserver<T>> it = cbs.iterator();
-    while (it.hasNext()) {
-      try {
-        it.next().onCreate(newEntry);
-      } catch (final Exception e) {
-        e.printStackTrace();
-      }
-    }
+    dispatch(newEntry.getTypedPath().getPath(), null, newEntry);
   }
 
   @Override
   public void onDelete(final Entry<T> oldEntry) {
-    final List<CacheObserver<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<CacheObserver<T>> it = cbs.iterator();
-    while (it.hasNext()) {
-      try {
-        it.next().onDelete(oldEntry);
-      } catch (final Exception e) {
-        e.printStackTrace();
-      }
-    }
+    dispatch(oldEntry.getTypedPath().getPath(), oldEntry, null);
   }
 
   @Override
   public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
-    final List<CacheObserver<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<CacheObserver<T>> it = cbs.iterator();
-    while (it.hasNext()) {
-      try {
-        it.next().onUpdate(oldEntry, newEntry);
-      } catch (final Exception e) {
-        e.printStackTrace();
-      }
-    }
+    dispatch(newEntry.getTypedPath().getPath(), oldEntry, newEntry);
   }
 
   @Override
   public void onError(IOException exception) {
-    final List<CacheObserver<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<CacheObserver<T>> it = cbs.iterator();
-    while (it.hasNext()) it.next().onError(exception);
+    final Iterator<Subscription<T>> it = all.iterator();
+    while (it.hasNext()) it.next().observer.onError(exception);
   }
 
   /**
@@ -81,19 +59,47 @@ class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
    *     com.swoval.files.Observers#removeObserver(int)} .
    */
   int addObserver(final Observer<? super Entry<T>> observer) {
-    final int key = counter.getAndIncrement();
-    synchronized (observers) {
-      observers.put(key, CacheObservers.fromObserver(observer));
-    }
-    return key;
+    return addCacheObserver(CacheObservers.fromObserver(observer));
   }
 
   int addCacheObserver(final CacheObserver<T> cacheObserver) {
-    final int key = counter.getAndIncrement();
-    synchronized (observers) {
-      observers.put(key, cacheObserver);
-    }
-    return key;
+    return subscribe(new Subscription<>(cacheObserver, new String[0], null));
+  }
+
+  /**
+   * Add a cacheObserver that only receives the events for the paths in the subtree of a prefix,
+   * including the prefix itself.
+   *
+   * @param cacheObserver the new cacheObserver
+   * @param prefix the absolute path of the subtree
+   * @return a handle to the added cacheObserver.
+   */
+  int addCacheObserver(final CacheObserver<T> cacheObserver, final Path prefix) {
+    return subscribe(new Subscription<>(cacheObserver, Exclusions.names(prefix), null));
+  }
+
+  /**
+   * Add a cacheObserver that only receives the events for the paths that an {@link Exclusions}
+   * compiled from the same glob would exclude, i.e. the paths that match the glob and the paths
+   * in the subtrees of the directories that match it. The names of an anchored glob that precede
+   * its first wildcard are used to index the observer.
+   *
+   * @param cacheObserver the new cacheObserver
+   * @param glob the glob that the paths must match
+   * @return a handle to the added cacheObserver.
+   * @throws IllegalArgumentException if the glob has no names or more than {@link
+   *     Exclusions#MAX_NAMES} names.
+   */
+  int addCacheObserver(final CacheObserver<T> cacheObserver, final String glob) {
+    final String[] names = Exclusions.compile(glob);
+    if (names.length == 0) throw new IllegalArgumentException("The glob " + glob + " is empty");
+    int literal = 0;
+    while (literal < names.length && isLiteral(names[literal])) literal += 1;
+    final String[] prefix = new String[literal];
+    for (int i = 0; i < literal; ++i) prefix[i] = names[i];
+    final String[] pattern = new String[names.length - literal];
+    for (int i = 0; i < pattern.length; ++i) pattern[i] = names[literal + i];
+    return subscribe(new Subscription<>(cacheObserver, prefix, pattern));
   }
 
   /**
@@ -103,14 +109,92 @@ class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
    * @param handle the handle to remove
    */
   void removeObserver(int handle) {
-    synchronized (observers) {
-      observers.remove(handle);
+    synchronized (subscriptions) {
+      if (subscriptions.remove(handle) != null) reindex();
     }
   }
 
   @Override
   public void close() {
-    observers.clear();
+    synchronized (subscriptions) {
+      subscriptions.clear();
+      reindex();
+    }
+  }
+
+  private int subscribe(final Subscription<T> subscription) {
+    final int key = counter.getAndIncrement();
+    synchronized (subscriptions) {
+      subscriptions.put(key, subscription);
+      reindex();
+    }
+    return key;
+  }
+
+  /*
+   * Must be called while holding the subscriptions lock. The observers of each node stay in the
+   * order in which they were added.
+   */
+  private void reindex() {
+    final Node<T> root = new Node<>();
+    final List<Subscription<T>> list = new ArrayList<>(subscriptions.values());
+    final Iterator<Subscription<T>> it = list.iterator();
+    while (it.hasNext()) {
+      final Subscription<T> subscription = it.next();
+      Node<T> node = root;
+      for (int i = 0; i < subscription.prefix.length; ++i) {
+        Node<T> child = node.children.get(subscription.prefix[i]);
+        if (child == null) {
+          child = new Node<>();
+          node.children.put(subscription.prefix[i], child);
+        }
+        node = child;
+      }
+      node.subscriptions.add(subscription);
+    }
+    index = root;
+    all = Collections.unmodifiableList(list);
+  }
+
+  private void dispatch(final Path path, final Entry<T> oldEntry, final Entry<T> newEntry) {
+    final int count = path.getNameCount();
+    final String string = path.toString();
+    Node<T> node = index;
+    int depth = 0;
+    // The index of the first character of the name at the current depth in the path string.
+    int start = Exclusions.namesStart(path, string);
+    while (node != null) {
+      if (!node.subscriptions.isEmpty()) {
+        final Iterator<Subscription<T>> it = node.subscriptions.iterator();
+        while (it.hasNext()) {
+          final Subscription<T> subscription = it.next();
+          if (subscription.pattern == null
+              || Exclusions.matches(subscription.pattern, string, start, string.length(), true)) {
+            try {
+              if (oldEntry == null) {
+                subscription.observer.onCreate(newEntry);
+              } else if (newEntry == null) {
+                subscription.observer.onDelete(oldEntry);
+              } else {
+                subscription.observer.onUpdate(oldEntry, newEntry);
+              }
+            } catch (final Exception e) {
+              e.printStackTrace();
+            }
+          }
+        }
+      }
+      node =
+          depth < count && !node.children.isEmpty()
+              ? node.children.get(path.getName(depth).toString())
+              : null;
+      if (depth < count) start = Exclusions.nameEnd(string, start) + 1;
+      depth += 1;
+    }
+  }
+
+  private static boolean isLiteral(final String name) {
+    return name.indexOf('*') == -1 && name.indexOf('?') == -1 && name.indexOf('[') == -1;
   }
 
   static <T> CacheObserver<T> fromObserver(final Observer<? super Entry<T>> observer) {
@@ -136,4 +220,21 @@ class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
       }
     };
   }
+
+  private static final class Subscription<T> {
+    final CacheObserver<T> observer;
+    final String[] prefix;
+    final String[] pattern;
+
+    Subscription(final CacheObserver<T> observer, final String[] prefix, final String[] pattern) {
+      this.observer = observer;
+      this.prefix = prefix;
+      this.pattern = pattern;
+    }
+  }
+
+  private static final class Node<T> {
+    final List<Subscription<T>> subscriptions = new ArrayList<>();
+    final Map<String, Node<T>> children = new HashMap<>();
+  }
 }
@@ -61,6 +61,20 @@ interface CachedDirectory<T>
   @Override
   List<TypedPath> list(final Path path, final int maxDepth, final Filter<? super TypedPath> filter);
 
+  /**
+   * Visits all of the entries for the {@code path} in place. Unlike {@link
+   * CachedDirectory#listEntries(Path, int, Filter)}, the entries are neither copied into a list nor
+   * resolved into new {@link Entry} instances. Instead, a single reusable {@link EntryCursor} is
+   * moved to each entry. The cache is locked for the duration of the traversal so the visitor
+   * should not block or modify the cache.
+   *
+   * @param path the root path to visit. If this is a file, only the entry for the file is visited.
+   * @param maxDepth the maximum depth of subdirectories to visit (see {@link
+   *     DirectoryView#getMaxDepth()})
+   * @param visitor the visitor to invoke for each entry
+   */
+  void forEach(final Path path, final int maxDepth, final EntryVisitor<T> visitor);
+
   /**
    * Returns the {@link FileTreeDataViews.Entry} associated with the path specified by {@link
    * CachedDirectory#getPath()}.
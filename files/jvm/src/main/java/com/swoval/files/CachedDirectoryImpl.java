@@ -15,6 +15,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -39,6 +40,14 @@ import java.util.concurrent.atomic.AtomicReference;
  * @param <T> the cache value type.
  */
 class CachedDirectoryImpl<T> implements CachedDirectory<T> {
+  private static final Comparator<CachedDirectoryImpl<?>> DIRECTORY_ORDER =
+      new Comparator<CachedDirectoryImpl<?>>() {
+        @Override
+        public int compare(final CachedDirectoryImpl<?> left, final CachedDirectoryImpl<?> right) {
+          return MapOps.comparePaths(left.getPath(), right.getPath());
+        }
+      };
+
   private final AtomicReference<Entry<T>> _cacheEntry;
   private final int depth;
   private final FileTreeView fileTreeView;
@@ -189,6 +198,30 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     }
   }
 
+  @Override
+  public void forEach(final Path path, final int maxDepth, final EntryVisitor<T> visitor) {
+    if (this.subdirectories.lock()) {
+      try {
+        final Either<Entry<T>, CachedDirectoryImpl<T>> findResult = find(path);
+        if (findResult != null) {
+          final EntryCursor<T> cursor = new EntryCursor<>();
+          if (findResult.isRight()) {
+            findResult.get().forEachImpl(maxDepth, cursor, visitor);
+          } else {
+            final Entry<T> entry = leftProjection(findResult).getValue();
+            if (entry != null) {
+              final Path entryPath = entry.getTypedPath().getPath();
+              cursor.set(entryPath.getParent(), entry.getTypedPath(), entry.getValue());
+              visitor.visit(cursor);
+            }
+          }
+        }
+      } finally {
+        this.subdirectories.unlock();
+      }
+    }
+  }
+
   @Override
   public List<Entry<T>> listEntries(final int maxDepth, final Filter<? super Entry<T>> filter) {
     return listEntries(getPath(), maxDepth, filter);
@@ -271,6 +304,128 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     }
   }
 
+  /**
+   * Moves a path, and its subtree when it is a directory, to a new path. The existing entries are
+   * re-parented, so neither the new path is listed nor are the cache values recomputed. Moves that
+   * the cache can't represent by re-parenting, e.g. those of symbolic links or of directories to a
+   * parent with a different maximum depth, are rejected.
+   *
+   * @param source the path that was moved
+   * @param destination the new path
+   * @return the updates for the moved entries or null if the move was rejected, in which case the
+   *     directory is unchanged.
+   */
+  @Override
+  public Updates<T> move(final Path source, final TypedPath destination) {
+    final Path path = destination.getPath();
+    final Path root = getPath();
+    if (!source.isAbsolute()
+        || !source.startsWith(root)
+        || !path.startsWith(root)
+        || source.equals(root)
+        || path.equals(root)
+        || path.startsWith(source)
+        || !destination.exists()
+        || destination.isSymbolicLink()
+        || !pathFilter.accept(destination)) {
+      return null;
+    }
+    if (this.subdirectories.lock()) {
+      try {
+        final Either<Entry<T>, CachedDirectoryImpl<T>> sourceParent = find(source.getParent());
+        final Either<Entry<T>, CachedDirectoryImpl<T>> parent = find(path.getParent());
+        if (sourceParent == null || sourceParent.isLeft() || parent == null || parent.isLeft()) {
+          return null;
+        }
+        final Path sourceName = source.getFileName();
+        final Path name = path.getFileName();
+        return moveImpl(sourceParent.get(), sourceName, parent.get(), destination, name);
+      } finally {
+        this.subdirectories.unlock();
+      }
+    }
+    return null;
+  }
+
+  private Updates<T> moveImpl(
+      final CachedDirectoryImpl<T> sourceParent,
+      final Path sourceName,
+      final CachedDirectoryImpl<T> parent,
+      final TypedPath destination,
+      final Path name) {
+    final CachedDirectoryImpl<T> dir = sourceParent.subdirectories.get(sourceName);
+    final Entry<T> file = dir == null ? sourceParent.files.get(sourceName) : null;
+    final Entry<T> replaced = parent.files.get(name);
+    if (parent.depth < 0
+        || parent.subdirectories.get(name) != null
+        || (replaced != null && replaced.getTypedPath().isDirectory())) {
+      return null;
+    }
+    final Path path = destination.getPath();
+    final List<Entry<T>> oldEntries = new ArrayList<>();
+    final List<Entry<T>> newEntries = new ArrayList<>();
+    if (dir != null) {
+      if (dir.getTypedPath().isSymbolicLink()
+          || !destination.isDirectory()
+          || parent.depth == 0
+          || dir.depth != parent.subdirectoryDepth()) {
+        return null;
+      }
+      oldEntries.add(dir.getEntry());
+      dir.listSortedEntries(Integer.MAX_VALUE, oldEntries);
+      sourceParent.subdirectories.remove(sourceName);
+      parent.files.remove(name);
+      dir.reroot(path);
+      parent.subdirectories.put(name, dir);
+      newEntries.add(dir.getEntry());
+      dir.listSortedEntries(Integer.MAX_VALUE, newEntries);
+    } else if (file != null) {
+      if (file.getTypedPath().isSymbolicLink()
+          || (destination.isDirectory() && parent.depth > 0)) {
+        return null;
+      }
+      oldEntries.add(Entries.resolve(sourceParent.getPath(), file));
+      sourceParent.files.remove(sourceName);
+      final Entry<T> entry = Entries.setPath(file, name);
+      parent.files.put(name, entry);
+      newEntries.add(Entries.resolve(parent.getPath(), entry));
+    } else {
+      return null;
+    }
+    final Updates<T> result = new Updates<>();
+    final Iterator<Entry<T>> oldIterator = oldEntries.iterator();
+    while (oldIterator.hasNext()) result.onDelete(oldIterator.next());
+    final Iterator<Entry<T>> newIterator = newEntries.iterator();
+    final Entry<T> entry = newIterator.next();
+    if (replaced == null) result.onCreate(entry);
+    else result.onUpdate(Entries.resolve(parent.getPath(), replaced), entry);
+    while (newIterator.hasNext()) result.onCreate(newIterator.next());
+    return result;
+  }
+
+  /*
+   * Moves this directory and all of its entries to a new path. Entries that are no longer accepted
+   * by the path filter at the new path are dropped.
+   */
+  private void reroot(final Path path) {
+    _cacheEntry.set(Entries.setPath(getEntry(), path));
+    final Iterator<Map.Entry<Path, Entry<T>>> filesIterator = files.entrySet().iterator();
+    while (filesIterator.hasNext()) {
+      final Map.Entry<Path, Entry<T>> entry = filesIterator.next();
+      final Entry<T> file = Entries.setPath(entry.getValue(), entry.getKey());
+      if (pathFilter.accept(Entries.resolve(path, file).getTypedPath())) entry.setValue(file);
+      else filesIterator.remove();
+    }
+    final Iterator<Map.Entry<Path, CachedDirectoryImpl<T>>> subdirIterator =
+        subdirectories.iterator();
+    while (subdirIterator.hasNext()) {
+      final Map.Entry<Path, CachedDirectoryImpl<T>> entry = subdirIterator.next();
+      final CachedDirectoryImpl<T> subdir = entry.getValue();
+      subdir.reroot(path.resolve(entry.getKey()));
+      if (!pathFilter.accept(subdir.getTypedPath())) subdirectories.remove(entry.getKey());
+    }
+  }
+
   @Override
   public String toString() {
     return "CachedDirectory(" + getPath() + ", maxDepth = " + depth + ")";
@@ -302,26 +457,17 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     } catch (final IOException e) {
     }
     if (exists) {
-      final Map<Path, Entry<T>> oldEntries = new HashMap<>();
-      final Map<Path, Entry<T>> newEntries = new HashMap<>();
+      final List<Entry<T>> oldEntries = new ArrayList<>();
       final CachedDirectoryImpl<T> previous =
           currentDir.subdirectories.put(path.getFileName(), dir);
       if (previous != null) {
-        oldEntries.put(previous.getPath(), previous.getEntry());
-        final Iterator<Entry<T>> entryIterator =
-            previous.listEntries(Integer.MAX_VALUE, AllPass).iterator();
-        while (entryIterator.hasNext()) {
-          final Entry<T> entry = entryIterator.next();
-          oldEntries.put(entry.getTypedPath().getPath(), entry);
-        }
+        oldEntries.add(previous.getEntry());
+        previous.listSortedEntries(Integer.MAX_VALUE, oldEntries);
         previous.close();
       }
-      newEntries.put(dir.getPath(), dir.getEntry());
-      final Iterator<Entry<T>> it = dir.listEntries(Integer.MAX_VALUE, AllPass).iterator();
-      while (it.hasNext()) {
-        final Entry<T> entry = it.next();
-        newEntries.put(entry.getTypedPath().getPath(), entry);
-      }
+      final List<Entry<T>> newEntries = new ArrayList<>();
+      newEntries.add(dir.getEntry());
+      dir.listSortedEntries(Integer.MAX_VALUE, newEntries);
       MapOps.diffDirectoryEntries(oldEntries, newEntries, updates);
     } else {
       final Iterator<Entry<T>> it = remove(dir.getPath()).iterator();
@@ -419,9 +565,11 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
             }
           }
         } else if (typedPath.isDirectory() && rescanOnDirectoryUpdate) {
-          final List<Entry<T>> oldEntries = listEntries(getMaxDepth(), AllPass);
+          final List<Entry<T>> oldEntries = new ArrayList<>();
+          listSortedEntries(getMaxDepth(), oldEntries);
           init();
-          final List<Entry<T>> newEntries = listEntries(getMaxDepth(), AllPass);
+          final List<Entry<T>> newEntries = new ArrayList<>();
+          listSortedEntries(getMaxDepth(), newEntries);
           MapOps.diffDirectoryEntries(oldEntries, newEntries, result);
         } else {
           final Entry<T> oldEntry = getEntry();
@@ -507,6 +655,98 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     }
   }
 
+  /*
+   * Lists the same entries as listEntries(maxDepth, AllPass), but in the order defined by
+   * MapOps.ENTRY_ORDER so that MapOps.diffDirectoryEntries doesn't have to sort the whole list.
+   * The children are stored unordered, so the children of each directory are sorted here.
+   */
+  private void listSortedEntries(final int maxDepth, final List<Entry<T>> result) {
+    if (getEntry().getTypedPath().exists() && this.subdirectories.lock()) {
+      try {
+        listSortedImpl(maxDepth, result);
+      } finally {
+        this.subdirectories.unlock();
+      }
+    }
+  }
+
+  private void listSortedImpl(final int maxDepth, final List<Entry<T>> result) {
+    if (this.depth < 0 || maxDepth < 0) {
+      result.add(this.getEntry());
+    } else {
+      if (subdirectories.lock()) {
+        try {
+          final List<Entry<T>> files = new ArrayList<>(this.files.size());
+          final Iterator<Entry<T>> filesIterator = this.files.values().iterator();
+          while (filesIterator.hasNext()) {
+            files.add(Entries.resolve(getPath(), filesIterator.next()));
+          }
+          Collections.sort(files, MapOps.ENTRY_ORDER);
+          final List<CachedDirectoryImpl<T>> subdirectories =
+              new ArrayList<>(this.subdirectories.liveValues());
+          Collections.sort(subdirectories, DIRECTORY_ORDER);
+          final int fileCount = files.size();
+          final int subdirectoryCount = subdirectories.size();
+          int i = 0;
+          int j = 0;
+          while (i < fileCount || j < subdirectoryCount) {
+            if (j == subdirectoryCount
+                || (i < fileCount
+                    && MapOps.comparePaths(
+                            files.get(i).getTypedPath().getPath(),
+                            subdirectories.get(j).getPath())
+                        < 0)) {
+              result.add(files.get(i));
+              i += 1;
+            } else {
+              final CachedDirectoryImpl<T> subdir = subdirectories.get(j);
+              result.add(Entries.resolve(getPath(), subdir.getEntry()));
+              if (maxDepth > 0 && subdir.depth >= 0) subdir.listSortedImpl(maxDepth - 1, result);
+              j += 1;
+            }
+          }
+        } finally {
+          subdirectories.unlock();
+        }
+      }
+    }
+  }
+
+  private void forEachImpl(
+      final int maxDepth, final EntryCursor<T> cursor, final EntryVisitor<T> visitor) {
+    if (this.depth < 0 || maxDepth < 0) {
+      final Entry<T> entry = getEntry();
+      final Path path = entry.getTypedPath().getPath();
+      cursor.set(path.getParent(), entry.getTypedPath(), entry.getValue());
+      visitor.visit(cursor);
+    } else {
+      if (subdirectories.lock()) {
+        try {
+          final Path path = getPath();
+          final Iterator<Entry<T>> filesIterator = files.values().iterator();
+          while (filesIterator.hasNext()) {
+            final Entry<T> entry = filesIterator.next();
+            cursor.set(path, entry.getTypedPath(), entry.getValue());
+            visitor.visit(cursor);
+          }
+          final Iterator<CachedDirectoryImpl<T>> subdirIterator =
+              subdirectories.liveValues().iterator();
+          while (subdirIterator.hasNext()) {
+            final CachedDirectoryImpl<T> subdir = subdirIterator.next();
+            final Entry<T> entry = subdir.getEntry();
+            cursor.set(path, entry.getTypedPath(), entry.getValue());
+            visitor.visit(cursor);
+            if (maxDepth > 0 && subdir.depth >= 0) {
+              subdir.forEachImpl(maxDepth - 1, cursor, visitor);
+            }
+          }
+        } finally {
+          subdirectories.unlock();
+        }
+      }
+    }
+  }
+
   private List<Entry<T>> removeImpl(final List<Path> parts) {
     final List<Entry<T>> result = new ArrayList<>();
     if (this.subdirectories.lock()) {
@@ -554,10 +794,23 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
   }
 
   CachedDirectoryImpl<T> init() throws IOException {
-    return init(getTypedPath().getPath());
+    return init(getTypedPath().getPath(), fileTreeView);
   }
 
-  private CachedDirectoryImpl<T> init(final Path realPath) throws IOException {
+  /**
+   * Lists the directory and its subdirectories with a view that is only used for this listing. The
+   * subdirectories keep the default view for their later updates.
+   *
+   * @param view the view with which the tree is listed
+   * @return this directory.
+   * @throws IOException if the directory can't be listed.
+   */
+  CachedDirectoryImpl<T> init(final FileTreeView view) throws IOException {
+    return init(getTypedPath().getPath(), view);
+  }
+
+  private CachedDirectoryImpl<T> init(final Path realPath, final FileTreeView view)
+      throws IOException {
     if (subdirectories.lock()) {
       try {
         subdirectories.clear();
@@ -565,7 +818,7 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
         if (depth >= 0
             && (!this.getPath().startsWith(realPath) || this.getPath().equals(realPath))) {
           final Iterator<TypedPath> it =
-              fileTreeView.list(this.getPath(), 0, pathFilter).iterator();
+              view.list(this.getPath(), 0, pathFilter).iterator();
           while (it.hasNext()) {
             final TypedPath file = it.next();
             final Path path = file.getPath();
@@ -577,7 +830,7 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
                       new CachedDirectoryImpl<>(
                           file, converter, subdirectoryDepth(), pathFilter, followLinks);
                   try {
-                    dir.init();
+                    dir.init(view);
                     subdirectories.put(key, dir);
                   } catch (final IOException e) {
                     if (Files.exists(dir.getPath())) {
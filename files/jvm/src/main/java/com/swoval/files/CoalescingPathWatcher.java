@@ -0,0 +1,239 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Create;
+import static com.swoval.files.PathWatchers.Event.Kind.Delete;
+import static com.swoval.files.PathWatchers.Event.Kind.Error;
+import static com.swoval.files.PathWatchers.Event.Kind.Modify;
+import static com.swoval.files.PathWatchers.Event.Kind.Move;
+import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
+
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Event.Kind;
+import com.swoval.functional.Either;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps a {@link PathWatcher} and collapses the events that it emits for the same path within a
+ * latency window into a single event. Bursts of events, e.g. those caused by a version control
+ * checkout, then only update the cache once per path. The pending events are emitted in the order
+ * in which their paths were first seen, so the events for any given path are never reordered.
+ *
+ * <p>An event that follows a create is reduced to a create, unless it is a delete, and an event
+ * that follows a modify or a delete is reduced to a modify, unless it is also a delete. A directory
+ * that is deleted and then created again is reported as an overflow so that its subtree is
+ * rescanned. Overflow and error events are never downgraded.
+ *
+ * <p>A move is kept as long as no other event is received for its source or its destination. Once
+ * one is, the move is split into a delete of the source and a create of the destination and those
+ * are merged with the other events as usual.
+ *
+ * <p>In addition to the usual observers, which receive the events one at a time, batch observers
+ * receive all of the events that are flushed together in a single list.
+ */
+class CoalescingPathWatcher implements PathWatcher<PathWatchers.Event> {
+  private final PathWatcher<PathWatchers.Event> pathWatcher;
+  private final Observers<PathWatchers.Event> observers = new Observers<>();
+  private final Observers<List<PathWatchers.Event>> batchObservers = new Observers<>();
+  private final LinkedHashMap<Path, Event> pending = new LinkedHashMap<>();
+  private final Map<Path, Path> moveDestinations = new HashMap<>();
+  private final Object flushLock = new Object();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final PeriodicTask flushTask;
+  private final Logger logger;
+
+  CoalescingPathWatcher(
+      final PathWatcher<PathWatchers.Event> pathWatcher,
+      final long latency,
+      final TimeUnit timeUnit,
+      final Logger logger)
+      throws InterruptedException {
+    this.pathWatcher = pathWatcher;
+    this.logger = logger;
+    pathWatcher.addObserver(
+        new Observer<Event>() {
+          @Override
+          public void onError(final Throwable t) {
+            observers.onError(t);
+          }
+
+          @Override
+          public void onNext(final Event event) {
+            add(event);
+          }
+        });
+    this.flushTask =
+        new PeriodicTask(
+            new Runnable() {
+              @Override
+              public void run() {
+                flush();
+              }
+            },
+            Math.max(1, timeUnit.toMillis(latency)));
+  }
+
+  /**
+   * Combines two consecutive events for the same path.
+   *
+   * @param previous the pending event for the path
+   * @param next the event that was just received for the path
+   * @return the event that has the same effect on the cache as both events.
+   */
+  static Event merge(final Event previous, final Event next) {
+    final Kind previousKind = previous.getKind();
+    final Kind nextKind = next.getKind();
+    final TypedPath typedPath = next.getTypedPath();
+    if (previousKind.equals(Error) || previousKind.equals(Overflow)) {
+      return new Event(typedPath, previousKind);
+    } else if (nextKind.equals(Error) || nextKind.equals(Overflow) || nextKind.equals(Delete)) {
+      /*
+       * A create followed by a delete is reduced to the delete rather than dropped. The cache
+       * ignores the delete if it never saw the path, but a spurious create for a path that was
+       * already cached must not leave a stale entry behind.
+       */
+      return next;
+    } else if (nextKind.equals(Move)) {
+      return next;
+    } else if (previousKind.equals(Move) && nextKind.equals(Modify) && typedPath.isDirectory()) {
+      return new Event(typedPath, Move, previous.getPreviousTypedPath());
+    } else if (previousKind.equals(Create) || previousKind.equals(Move)) {
+      return new Event(typedPath, Create);
+    } else if (previousKind.equals(Delete) && typedPath.isDirectory()) {
+      return new Event(typedPath, Overflow);
+    } else {
+      return new Event(typedPath, Modify);
+    }
+  }
+
+  private void add(final Event event) {
+    final Path path = event.getTypedPath().getPath();
+    synchronized (pending) {
+      split(moveDestinations.get(path));
+      if (!event.getKind().equals(Modify) || !event.getTypedPath().isDirectory()) split(path);
+      final TypedPath previousTypedPath = event.getPreviousTypedPath();
+      if (event.getKind().equals(Move) && previousTypedPath != null) {
+        final Path source = previousTypedPath.getPath();
+        split(moveDestinations.get(source));
+        split(source);
+        if (pending.containsKey(source) || pending.containsKey(path)) {
+          merge(new Event(previousTypedPath, Delete));
+          merge(new Event(event.getTypedPath(), Create));
+        } else {
+          pending.put(path, event);
+          moveDestinations.put(source, path);
+        }
+      } else {
+        merge(event);
+      }
+    }
+  }
+
+  private void merge(final Event event) {
+    final Path path = event.getTypedPath().getPath();
+    final Event previous = pending.get(path);
+    pending.put(path, previous == null ? event : merge(previous, event));
+  }
+
+  /**
+   * Splits the pending move to a destination, if there is one, into a create of the destination
+   * and a delete of the source. This must be called while holding the lock on pending.
+   *
+   * @param destination the destination of the move
+   */
+  private void split(final Path destination) {
+    final Event move = destination == null ? null : pending.get(destination);
+    if (move != null && move.getKind().equals(Move) && move.getPreviousTypedPath() != null) {
+      moveDestinations.remove(move.getPreviousTypedPath().getPath());
+      pending.put(destination, new Event(move.getTypedPath(), Create));
+      merge(new Event(move.getPreviousTypedPath(), Delete));
+    }
+  }
+
+  private void flush() {
+    synchronized (flushLock) {
+      final List<Event> events;
+      synchronized (pending) {
+        if (pending.isEmpty()) return;
+        events = new ArrayList<>(pending.values());
+        pending.clear();
+        moveDestinations.clear();
+      }
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " flushing " + events.size() + " coalesced events");
+      batchObservers.onNext(Collections.unmodifiableList(events));
+      final Iterator<Event> it = events.iterator();
+      while (it.hasNext()) {
+        observers.onNext(it.next());
+      }
+    }
+  }
+
+  @Override
+  public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
+    return pathWatcher.register(path, maxDepth);
+  }
+
+  @Override
+  public void unregister(final Path path) {
+    pathWatcher.unregister(path);
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      try {
+        flushTask.close();
+      } catch (final InterruptedException e) {
+      }
+      pathWatcher.close();
+      flush();
+      observers.close();
+      batchObservers.close();
+    }
+  }
+
+  @Override
+  public int addObserver(final Observer<? super PathWatchers.Event> observer) {
+    return observers.addObserver(observer);
+  }
+
+  @Override
+  public void removeObserver(final int handle) {
+    observers.removeObserver(handle);
+  }
+
+  /**
+   * Add an observer of the batches of coalesced events. Each batch contains at most one event per
+   * path.
+   *
+   * @param observer the observer to add
+   * @return the handle to the observer.
+   */
+  int addBatchObserver(final Observer<? super List<PathWatchers.Event>> observer) {
+    return batchObservers.addObserver(observer);
+  }
+
+  /**
+   * Remove a batch observer.
+   *
+   * @param handle the handle that was returned by addBatchObserver
+   */
+  void removeBatchObserver(final int handle) {
+    batchObservers.removeObserver(handle);
+  }
+}
@@ -0,0 +1,203 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Create;
+import static com.swoval.files.PathWatchers.Event.Kind.Delete;
+import static com.swoval.files.PathWatchers.Event.Kind.Modify;
+
+import com.swoval.files.FileTreeDataViews.LongConverter;
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Overflow;
+import com.swoval.functional.Consumer;
+import com.swoval.functional.Either;
+import com.swoval.functional.Filters;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls the directories that didn't fit in the {@link WatchBudget}. Every directory is listed once
+ * per poll interval and the changes to its children are handed to the directory. The directory
+ * itself is reported by its parent. Once a directory has changed, it is asked to watch itself. If
+ * it can, it is polled one last time, to find the changes that were made before the watch was
+ * added, and is then no longer polled.
+ */
+final class DirectoryPoller implements AutoCloseable {
+  private static final LongConverter LAST_MODIFIED =
+      new LongConverter() {
+        @Override
+        public long apply(final TypedPath typedPath) {
+          try {
+            return Files.getLastModifiedTime(typedPath.getPath()).toMillis();
+          } catch (final Exception e) {
+            return 0L;
+          }
+        }
+      };
+
+  /** A directory that is polled until it can be watched. */
+  interface Directory extends Consumer<Either<Overflow, Event>> {
+    /**
+     * Tries to watch the directory.
+     *
+     * @return true if the directory is now watched.
+     */
+    boolean watch();
+  }
+
+  private final long intervalMs;
+  private final WatchBudget budget;
+  private final Logger logger;
+  private final Map<Path, Polled> polledDirectories = new ConcurrentHashMap<>();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private PollingScheduler.Handle pollingTask = null;
+
+  DirectoryPoller(final long intervalMs, final WatchBudget budget, final Logger logger) {
+    this.intervalMs = intervalMs;
+    this.budget = budget;
+    this.logger = logger;
+  }
+
+  /**
+   * Starts polling a directory.
+   *
+   * @param path the directory to poll
+   * @param directory receives the changes to the children of the directory
+   * @return the handle with which the polling is stopped.
+   * @throws IOException if the path isn't a directory.
+   */
+  Polled poll(final Path path, final Directory directory) throws IOException {
+    final Polled polled = new Polled(path, directory);
+    budget.addPolled(path);
+    polledDirectories.put(path, polled);
+    startPolling();
+    return polled;
+  }
+
+  private synchronized void startPolling() {
+    if (pollingTask == null && !closed.get()) {
+      pollingTask =
+          PollingScheduler.get()
+              .schedule(
+                  new PollingScheduler.Task() {
+                    @Override
+                    public boolean run() {
+                      final Iterator<Polled> it = polledDirectories.values().iterator();
+                      while (it.hasNext() && !closed.get()) {
+                        it.next().poll();
+                      }
+                      return false;
+                    }
+                  },
+                  intervalMs,
+                  intervalMs,
+                  TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      final PollingScheduler.Handle handle;
+      synchronized (this) {
+        handle = pollingTask;
+      }
+      if (handle != null) handle.cancel();
+      final Iterator<Polled> it = polledDirectories.values().iterator();
+      while (it.hasNext()) it.next().close();
+    }
+  }
+
+  /** A directory that is being polled. */
+  final class Polled implements AutoCloseable {
+    private final Path path;
+    private final Directory directory;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private LongCachedDirectory snapshot;
+
+    Polled(final Path path, final Directory directory) throws IOException {
+      if (!Files.exists(path)) throw new NoSuchFileException(path.toString());
+      if (!Files.isDirectory(path)) throw new NotDirectoryException(path.toString());
+      this.path = path;
+      this.directory = directory;
+      this.snapshot = snapshot();
+    }
+
+    private LongCachedDirectory snapshot() {
+      try {
+        final TypedPath typedPath = TypedPaths.get(path);
+        final FileTreeView view = FileTreeViews.getDefault(false);
+        return LongCachedDirectory.get(typedPath, LAST_MODIFIED, 0, Filters.AllPass, view);
+      } catch (final IOException e) {
+        return null;
+      }
+    }
+
+    synchronized void poll() {
+      if (closed.get()) return;
+      final boolean changed = update();
+      if (changed && snapshot != null && directory.watch()) {
+        close();
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(DirectoryPoller.this + " watching " + path + " instead of polling it");
+        update();
+        snapshot = null;
+      }
+    }
+
+    private boolean update() {
+      final AtomicBoolean changed = new AtomicBoolean(false);
+      snapshot =
+          LongCachedDirectory.update(
+              snapshot,
+              TypedPaths.get(path),
+              LAST_MODIFIED,
+              0,
+              Filters.AllPass,
+              FileTreeViews.getDefault(false),
+              new LongCacheObserver() {
+                @Override
+                public void onCreate(final LongEntry newEntry) {
+                  emit(newEntry.getTypedPath(), Create);
+                }
+
+                @Override
+                public void onDelete(final LongEntry oldEntry) {
+                  emit(oldEntry.getTypedPath(), Delete);
+                }
+
+                @Override
+                public void onUpdate(final LongEntry oldEntry, final LongEntry newEntry) {
+                  emit(newEntry.getTypedPath(), Modify);
+                }
+
+                private void emit(final TypedPath typedPath, final Event.Kind kind) {
+                  if (!typedPath.getPath().equals(path)) {
+                    changed.set(true);
+                    final Either<Overflow, Event> result = Either.right(new Event(typedPath, kind));
+                    directory.accept(result);
+                  }
+                }
+              });
+      return changed.get();
+    }
+
+    /** Stops polling the directory. */
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        polledDirectories.remove(path);
+        budget.removePolled(path);
+      }
+    }
+  }
+}
@@ -4,11 +4,10 @@ import static java.util.Map.Entry;
 
 import com.swoval.functional.Filter;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tracks which directories the user wishes to monitor. This can be used to determine whether or not
@@ -61,6 +60,14 @@ interface DirectoryRegistry extends Filter<Path>, AutoCloseable {
    */
   boolean acceptPrefix(final Path path);
 
+  /**
+   * Returns the paths that are never accepted by this registry, even if they are in the subtree of
+   * a registered directory.
+   *
+   * @return the exclusions.
+   */
+  Exclusions exclusions();
+
   @Override
   void close();
 }
@@ -78,164 +85,243 @@ class DirectoryRegistries {
   }
 }
 
+/**
+ * A {@link DirectoryRegistry} that stores the registered directories in a tree keyed by path name.
+ * The tree is immutable: {@link #addDirectory(Path, int)} and {@link #removeDirectory(Path)} build
+ * a copy of the nodes on the path to the registered directory and atomically swap in the new root.
+ * This allows {@link #accept(Path)}, {@link #acceptPrefix(Path)} and {@link #maxDepthFor(Path)},
+ * which are invoked for every path that is listed or that a watcher reports, to run without
+ * locking in time proportional to the depth of the path rather than the number of registered
+ * directories. Paths that match the {@link Exclusions} are never accepted and can not be
+ * registered.
+ */
 class DirectoryRegistryImpl implements DirectoryRegistry {
-  private final LockableMap<Path, RegisteredDirectory> registeredDirectoriesByPath =
-      new LockableMap<>(new ConcurrentHashMap<Path, RegisteredDirectory>());
+  private static final Node EMPTY = new Node(new HashMap<Path, Node>(), null, Integer.MIN_VALUE);
+  private final AtomicReference<Node> root = new AtomicReference<>(EMPTY);
+  private final Exclusions excluded;
+
+  DirectoryRegistryImpl() {
+    this(Exclusions.NONE);
+  }
+
+  DirectoryRegistryImpl(final Exclusions exclusions) {
+    this.excluded = exclusions;
+  }
 
   @Override
   public boolean addDirectory(final Path path, final int maxDepth) {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        final RegisteredDirectory registeredDirectory = registeredDirectoriesByPath.get(path);
-        if (registeredDirectory == null || maxDepth > registeredDirectory.maxDepth) {
-          registeredDirectoriesByPath.put(path, new RegisteredDirectory(path, maxDepth));
-          return true;
-        } else {
-          return false;
-        }
-      } finally {
-        registeredDirectoriesByPath.unlock();
+    if (excluded.isExcluded(path)) return false;
+    while (true) {
+      final Node current = root.get();
+      final Node node = find(current, path, componentCount(path));
+      if (node != null && node.path != null && maxDepth <= node.maxDepth) {
+        return false;
+      } else if (root.compareAndSet(current, add(current, path, 0, maxDepth))) {
+        return true;
       }
-    } else {
-      return false;
     }
   }
 
   @Override
   public int maxDepthFor(final Path path) {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        int maxDepth = Integer.MIN_VALUE;
-        final Iterator<RegisteredDirectory> it = registeredDirectoriesByPath.values().iterator();
-        while (it.hasNext()) {
-          final RegisteredDirectory dir = it.next();
-          if (path.startsWith(dir.path)) {
-            final int depth = dir.path.equals(path) ? 0 : dir.path.relativize(path).getNameCount();
-            final int possibleMaxDepth = dir.maxDepth - depth;
-            if (possibleMaxDepth > maxDepth) {
-              maxDepth = possibleMaxDepth;
-            }
-          }
+    int maxDepth = Integer.MIN_VALUE;
+    final int count = componentCount(path);
+    Node node = root.get();
+    Path registeredRoot = null;
+    int i = 0;
+    while (node != null) {
+      if (node.path != null) {
+        if (registeredRoot == null) registeredRoot = node.path;
+        final int possibleMaxDepth = node.maxDepth - (count - i);
+        if (possibleMaxDepth > maxDepth) {
+          maxDepth = possibleMaxDepth;
         }
-        return maxDepth;
-      } finally {
-        registeredDirectoriesByPath.unlock();
       }
-    } else {
-      return -1;
+      node = i < count ? node.children.get(component(path, i)) : null;
+      i += 1;
     }
+    return maxDepth != Integer.MIN_VALUE && excluded.isExcluded(path, registeredRoot)
+        ? Integer.MIN_VALUE
+        : maxDepth;
   }
 
   @Override
   public Map<Path, Integer> registered() {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        final Map<Path, Integer> result = new HashMap<>();
-        final Iterator<RegisteredDirectory> it = registeredDirectoriesByPath.values().iterator();
-        while (it.hasNext()) {
-          final RegisteredDirectory dir = it.next();
-          result.put(dir.path, dir.maxDepth);
-        }
-        return result;
-      } finally {
-        registeredDirectoriesByPath.unlock();
-      }
-    } else {
-      return Collections.emptyMap();
-    }
+    final Map<Path, Integer> result = new HashMap<>();
+    addRegistered(root.get(), result);
+    return result;
   }
 
   @Override
   public void removeDirectory(final Path path) {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        registeredDirectoriesByPath.remove(path);
-      } finally {
-        registeredDirectoriesByPath.unlock();
+    while (true) {
+      final Node current = root.get();
+      final Node updated = remove(current, path, 0);
+      if (updated == current || root.compareAndSet(current, updated == null ? EMPTY : updated)) {
+        return;
       }
     }
   }
 
-  private boolean acceptImpl(final Path path, final boolean acceptPrefix) {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        boolean result = false;
-        final Iterator<Entry<Path, RegisteredDirectory>> it =
-            registeredDirectoriesByPath.iterator();
-        while (!result && it.hasNext()) {
-          final Entry<Path, RegisteredDirectory> entry = it.next();
-          final RegisteredDirectory registeredDirectory = entry.getValue();
-          final Path watchPath = entry.getKey();
-          if (acceptPrefix && watchPath.startsWith(path)) {
-            result = true;
-          } else if (path.startsWith(watchPath)) {
-            result = registeredDirectory.accept(path);
-          }
+  /*
+   * Returns the outermost registered directory that contains the path if the path is accepted. If
+   * acceptPrefix is true and the path is the ancestor of a registered directory, the path itself
+   * is returned. Otherwise, returns null.
+   */
+  private Path acceptedRoot(final Path path, final boolean acceptPrefix) {
+    final int count = componentCount(path);
+    Node node = root.get();
+    Path registeredRoot = null;
+    int i = 0;
+    while (node != null) {
+      if (node.path != null) {
+        if (registeredRoot == null) registeredRoot = node.path;
+        final int depth = count - i;
+        if (depth == 0
+            || node.maxDepth == Integer.MAX_VALUE
+            || depth <= node.maxDepth + 1) {
+          return registeredRoot;
         }
-        return result;
-      } finally {
-        registeredDirectoriesByPath.unlock();
       }
-    } else {
-      return false;
+      if (i == count) {
+        // Every node in the tree either is or is the ancestor of a registered directory.
+        return acceptPrefix ? path : null;
+      }
+      node = node.children.get(component(path, i));
+      i += 1;
     }
+    return null;
   }
 
   @Override
   public boolean accept(final Path path) {
-    return acceptImpl(path, false);
+    final Path registeredRoot = acceptedRoot(path, false);
+    return registeredRoot != null && !excluded.isExcluded(path, registeredRoot);
   }
 
   @Override
   public boolean acceptPrefix(final Path path) {
-    return acceptImpl(path, true);
+    final Path registeredRoot = acceptedRoot(path, true);
+    return registeredRoot != null && !excluded.isExcluded(path, registeredRoot);
+  }
+
+  @Override
+  public Exclusions exclusions() {
+    return excluded;
   }
 
   @Override
   public void close() {
-    registeredDirectoriesByPath.clear();
+    root.set(EMPTY);
   }
 
   @Override
   public String toString() {
-    if (registeredDirectoriesByPath.lock()) {
-      try {
-        final StringBuilder result = new StringBuilder();
-        result.append("DirectoryRegistry:\n");
-        final Iterator<RegisteredDirectory> it = registeredDirectoriesByPath.values().iterator();
-        while (it.hasNext()) {
-          result.append("  ");
-          result.append(it.next());
-          result.append('\n');
-        }
-        return result.toString();
-      } finally {
-        registeredDirectoriesByPath.unlock();
+    final StringBuilder result = new StringBuilder();
+    result.append("DirectoryRegistry:\n");
+    final Iterator<Entry<Path, Integer>> it = registered().entrySet().iterator();
+    while (it.hasNext()) {
+      final Entry<Path, Integer> entry = it.next();
+      result.append("  RegisteredDirectory(path = ");
+      result.append(entry.getKey());
+      result.append(", depth = ");
+      result.append(entry.getValue());
+      result.append(")\n");
+    }
+    return result.toString();
+  }
+
+  /*
+   * The components of a path are its root, if it has one, followed by each of its names.
+   */
+  private static int componentCount(final Path path) {
+    return path.getRoot() == null ? path.getNameCount() : path.getNameCount() + 1;
+  }
+
+  private static Path component(final Path path, final int index) {
+    final Path pathRoot = path.getRoot();
+    if (pathRoot == null) {
+      return path.getName(index);
+    } else {
+      return index == 0 ? pathRoot : path.getName(index - 1);
+    }
+  }
+
+  private static Node find(final Node root, final Path path, final int count) {
+    Node node = root;
+    for (int i = 0; i < count && node != null; ++i) {
+      node = node.children.get(component(path, i));
+    }
+    return node;
+  }
+
+  private static Node add(final Node node, final Path path, final int index, final int maxDepth) {
+    if (index == componentCount(path)) {
+      return new Node(node.children, path, maxDepth);
+    } else {
+      final Path name = component(path, index);
+      final Node child = node.children.get(name);
+      final Map<Path, Node> children = new HashMap<>(node.children);
+      children.put(name, add(child == null ? EMPTY : child, path, index + 1, maxDepth));
+      return new Node(children, node.path, node.maxDepth);
+    }
+  }
+
+  /*
+   * Returns the node unchanged if the path is not registered in its subtree, null if the node no
+   * longer leads to any registered directory once the path is removed and a copy of the node with
+   * the path removed otherwise.
+   */
+  private static Node remove(final Node node, final Path path, final int index) {
+    if (index == componentCount(path)) {
+      if (node.path == null) {
+        return node;
+      } else {
+        return node.children.isEmpty() ? null : new Node(node.children, null, Integer.MIN_VALUE);
       }
     } else {
-      return "";
+      final Path name = component(path, index);
+      final Node child = node.children.get(name);
+      final Node updated = child == null ? null : remove(child, path, index + 1);
+      if (updated == child) {
+        return node;
+      } else {
+        final Map<Path, Node> children = new HashMap<>(node.children);
+        if (updated == null) {
+          children.remove(name);
+        } else {
+          children.put(name, updated);
+        }
+        return children.isEmpty() && node.path == null
+            ? null
+            : new Node(children, node.path, node.maxDepth);
+      }
     }
   }
 
-  private static class RegisteredDirectory {
+  private static void addRegistered(final Node node, final Map<Path, Integer> result) {
+    if (node.path != null) {
+      result.put(node.path, node.maxDepth);
+    }
+    final Iterator<Node> it = node.children.values().iterator();
+    while (it.hasNext()) {
+      addRegistered(it.next(), result);
+    }
+  }
+
+  /*
+   * A node in the registry tree. The children are never modified after the node is created. If
+   * the path is null, then the node is only an ancestor of registered directories.
+   */
+  private static final class Node {
+    final Map<Path, Node> children;
     final Path path;
     final int maxDepth;
-    final int compMaxDepth;
 
-    RegisteredDirectory(final Path path, final int maxDepth) {
+    Node(final Map<Path, Node> children, final Path path, final int maxDepth) {
+      this.children = children;
       this.path = path;
       this.maxDepth = maxDepth;
-      compMaxDepth = maxDepth == Integer.MAX_VALUE ? maxDepth : maxDepth + 1;
-    }
-
-    public boolean accept(final Path path) {
-      return path.startsWith(this.path)
-          && (path.equals(this.path) || this.path.relativize(path).getNameCount() <= compMaxDepth);
-    }
-
-    @Override
-    public String toString() {
-      return "RegisteredDirectory(path = " + path + ", depth = " + maxDepth + ")";
     }
   }
 }
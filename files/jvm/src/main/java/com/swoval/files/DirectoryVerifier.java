@@ -0,0 +1,253 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Create;
+import static com.swoval.files.PathWatchers.Event.Kind.Delete;
+
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Overflow;
+import com.swoval.functional.Consumer;
+import com.swoval.functional.Either;
+import com.swoval.functional.Filters;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies the watched directories in the background, in case the watch service dropped some of
+ * their events. A directory is only listed if its last modified time has changed since it was last
+ * verified. Its children are then compared with the previous listing and only the creations and
+ * deletions that the watch service hasn't reported are handed to the directory's consumer.
+ * Modifications don't change the last modified time of the directory, so they aren't verified.
+ * The verification thread has the lowest priority, spends at most a twentieth of its time listing
+ * directories and yields whenever the watch service reports an event.
+ */
+final class DirectoryVerifier implements AutoCloseable {
+  private static final long TICK_MS = 100;
+  private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MS) / 20;
+  private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long RACY_MS = 2000;
+  private final long intervalMs;
+  private final Logger logger;
+  private final Map<Path, Verified> verifiedDirectories = new ConcurrentHashMap<>();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final PeriodicTask task;
+  private volatile long lastEventNanos = System.nanoTime();
+
+  DirectoryVerifier(final long intervalMs, final Logger logger) throws InterruptedException {
+    this.intervalMs = intervalMs;
+    this.logger = logger;
+    this.task = new PeriodicTask(new Pass(), TICK_MS);
+  }
+
+  /**
+   * Starts verifying a watched directory.
+   *
+   * @param path the directory to verify
+   * @param consumer receives the missed events for the children of the directory
+   * @return the handle with which the verification is stopped.
+   */
+  Verified verify(final Path path, final Consumer<Either<Overflow, Event>> consumer) {
+    final Verified verified = new Verified(path, consumer);
+    verifiedDirectories.put(path, verified);
+    return verified;
+  }
+
+  /** Makes the current slice yield to the event that the watch service has just reported. */
+  void eventReceived() {
+    lastEventNanos = System.nanoTime();
+  }
+
+  /**
+   * Records that the watch service reported a creation or deletion of a path, so that the next
+   * verification of its parent doesn't report it again.
+   *
+   * @param path the path that was reported
+   */
+  void reported(final Path path) {
+    final Path parent = path.getParent();
+    final Verified directory = parent == null ? null : verifiedDirectories.get(parent);
+    if (directory != null) directory.report(path.getFileName());
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      try {
+        task.close();
+      } catch (final InterruptedException e) {
+      }
+      verifiedDirectories.clear();
+    }
+  }
+
+  /**
+   * Verifies a slice of the watched directories on each tick. A pass over all of the directories
+   * starts once the verification interval has elapsed since the previous pass ended. A slice ends
+   * when its time budget is spent or when the watch service reports an event, so the verification
+   * never delays the handling of live events for long.
+   */
+  private final class Pass implements Runnable {
+    private final List<Verified> pass = new ArrayList<>();
+    private int cursor = 0;
+    private long nextPassNanos = System.nanoTime();
+    private boolean prioritized = false;
+
+    @Override
+    public void run() {
+      if (!prioritized) {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        prioritized = true;
+      }
+      final long start = System.nanoTime();
+      if (cursor >= pass.size()) {
+        if (start - nextPassNanos < 0) return;
+        pass.clear();
+        pass.addAll(verifiedDirectories.values());
+        cursor = 0;
+      }
+      int missed = 0;
+      while (cursor < pass.size()
+          && !closed.get()
+          && System.nanoTime() - start < SLICE_NANOS
+          && lastEventNanos - start < 0) {
+        missed += pass.get(cursor++).verify();
+      }
+      if (missed > 0 && Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(DirectoryVerifier.this + " found " + missed + " missed events");
+      if (cursor >= pass.size()) {
+        pass.clear();
+        cursor = 0;
+        nextPassNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+      }
+    }
+  }
+
+  /** A watched directory that is being verified. */
+  final class Verified implements AutoCloseable {
+    private final Path path;
+    private final Consumer<Either<Overflow, Event>> consumer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile Set<Path> reported =
+        Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private volatile long reportedNanos = System.nanoTime();
+    private volatile boolean rebaseline = false;
+    private Map<Path, Integer> verifiedChildren = null;
+    private long verifiedLastModified = -1;
+
+    Verified(final Path path, final Consumer<Either<Overflow, Event>> consumer) {
+      this.path = path;
+      this.consumer = consumer;
+    }
+
+    void report(final Path name) {
+      reported.add(name);
+      reportedNanos = System.nanoTime();
+    }
+
+    /** Discards the previous listing, e.g. because the watch service overflowed. */
+    void rebaseline() {
+      rebaseline = true;
+    }
+
+    /*
+     * Lists the directory if it has changed since it was last verified and reports the children
+     * that were created or deleted without an event. A directory that has just received events is
+     * left for the next pass since their effects may not be visible yet. A last modified time that
+     * is too close to the listing may hide a later change with the same time, so it isn't trusted.
+     */
+    int verify() {
+      if (closed.get() || System.nanoTime() - reportedNanos < QUIET_NANOS) return 0;
+      long lastModified;
+      try {
+        lastModified = Files.getLastModifiedTime(path).toMillis();
+      } catch (final IOException e) {
+        return 0;
+      }
+      if (rebaseline) {
+        rebaseline = false;
+        verifiedChildren = null;
+      } else if (verifiedChildren != null
+          && lastModified == verifiedLastModified
+          && verifiedLastModified != -1) {
+        return 0;
+      }
+      final Set<Path> previouslyReported = reported;
+      reported = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+      final long listed = System.currentTimeMillis();
+      final Map<Path, Integer> children = new HashMap<>();
+      try {
+        final Iterator<TypedPath> it =
+            FileTreeViews.getDefault(false).list(path, 0, Filters.AllPass).iterator();
+        while (it.hasNext()) {
+          final TypedPath typedPath = it.next();
+          children.put(typedPath.getPath().getFileName(), TypedPaths.getKind(typedPath));
+        }
+      } catch (final IOException e) {
+        return 0;
+      }
+      int missed = 0;
+      if (verifiedChildren != null) {
+        final Set<Path> current = reported;
+        final Iterator<Entry<Path, Integer>> created = children.entrySet().iterator();
+        while (created.hasNext()) {
+          final Entry<Path, Integer> entry = created.next();
+          final Path name = entry.getKey();
+          if (!verifiedChildren.containsKey(name)
+              && !previouslyReported.contains(name)
+              && !current.contains(name)) {
+            missed += 1;
+            emit(TypedPaths.get(path.resolve(name), entry.getValue()), Create);
+          }
+        }
+        final Iterator<Entry<Path, Integer>> deleted = verifiedChildren.entrySet().iterator();
+        while (deleted.hasNext()) {
+          final Entry<Path, Integer> entry = deleted.next();
+          final Path name = entry.getKey();
+          if (!children.containsKey(name)
+              && !previouslyReported.contains(name)
+              && !current.contains(name)) {
+            missed += 1;
+            final int kind = entry.getValue() | Entries.NONEXISTENT;
+            emit(TypedPaths.get(path.resolve(name), kind), Delete);
+          }
+        }
+      }
+      verifiedChildren = children;
+      verifiedLastModified = listed - lastModified < RACY_MS ? -1 : lastModified;
+      return missed;
+    }
+
+    private void emit(final TypedPath typedPath, final Event.Kind kind) {
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " found missed " + kind + " event for " + typedPath.getPath());
+      final Either<Overflow, Event> result = Either.right(new Event(typedPath, kind));
+      consumer.accept(result);
+    }
+
+    /** Stops verifying the directory. */
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) verifiedDirectories.remove(path, this);
+    }
+
+    @Override
+    public String toString() {
+      return "VerifiedDirectory(" + path + ")";
+    }
+  }
+}
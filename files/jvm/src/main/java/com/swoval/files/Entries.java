@@ -46,9 +46,20 @@ final class Entries {
   }
 
   static <T> Entry<T> resolve(final Path path, final Entry<T> entry) {
+    return setPath(entry, path.resolve(entry.getTypedPath().getPath()));
+  }
+
+  /*
+   * Returns an entry with the same kind and value for a different path. A relative path is kept
+   * relative, like the paths of the file entries of a CachedDirectoryImpl.
+   */
+  static <T> Entry<T> setPath(final Entry<T> entry, final Path path) {
     final Either<IOException, T> value = entry.getValue();
-    final int kind = getKind(entry);
-    final TypedPath typedPath = TypedPaths.get(path.resolve(entry.getTypedPath().getPath()), kind);
+    final TypedPath kindPath = TypedPaths.get(entry.getTypedPath().getPath(), getKind(entry));
+    final TypedPath typedPath =
+        path.isAbsolute()
+            ? TypedPaths.get(path, getKind(entry))
+            : TypedPaths.getDelegate(path, kindPath);
     return value.isRight()
         ? new ValidEntry<>(typedPath, value.get())
         : new InvalidEntry<T>(typedPath, leftProjection(value).getValue());
@@ -0,0 +1,74 @@
+package com.swoval.files;
+
+import com.swoval.functional.Either;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A reusable, mutable view of a single entry in a {@link CachedDirectory}. The cursor is moved to
+ * each entry that is visited by an {@link EntryVisitor} so that no objects need to be allocated for
+ * the visited entries.
+ *
+ * @param <T> the cached value type
+ */
+final class EntryCursor<T> {
+  private Path directory;
+  private TypedPath typedPath;
+  private Either<IOException, T> value;
+  private Path resolved;
+
+  void set(final Path directory, final TypedPath typedPath, final Either<IOException, T> value) {
+    this.directory = directory;
+    this.typedPath = typedPath;
+    this.value = value;
+    this.resolved = null;
+  }
+
+  /**
+   * Returns the directory that contains the entry.
+   *
+   * @return the parent directory of the entry.
+   */
+  Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the absolute path of the entry. The cache stores the entries for regular files by name,
+   * so the absolute path is lazily resolved against the parent directory the first time it is
+   * requested.
+   *
+   * @return the path of the entry.
+   */
+  Path getPath() {
+    if (resolved == null) {
+      final Path path = typedPath.getPath();
+      resolved = path.isAbsolute() ? path : directory.resolve(path);
+    }
+    return resolved;
+  }
+
+  /**
+   * Returns the kind of the entry as a bit set of the flags defined in {@link Entries}, e.g. {@link
+   * Entries#DIRECTORY} and {@link Entries#LINK}.
+   *
+   * @return the kind of the entry.
+   */
+  int getKind() {
+    return TypedPaths.getKind(typedPath);
+  }
+
+  /**
+   * Returns the cached value of the entry.
+   *
+   * @return the cached value of the entry.
+   */
+  Either<IOException, T> getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "EntryCursor(" + getPath() + ", " + getKind() + ", " + value + ")";
+  }
+}
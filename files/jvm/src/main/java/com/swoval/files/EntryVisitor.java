@@ -0,0 +1,20 @@
+package com.swoval.files;
+
+import java.nio.file.Path;
+
+/**
+ * Visits the entries of a {@link CachedDirectory} in place. See {@link
+ * CachedDirectory#forEach(Path, int, EntryVisitor)}.
+ *
+ * @param <T> the cached value type
+ */
+interface EntryVisitor<T> {
+
+  /**
+   * Visit a cached entry. The cursor is reused for every entry so it must not be retained after
+   * this method returns.
+   *
+   * @param cursor the cursor positioned at the visited entry
+   */
+  void visit(final EntryCursor<T> cursor);
+}
@@ -0,0 +1,140 @@
+package com.swoval.files;
+
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Overflow;
+import com.swoval.functional.Consumer;
+import com.swoval.functional.Either;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, single-producer, single-consumer ring buffer of events that is drained by its own
+ * handler thread. Only one thread may call {@link #offer} and only the handler thread polls the
+ * events, so the indices only need to be published, never compared and set. The directories whose
+ * events didn't fit are kept in a set and reported as overflows once the ring buffer is empty. The
+ * changes that are offered with {@link #offerPolled} may come from any thread, so they are kept in
+ * a separate, unbounded queue.
+ */
+final class EventShard extends Thread {
+  private final Consumer<List<Either<Overflow, Event>>> eventConsumer;
+  private final Logger logger;
+  private final Object[] buffer;
+  private final AtomicLong head = new AtomicLong(0);
+  private final AtomicLong tail = new AtomicLong(0);
+  private final Set<Path> overflows =
+      Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+  private final ConcurrentLinkedQueue<Either<Overflow, Event>> polled =
+      new ConcurrentLinkedQueue<>();
+  private volatile boolean waiting = false;
+  private volatile boolean stopped = false;
+
+  /**
+   * Creates a new event shard. The handler thread isn't started.
+   *
+   * @param name the name of the handler thread
+   * @param capacity the capacity of the ring buffer, which must be a power of two
+   * @param eventConsumer the consumer that the batches of events are handed to
+   * @param logger the logger
+   */
+  EventShard(
+      final String name,
+      final int capacity,
+      final Consumer<List<Either<Overflow, Event>>> eventConsumer,
+      final Logger logger) {
+    super(name);
+    if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+      throw new IllegalArgumentException("The capacity " + capacity + " isn't a power of two");
+    this.buffer = new Object[capacity];
+    this.eventConsumer = eventConsumer;
+    this.logger = logger;
+    setDaemon(true);
+  }
+
+  void offer(final Path directory, final Either<Overflow, Event> either) {
+    final long t = tail.get();
+    if (t - head.get() < buffer.length) {
+      buffer[(int) (t & (buffer.length - 1))] = either;
+      tail.lazySet(t + 1);
+    } else if (overflows.add(directory) && Loggers.shouldLog(logger, Level.DEBUG)) {
+      logger.debug(this + " dropped the events for " + directory + " because it is full");
+    }
+    if (waiting) LockSupport.unpark(this);
+  }
+
+  void offerPolled(final Either<Overflow, Event> either) {
+    polled.add(either);
+    if (waiting) LockSupport.unpark(this);
+  }
+
+  /**
+   * Stops the handler thread once it has handed its current batch to the consumer. The events
+   * that it hasn't drained yet are discarded.
+   *
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the
+   *     handler thread to stop
+   */
+  void shutdown() throws InterruptedException {
+    stopped = true;
+    LockSupport.unpark(this);
+    join(5000);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Either<Overflow, Event> poll() {
+    final long h = head.get();
+    if (h == tail.get()) return null;
+    final int index = (int) (h & (buffer.length - 1));
+    final Either<Overflow, Event> result = (Either<Overflow, Event>) buffer[index];
+    buffer[index] = null;
+    head.lazySet(h + 1);
+    return result;
+  }
+
+  /*
+   * Hands the consumer everything in the ring buffer and the polled queue as one batch. The batch
+   * is capped at the capacity of the ring buffer so that a busy producer can't grow it without
+   * bound.
+   */
+  @Override
+  public void run() {
+    while (!stopped) {
+      final List<Either<Overflow, Event>> batch = new ArrayList<>();
+      Either<Overflow, Event> either;
+      while (batch.size() < buffer.length && (either = poll()) != null) batch.add(either);
+      while (batch.size() < buffer.length && (either = polled.poll()) != null) batch.add(either);
+      if (!batch.isEmpty()) {
+        eventConsumer.accept(batch);
+      } else if (!overflows.isEmpty()) {
+        final Iterator<Path> it = overflows.iterator();
+        while (it.hasNext()) {
+          final Path path = it.next();
+          it.remove();
+          final Either<Overflow, Event> overflow = Either.left(new Overflow(path));
+          batch.add(overflow);
+        }
+        eventConsumer.accept(batch);
+      } else {
+        /*
+         * The producer only unparks this thread if it sees that it is waiting, so the buffer must
+         * be checked again after announcing it to avoid missing an event.
+         */
+        waiting = true;
+        if (head.get() == tail.get() && polled.isEmpty() && overflows.isEmpty() && !stopped) {
+          LockSupport.park(this);
+        }
+        waiting = false;
+      }
+    }
+  }
+}
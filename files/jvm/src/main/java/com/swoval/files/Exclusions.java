@@ -0,0 +1,324 @@
+package com.swoval.files;
+
+import com.swoval.functional.Filter;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A set of glob patterns for paths that should never be listed, watched or cached. Patterns are
+ * matched one path name at a time using '/' as the separator: '*' matches any sequence of
+ * characters within a name, '?' matches any single character within a name and a name that is
+ * exactly '**' matches zero or more names. A pattern that starts with '/' is matched from the root
+ * of the path. Any other pattern may match starting at any name, so 'target' excludes every
+ * directory named target, like '/**&#47;target' would. Names may also contain bracket expressions,
+ * e.g. '*.py[cod]', and a metacharacter may be escaped with a backslash. A path is excluded if it,
+ * or any of its parents, matches a pattern, so excluding a directory excludes its entire subtree.
+ * The exclusions may optionally honor the ignore files in the parent directories of a path (see
+ * {@link IgnoreFiles}). A pattern may have at most 63 names.
+ *
+ * <p>The patterns are matched against the string of a path in place, name by name, so checking a
+ * path allocates nothing. This matters because the exclusions are checked for every path that the
+ * {@link DirectoryRegistry} accepts.
+ */
+final class Exclusions {
+  private static final String ANY_NAMES = "**";
+  private static final char SEPARATOR = File.separatorChar;
+  static final int MAX_NAMES = 63;
+  static final Exclusions NONE = new Exclusions(new String[0][], null);
+
+  private final String[][] patterns;
+  private final IgnoreFiles ignoreFiles;
+
+  private Exclusions(final String[][] patterns, final IgnoreFiles ignoreFiles) {
+    this.patterns = patterns;
+    this.ignoreFiles = ignoreFiles;
+  }
+
+  /**
+   * Compiles the glob patterns.
+   *
+   * @param globs the glob patterns. A null value is treated as empty.
+   * @return the compiled exclusions.
+   */
+  static Exclusions get(final Iterable<String> globs) {
+    return get(globs, false);
+  }
+
+  /**
+   * Compiles the glob patterns.
+   *
+   * @param globs the glob patterns. A null value is treated as empty.
+   * @param respectIgnoreFiles toggles whether or not the paths ignored by the .gitignore and
+   *     .ignore files of their parent directories are also excluded.
+   * @return the compiled exclusions.
+   */
+  static Exclusions get(final Iterable<String> globs, final boolean respectIgnoreFiles) {
+    final List<String[]> patterns = new ArrayList<>();
+    final Iterator<String> it =
+        globs == null ? new ArrayList<String>().iterator() : globs.iterator();
+    while (it.hasNext()) {
+      final String[] pattern = compile(it.next());
+      if (pattern.length > 0) patterns.add(pattern);
+    }
+    if (patterns.isEmpty() && !respectIgnoreFiles) return NONE;
+    final String[][] result = new String[patterns.size()][];
+    for (int i = 0; i < result.length; ++i) result[i] = patterns.get(i);
+    return new Exclusions(result, respectIgnoreFiles ? new IgnoreFiles() : null);
+  }
+
+  /**
+   * Splits a glob into the names that are matched by {@link #matches}. A glob that doesn't start
+   * with '/' is prefixed with '**' so that it may match starting at any name. The platform
+   * separator is also a separator in the glob, so on windows a metacharacter can't be escaped with
+   * a backslash and a bracket expression such as '[*]' must be used instead.
+   *
+   * @param glob the glob to compile
+   * @return the names of the glob. They are empty if the glob has no names.
+   * @throws IllegalArgumentException if the glob has more than {@link #MAX_NAMES} names.
+   */
+  static String[] compile(final String glob) {
+    final String normalized = glob.replace(SEPARATOR, '/');
+    final List<String> names = new ArrayList<>();
+    final String[] parts = normalized.split("/");
+    for (int i = 0; i < parts.length; ++i) {
+      if (!parts[i].isEmpty()) names.add(parts[i]);
+    }
+    if (names.isEmpty()) return new String[0];
+    if (!normalized.startsWith("/") && !names.get(0).equals(ANY_NAMES)) names.add(0, ANY_NAMES);
+    if (names.size() > MAX_NAMES) {
+      throw new IllegalArgumentException(
+          "The glob " + glob + " has more than " + MAX_NAMES + " names");
+    }
+    final String[] result = new String[names.size()];
+    for (int i = 0; i < result.length; ++i) result[i] = names.get(i);
+    return result;
+  }
+
+  boolean isEmpty() {
+    return patterns.length == 0 && ignoreFiles == null;
+  }
+
+  /**
+   * Returns true if the path, or any of its parents, matches one of the patterns or is ignored by
+   * an ignore file.
+   *
+   * @param path the path to check
+   * @return true if the path is excluded.
+   */
+  boolean isExcluded(final Path path) {
+    return isExcluded(path, null);
+  }
+
+  /**
+   * Returns true if the path, or any of its parents, matches one of the patterns or is ignored by
+   * an ignore file. Unless the registered directory is inside of a repository, the ignore files
+   * above the registered directory are not consulted.
+   *
+   * @param path the path to check
+   * @param root the registered directory that contains the path, or null if it is unknown
+   * @return true if the path is excluded.
+   */
+  boolean isExcluded(final Path path, final Path root) {
+    if (patterns.length > 0) {
+      final String string = path.toString();
+      final int start = namesStart(path, string);
+      for (int i = 0; i < patterns.length; ++i) {
+        if (matches(patterns[i], string, start, string.length(), true)) return true;
+      }
+    }
+    return ignoreFiles != null && ignoreFiles.isIgnored(path, root);
+  }
+
+  /**
+   * Discards the cached rules for the directory of an ignore file. This should be called whenever
+   * the ignore file is created, modified or deleted.
+   *
+   * @param path the path of a file that may be an ignore file
+   * @return true if the path is an ignore file that these exclusions honor. In that case, the
+   *     excluded paths in the directory of the ignore file may have changed.
+   */
+  boolean invalidate(final Path path) {
+    return ignoreFiles != null && ignoreFiles.invalidate(path);
+  }
+
+  Filter<TypedPath> toTypedPathFilter() {
+    return new Filter<TypedPath>() {
+      @Override
+      public boolean accept(final TypedPath typedPath) {
+        return !isExcluded(typedPath.getPath());
+      }
+    };
+  }
+
+  static String[] names(final Path path) {
+    final int count = path.getNameCount();
+    final String[] names = new String[count];
+    for (int i = 0; i < count; ++i) names[i] = path.getName(i).toString();
+    return names;
+  }
+
+  /**
+   * Returns the index of the first character of the first name in the string of a path. The names
+   * of the path are the separated names that follow that index, so the root of the path is skipped.
+   *
+   * @param path the path
+   * @param string the string of the path
+   * @return the index of the first name or the length of the string if the path has no names.
+   */
+  static int namesStart(final Path path, final String string) {
+    int count = path.getNameCount();
+    int result = string.length();
+    while (count > 0) {
+      result = string.lastIndexOf(SEPARATOR, result - 1) + 1;
+      count -= 1;
+      if (count > 0) result -= 1;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the index that follows the last character of the name that starts at an index.
+   *
+   * @param string the string of a path
+   * @param start the index of the first character of a name
+   * @return the index of the separator after the name or the length of the string.
+   */
+  static int nameEnd(final String string, final int start) {
+    final int end = string.indexOf(SEPARATOR, start);
+    return end == -1 ? string.length() : end;
+  }
+
+  /*
+   * Simulates the pattern as a non-deterministic automaton whose states are indices into the
+   * pattern. The states are the bits of a long, which is why a pattern may have at most MAX_NAMES
+   * names. The names are the separated names of the string between the from and to indices. If
+   * prefix is true, returns true as soon as the names from the start up to some name match the
+   * whole pattern. Otherwise all of the names must match the pattern.
+   */
+  static boolean matches(
+      final String[] pattern,
+      final String string,
+      final int from,
+      final int to,
+      final boolean prefix) {
+    final long accept = 1L << pattern.length;
+    long states = close(pattern, 1L);
+    if ((states & accept) != 0 && (prefix || from >= to)) return true;
+    int start = from;
+    while (start < to) {
+      final int end = Math.min(nameEnd(string, start), to);
+      long next = 0L;
+      for (int i = 0; i < pattern.length; ++i) {
+        if ((states & (1L << i)) != 0) {
+          if (pattern[i].equals(ANY_NAMES)) {
+            next |= 1L << i;
+          } else if (matchesName(pattern[i], string, start, end)) {
+            next |= 1L << (i + 1);
+          }
+        }
+      }
+      if (next == 0L) return false;
+      states = close(pattern, next);
+      if ((states & accept) != 0 && (prefix || end == to)) return true;
+      start = end + 1;
+    }
+    return false;
+  }
+
+  /*
+   * Adds the states reachable by matching '**' with no names.
+   */
+  private static long close(final String[] pattern, final long states) {
+    long result = states;
+    for (int i = 0; i < pattern.length; ++i) {
+      if ((result & (1L << i)) != 0 && pattern[i].equals(ANY_NAMES)) result |= 1L << (i + 1);
+    }
+    return result;
+  }
+
+  private static boolean matchesName(
+      final String glob, final String string, final int start, final int end) {
+    int g = 0;
+    int n = start;
+    int star = -1;
+    int mark = start;
+    while (n < end) {
+      final int next = g < glob.length() ? matchesChar(glob, g, string.charAt(n)) : -1;
+      if (next != -1) {
+        g = next;
+        n += 1;
+      } else if (g < glob.length() && glob.charAt(g) == '*') {
+        star = g;
+        mark = n;
+        g += 1;
+      } else if (star != -1) {
+        g = star + 1;
+        mark += 1;
+        n = mark;
+      } else {
+        return false;
+      }
+    }
+    while (g < glob.length() && glob.charAt(g) == '*') g += 1;
+    return g == glob.length();
+  }
+
+  /*
+   * Returns the index in the glob following the token at index g if that token matches the
+   * character and -1 otherwise. The tokens are '?', a bracket expression such as '[a-z]' or '[!.]'
+   * or a literal character, which may be escaped with a backslash. A '*' never matches here.
+   */
+  private static int matchesChar(final String glob, final int g, final char c) {
+    final char token = glob.charAt(g);
+    if (token == '*') {
+      return -1;
+    } else if (token == '?') {
+      return g + 1;
+    } else if (token == '\\' && g + 1 < glob.length()) {
+      return glob.charAt(g + 1) == c ? g + 2 : -1;
+    } else if (token == '[') {
+      int i = g + 1;
+      final boolean negated = i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^');
+      if (negated) i += 1;
+      boolean matched = false;
+      boolean first = true;
+      while (i < glob.length() && (first || glob.charAt(i) != ']')) {
+        final char low = glob.charAt(i);
+        if (i + 2 < glob.length() && glob.charAt(i + 1) == '-' && glob.charAt(i + 2) != ']') {
+          if (low <= c && c <= glob.charAt(i + 2)) matched = true;
+          i += 3;
+        } else {
+          if (low == c) matched = true;
+          i += 1;
+        }
+        first = false;
+      }
+      if (i == glob.length()) {
+        // There is no closing bracket so the '[' is a literal.
+        return c == '[' ? g + 1 : -1;
+      }
+      return matched != negated ? i + 1 : -1;
+    } else {
+      return token == c ? g + 1 : -1;
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder();
+    result.append("Exclusions(");
+    for (int i = 0; i < patterns.length; ++i) {
+      if (i > 0) result.append(", ");
+      final String[] pattern = patterns[i];
+      for (int j = 0; j < pattern.length; ++j) {
+        result.append('/');
+        result.append(pattern[j]);
+      }
+    }
+    result.append(')');
+    return result.toString();
+  }
+}
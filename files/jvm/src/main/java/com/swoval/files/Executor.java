@@ -1,14 +1,13 @@
 package com.swoval.files;
 
 import com.swoval.concurrent.ThreadFactory;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Provides an execution context to run tasks. Exists to allow source interoperability with scala.js
@@ -32,16 +31,48 @@ abstract class Executor implements AutoCloseable {
    */
   abstract void run(final java.lang.Runnable runnable, final int priority);
 
+  /**
+   * Runs the task on the thread assigned to a partition. Tasks that are submitted to the same
+   * partition run in the order in which they were submitted.
+   *
+   * @param runnable task to run
+   * @param priority the priority of the task
+   * @param partition the partition of the task. Must be in the range [0, parallelism()).
+   */
+  void run(final java.lang.Runnable runnable, final int priority, final int partition) {
+    run(runnable, priority);
+  }
+
+  /**
+   * Returns the number of threads that run tasks concurrently.
+   *
+   * @return the number of partitions.
+   */
+  int parallelism() {
+    return 1;
+  }
+
   /** Close the executor. All exceptions must be handled by the implementation. */
   @Override
   public void close() {}
 
+  /**
+   * Runs the tasks on a single consumer thread. The tasks are submitted to lock-free multi-producer,
+   * single-consumer queues, so submitting a task never blocks and the consumer thread never
+   * allocates while it drains the queues. Tasks with a negative priority, e.g. the task that stops
+   * the executor, are queued separately and run before any of the other pending tasks. All other
+   * tasks run in the order in which they were submitted. The tasks that are still pending when the
+   * executor is closed are discarded without being run.
+   */
   static class ExecutorImpl extends Executor {
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     final ThreadFactory factory;
     final ExecutorService service;
-    final LinkedBlockingQueue<PriorityRunnable> consumers = new LinkedBlockingQueue<>();
+    private final TaskQueue urgent = new TaskQueue();
+    private final TaskQueue tasks = new TaskQueue();
+    private volatile boolean waiting = false;
+    private volatile java.lang.Thread consumer = null;
 
     ExecutorImpl(final ThreadFactory factory, final ExecutorService service) {
       this.factory = factory;
@@ -50,27 +81,34 @@ abstract class Executor implements AutoCloseable {
           new java.lang.Runnable() {
             @Override
             public void run() {
+              consumer = java.lang.Thread.currentThread();
               boolean stop = false;
               while (!stop && !closed.get() && !java.lang.Thread.currentThread().isInterrupted()) {
-                try {
-                  final PriorityQueue<PriorityRunnable> queue = new PriorityQueue<>();
-                  queue.add(consumers.take());
-                  drainRunnables(queue);
-                  while (queue.peek() != null && !stop) {
-                    drainRunnables(queue);
-                    final PriorityRunnable runnable = queue.poll();
-                    assert (runnable != null);
-                    stop = runnable.priority < 0;
-                    try {
-                      runnable.run();
-                    } catch (final Exception e) {
-                      e.printStackTrace();
-                    }
+                Runnable runnable = urgent.poll();
+                stop = runnable != null;
+                if (runnable == null) runnable = tasks.poll();
+                if (runnable == null) {
+                  /*
+                   * Producers only unpark the consumer if they see that it is waiting, so the queues
+                   * must be checked again after announcing it to avoid missing a task that was
+                   * submitted in between.
+                   */
+                  waiting = true;
+                  if (urgent.isEmpty() && tasks.isEmpty()) LockSupport.park(this);
+                  waiting = false;
+                } else {
+                  try {
+                    runnable.run();
+                  } catch (final Exception e) {
+                    e.printStackTrace();
                   }
-                } catch (final InterruptedException e) {
-                  stop = true;
                 }
               }
+              /*
+               * The consumer may stop after close has given up waiting for it, in which case close
+               * leaves the pending tasks for the consumer to discard.
+               */
+              if (closed.get()) discardPending();
             }
           });
     }
@@ -80,13 +118,13 @@ abstract class Executor implements AutoCloseable {
     public void close() {
       if (closed.compareAndSet(false, true)) {
         super.close();
-        synchronized (consumers) {
-          consumers.clear();
-          consumers.offer(STOP);
-        }
+        offer(urgent, STOP);
         service.shutdownNow();
         try {
-          if (!service.awaitTermination(5, TimeUnit.SECONDS)) {
+          if (service.awaitTermination(5, TimeUnit.SECONDS)) {
+            // The consumer may never have started, so it can't be relied on to discard the tasks.
+            discardPending();
+          } else {
             System.err.println("Couldn't close executor");
           }
         } catch (InterruptedException e) {
@@ -94,31 +132,114 @@ abstract class Executor implements AutoCloseable {
       }
     }
 
+    /*
+     * Drops the pending tasks so that they, and everything that they reference, can be garbage
+     * collected. This must only be called by the consumer or once the consumer has stopped.
+     */
+    private void discardPending() {
+      urgent.clear();
+      tasks.clear();
+    }
+
     @Override
     void run(final Runnable runnable, final int priority) {
       if (closed.get()) {
         new Exception("Tried to submit to closed executor").printStackTrace(System.err);
       } else {
-        synchronized (consumers) {
-          if (!consumers.offer(new PriorityRunnable(runnable, priority))) {
-            throw new IllegalStateException(
-                "Couldn't run task due to full queue (" + consumers.size() + ")");
-          }
-        }
+        offer(priority < 0 ? urgent : tasks, runnable);
       }
     }
 
-    private void drainRunnables(final PriorityQueue<PriorityRunnable> queue) {
-      synchronized (consumers) {
-        if (consumers.size() > 0) {
-          final List<PriorityRunnable> list = new ArrayList<>();
-          consumers.drainTo(list);
-          queue.addAll(list);
-        }
+    private void offer(final TaskQueue queue, final Runnable runnable) {
+      queue.offer(runnable);
+      if (waiting) {
+        final java.lang.Thread thread = consumer;
+        if (thread != null) LockSupport.unpark(thread);
       }
     }
   }
 
+  /*
+   * An unbounded, lock-free, multi-producer single-consumer queue. Producers atomically swap
+   * themselves in as the tail and then link the previous tail to their node. Only the consumer reads
+   * and advances the head, which is always a node whose task has already been taken. A producer that
+   * has swapped the tail but not yet linked its node makes the queue look empty until it does, so
+   * offer must complete before a producer may wake up the consumer.
+   */
+  private static final class TaskQueue {
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    TaskQueue() {
+      head = new Node(null);
+      tail = new AtomicReference<>(head);
+    }
+
+    void offer(final Runnable runnable) {
+      final Node node = new Node(runnable);
+      tail.getAndSet(node).next = node;
+    }
+
+    Runnable poll() {
+      final Node next = head.next;
+      if (next == null) return null;
+      final Runnable result = next.runnable;
+      next.runnable = null;
+      head = next;
+      return result;
+    }
+
+    boolean isEmpty() {
+      return head.next == null;
+    }
+
+    void clear() {
+      while (poll() != null) {}
+    }
+
+    private static final class Node {
+      private Runnable runnable;
+      private volatile Node next;
+
+      Node(final Runnable runnable) {
+        this.runnable = runnable;
+      }
+    }
+  }
+
+  /**
+   * Runs the tasks of each partition on its own single threaded executor. This allows unrelated
+   * tasks to run concurrently while the tasks of any given partition run sequentially.
+   */
+  static class PartitionedExecutor extends Executor {
+    private final Executor[] executors;
+
+    PartitionedExecutor(final Executor[] executors) {
+      this.executors = executors;
+    }
+
+    @Override
+    void run(final Runnable runnable, final int priority) {
+      executors[0].run(runnable, priority);
+    }
+
+    @Override
+    void run(final Runnable runnable, final int priority, final int partition) {
+      executors[partition].run(runnable, priority);
+    }
+
+    @Override
+    int parallelism() {
+      return executors.length;
+    }
+
+    @Override
+    public void close() {
+      for (int i = 0; i < executors.length; ++i) executors[i].close();
+      super.close();
+    }
+  }
+
   /**
    * Make a new instance of an Executor
    *
@@ -142,31 +263,24 @@ abstract class Executor implements AutoCloseable {
     return new ExecutorImpl(factory, service);
   }
 
-  private static final class PriorityRunnable implements Runnable, Comparable<PriorityRunnable> {
-    private final Runnable runnable;
-    private final int priority;
-
-    PriorityRunnable(final Runnable runnable, final int priority) {
-      this.runnable = runnable;
-      this.priority = priority < 0 ? priority : 0;
-    }
-
-    @Override
-    public int compareTo(final PriorityRunnable that) {
-      return Integer.compare(this.priority, that.priority);
-    }
-
-    @Override
-    public void run() {
-      runnable.run();
-    }
+  /**
+   * Make a new instance of an Executor that runs tasks on multiple threads.
+   *
+   * @param name The prefix of the names of the executor threads
+   * @param parallelism The number of threads. When it is less than two, a single threaded executor
+   *     is returned.
+   * @return Executor
+   */
+  static Executor make(final String name, final int parallelism) {
+    if (parallelism < 2) return make(name);
+    final Executor[] executors = new Executor[parallelism];
+    for (int i = 0; i < parallelism; ++i) executors[i] = make(name + "-" + i);
+    return new PartitionedExecutor(executors);
   }
 
-  private static final PriorityRunnable STOP =
-      new PriorityRunnable(
-          new Runnable() {
-            @Override
-            public void run() {}
-          },
-          -1);
+  private static final Runnable STOP =
+      new Runnable() {
+        @Override
+        public void run() {}
+      };
 }
@@ -4,15 +4,19 @@ import static com.swoval.files.PathWatchers.Event.Kind.Create;
 import static com.swoval.files.PathWatchers.Event.Kind.Delete;
 import static com.swoval.files.PathWatchers.Event.Kind.Error;
 import static com.swoval.files.PathWatchers.Event.Kind.Modify;
+import static com.swoval.files.PathWatchers.Event.Kind.Move;
 import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
 import static com.swoval.functional.Filters.AllPass;
 
+import com.swoval.files.FileTreeDataViews.BatchCacheObserver;
 import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.ChangeSet;
 import com.swoval.files.FileTreeDataViews.Converter;
 import com.swoval.files.FileTreeDataViews.Entry;
 import com.swoval.files.FileTreeDataViews.ObservableCache;
 import com.swoval.files.FileTreeRepositoryImpl.Callback;
 import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.FileTreeViews.Updates;
 import com.swoval.files.PathWatchers.Event;
 import com.swoval.files.PathWatchers.Event.Kind;
 import com.swoval.functional.Filter;
@@ -38,10 +42,149 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Stores the cached root directories of a {@link FileCacheDirectoryTree}. In addition to the map of
+ * root directories, the roots are indexed in a tree keyed by path name so that the roots that
+ * contain a path, or that are contained by a path, can be found in time proportional to the depth
+ * of the path rather than the number of roots.
+ *
+ * @param <T> the cache value type
+ */
 class FileCacheDirectories<T> extends LockableMap<Path, CachedDirectory<T>> {
+  private final Node<T> root = new Node<>();
+
+  private static final class Node<T> {
+    private final Map<Path, Node<T>> children = new HashMap<>();
+    private CachedDirectory<T> directory;
+  }
+
   FileCacheDirectories(final ReentrantLock lock) {
     super(new HashMap<Path, CachedDirectory<T>>(), lock);
   }
+
+  @Override
+  CachedDirectory<T> put(final Path path, final CachedDirectory<T> directory) {
+    if (lock()) {
+      try {
+        final CachedDirectory<T> previous = super.put(path, directory);
+        if (path.getRoot() != null) {
+          Node<T> node = getNode(root, path.getRoot(), true);
+          final int nameCount = path.getNameCount();
+          for (int i = 0; i < nameCount; ++i) node = getNode(node, path.getName(i), true);
+          node.directory = directory;
+        }
+        return previous;
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  CachedDirectory<T> remove(final Path path) {
+    if (lock()) {
+      try {
+        final CachedDirectory<T> previous = super.remove(path);
+        if (previous != null && path.getRoot() != null) remove(root, path, 0);
+        return previous;
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  void clear() {
+    if (lock()) {
+      try {
+        super.clear();
+        root.children.clear();
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns the directories whose paths are equal to or a prefix of the path, ordered from the
+   * least to the most specific. The caller must hold the lock.
+   *
+   * @param path the path whose ancestors are returned
+   * @return the list of ancestor directories.
+   */
+  List<CachedDirectory<T>> ancestors(final Path path) {
+    final List<CachedDirectory<T>> result = new ArrayList<>();
+    if (path.getRoot() != null) {
+      Node<T> node = getNode(root, path.getRoot(), false);
+      final int nameCount = path.getNameCount();
+      int i = 0;
+      while (node != null) {
+        if (node.directory != null) result.add(node.directory);
+        node = i < nameCount ? getNode(node, path.getName(i), false) : null;
+        i += 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the directories whose paths have the path as a prefix, excluding the directory for the
+   * path itself. The caller must hold the lock.
+   *
+   * @param path the path whose descendants are returned
+   * @return the list of descendant directories.
+   */
+  List<CachedDirectory<T>> descendants(final Path path) {
+    final List<CachedDirectory<T>> result = new ArrayList<>();
+    if (path.getRoot() != null) {
+      Node<T> node = getNode(root, path.getRoot(), false);
+      final int nameCount = path.getNameCount();
+      for (int i = 0; i < nameCount && node != null; ++i) {
+        node = getNode(node, path.getName(i), false);
+      }
+      if (node != null) addDescendants(node, result);
+    }
+    return result;
+  }
+
+  private static <T> Node<T> getNode(final Node<T> node, final Path name, final boolean create) {
+    Node<T> result = node.children.get(name);
+    if (result == null && create) {
+      result = new Node<>();
+      node.children.put(name, result);
+    }
+    return result;
+  }
+
+  private static <T> void addDescendants(
+      final Node<T> node, final List<CachedDirectory<T>> result) {
+    final Iterator<Node<T>> it = node.children.values().iterator();
+    while (it.hasNext()) {
+      final Node<T> child = it.next();
+      if (child.directory != null) result.add(child.directory);
+      addDescendants(child, result);
+    }
+  }
+
+  /*
+   * Removes the directory for the path from the subtree of the node and prunes the nodes that no
+   * longer lead to any directory. The node corresponds to the first depth components of the path,
+   * where the first component is the root of the path. Returns true if the node can be pruned.
+   */
+  private boolean remove(final Node<T> node, final Path path, final int depth) {
+    if (depth == path.getNameCount() + 1) {
+      node.directory = null;
+    } else {
+      final Path name = depth == 0 ? path.getRoot() : path.getName(depth - 1);
+      final Node<T> child = node.children.get(name);
+      if (child != null && remove(child, path, depth + 1)) node.children.remove(name);
+    }
+    return node.directory == null && node.children.isEmpty();
+  }
 }
 
 class FileCachePendingFiles extends Lockable {
@@ -99,10 +242,18 @@ class FileCachePendingFiles extends Lockable {
 }
 
 class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<T> {
-  private final DirectoryRegistry directoryRegistry = new DirectoryRegistryImpl();
-  private final Filter<TypedPath> filter = DirectoryRegistries.toTypedPathFilter(directoryRegistry);
+  private static final Comparator<Event> PATH_ORDER =
+      new Comparator<Event>() {
+        @Override
+        public int compare(final Event left, final Event right) {
+          return left.getTypedPath().getPath().compareTo(right.getTypedPath().getPath());
+        }
+      };
+  private final DirectoryRegistry directoryRegistry;
+  private final Filter<TypedPath> filter;
   private final Converter<T> converter;
   private final CacheObservers<T> observers = new CacheObservers<>();
+  private final Observers<ChangeSet<T>> batchObservers = new Observers<>();
   private final Executor callbackExecutor;
   private final boolean followLinks;
   private final boolean rescanOnDirectoryUpdate;
@@ -124,6 +275,24 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
       final SymlinkWatcher symlinkWatcher,
       final boolean rescanOnDirectoryUpdate,
       final Logger logger) {
+    this(
+        converter,
+        callbackExecutor,
+        symlinkWatcher,
+        rescanOnDirectoryUpdate,
+        Exclusions.NONE,
+        logger);
+  }
+
+  FileCacheDirectoryTree(
+      final Converter<T> converter,
+      final Executor callbackExecutor,
+      final SymlinkWatcher symlinkWatcher,
+      final boolean rescanOnDirectoryUpdate,
+      final Exclusions exclusions,
+      final Logger logger) {
+    this.directoryRegistry = new DirectoryRegistryImpl(exclusions);
+    this.filter = DirectoryRegistries.toTypedPathFilter(directoryRegistry);
     this.converter = converter;
     this.callbackExecutor = callbackExecutor;
     this.symlinkWatcher = symlinkWatcher;
@@ -185,6 +354,11 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
         public boolean accept(final Path path) {
           return directoryRegistry.accept(path);
         }
+
+        @Override
+        public Exclusions exclusions() {
+          return directoryRegistry.exclusions();
+        }
       };
 
   DirectoryRegistry readOnlyDirectoryRegistry() {
@@ -215,120 +389,121 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
 
   private CachedDirectory<T> find(final Path path) {
     CachedDirectory<T> foundDir = null;
-    final List<CachedDirectory<T>> dirs = directories.values();
-    Collections.sort(
-        dirs,
-        new Comparator<CachedDirectory<T>>() {
-          @Override
-          public int compare(final CachedDirectory<T> left, final CachedDirectory<T> right) {
-            // Descending order so that we find the most specific path
-            return right.getPath().compareTo(left.getPath());
-          }
-        });
-    final Iterator<CachedDirectory<T>> it = dirs.iterator();
-    while (it.hasNext() && foundDir == null) {
-      final CachedDirectory<T> dir = it.next();
-      if (path.startsWith(dir.getPath())) {
-        if (dir.getMaxDepth() == Integer.MAX_VALUE || path.equals(dir.getPath())) {
+    // The ancestors are ordered from least to most specific and we want the most specific.
+    final List<CachedDirectory<T>> dirs = directories.ancestors(path);
+    for (int i = dirs.size() - 1; i >= 0 && foundDir == null; --i) {
+      final CachedDirectory<T> dir = dirs.get(i);
+      if (dir.getMaxDepth() == Integer.MAX_VALUE || path.equals(dir.getPath())) {
+        foundDir = dir;
+      } else {
+        int depth = path.getNameCount() - dir.getPath().getNameCount() - 1;
+        if (depth <= dir.getMaxDepth()) {
           foundDir = dir;
-        } else {
-          int depth = dir.getPath().relativize(path).getNameCount() - 1;
-          if (depth <= dir.getMaxDepth()) {
-            foundDir = dir;
-          }
         }
       }
     }
     return foundDir;
   }
 
-  private void runCallbacks(final List<Callback> callbacks) {
+  private void runCallbacks(final List<EntryCallback> callbacks) {
     if (!callbacks.isEmpty() && !closed.get()) {
-      callbackExecutor.run(
-          new Runnable() {
-            @Override
-            public void run() {
-              Collections.sort(callbacks);
-              final Iterator<Callback> it = callbacks.iterator();
-              while (it.hasNext()) {
-                final Callback callback = it.next();
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(this + " running callback " + callback);
-                try {
-                  callback.run();
-                } catch (final Exception e) {
-                }
-              }
-            }
-          });
+      final int parallelism = callbackExecutor.parallelism();
+      if (parallelism == 1) {
+        callbackExecutor.run(callbackRunnable(callbacks));
+      } else {
+        /*
+         * Partition the callbacks by path so that the callbacks for any given path always run on the
+         * same thread and, therefore, in order. Slow observers of one path then no longer delay the
+         * callbacks for the paths in the other partitions.
+         */
+        final List<List<EntryCallback>> partitions = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; ++i) partitions.add(new ArrayList<EntryCallback>());
+        final Iterator<EntryCallback> it = callbacks.iterator();
+        while (it.hasNext()) {
+          final EntryCallback callback = it.next();
+          final int hash = callback.getPath().hashCode() & Integer.MAX_VALUE;
+          partitions.get(hash % parallelism).add(callback);
+        }
+        for (int i = 0; i < parallelism; ++i) {
+          final List<EntryCallback> partition = partitions.get(i);
+          if (!partition.isEmpty()) {
+            callbackExecutor.run(callbackRunnable(partition), Integer.MAX_VALUE, i);
+          }
+        }
+      }
     }
   }
 
   @SuppressWarnings("EmptyCatchBlock")
+  private Runnable callbackRunnable(final List<EntryCallback> callbacks) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        Collections.sort(callbacks);
+        final Updates<T> changes = new Updates<>();
+        final Iterator<EntryCallback> it = callbacks.iterator();
+        while (it.hasNext()) {
+          final EntryCallback callback = it.next();
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " running callback " + callback);
+          try {
+            callback.run();
+          } catch (final Exception e) {
+          }
+          if (callback.ioException != null) {
+            batchObservers.onError(callback.ioException);
+          } else {
+            callback.deliver(changes);
+          }
+        }
+        if (!changes.isEmpty()) {
+          try {
+            batchObservers.onNext(changes);
+          } catch (final Exception e) {
+          }
+        }
+      }
+    };
+  }
+
   void handleEvent(final Event event) {
-    if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " received event " + event);
-    final TypedPath typedPath = event.getTypedPath();
+    handleEvents(Collections.singletonList(event));
+  }
+
+  /**
+   * Applies a batch of events to the cache. The directories are locked once for the whole batch and
+   * the callbacks for all of the events are run as a single task by the callback executor. The
+   * events are applied in path order, so that a directory is updated before its children and the
+   * events for sibling paths are applied consecutively, but the events for any given path keep
+   * their relative order. A move changes two paths, so it isn't reordered: the events before it
+   * and the events after it are sorted separately.
+   *
+   * @param events the events to apply
+   */
+  void handleEvents(final List<Event> events) {
+    final List<Event> sorted;
+    if (events.size() > 1) {
+      sorted = new ArrayList<>(events.size());
+      int start = 0;
+      for (int i = 0; i < events.size(); ++i) {
+        final Event event = events.get(i);
+        if (event.getKind().equals(Move) && event.getPreviousTypedPath() != null) {
+          addSorted(events.subList(start, i), sorted);
+          sorted.add(event);
+          start = i + 1;
+        }
+      }
+      addSorted(events.subList(start, events.size()), sorted);
+    } else {
+      sorted = events;
+    }
     final List<TypedPath> symlinks = new ArrayList<>();
-    final List<Callback> callbacks = new ArrayList<>();
+    final List<EntryCallback> callbacks = new ArrayList<>();
     if (!closed.get() && directories.lock()) {
       try {
-        final Path path = typedPath.getPath();
-        if (typedPath.exists()) {
-          final CachedDirectory<T> dir = find(typedPath.getPath());
-          if (dir != null) {
-            try {
-              final TypedPath updatePath =
-                  (followLinks || !typedPath.isSymbolicLink())
-                      ? typedPath
-                      : TypedPaths.get(typedPath.getPath(), Entries.LINK);
-              final boolean rescan = rescanOnDirectoryUpdate || event.getKind().equals(Overflow);
-              if (Loggers.shouldLog(logger, Level.DEBUG))
-                logger.debug(
-                    this + " updating " + updatePath.getPath() + " in " + dir.getTypedPath());
-              dir.update(updatePath, rescan).observe(callbackObserver(callbacks, symlinks));
-            } catch (final IOException e) {
-              handleDelete(path, callbacks, symlinks);
-            }
-          } else if (pendingFiles.contains(path)) {
-            if (Loggers.shouldLog(logger, Level.DEBUG))
-              logger.debug(this + " found pending file for " + path);
-            try {
-              CachedDirectory<T> cachedDirectory;
-              try {
-                cachedDirectory = newCachedDirectory(path, directoryRegistry.maxDepthFor(path));
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(this + " successfully initialiazed directory for " + path);
-              } catch (final NotDirectoryException nde) {
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(this + " unable to initialize directory for " + path);
-                cachedDirectory = newCachedDirectory(path, -1);
-              }
-              final CachedDirectory<T> previous = directories.put(path, cachedDirectory);
-              if (previous != null) previous.close();
-              addCallback(
-                  callbacks,
-                  symlinks,
-                  cachedDirectory.getEntry(),
-                  null,
-                  cachedDirectory.getEntry(),
-                  Create,
-                  null);
-              final Iterator<FileTreeDataViews.Entry<T>> it =
-                  cachedDirectory.listEntries(cachedDirectory.getMaxDepth(), AllPass).iterator();
-              while (it.hasNext()) {
-                final FileTreeDataViews.Entry<T> entry = it.next();
-                addCallback(callbacks, symlinks, entry, null, entry, Create, null);
-              }
-            } catch (final IOException e) {
-              System.err.println("Caught unexpected io exception handling event for " + path);
-              e.printStackTrace(System.err);
-              pendingFiles.add(path);
-            }
-          }
-        } else {
-          if (Loggers.shouldLog(logger, Level.DEBUG))
-            logger.debug(this + " deleting directory for " + path);
-          handleDelete(path, callbacks, symlinks);
+        final Iterator<Event> eventIterator = sorted.iterator();
+        while (eventIterator.hasNext()) {
+          applyEvent(eventIterator.next(), callbacks, symlinks);
         }
       } finally {
         directories.unlock();
@@ -353,31 +528,173 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     }
   }
 
+  private static void addSorted(final List<Event> events, final List<Event> sorted) {
+    final List<Event> run = new ArrayList<>(events);
+    // The sort is stable so the events for each path stay in order.
+    Collections.sort(run, PATH_ORDER);
+    sorted.addAll(run);
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  private void applyEvent(
+      final Event event, final List<EntryCallback> callbacks, final List<TypedPath> symlinks) {
+    if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " received event " + event);
+    final TypedPath typedPath = event.getTypedPath();
+    final Path path = typedPath.getPath();
+    final TypedPath previousTypedPath = event.getPreviousTypedPath();
+    if (event.getKind().equals(Move) && previousTypedPath != null) {
+      final Path source = previousTypedPath.getPath();
+      final boolean moved = applyMove(source, typedPath, callbacks, symlinks);
+      if (!moved) handleDelete(source, callbacks, symlinks);
+      if (directoryRegistry.exclusions().invalidate(source)) {
+        rescanIgnoreFileDirectory(source.getParent(), callbacks, symlinks);
+      }
+      /*
+       * The source may already have been recreated, e.g. by an editor that renames a file to a
+       * backup and then writes a new one. The event for the new file may only come in a later
+       * batch, or not at all if the watch service dropped it, so the source is added right away.
+       */
+      final TypedPath recreated = TypedPaths.get(source);
+      if (recreated.exists()) applyEvent(new Event(recreated, Create), callbacks, symlinks);
+      if (moved) {
+        if (directoryRegistry.exclusions().invalidate(path)) {
+          rescanIgnoreFileDirectory(path.getParent(), callbacks, symlinks);
+        }
+        return;
+      }
+    }
+    if (typedPath.exists()) {
+      final CachedDirectory<T> dir = find(typedPath.getPath());
+      if (dir != null) {
+        try {
+          final TypedPath updatePath =
+              (followLinks || !typedPath.isSymbolicLink())
+                  ? typedPath
+                  : TypedPaths.get(typedPath.getPath(), Entries.LINK);
+          final boolean rescan = rescanOnDirectoryUpdate || event.getKind().equals(Overflow);
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " updating " + updatePath.getPath() + " in " + dir.getTypedPath());
+          dir.update(updatePath, rescan).observe(callbackObserver(callbacks, symlinks));
+        } catch (final IOException e) {
+          handleDelete(path, callbacks, symlinks);
+        }
+      } else if (pendingFiles.contains(path)) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " found pending file for " + path);
+        try {
+          CachedDirectory<T> cachedDirectory;
+          try {
+            cachedDirectory = newCachedDirectory(path, directoryRegistry.maxDepthFor(path));
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " successfully initialiazed directory for " + path);
+          } catch (final NotDirectoryException nde) {
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " unable to initialize directory for " + path);
+            cachedDirectory = newCachedDirectory(path, -1);
+          }
+          final CachedDirectory<T> previous = directories.put(path, cachedDirectory);
+          if (previous != null) previous.close();
+          addCallback(
+              callbacks,
+              symlinks,
+              cachedDirectory.getEntry(),
+              null,
+              cachedDirectory.getEntry(),
+              Create,
+              null);
+          final Iterator<FileTreeDataViews.Entry<T>> it =
+              cachedDirectory.listEntries(cachedDirectory.getMaxDepth(), AllPass).iterator();
+          while (it.hasNext()) {
+            final FileTreeDataViews.Entry<T> entry = it.next();
+            addCallback(callbacks, symlinks, entry, null, entry, Create, null);
+          }
+        } catch (final IOException e) {
+          System.err.println("Caught unexpected io exception handling event for " + path);
+          e.printStackTrace(System.err);
+          pendingFiles.add(path);
+        }
+      }
+    } else {
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " deleting directory for " + path);
+      handleDelete(path, callbacks, symlinks);
+    }
+    if (directoryRegistry.exclusions().invalidate(path)) {
+      rescanIgnoreFileDirectory(path.getParent(), callbacks, symlinks);
+    }
+  }
+
+  /*
+   * Re-parents the cached entries for a move within a single cached directory so that the moved
+   * subtree is neither listed nor converted again. Returns false, without changing the cache, if
+   * the move involves a registered path or if the directory can't apply it, in which case the
+   * caller handles the move as a delete followed by a create.
+   */
+  private boolean applyMove(
+      final Path source,
+      final TypedPath typedPath,
+      final List<EntryCallback> callbacks,
+      final List<TypedPath> symlinks) {
+    final Path path = typedPath.getPath();
+    final List<CachedDirectory<T>> sourceDirectories = directories.ancestors(source);
+    final List<CachedDirectory<T>> pathDirectories = directories.ancestors(path);
+    if (sourceDirectories.size() != 1
+        || !sourceDirectories.equals(pathDirectories)
+        || find(path) != sourceDirectories.get(0)) {
+      return false;
+    }
+    final Iterator<Path> it = directoryRegistry.registered().keySet().iterator();
+    while (it.hasNext()) {
+      final Path registered = it.next();
+      if (registered.startsWith(source) || registered.startsWith(path)) return false;
+    }
+    final Updates<T> updates = sourceDirectories.get(0).move(source, typedPath);
+    if (updates == null) return false;
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " moved " + source + " to " + path);
+    updates.observe(callbackObserver(callbacks, symlinks));
+    return true;
+  }
+
+  /*
+   * The paths that are excluded in a directory may change when one of its ignore files changes.
+   * Rescanning the directory removes the paths that are now ignored and adds the paths that are no
+   * longer ignored.
+   */
+  @SuppressWarnings("EmptyCatchBlock")
+  private void rescanIgnoreFileDirectory(
+      final Path path, final List<EntryCallback> callbacks, final List<TypedPath> symlinks) {
+    final CachedDirectory<T> dir = find(path);
+    if (dir != null) {
+      try {
+        dir.update(TypedPaths.get(path), true).observe(callbackObserver(callbacks, symlinks));
+      } catch (final IOException e) {
+      }
+    }
+  }
+
   private void handleDelete(
-      final Path path, final List<Callback> callbacks, final List<TypedPath> symlinks) {
+      final Path path, final List<EntryCallback> callbacks, final List<TypedPath> symlinks) {
     final List<Iterator<FileTreeDataViews.Entry<T>>> removeIterators = new ArrayList<>();
-    final Iterator<CachedDirectory<T>> directoryIterator =
-        new ArrayList<>(directories.values()).iterator();
+    final Iterator<CachedDirectory<T>> directoryIterator = directories.ancestors(path).iterator();
     while (directoryIterator.hasNext()) {
       final CachedDirectory<T> dir = directoryIterator.next();
-      if (path.startsWith(dir.getPath())) {
-        final List<FileTreeDataViews.Entry<T>> updates =
-            path.equals(dir.getPath())
-                ? dir.listEntries(Integer.MAX_VALUE, AllPass)
-                : new ArrayList<FileTreeDataViews.Entry<T>>();
-        updates.addAll(dir.remove(path));
-        final Iterator<Path> it = directoryRegistry.registered().keySet().iterator();
-        while (it.hasNext()) {
-          if (it.next().equals(path)) {
-            pendingFiles.add(path);
-          }
-        }
-        if (dir.getPath().equals(path)) {
-          directories.remove(path);
-          updates.add(dir.getEntry());
+      final List<FileTreeDataViews.Entry<T>> updates =
+          path.equals(dir.getPath())
+              ? dir.listEntries(Integer.MAX_VALUE, AllPass)
+              : new ArrayList<FileTreeDataViews.Entry<T>>();
+      updates.addAll(dir.remove(path));
+      final Iterator<Path> it = directoryRegistry.registered().keySet().iterator();
+      while (it.hasNext()) {
+        if (it.next().equals(path)) {
+          pendingFiles.add(path);
         }
-        removeIterators.add(updates.iterator());
       }
+      if (dir.getPath().equals(path)) {
+        directories.remove(path);
+        updates.add(dir.getEntry());
+      }
+      removeIterators.add(updates.iterator());
     }
     final Iterator<Iterator<FileTreeDataViews.Entry<T>>> it = removeIterators.iterator();
     while (it.hasNext()) {
@@ -399,6 +716,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
         if (symlinkWatcher != null) symlinkWatcher.close();
         directories.clear();
         observers.close();
+        batchObservers.close();
         directoryRegistry.close();
         pendingFiles.clear();
       } finally {
@@ -415,24 +733,14 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     if (directoryRegistry.addDirectory(absolutePath, maxDepth) && directories.lock()) {
       try {
         watcher.register(absolutePath, maxDepth);
-        final List<CachedDirectory<T>> dirs = new ArrayList<>(directories.values());
-        Collections.sort(
-            dirs,
-            new Comparator<CachedDirectory<T>>() {
-              @Override
-              public int compare(final CachedDirectory<T> left, final CachedDirectory<T> right) {
-                return left.getPath().compareTo(right.getPath());
-              }
-            });
-        final Iterator<CachedDirectory<T>> it = dirs.iterator();
+        // The ancestors are ordered from least to most specific.
+        final Iterator<CachedDirectory<T>> it = directories.ancestors(absolutePath).iterator();
         CachedDirectory<T> existing = null;
         while (it.hasNext() && existing == null) {
           final CachedDirectory<T> dir = it.next();
-          if (absolutePath.startsWith(dir.getPath())) {
-            final int depth = dir.getPath().relativize(absolutePath).getNameCount() - 1;
-            if (dir.getMaxDepth() == Integer.MAX_VALUE || dir.getMaxDepth() - depth > maxDepth) {
-              existing = dir;
-            }
+          final int depth = dir.getPath().relativize(absolutePath).getNameCount() - 1;
+          if (dir.getMaxDepth() == Integer.MAX_VALUE || dir.getMaxDepth() - depth > maxDepth) {
+            existing = dir;
           }
         }
         CachedDirectory<T> dir;
@@ -465,18 +773,16 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
   }
 
   private void cleanupDirectories(final Path path, final int maxDepth) {
-    final Iterator<CachedDirectory<T>> it = directories.values().iterator();
+    final Iterator<CachedDirectory<T>> it = directories.descendants(path).iterator();
     final List<Path> toRemove = new ArrayList<>();
     while (it.hasNext()) {
       final CachedDirectory<T> dir = it.next();
-      if (dir.getPath().startsWith(path) && !dir.getPath().equals(path)) {
-        if (maxDepth == Integer.MAX_VALUE) {
+      if (maxDepth == Integer.MAX_VALUE) {
+        toRemove.add(dir.getPath());
+      } else {
+        int depth = dir.getPath().getNameCount() - path.getNameCount();
+        if (maxDepth - depth >= dir.getMaxDepth()) {
           toRemove.add(dir.getPath());
-        } else {
-          int depth = path.relativize(dir.getPath()).getNameCount();
-          if (maxDepth - depth >= dir.getMaxDepth()) {
-            toRemove.add(dir.getPath());
-          }
         }
       }
     }
@@ -488,7 +794,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
 
   @SuppressWarnings("EmptyCatchBlock")
   private void addCallback(
-      final List<Callback> callbacks,
+      final List<EntryCallback> callbacks,
       final List<TypedPath> symlinks,
       final FileTreeDataViews.Entry<T> entry,
       final FileTreeDataViews.Entry<T> oldEntry,
@@ -499,25 +805,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     if (typedPath != null && typedPath.isSymbolicLink() && followLinks) {
       symlinks.add(typedPath);
     }
-    callbacks.add(
-        new Callback(typedPath == null ? Paths.get("") : typedPath.getPath()) {
-          @Override
-          public void run() {
-            try {
-              if (ioException != null) {
-                observers.onError(ioException);
-              } else if (kind.equals(Create)) {
-                observers.onCreate(newEntry);
-              } else if (kind.equals(Delete)) {
-                observers.onDelete(Entries.setExists(oldEntry, false));
-              } else if (kind.equals(Modify)) {
-                observers.onUpdate(oldEntry, newEntry);
-              }
-            } catch (final Exception e) {
-              e.printStackTrace();
-            }
-          }
-        });
+    callbacks.add(new EntryCallback(typedPath, oldEntry, newEntry, kind, ioException));
   }
 
   @Override
@@ -535,6 +823,33 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     return observers.addCacheObserver(observer);
   }
 
+  int addCacheObserver(final CacheObserver<T> observer, final Path prefix) {
+    return observers.addCacheObserver(observer, prefix);
+  }
+
+  int addCacheObserver(final CacheObserver<T> observer, final String glob) {
+    return observers.addCacheObserver(observer, glob);
+  }
+
+  int addBatchObserver(final BatchCacheObserver<T> observer) {
+    return batchObservers.addObserver(
+        new Observer<ChangeSet<T>>() {
+          @Override
+          public void onError(final Throwable t) {
+            observer.onError((IOException) t);
+          }
+
+          @Override
+          public void onNext(final ChangeSet<T> changes) {
+            observer.onChanges(changes);
+          }
+        });
+  }
+
+  void removeBatchObserver(final int handle) {
+    batchObservers.removeObserver(handle);
+  }
+
   @Override
   public List<Entry<T>> listEntries(
       final Path path, final int maxDepth, final Filter<? super Entry<T>> filter) {
@@ -562,7 +877,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
   }
 
   private CacheObserver<T> callbackObserver(
-      final List<Callback> callbacks, final List<TypedPath> symlinks) {
+      final List<EntryCallback> callbacks, final List<TypedPath> symlinks) {
     return new CacheObserver<T>() {
       @Override
       public void onCreate(final FileTreeDataViews.Entry<T> newEntry) {
@@ -637,4 +952,46 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     if (result == null) throw new NoSuchFileException(path.toString());
     return result;
   }
+
+  private final class EntryCallback extends Callback {
+    private final Entry<T> oldEntry;
+    private final Entry<T> newEntry;
+    private final Kind kind;
+    private final IOException ioException;
+
+    EntryCallback(
+        final TypedPath typedPath,
+        final Entry<T> oldEntry,
+        final Entry<T> newEntry,
+        final Kind kind,
+        final IOException ioException) {
+      super(typedPath == null ? Paths.get("") : typedPath.getPath());
+      this.oldEntry = oldEntry;
+      this.newEntry = newEntry;
+      this.kind = kind;
+      this.ioException = ioException;
+    }
+
+    @Override
+    public void run() {
+      try {
+        deliver(observers);
+      } catch (final Exception e) {
+        e.printStackTrace();
+      }
+    }
+
+    void deliver(final CacheObserver<T> observer) {
+      if (ioException != null) {
+        observer.onError(ioException);
+      } else if (kind.equals(Create)) {
+        observer.onCreate(newEntry);
+      } else if (kind.equals(Delete)) {
+        observer.onDelete(Entries.setExists(oldEntry, false));
+      } else if (kind.equals(Modify)) {
+        observer.onUpdate(oldEntry, newEntry);
+      }
+    }
+  }
+
 }
@@ -6,6 +6,8 @@ import com.swoval.files.PathWatchers.Event;
 import com.swoval.logging.Logger;
 import com.swoval.logging.Loggers;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /** Provides factory methods for generating instances of {@link FileTreeRepository}. */
 public class FileTreeRepositories {
@@ -58,28 +60,223 @@ public class FileTreeRepositories {
       final boolean rescanOnDirectoryUpdates,
       final Logger logger)
       throws InterruptedException, IOException {
+    return get(
+        converter,
+        followLinks,
+        new Options().rescanOnDirectoryUpdates(rescanOnDirectoryUpdates).logger(logger));
+  }
+
+  /**
+   * Create a file tree repository that is configured by the {@link Options}. The default options
+   * create the same file tree repository as {@link FileTreeRepositories#get(Converter, boolean)}.
+   *
+   * @param converter converts a path to the cached value type T
+   * @param followLinks toggles whether or not to follow symbolic links. See {@link
+   *     FileTreeRepositories#get(Converter, boolean, boolean, Logger)}.
+   * @param options the options for the file tree repository
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> get(
+      final Converter<T> converter, final boolean followLinks, final Options options)
+      throws InterruptedException, IOException {
+    final Logger logger = options.repositoryLogger;
+    final boolean rescanOnDirectoryUpdates = options.rescanDirectoryUpdates;
+    final long coalescingLatencyNanos = options.coalescingLatencyNanos;
+    final PathWatchers.Options watcherOptions =
+        options.pathWatcherOptions.copy().reportMoves(false);
+    final Exclusions compiledExclusions =
+        Exclusions.get(options.exclusionGlobs, options.parseIgnoreFiles);
     final SymlinkWatcher symlinkWatcher =
         followLinks
             ? new SymlinkWatcher(
-                PathWatchers.get(false, new DirectoryRegistryImpl(), logger), logger)
+                PathWatchers.get(
+                    false,
+                    new DirectoryRegistryImpl(compiledExclusions),
+                    watcherOptions,
+                    logger),
+                logger)
             : null;
-    final Executor callbackExecutor = Executor.make("FileTreeRepository-callback-executor");
+    final Executor callbackExecutor =
+        Executor.make("FileTreeRepository-callback-executor", options.callbackThreadCount);
     final FileCacheDirectoryTree<T> tree =
         new FileCacheDirectoryTree<>(
-            converter, callbackExecutor, symlinkWatcher, rescanOnDirectoryUpdates, logger);
-    final PathWatcher<PathWatchers.Event> pathWatcher =
-        PathWatchers.get(false, tree.readOnlyDirectoryRegistry(), logger);
-    pathWatcher.addObserver(
-        new Observer<Event>() {
-          @Override
-          public void onError(final Throwable t) {}
+            converter,
+            callbackExecutor,
+            symlinkWatcher,
+            rescanOnDirectoryUpdates,
+            compiledExclusions,
+            logger);
+    /*
+     * The tree moves the cached entries of a renamed directory instead of listing it again, so the
+     * watcher reports renames as moves. The cache observers still see a deletion and a creation.
+     */
+    final PathWatcher<PathWatchers.Event> platformWatcher =
+        PathWatchers.get(
+            false,
+            tree.readOnlyDirectoryRegistry(),
+            watcherOptions.copy().reportMoves(true),
+            logger);
+    final PathWatcher<PathWatchers.Event> pathWatcher;
+    if (coalescingLatencyNanos > 0) {
+      final CoalescingPathWatcher coalescingPathWatcher =
+          new CoalescingPathWatcher(
+              platformWatcher, coalescingLatencyNanos, TimeUnit.NANOSECONDS, logger);
+      coalescingPathWatcher.addBatchObserver(
+          new Observer<List<Event>>() {
+            @Override
+            public void onError(final Throwable t) {}
+
+            @Override
+            public void onNext(final List<Event> events) {
+              tree.handleEvents(events);
+            }
+          });
+      pathWatcher = coalescingPathWatcher;
+    } else if (platformWatcher instanceof NioPathWatcher) {
+      // Apply everything that the watcher drains in one go as a single batch.
+      ((NioPathWatcher) platformWatcher)
+          .addBatchObserver(
+              new Observer<List<Event>>() {
+                @Override
+                public void onError(final Throwable t) {}
 
-          @Override
-          public void onNext(final Event event) {
-            tree.handleEvent(event);
-          }
-        });
+                @Override
+                public void onNext(final List<Event> events) {
+                  tree.handleEvents(events);
+                }
+              });
+      pathWatcher = platformWatcher;
+    } else {
+      platformWatcher.addObserver(
+          new Observer<Event>() {
+            @Override
+            public void onError(final Throwable t) {}
+
+            @Override
+            public void onNext(final Event event) {
+              tree.handleEvent(event);
+            }
+          });
+      pathWatcher = platformWatcher;
+    }
     final FileCachePathWatcher<T> watcher = new FileCachePathWatcher<>(tree, pathWatcher);
     return new FileTreeRepositoryImpl<>(tree, watcher);
   }
+
+  /**
+   * The options for the file tree repositories created by {@link
+   * FileTreeRepositories#get(Converter, boolean, Options)}. The default options create the same
+   * file tree repository as {@link FileTreeRepositories#get(Converter, boolean)}. The options are
+   * read when the repository is created, so changing them later doesn't affect it.
+   */
+  public static final class Options {
+    boolean rescanDirectoryUpdates = false;
+    Iterable<String> exclusionGlobs = null;
+    boolean parseIgnoreFiles = false;
+    long coalescingLatencyNanos = 0;
+    int callbackThreadCount = 1;
+    PathWatchers.Options pathWatcherOptions = new PathWatchers.Options();
+    Logger repositoryLogger = Loggers.getLogger();
+
+    /**
+     * Toggles whether or not we rescan a directory's subtree when an update is detected for that
+     * directory. This can be very expensive since it will perform iops proportional to the number
+     * of files in the subtree. It generally should not be necessary since we are also watching the
+     * subtree for events. It is off by default.
+     *
+     * @param rescanOnDirectoryUpdates toggles whether or not subtrees are rescanned on updates
+     * @return these options
+     */
+    public Options rescanOnDirectoryUpdates(final boolean rescanOnDirectoryUpdates) {
+      this.rescanDirectoryUpdates = rescanOnDirectoryUpdates;
+      return this;
+    }
+
+    /**
+     * Sets the glob patterns for the paths that are never listed, cached or watched. The glob
+     * syntax is described in {@link PathWatchers#polling(boolean, long, TimeUnit, Iterable)}.
+     *
+     * @param exclusions glob patterns for the paths that should not be cached. A null value is
+     *     treated as empty.
+     * @return these options
+     */
+    public Options exclusions(final Iterable<String> exclusions) {
+      this.exclusionGlobs = exclusions;
+      return this;
+    }
+
+    /**
+     * Toggles whether or not the paths that are ignored by the .gitignore and .ignore files in
+     * their parent directories are excluded. Only the ignore files up to the root of the enclosing
+     * git repository are considered. The ignore files are parsed when their directory is first
+     * listed and are parsed again whenever the repository detects that they have changed. The
+     * paths in the directory of a changed ignore file are then added to, or removed from, the
+     * repository. It is off by default.
+     *
+     * @param respectIgnoreFiles toggles whether or not ignored paths are excluded
+     * @return these options
+     */
+    public Options respectIgnoreFiles(final boolean respectIgnoreFiles) {
+      this.parseIgnoreFiles = respectIgnoreFiles;
+      return this;
+    }
+
+    /**
+     * Sets the latency window within which the file events for each path are coalesced before
+     * they are applied to the cache. A burst of events for the same path, e.g. a file that is
+     * created and then written several times, then updates the cache and notifies the observers
+     * only once. The events for any given path are always applied in order. When it is not
+     * positive, which is the default, events are applied as soon as they are received.
+     *
+     * @param coalescingLatency the maximum time that an event may be held back
+     * @param timeUnit the time unit of the coalescing latency
+     * @return these options
+     */
+    public Options coalescingLatency(final long coalescingLatency, final TimeUnit timeUnit) {
+      this.coalescingLatencyNanos = timeUnit.toNanos(coalescingLatency);
+      return this;
+    }
+
+    /**
+     * Sets the number of threads on which the callbacks of the observers are run. The callbacks
+     * are partitioned by the hash of the path of the entry that they report, so the callbacks for
+     * any given path are always run on the same thread and in order, but the callbacks for
+     * different paths may run concurrently. Observers of a repository with more than one callback
+     * thread must therefore be thread safe. It is one by default.
+     *
+     * @param callbackThreads the number of threads on which the observer callbacks are run
+     * @return these options
+     */
+    public Options callbackThreads(final int callbackThreads) {
+      this.callbackThreadCount = callbackThreads;
+      return this;
+    }
+
+    /**
+     * Sets the options for the path watchers that the repository creates, e.g. {@link
+     * PathWatchers.Options#writeCompletion(boolean)}. The repository decides for itself how
+     * renames are reported, so {@link PathWatchers.Options#reportMoves(boolean)} is ignored.
+     *
+     * @param watcherOptions the options for the path watchers
+     * @return these options
+     */
+    public Options watcherOptions(final PathWatchers.Options watcherOptions) {
+      this.pathWatcherOptions = watcherOptions.copy();
+      return this;
+    }
+
+    /**
+     * Sets the logger for the debug events of the repository.
+     *
+     * @param logger logs debug events
+     * @return these options
+     */
+    public Options logger(final Logger logger) {
+      this.repositoryLogger = logger;
+      return this;
+    }
+  }
 }
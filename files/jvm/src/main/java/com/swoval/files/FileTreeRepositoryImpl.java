@@ -1,7 +1,10 @@
 package com.swoval.files;
 
+import com.swoval.files.FileTreeDataViews.BatchCacheObserver;
+import com.swoval.files.FileTreeDataViews.BatchObservable;
 import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.ScopedObservable;
 import com.swoval.files.FileTreeViews.Observer;
 import com.swoval.functional.Either;
 import com.swoval.functional.Filter;
@@ -14,7 +17,8 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-class FileTreeRepositoryImpl<T> implements FileTreeRepository<T> {
+class FileTreeRepositoryImpl<T>
+    implements FileTreeRepository<T>, BatchObservable<T>, ScopedObservable<T> {
   private final AtomicBoolean closed = new AtomicBoolean(false);
   private final FileCacheDirectoryTree<T> directoryTree;
   private final FileCachePathWatcher<T> watcher;
@@ -124,6 +128,27 @@ class FileTreeRepositoryImpl<T> implements FileTreeRepository<T> {
     return directoryTree.addCacheObserver(observer);
   }
 
+  @Override
+  public int addCacheObserver(final CacheObserver<T> observer, final Path prefix) {
+    return directoryTree.addCacheObserver(
+        observer, prefix.isAbsolute() ? prefix : prefix.toAbsolutePath());
+  }
+
+  @Override
+  public int addCacheObserver(final CacheObserver<T> observer, final String glob) {
+    return directoryTree.addCacheObserver(observer, glob);
+  }
+
+  @Override
+  public int addBatchObserver(final BatchCacheObserver<T> observer) {
+    return directoryTree.addBatchObserver(observer);
+  }
+
+  @Override
+  public void removeBatchObserver(final int handle) {
+    directoryTree.removeBatchObserver(handle);
+  }
+
   abstract static class Callback implements Runnable, Comparable<Callback> {
     private final Path path;
 
@@ -131,6 +156,10 @@ class FileTreeRepositoryImpl<T> implements FileTreeRepository<T> {
       this.path = path;
     }
 
+    Path getPath() {
+      return path;
+    }
+
     @Override
     public int compareTo(final Callback that) {
       return this.path.compareTo(that.path);
@@ -1,6 +1,7 @@
 package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.ChangeSet;
 import com.swoval.files.FileTreeDataViews.Converter;
 import com.swoval.files.FileTreeDataViews.Entry;
 import com.swoval.functional.Filter;
@@ -176,7 +177,7 @@ public class FileTreeViews {
     void removeObserver(final int handle);
   }
 
-  static class Updates<T> implements CacheObserver<T> {
+  static class Updates<T> implements CacheObserver<T>, ChangeSet<T> {
 
     private final List<Entry<T>> creations = new ArrayList<>();
     private final List<Entry<T>> deletions = new ArrayList<>();
@@ -198,6 +199,25 @@ public class FileTreeViews {
       }
     }
 
+    boolean isEmpty() {
+      return creations.isEmpty() && deletions.isEmpty() && updates.isEmpty();
+    }
+
+    @Override
+    public List<Entry<T>> getCreations() {
+      return creations;
+    }
+
+    @Override
+    public List<Entry<T>[]> getUpdates() {
+      return updates;
+    }
+
+    @Override
+    public List<Entry<T>> getDeletions() {
+      return deletions;
+    }
+
     @Override
     public void onCreate(final Entry<T> newEntry) {
       creations.add(newEntry);
@@ -0,0 +1,248 @@
+package com.swoval.files;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Determines which paths are ignored by the .gitignore and .ignore files in their parent
+ * directories. The rules follow the gitignore format: blank lines and lines starting with '#' are
+ * skipped, a leading '!' negates a rule, a trailing '/' only matches directories and a rule
+ * containing a '/' is matched relative to the directory of the ignore file. Any other rule matches
+ * a name at any depth below that directory. When several rules match a path, the last one wins and
+ * the rules of the .ignore file take precedence over the .gitignore file in the same directory. As
+ * with git, a path can not be re-included once one of its parent directories is ignored.
+ *
+ * <p>The rules of each directory are parsed the first time that a path in the directory is
+ * checked, which is typically when the directory is first listed, and are cached until {@link
+ * #invalidate(Path)} is called for one of the directory's ignore files. Only the ignore files up to
+ * the nearest parent directory containing a .git entry are consulted. When the path is checked on
+ * behalf of a registered directory that isn't inside of a repository, only the ignore files up to
+ * the registered directory are consulted. At most {@link #MAX_CACHED_DIRECTORIES} directories are
+ * cached. The cache is cleared when it is full, so the rules of directories that are no longer
+ * being checked are eventually discarded.
+ */
+final class IgnoreFiles {
+  private static final String GITIGNORE = ".gitignore";
+  private static final String IGNORE = ".ignore";
+  private static final String GIT = ".git";
+  private static final Rules EMPTY = new Rules(new Rule[0], false);
+  private static final Rules EMPTY_REPOSITORY_ROOT = new Rules(new Rule[0], true);
+  static final int MAX_CACHED_DIRECTORIES = 4096;
+
+  private final ConcurrentHashMap<Path, Rules> rulesByDirectory = new ConcurrentHashMap<>();
+  /*
+   * The number of names in the outermost directory whose ignore files are consulted for the paths
+   * in each registered directory.
+   */
+  private final ConcurrentHashMap<Path, Integer> topsByRoot = new ConcurrentHashMap<>();
+
+  /**
+   * Returns true if the path, or any of its parent directories, is ignored.
+   *
+   * @param path the path to check
+   * @return true if the path is ignored.
+   */
+  boolean isIgnored(final Path path) {
+    return isIgnored(path, null);
+  }
+
+  /**
+   * Returns true if the path, or any of its parent directories, is ignored. If the registered
+   * directory that contains the path is not inside of a repository, the ignore files above the
+   * registered directory are not consulted.
+   *
+   * @param path the path to check
+   * @param root the registered directory that contains the path. If null, the ignore files up to
+   *     the root of the file system are consulted when the path is not inside of a repository.
+   * @return true if the path is ignored.
+   */
+  boolean isIgnored(final Path path, final Path root) {
+    final String string = path.toString();
+    final int count = path.getNameCount();
+    /*
+     * The index of the first character of each name in the string of the path. The last element is
+     * one past the end of the string, as if the path ended with a separator.
+     */
+    final int[] starts = new int[count + 1];
+    starts[0] = Exclusions.namesStart(path, string);
+    for (int i = 1; i <= count; ++i) starts[i] = Exclusions.nameEnd(string, starts[i - 1]) + 1;
+    /*
+     * Collect the rules of each parent directory, starting with the parent of the path. The index
+     * of each directory's rules is the number of names in the directory.
+     */
+    final Rules[] rules = new Rules[count];
+    final int limit = root == null ? 0 : getTop(root);
+    int top = count;
+    Path dir = path.getParent();
+    int depth = count - 1;
+    while (dir != null && depth >= limit) {
+      final Rules dirRules = getRules(dir);
+      rules[depth] = dirRules;
+      top = depth;
+      if (dirRules.isRepositoryRoot) break;
+      dir = dir.getParent();
+      depth -= 1;
+    }
+    /*
+     * Check the path and each of its parents below the top directory, from the outermost in, so
+     * that we stop at the first ignored directory.
+     */
+    for (int end = top + 1; end <= count; ++end) {
+      int ignored = 0;
+      for (int d = top; d < end; ++d) {
+        final Rule[] dirRules = rules[d].rules;
+        for (int i = 0; i < dirRules.length; ++i) {
+          final Rule rule = dirRules[i];
+          if (Exclusions.matches(rule.pattern, string, starts[d], starts[end] - 1, false)
+              && (!rule.directoryOnly || end < count || isDirectory(path))) {
+            ignored = rule.negated ? -1 : 1;
+          }
+        }
+      }
+      if (ignored == 1) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Discards the cached rules of the directory containing the path if the path is an ignore file
+   * or the .git entry that marks the root of a repository.
+   *
+   * @param path the path that was created, modified or deleted
+   * @return true if the rules of the directory containing the path may have changed.
+   */
+  boolean invalidate(final Path path) {
+    final Path fileName = path.getFileName();
+    final Path parent = path.getParent();
+    if (fileName != null && parent != null && definesRules(fileName.toString())) {
+      rulesByDirectory.remove(parent);
+      if (fileName.toString().equals(GIT)) topsByRoot.clear();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private static boolean definesRules(final String name) {
+    return name.equals(GITIGNORE) || name.equals(IGNORE) || name.equals(GIT);
+  }
+
+  /*
+   * Returns the number of names in the root of the repository that contains the registered
+   * directory or, if there is no such repository, in the registered directory itself.
+   */
+  private int getTop(final Path root) {
+    final Integer cached = topsByRoot.get(root);
+    if (cached != null) return cached;
+    int result = root.getNameCount();
+    Path dir = root;
+    while (dir != null) {
+      final Rules rules = rulesByDirectory.get(dir);
+      if (rules != null ? rules.isRepositoryRoot : Files.exists(dir.resolve(GIT))) {
+        result = dir.getNameCount();
+        break;
+      }
+      dir = dir.getParent();
+    }
+    if (topsByRoot.size() >= MAX_CACHED_DIRECTORIES) topsByRoot.clear();
+    topsByRoot.put(root, result);
+    return result;
+  }
+
+  private Rules getRules(final Path dir) {
+    final Rules cached = rulesByDirectory.get(dir);
+    if (cached != null) return cached;
+    final List<Rule> rules = new ArrayList<>();
+    parse(dir.resolve(GITIGNORE), rules);
+    parse(dir.resolve(IGNORE), rules);
+    final boolean isRepositoryRoot = Files.exists(dir.resolve(GIT));
+    final Rules result;
+    if (rules.isEmpty()) {
+      result = isRepositoryRoot ? EMPTY_REPOSITORY_ROOT : EMPTY;
+    } else {
+      final Rule[] array = new Rule[rules.size()];
+      for (int i = 0; i < array.length; ++i) array[i] = rules.get(i);
+      result = new Rules(array, isRepositoryRoot);
+    }
+    if (rulesByDirectory.size() >= MAX_CACHED_DIRECTORIES) rulesByDirectory.clear();
+    rulesByDirectory.put(dir, result);
+    return result;
+  }
+
+  private static boolean isDirectory(final Path path) {
+    return TypedPaths.get(path).isDirectory();
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  private static void parse(final Path ignoreFile, final List<Rule> rules) {
+    final String content;
+    try {
+      content = new String(Files.readAllBytes(ignoreFile), StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      // The ignore file doesn't exist or can't be read so it has no rules.
+      return;
+    }
+    final String[] lines = content.split("\r?\n");
+    for (int i = 0; i < lines.length; ++i) {
+      final Rule rule = parseRule(lines[i]);
+      if (rule != null) rules.add(rule);
+    }
+  }
+
+  private static Rule parseRule(final String line) {
+    int end = line.length();
+    while (end > 0 && line.charAt(end - 1) == ' ' && !(end > 1 && line.charAt(end - 2) == '\\')) {
+      end -= 1;
+    }
+    String text = line.substring(0, end);
+    if (text.isEmpty() || text.startsWith("#")) return null;
+    final boolean negated = text.startsWith("!");
+    if (negated) text = text.substring(1);
+    else if (text.startsWith("\\#") || text.startsWith("\\!")) text = text.substring(1);
+    final boolean directoryOnly = text.endsWith("/");
+    while (text.endsWith("/")) text = text.substring(0, text.length() - 1);
+    final boolean anchored = text.indexOf('/') != -1;
+    final List<String> names = new ArrayList<>();
+    if (!anchored) names.add("**");
+    final String[] parts = text.split("/");
+    for (int i = 0; i < parts.length; ++i) {
+      if (!parts[i].isEmpty()) names.add(parts[i]);
+    }
+    if (names.size() == (anchored ? 0 : 1) || names.size() > Exclusions.MAX_NAMES) return null;
+    final String[] pattern = new String[names.size()];
+    for (int i = 0; i < pattern.length; ++i) pattern[i] = names.get(i);
+    return new Rule(pattern, negated, directoryOnly);
+  }
+
+  @Override
+  public String toString() {
+    return "IgnoreFiles(" + GITIGNORE + ", " + IGNORE + ")";
+  }
+
+  private static final class Rule {
+    final String[] pattern;
+    final boolean negated;
+    final boolean directoryOnly;
+
+    Rule(final String[] pattern, final boolean negated, final boolean directoryOnly) {
+      this.pattern = pattern;
+      this.negated = negated;
+      this.directoryOnly = directoryOnly;
+    }
+  }
+
+  private static final class Rules {
+    final Rule[] rules;
+    final boolean isRepositoryRoot;
+
+    Rules(final Rule[] rules, final boolean isRepositoryRoot) {
+      this.rules = rules;
+      this.isRepositoryRoot = isRepositoryRoot;
+    }
+  }
+}
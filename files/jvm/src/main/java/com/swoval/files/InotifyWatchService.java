@@ -0,0 +1,710 @@
+package com.swoval.files;
+
+import static com.swoval.files.RegisterableWatchServices.ENTRY_MOVE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.swoval.files.RegisterableWatchServices.TypedWatchEvent;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import com.swoval.runtime.NativeLoader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides an alternative {@link java.nio.file.WatchService} for linux that reads the events of an
+ * inotify instance directly. The events are read in bulk into a direct buffer and the watch
+ * descriptor of each event is mapped to its watch key with a primitive int map, so no objects are
+ * allocated for events that are dropped. Unlike the jdk implementation, which forwards the events
+ * through a background poller that also handles every registration, registering a directory is a
+ * single system call made on the registering thread.
+ *
+ * <p>In write completion mode, a file that is written is only reported as modified once it is
+ * closed, rather than once for every write. A file that is written in many chunks, e.g. by a
+ * compiler, then causes a single modification event. Attribute changes are still reported as they
+ * happen so that, e.g., touching a file is reported as a modification.
+ */
+class InotifyWatchService implements RegisterableWatchService {
+  static final int ENOENT = -1;
+  static final int EACCES = -2;
+  static final int ENOTDIR = -3;
+  static final int ENOSPC = -4;
+
+  /* These are the values of the flags in sys/inotify.h, which are part of the linux abi. */
+  static final int IN_MODIFY = 0x00000002;
+  static final int IN_ATTRIB = 0x00000004;
+  static final int IN_CLOSE_WRITE = 0x00000008;
+  static final int IN_MOVED_FROM = 0x00000040;
+  static final int IN_MOVED_TO = 0x00000080;
+  static final int IN_CREATE = 0x00000100;
+  static final int IN_DELETE = 0x00000200;
+  static final int IN_Q_OVERFLOW = 0x00004000;
+  static final int IN_IGNORED = 0x00008000;
+  static final int IN_ONLYDIR = 0x01000000;
+  static final int IN_ISDIR = 0x40000000;
+
+  private static final int EVENT_HEADER_SIZE = 16;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Charset charset =
+      Charset.forName(System.getProperty("sun.jnu.encoding", "UTF-8"));
+  private static final AtomicInteger threadId = new AtomicInteger(0);
+
+  static {
+    try {
+      NativeLoader.loadPackaged();
+    } catch (IOException | UnsatisfiedLinkError e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final long handle;
+  private final int queueSize;
+  private final boolean writeCompletion;
+  private final AtomicBoolean open = new AtomicBoolean(true);
+  private final WatchDescriptors<InotifyWatchKey> descriptors = new WatchDescriptors<>();
+  private final LinkedBlockingQueue<InotifyWatchKey> readyKeys = new LinkedBlockingQueue<>();
+  private final ByteBuffer buffer =
+      ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+  private final Thread readThread;
+  private final Logger logger;
+  /*
+   * The IN_MOVED_FROM event that hasn't been paired with an IN_MOVED_TO event yet. These are only
+   * accessed by the read thread.
+   */
+  private InotifyWatchKey movedFromKey = null;
+  private String movedFromName = null;
+  private int movedFromCookie = 0;
+  private boolean movedFromDirectory = false;
+
+  /**
+   * Creates a new InotifyWatchService.
+   *
+   * @param queueSize the maximum number of events to queue per watch key
+   * @param writeCompletion toggles whether the modifications of a file are only reported once it
+   *     is closed after being written
+   * @param logger the logger
+   * @throws IOException if the inotify instance cannot be created
+   */
+  InotifyWatchService(final int queueSize, final boolean writeCompletion, final Logger logger)
+      throws IOException {
+    this.queueSize = queueSize;
+    this.writeCompletion = writeCompletion;
+    this.logger = logger;
+    this.handle = openHandle();
+    if (handle == 0) throw new IOException("Couldn't allocate the inotify handle");
+    final int err = errno(handle);
+    if (err != 0) {
+      closeHandle(handle);
+      throw new IOException("Couldn't create inotify instance: " + strerror(err));
+    }
+    readThread =
+        new Thread("InotifyWatchService-read-thread-" + threadId.incrementAndGet()) {
+          @Override
+          public void run() {
+            readLoop();
+            /*
+             * Only the read thread closes the handle, once it has stopped reading, so that close
+             * doesn't have to wait for it. Registrations hold the descriptors lock while they use
+             * the handle. The keys are left over if reading failed before the service was closed.
+             */
+            final List<InotifyWatchKey> keys;
+            synchronized (descriptors) {
+              closeHandle(handle);
+              keys = descriptors.values();
+              descriptors.clear();
+            }
+            final int size = keys.size();
+            int i = 0;
+            while (i < size) {
+              keys.get(i).invalidate();
+              i += 1;
+            }
+          }
+        };
+    readThread.setDaemon(true);
+    readThread.start();
+  }
+
+  /**
+   * Create a new InotifyWatchService with a maximum queue size of <code>1024</code> per watch key.
+   *
+   * @throws IOException if the inotify instance cannot be created
+   */
+  InotifyWatchService() throws IOException {
+    this(false);
+  }
+
+  /**
+   * Create a new InotifyWatchService with a maximum queue size of <code>1024</code> per watch key.
+   *
+   * @param writeCompletion toggles whether the modifications of a file are only reported once it
+   *     is closed after being written
+   * @throws IOException if the inotify instance cannot be created
+   */
+  InotifyWatchService(final boolean writeCompletion) throws IOException {
+    this(1024, writeCompletion, Loggers.getLogger());
+  }
+
+  private native long openHandle();
+
+  private native void closeHandle(long handle);
+
+  private native void wakeup(long handle);
+
+  private native int errno(long handle);
+
+  private native String strerror(int error);
+
+  private native int addWatch(long handle, byte[] path, int mask);
+
+  private native void removeWatch(long handle, int descriptor);
+
+  private native int read(long handle, ByteBuffer buffer);
+
+  @Override
+  @SuppressWarnings("EmptyCatchBlock")
+  public void close() {
+    List<InotifyWatchKey> keys = null;
+    synchronized (descriptors) {
+      if (open.compareAndSet(true, false)) {
+        // The read thread can't close the handle before this returns because it needs the lock.
+        wakeup(handle);
+        keys = descriptors.values();
+        descriptors.clear();
+      }
+    }
+    if (keys != null) {
+      try {
+        readThread.join(5000);
+      } catch (final InterruptedException e) {
+      }
+      final int size = keys.size();
+      int i = 0;
+      while (i < size) {
+        keys.get(i).invalidate();
+        i += 1;
+      }
+    }
+  }
+
+  @Override
+  public WatchKey poll() {
+    if (isOpen()) {
+      return readyKeys.poll();
+    } else {
+      throw new ClosedWatchServiceException();
+    }
+  }
+
+  @Override
+  public WatchKey poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+    if (isOpen()) {
+      return readyKeys.poll(timeout, unit);
+    } else {
+      throw new ClosedWatchServiceException();
+    }
+  }
+
+  @Override
+  public WatchKey take() throws InterruptedException {
+    if (isOpen()) {
+      return readyKeys.take();
+    } else {
+      throw new ClosedWatchServiceException();
+    }
+  }
+
+  private boolean isOpen() {
+    return open.get();
+  }
+
+  @Override
+  public WatchKey register(final Path path, final Kind<?>... kinds) throws IOException {
+    int mask = IN_ONLYDIR;
+    boolean reportMoveEvents = false;
+    int i = 0;
+    while (i < kinds.length) {
+      final Kind<?> kind = kinds[i];
+      if (kind == ENTRY_CREATE) mask |= IN_CREATE | IN_MOVED_TO;
+      else if (kind == ENTRY_DELETE) mask |= IN_DELETE | IN_MOVED_FROM;
+      else if (kind == ENTRY_MODIFY)
+        mask |= (writeCompletion ? IN_CLOSE_WRITE : IN_MODIFY) | IN_ATTRIB;
+      else if (kind == ENTRY_MOVE) reportMoveEvents = true;
+      i += 1;
+    }
+    synchronized (descriptors) {
+      if (!isOpen()) throw new ClosedWatchServiceException();
+      final int descriptor = addWatch(handle, encode(path), mask);
+      if (descriptor < 0) {
+        final int err = errno(handle);
+        switch (err) {
+          case ENOENT:
+            throw new NoSuchFileException(path.toString());
+          case EACCES:
+            throw new AccessDeniedException(path.toString());
+          case ENOTDIR:
+            throw new NotDirectoryException(path.toString());
+          case ENOSPC:
+            throw new WatchBudget.LimitReachedException(
+                "Couldn't register "
+                    + path
+                    + " because the inotify watch limit was reached. The limit can be increased"
+                    + " with sysctl fs.inotify.max_user_watches.");
+          default:
+            throw new IOException("Couldn't register " + path + ": " + strerror(err));
+        }
+      }
+      InotifyWatchKey key = descriptors.get(descriptor);
+      if (key == null || !key.isValid()) {
+        key = new InotifyWatchKey(path, descriptor, reportMoveEvents);
+        descriptors.put(descriptor, key);
+      } else {
+        key.reportMoveEvents = reportMoveEvents;
+      }
+      if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " registered path " + path);
+      return key;
+    }
+  }
+
+  private void readLoop() {
+    while (isOpen()) {
+      final int read = read(handle, buffer);
+      if (read < 0) {
+        if (isOpen())
+          logger.error(this + " couldn't read inotify events: " + strerror(-read));
+        open.set(false);
+      } else if (read > 0 && isOpen()) {
+        int offset = 0;
+        while (offset + EVENT_HEADER_SIZE <= read) {
+          final int descriptor = buffer.getInt(offset);
+          final int mask = buffer.getInt(offset + 4);
+          final int cookie = buffer.getInt(offset + 8);
+          final int length = buffer.getInt(offset + 12);
+          final String name = length > 0 ? getName(offset + EVENT_HEADER_SIZE, length) : null;
+          onEvent(descriptor, mask, cookie, name);
+          offset += EVENT_HEADER_SIZE + length;
+        }
+        /*
+         * The kernel queues both halves of a move together, so an IN_MOVED_FROM event that is the
+         * last event of a read was almost certainly a move out of the watched directories.
+         */
+        flushMovedFrom();
+      }
+    }
+  }
+
+  /*
+   * The kernel reads the path as a null terminated string of bytes in the same encoding that
+   * getName decodes the event names with.
+   */
+  private static byte[] encode(final Path path) {
+    final byte[] bytes = path.toString().getBytes(charset);
+    final byte[] result = new byte[bytes.length + 1];
+    System.arraycopy(bytes, 0, result, 0, bytes.length);
+    return result;
+  }
+
+  /* The name is padded with null bytes to align the next event. */
+  private String getName(final int offset, final int length) {
+    int end = 0;
+    while (end < length && buffer.get(offset + end) != 0) end += 1;
+    final byte[] bytes = new byte[end];
+    int i = 0;
+    while (i < end) {
+      bytes[i] = buffer.get(offset + i);
+      i += 1;
+    }
+    return new String(bytes, charset);
+  }
+
+  private void onEvent(final int descriptor, final int mask, final int cookie, final String name) {
+    if ((mask & IN_Q_OVERFLOW) != 0) {
+      flushMovedFrom();
+      final List<InotifyWatchKey> keys;
+      synchronized (descriptors) {
+        keys = descriptors.values();
+      }
+      final int size = keys.size();
+      int i = 0;
+      while (i < size) {
+        keys.get(i).addOverflow();
+        i += 1;
+      }
+    } else {
+      final InotifyWatchKey key;
+      synchronized (descriptors) {
+        key = descriptors.get(descriptor);
+        if (key != null && (mask & IN_IGNORED) != 0) descriptors.remove(descriptor);
+      }
+      if (key == null) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " dropping event for unregistered descriptor " + descriptor);
+      } else if ((mask & IN_IGNORED) != 0) {
+        key.invalidate();
+      } else if (name != null) {
+        /*
+         * The kernel tells us whether the file is a directory and deletions tell us that it no
+         * longer exists. Only a write can tell us that a file that isn't a directory is also not a
+         * symbolic link, so the kind of other files is left unknown.
+         */
+        final boolean isDirectory = (mask & IN_ISDIR) != 0;
+        final boolean isMovedTo = (mask & IN_MOVED_TO) != 0;
+        if (isMovedTo
+            && movedFromKey != null
+            && movedFromCookie == cookie
+            && movedFromKey.reportMoveEvents
+            && key.reportMoveEvents) {
+          final Path previousPath = movedFromKey.watchable.resolve(movedFromName);
+          movedFromKey = null;
+          movedFromName = null;
+          key.createEvent(
+              ENTRY_MOVE, name, isDirectory ? Entries.DIRECTORY : Entries.UNKNOWN, previousPath);
+          return;
+        }
+        flushMovedFrom();
+        if ((mask & IN_MOVED_FROM) != 0) {
+          movedFromKey = key;
+          movedFromName = name;
+          movedFromCookie = cookie;
+          movedFromDirectory = isDirectory;
+        } else if ((mask & (IN_CREATE | IN_MOVED_TO)) != 0) {
+          key.createEvent(ENTRY_CREATE, name, isDirectory ? Entries.DIRECTORY : Entries.UNKNOWN);
+        } else if ((mask & IN_DELETE) != 0) {
+          key.createEvent(
+              ENTRY_DELETE, name, Entries.NONEXISTENT | (isDirectory ? Entries.DIRECTORY : 0));
+        } else if ((mask & (IN_MODIFY | IN_CLOSE_WRITE)) != 0) {
+          key.createEvent(ENTRY_MODIFY, name, Entries.FILE);
+        } else if ((mask & IN_ATTRIB) != 0) {
+          key.createEvent(ENTRY_MODIFY, name, isDirectory ? Entries.DIRECTORY : Entries.UNKNOWN);
+        }
+      }
+    }
+  }
+
+  /* Reports an IN_MOVED_FROM event that couldn't be paired as a deletion. */
+  private void flushMovedFrom() {
+    if (movedFromKey != null) {
+      movedFromKey.createEvent(
+          ENTRY_DELETE,
+          movedFromName,
+          Entries.NONEXISTENT | (movedFromDirectory ? Entries.DIRECTORY : 0));
+      movedFromKey = null;
+      movedFromName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "InotifyWatchService@" + Integer.toHexString(System.identityHashCode(this));
+  }
+
+  private static class Event<T> implements TypedWatchEvent<T> {
+    private final WatchEvent.Kind<T> _kind;
+    private final T _context;
+    private final Path _previousPath;
+    private int _count;
+    private int _fileKind;
+
+    Event(
+        final WatchEvent.Kind<T> kind,
+        final int count,
+        final T context,
+        final int fileKind,
+        final Path previousPath) {
+      _kind = kind;
+      _count = count;
+      _context = context;
+      _fileKind = fileKind;
+      _previousPath = previousPath;
+    }
+
+    @Override
+    public Kind<T> kind() {
+      return _kind;
+    }
+
+    @Override
+    public int count() {
+      return _count;
+    }
+
+    @Override
+    public T context() {
+      return _context;
+    }
+
+    @Override
+    public int getFileKind() {
+      return _fileKind;
+    }
+
+    @Override
+    public Path getPreviousPath() {
+      return _previousPath;
+    }
+
+    @Override
+    public String toString() {
+      return "Event(" + _context + ", " + _kind + ")";
+    }
+  }
+
+  private class InotifyWatchKey implements WatchKey {
+    private final Path watchable;
+    private final int descriptor;
+    private final AtomicBoolean valid = new AtomicBoolean(true);
+    private final List<WatchEvent<?>> events = new ArrayList<>();
+    private int overflow = 0;
+    private boolean signalled = false;
+    private volatile boolean reportMoveEvents;
+
+    InotifyWatchKey(final Path watchable, final int descriptor, final boolean reportMoveEvents) {
+      this.watchable = watchable;
+      this.descriptor = descriptor;
+      this.reportMoveEvents = reportMoveEvents;
+    }
+
+    @Override
+    public void cancel() {
+      if (valid.compareAndSet(true, false)) {
+        synchronized (descriptors) {
+          if (descriptors.get(descriptor) == this) {
+            descriptors.remove(descriptor);
+            if (isOpen()) removeWatch(handle, descriptor);
+          }
+        }
+      }
+    }
+
+    @Override
+    public Watchable watchable() {
+      return watchable;
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid.get();
+    }
+
+    @Override
+    public List<WatchEvent<?>> pollEvents() {
+      synchronized (this) {
+        final List<WatchEvent<?>> result = new ArrayList<>(events);
+        events.clear();
+        if (overflow != 0) {
+          result.add(new Event<>(OVERFLOW, overflow, null, Entries.UNKNOWN, null));
+          overflow = 0;
+        }
+        return Collections.unmodifiableList(result);
+      }
+    }
+
+    @Override
+    public boolean reset() {
+      synchronized (this) {
+        if (!events.isEmpty() || overflow != 0) {
+          readyKeys.offer(this);
+        } else {
+          signalled = false;
+        }
+        return isValid();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "InotifyWatchKey(" + watchable + ")";
+    }
+
+    private void signal() {
+      if (!signalled) {
+        signalled = true;
+        readyKeys.offer(this);
+      }
+    }
+
+    void invalidate() {
+      synchronized (this) {
+        valid.set(false);
+        signal();
+      }
+    }
+
+    void addOverflow() {
+      synchronized (this) {
+        overflow += 1;
+        signal();
+      }
+    }
+
+    void createEvent(final WatchEvent.Kind<Path> kind, final String name, final int fileKind) {
+      createEvent(kind, name, fileKind, null);
+    }
+
+    void createEvent(
+        final WatchEvent.Kind<Path> kind,
+        final String name,
+        final int fileKind,
+        final Path previousPath) {
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " creating event for " + name + " with kind " + kind);
+      synchronized (this) {
+        final int size = events.size();
+        if (size > 0) {
+          /* Consecutive modifications of the same file are reported as a single event. */
+          final WatchEvent<?> last = events.get(size - 1);
+          if (kind == ENTRY_MODIFY && last.kind() == ENTRY_MODIFY) {
+            final Event<?> event = (Event<?>) last;
+            if (event._context.toString().equals(name)) {
+              event._count += 1;
+              if (event._fileKind != fileKind) event._fileKind = Entries.UNKNOWN;
+              return;
+            }
+          }
+        }
+        if (size < queueSize) {
+          events.add(new Event<>(kind, 1, Paths.get(name), fileKind, previousPath));
+        } else {
+          overflow += 1;
+        }
+        signal();
+      }
+    }
+  }
+
+  /**
+   * Maps the watch descriptors to their keys using open addressing with linear probing. Removed
+   * entries are backfilled by shifting the entries that follow them so that no tombstones are
+   * needed. Watch descriptors are never negative, so a negative key marks an empty slot. This class
+   * is not thread safe.
+   *
+   * @param <V> the type of the values
+   */
+  static final class WatchDescriptors<V> {
+    private static final int EMPTY = -1;
+    private int[] keys = newKeys(16);
+    private Object[] values = new Object[16];
+    private int size = 0;
+
+    private static int[] newKeys(final int capacity) {
+      final int[] result = new int[capacity];
+      int i = 0;
+      while (i < capacity) {
+        result[i] = EMPTY;
+        i += 1;
+      }
+      return result;
+    }
+
+    private int slot(final int key) {
+      return (key * 0x9E3779B9) & (keys.length - 1);
+    }
+
+    private int indexOf(final int key) {
+      int i = slot(key);
+      while (keys[i] != EMPTY) {
+        if (keys[i] == key) return i;
+        i = (i + 1) & (keys.length - 1);
+      }
+      return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(final int key) {
+      final int i = indexOf(key);
+      return i >= 0 ? (V) values[i] : null;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int capacity() {
+      return keys.length;
+    }
+
+    void put(final int key, final V value) {
+      if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+      int i = slot(key);
+      while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & (keys.length - 1);
+      if (keys[i] == EMPTY) size += 1;
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    void remove(final int key) {
+      int i = indexOf(key);
+      if (i >= 0) {
+        size -= 1;
+        final int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+          j = (j + 1) & mask;
+          if (keys[j] == EMPTY) break;
+          final int home = slot(keys[j]);
+          /* Move the entry at j into the hole at i unless its home slot lies between i and j. */
+          if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+          }
+        }
+        keys[i] = EMPTY;
+        values[i] = null;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+      final List<V> result = new ArrayList<>(size);
+      int i = 0;
+      while (i < keys.length) {
+        if (keys[i] != EMPTY) result.add((V) values[i]);
+        i += 1;
+      }
+      return result;
+    }
+
+    void clear() {
+      keys = newKeys(16);
+      values = new Object[16];
+      size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(final int capacity) {
+      final int[] oldKeys = keys;
+      final Object[] oldValues = values;
+      keys = newKeys(capacity);
+      values = new Object[capacity];
+      size = 0;
+      int i = 0;
+      while (i < oldKeys.length) {
+        if (oldKeys[i] != EMPTY) put(oldKeys[i], (V) oldValues[i]);
+        i += 1;
+      }
+    }
+  }
+}
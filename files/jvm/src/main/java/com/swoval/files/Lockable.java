@@ -1,6 +1,7 @@
 package com.swoval.files;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -101,6 +102,16 @@ class LockableMap<K, V> extends Lockable {
     }
   }
 
+  /**
+   * Returns the values of the map without copying them. The returned collection is backed by the
+   * map so the lock must be held until the caller is done with it.
+   *
+   * @return the live values of the map.
+   */
+  Collection<V> liveValues() {
+    return map.values();
+  }
+
   V get(final K key) {
     if (lock()) {
       try {
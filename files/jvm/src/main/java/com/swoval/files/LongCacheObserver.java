@@ -0,0 +1,29 @@
+package com.swoval.files;
+
+/**
+ * Provides callbacks for the differences between two {@link LongCachedDirectory} snapshots of the
+ * same directory.
+ */
+interface LongCacheObserver {
+  /**
+   * Callback to fire when a new path is found.
+   *
+   * @param newEntry the {@link LongEntry} for the new path
+   */
+  void onCreate(final LongEntry newEntry);
+
+  /**
+   * Callback to fire when a path is no longer found.
+   *
+   * @param oldEntry the {@link LongEntry} for the removed path
+   */
+  void onDelete(final LongEntry oldEntry);
+
+  /**
+   * Callback to fire when either the value or the type of a path has changed.
+   *
+   * @param oldEntry the previous {@link LongEntry} for the path
+   * @param newEntry the current {@link LongEntry} for the path
+   */
+  void onUpdate(final LongEntry oldEntry, final LongEntry newEntry);
+}
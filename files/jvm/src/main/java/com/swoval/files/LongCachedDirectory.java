@@ -0,0 +1,463 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.LongConverter;
+import com.swoval.functional.Filter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A snapshot of a directory tree for caches whose values are primitive longs, e.g. the
+ * last modified times used by {@link PollingPathWatcher}. Unlike {@link CachedDirectoryImpl}, which
+ * stores an {@link FileTreeDataViews.Entry} wrapping an {@link com.swoval.functional.Either} and a
+ * boxed value for each path, the children of each directory are stored in parallel arrays sorted by
+ * file name. Two snapshots of the same directory can then be compared in a single pass by {@link
+ * LongCachedDirectory#diff} without allocating anything for the paths that have not changed.
+ *
+ * <p>The depth semantics are the same as for {@link CachedDirectoryImpl}. If the converter throws
+ * an IOException for a path, the value for that path is 0, which matches the default last modified
+ * time converter of the {@link PollingPathWatcher}.
+ *
+ * <p>A snapshot may also be brought up to date in place by {@link LongCachedDirectory#update},
+ * which only lists the directories whose last modified time has changed. The last modified time of
+ * each directory is stored alongside its value since the converter need not compute it. A snapshot
+ * that is updated must not be used concurrently.
+ */
+final class LongCachedDirectory {
+  /*
+   * A directory that was modified within this many milliseconds of being listed may have been
+   * modified again after the listing without changing its last modified time, e.g. on a file
+   * system that only stores the last modified time in seconds.
+   */
+  private static final long RACY_MILLIS = 2000;
+  private static final Comparator<TypedPath> FILE_NAME_COMPARATOR =
+      new Comparator<TypedPath>() {
+        @Override
+        public int compare(final TypedPath left, final TypedPath right) {
+          return left.getPath().getFileName().compareTo(right.getPath().getFileName());
+        }
+      };
+  private final TypedPath typedPath;
+  private long value;
+  private long lastModified;
+  private Path[] names;
+  private int[] kinds;
+  private long[] values;
+  private LongCachedDirectory[] subdirectories;
+  private boolean racy;
+
+  private LongCachedDirectory(
+      final TypedPath typedPath,
+      final long value,
+      final long lastModified,
+      final Path[] names,
+      final int[] kinds,
+      final long[] values,
+      final LongCachedDirectory[] subdirectories,
+      final boolean racy) {
+    this.typedPath = typedPath;
+    this.value = value;
+    this.lastModified = lastModified;
+    this.names = names;
+    this.kinds = kinds;
+    this.values = values;
+    this.subdirectories = subdirectories;
+    this.racy = racy;
+  }
+
+  /**
+   * Builds a new snapshot of a path.
+   *
+   * @param typedPath the path to snapshot
+   * @param converter computes the value for each path
+   * @param depth the maximum depth of children to include (see {@link DirectoryView#getMaxDepth()})
+   * @param filter only include the children accepted by this filter
+   * @param fileTreeView the view with which the directories are listed
+   * @return the snapshot or null if the path does not exist. If the path is not a directory, the
+   *     snapshot will have no children.
+   * @throws IOException if the path is a directory that can't be listed.
+   */
+  static LongCachedDirectory get(
+      final TypedPath typedPath,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView)
+      throws IOException {
+    if (!typedPath.exists()) {
+      return null;
+    } else if (typedPath.isDirectory() && depth >= 0) {
+      return init(typedPath, converter, depth, filter, fileTreeView);
+    } else {
+      return leaf(typedPath, converter);
+    }
+  }
+
+  /**
+   * Compares two snapshots of the same path and reports the paths that were created, deleted or
+   * updated to the observer. Either snapshot may be null, in which case every path in the other
+   * snapshot is reported as created or deleted.
+   *
+   * @param oldDirectory the previous snapshot
+   * @param newDirectory the current snapshot
+   * @param observer the observer of the differences
+   */
+  static void diff(
+      final LongCachedDirectory oldDirectory,
+      final LongCachedDirectory newDirectory,
+      final LongCacheObserver observer) {
+    if (oldDirectory == null) {
+      if (newDirectory != null) {
+        observer.onCreate(newDirectory.getEntry());
+        newDirectory.createAll(observer);
+      }
+    } else if (newDirectory == null) {
+      oldDirectory.deleteAll(observer);
+      observer.onDelete(oldDirectory.getDeletedEntry());
+    } else {
+      if (oldDirectory.value != newDirectory.value
+          || TypedPaths.getKind(oldDirectory.typedPath)
+              != TypedPaths.getKind(newDirectory.typedPath)) {
+        observer.onUpdate(oldDirectory.getEntry(), newDirectory.getEntry());
+      }
+      diffChildren(oldDirectory, newDirectory, observer);
+    }
+  }
+
+  /**
+   * Brings a snapshot up to date and reports the paths that were created, deleted or updated to
+   * the observer, just like {@link #diff} would for a new snapshot of the same path. Only the
+   * directories whose last modified time has changed are listed again, whatever the converter
+   * computes for them. Writing to a file doesn't change the last modified time of its directory,
+   * so the values of the files in the other directories are still computed, but their names and
+   * kinds are reused.
+   *
+   * @param directory the previous snapshot, which may be null
+   * @param typedPath the path of the snapshot
+   * @param converter computes the value for each path
+   * @param depth the maximum depth of children to include (see {@link DirectoryView#getMaxDepth()})
+   * @param filter only include the children accepted by this filter
+   * @param fileTreeView the view with which the directories are listed
+   * @param observer the observer of the differences
+   * @return the updated snapshot, which is the previous snapshot unless the kind of the path has
+   *     changed, or null if the path does not exist or can't be listed.
+   */
+  static LongCachedDirectory update(
+      final LongCachedDirectory directory,
+      final TypedPath typedPath,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView,
+      final LongCacheObserver observer) {
+    if (directory == null
+        || !typedPath.isDirectory()
+        || depth < 0
+        || TypedPaths.getKind(typedPath) != TypedPaths.getKind(directory.typedPath)) {
+      LongCachedDirectory result;
+      try {
+        result = get(typedPath, converter, depth, filter, fileTreeView);
+      } catch (final IOException e) {
+        result = null;
+      }
+      diff(directory, result, observer);
+      return result;
+    } else {
+      final long newValue = convert(converter, typedPath);
+      if (newValue != directory.value) {
+        observer.onUpdate(directory.getEntry(), new LongEntry(typedPath, newValue));
+      }
+      directory.refresh(newValue, converter, depth, filter, fileTreeView, observer);
+      return directory;
+    }
+  }
+
+  Path getPath() {
+    return typedPath.getPath();
+  }
+
+  LongEntry getEntry() {
+    return new LongEntry(typedPath, value);
+  }
+
+  @Override
+  public String toString() {
+    return "LongCachedDirectory(" + getPath() + ", children = " + names.length + ")";
+  }
+
+  private static LongCachedDirectory leaf(
+      final TypedPath typedPath, final LongConverter converter) {
+    return new LongCachedDirectory(
+        typedPath,
+        convert(converter, typedPath),
+        0L,
+        new Path[0],
+        new int[0],
+        new long[0],
+        new LongCachedDirectory[0],
+        false);
+  }
+
+  private static LongCachedDirectory init(
+      final TypedPath typedPath,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView)
+      throws IOException {
+    final long listed = System.currentTimeMillis();
+    final long lastModified = lastModified(typedPath.getPath());
+    final List<TypedPath> children = fileTreeView.list(typedPath.getPath(), 0, filter);
+    Collections.sort(children, FILE_NAME_COMPARATOR);
+    final int size = children.size();
+    final Path[] names = new Path[size];
+    final int[] kinds = new int[size];
+    final long[] values = new long[size];
+    final LongCachedDirectory[] subdirectories = new LongCachedDirectory[size];
+    final int subdirectoryDepth =
+        depth == Integer.MAX_VALUE ? depth : depth > 0 ? depth - 1 : 0;
+    for (int i = 0; i < size; ++i) {
+      final TypedPath child = children.get(i);
+      final Path path = child.getPath();
+      names[i] = path.getFileName();
+      kinds[i] = TypedPaths.getKind(child);
+      values[i] = convert(converter, child);
+      if (shouldDescend(child, depth)) {
+        subdirectories[i] = initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView);
+      }
+    }
+    return new LongCachedDirectory(
+        typedPath,
+        convert(converter, typedPath),
+        lastModified,
+        names,
+        kinds,
+        values,
+        subdirectories,
+        listed - lastModified < RACY_MILLIS);
+  }
+
+  private static boolean shouldDescend(final TypedPath child, final int depth) {
+    return child.isDirectory()
+        && depth > 0
+        && (!child.isSymbolicLink() || !isLoop(child.getPath(), TypedPaths.expanded(child)));
+  }
+
+  private static LongCachedDirectory initOrNull(
+      final TypedPath typedPath,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView) {
+    try {
+      return init(typedPath, converter, depth, filter, fileTreeView);
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  private static boolean isLoop(final Path path, final Path realPath) {
+    return path.startsWith(realPath) && !path.equals(realPath);
+  }
+
+  private static long lastModified(final Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (final IOException e) {
+      return 0L;
+    }
+  }
+
+  private static long convert(final LongConverter converter, final TypedPath typedPath) {
+    try {
+      return converter.apply(typedPath);
+    } catch (final IOException e) {
+      return 0L;
+    }
+  }
+
+  private static void diffChildren(
+      final LongCachedDirectory oldDirectory,
+      final LongCachedDirectory newDirectory,
+      final LongCacheObserver observer) {
+    final Path[] oldNames = oldDirectory.names;
+    final Path[] newNames = newDirectory.names;
+    int i = 0;
+    int j = 0;
+    while (i < oldNames.length || j < newNames.length) {
+      final int comparison =
+          i == oldNames.length ? 1 : j == newNames.length ? -1 : oldNames[i].compareTo(newNames[j]);
+      if (comparison < 0) {
+        oldDirectory.delete(i, observer);
+        i += 1;
+      } else if (comparison > 0) {
+        newDirectory.create(j, observer);
+        j += 1;
+      } else {
+        if (oldDirectory.values[i] != newDirectory.values[j]
+            || oldDirectory.kinds[i] != newDirectory.kinds[j]) {
+          observer.onUpdate(oldDirectory.getEntry(i), newDirectory.getEntry(j));
+        }
+        final LongCachedDirectory oldSubdirectory = oldDirectory.subdirectories[i];
+        final LongCachedDirectory newSubdirectory = newDirectory.subdirectories[j];
+        if (oldSubdirectory != null && newSubdirectory != null) {
+          diffChildren(oldSubdirectory, newSubdirectory, observer);
+        } else if (oldSubdirectory != null) {
+          oldSubdirectory.deleteAll(observer);
+        } else if (newSubdirectory != null) {
+          newSubdirectory.createAll(observer);
+        }
+        i += 1;
+        j += 1;
+      }
+    }
+  }
+
+  /*
+   * Updates a directory whose new value has already been computed. The directory is only listed
+   * if its last modified time has changed, if it couldn't be read or if it was too close to the
+   * time of the previous listing to be trusted. Otherwise, only the values of its children are
+   * recomputed. The value itself isn't used for this since a custom converter may not change when
+   * the children of the directory do.
+   */
+  private void refresh(
+      final long newValue,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView,
+      final LongCacheObserver observer) {
+    final long listed = System.currentTimeMillis();
+    final long newLastModified = lastModified(getPath());
+    final boolean relist = racy || newLastModified != lastModified || newLastModified == 0;
+    value = newValue;
+    lastModified = newLastModified;
+    final int subdirectoryDepth =
+        depth == Integer.MAX_VALUE ? depth : depth > 0 ? depth - 1 : 0;
+    if (relist) {
+      try {
+        final List<TypedPath> children = fileTreeView.list(getPath(), 0, filter);
+        Collections.sort(children, FILE_NAME_COMPARATOR);
+        merge(children, converter, depth, filter, fileTreeView, observer);
+        racy = listed - newLastModified < RACY_MILLIS;
+      } catch (final IOException e) {
+        // The directory was likely deleted, which is reported by its parent or the next update.
+        racy = true;
+      }
+    } else {
+      for (int i = 0; i < names.length; ++i) {
+        final TypedPath child = TypedPaths.get(getPath().resolve(names[i]), kinds[i]);
+        final long childValue = convert(converter, child);
+        if (childValue != values[i]) {
+          observer.onUpdate(getEntry(i), new LongEntry(child, childValue));
+          values[i] = childValue;
+        }
+        if (subdirectories[i] != null) {
+          subdirectories[i].refresh(
+              childValue, converter, subdirectoryDepth, filter, fileTreeView, observer);
+        }
+      }
+    }
+  }
+
+  /*
+   * Replaces the children with a new sorted listing, reusing the snapshots of the subdirectories
+   * that still exist, and reports the differences in the same order as diffChildren.
+   */
+  private void merge(
+      final List<TypedPath> children,
+      final LongConverter converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final FileTreeView fileTreeView,
+      final LongCacheObserver observer) {
+    final int size = children.size();
+    final Path[] newNames = new Path[size];
+    final int[] newKinds = new int[size];
+    final long[] newValues = new long[size];
+    final LongCachedDirectory[] newSubdirectories = new LongCachedDirectory[size];
+    final int subdirectoryDepth =
+        depth == Integer.MAX_VALUE ? depth : depth > 0 ? depth - 1 : 0;
+    int i = 0;
+    for (int j = 0; j < size; ++j) {
+      final TypedPath child = children.get(j);
+      final Path name = child.getPath().getFileName();
+      while (i < names.length && names[i].compareTo(name) < 0) {
+        delete(i, observer);
+        i += 1;
+      }
+      newNames[j] = name;
+      newKinds[j] = TypedPaths.getKind(child);
+      newValues[j] = convert(converter, child);
+      final boolean descend = shouldDescend(child, depth);
+      if (i < names.length && names[i].equals(name)) {
+        if (newValues[j] != values[i] || newKinds[j] != kinds[i]) {
+          observer.onUpdate(getEntry(i), new LongEntry(child, newValues[j]));
+        }
+        final LongCachedDirectory subdirectory = subdirectories[i];
+        if (subdirectory != null && descend && newKinds[j] == kinds[i]) {
+          subdirectory.refresh(
+              newValues[j], converter, subdirectoryDepth, filter, fileTreeView, observer);
+          newSubdirectories[j] = subdirectory;
+        } else {
+          if (subdirectory != null) subdirectory.deleteAll(observer);
+          if (descend) {
+            newSubdirectories[j] =
+                initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView);
+            if (newSubdirectories[j] != null) newSubdirectories[j].createAll(observer);
+          }
+        }
+        i += 1;
+      } else {
+        observer.onCreate(new LongEntry(child, newValues[j]));
+        if (descend) {
+          newSubdirectories[j] =
+              initOrNull(child, converter, subdirectoryDepth, filter, fileTreeView);
+          if (newSubdirectories[j] != null) newSubdirectories[j].createAll(observer);
+        }
+      }
+    }
+    while (i < names.length) {
+      delete(i, observer);
+      i += 1;
+    }
+    names = newNames;
+    kinds = newKinds;
+    values = newValues;
+    subdirectories = newSubdirectories;
+  }
+
+  private LongEntry getEntry(final int index) {
+    return new LongEntry(
+        TypedPaths.get(getPath().resolve(names[index]), kinds[index]), values[index]);
+  }
+
+  private LongEntry getDeletedEntry() {
+    return new LongEntry(
+        TypedPaths.get(getPath(), TypedPaths.getKind(typedPath) | Entries.NONEXISTENT), value);
+  }
+
+  private void create(final int index, final LongCacheObserver observer) {
+    observer.onCreate(getEntry(index));
+    if (subdirectories[index] != null) subdirectories[index].createAll(observer);
+  }
+
+  private void delete(final int index, final LongCacheObserver observer) {
+    if (subdirectories[index] != null) subdirectories[index].deleteAll(observer);
+    observer.onDelete(
+        new LongEntry(
+            TypedPaths.get(getPath().resolve(names[index]), kinds[index] | Entries.NONEXISTENT),
+            values[index]));
+  }
+
+  private void createAll(final LongCacheObserver observer) {
+    for (int i = 0; i < names.length; ++i) create(i, observer);
+  }
+
+  private void deleteAll(final LongCacheObserver observer) {
+    for (int i = 0; i < names.length; ++i) delete(i, observer);
+  }
+}
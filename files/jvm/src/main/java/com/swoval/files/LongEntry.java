@@ -0,0 +1,45 @@
+package com.swoval.files;
+
+/**
+ * A primitive specialized analog of {@link FileTreeDataViews.Entry} for caches whose values are
+ * longs. These are only materialized for the paths reported to a {@link LongCacheObserver}.
+ */
+final class LongEntry implements Comparable<LongEntry> {
+  private final TypedPath typedPath;
+  private final long value;
+
+  LongEntry(final TypedPath typedPath, final long value) {
+    this.typedPath = typedPath;
+    this.value = value;
+  }
+
+  TypedPath getTypedPath() {
+    return typedPath;
+  }
+
+  long getValue() {
+    return value;
+  }
+
+  @Override
+  public int compareTo(final LongEntry that) {
+    return this.typedPath.getPath().compareTo(that.typedPath.getPath());
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    return other instanceof LongEntry
+        && ((LongEntry) other).typedPath.getPath().equals(typedPath.getPath())
+        && ((LongEntry) other).value == value;
+  }
+
+  @Override
+  public int hashCode() {
+    return typedPath.hashCode() ^ (int) (value ^ (value >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return "LongEntry(" + typedPath.getPath() + ", " + value + ")";
+  }
+}
@@ -1,64 +1,122 @@
 package com.swoval.files;
 
-import static java.util.Map.Entry;
-
 import com.swoval.files.FileTreeDataViews.CacheObserver;
+import java.io.File;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Provides a utility method for diffing two maps of directory entries. It is not in {@link
+ * Provides a utility method for diffing two lists of directory entries. It is not in {@link
  * CachedDirectoryImpl} because of a name class with java.util.Map.Entry and
  * com.swoval.files.CachedDirectory.Entry that breaks code-gen.
  */
 class MapOps {
   private MapOps() {}
 
+  /**
+   * Orders entries in the order that a depth first traversal visits them when the children of each
+   * directory are sorted by name, i.e. each directory is immediately followed by all of its
+   * descendants. This is the order in which {@link CachedDirectoryImpl} lists the entries that it
+   * diffs.
+   */
+  static final Comparator<FileTreeDataViews.Entry<?>> ENTRY_ORDER =
+      new Comparator<FileTreeDataViews.Entry<?>>() {
+        @Override
+        public int compare(
+            final FileTreeDataViews.Entry<?> left, final FileTreeDataViews.Entry<?> right) {
+          return comparePaths(left.getTypedPath().getPath(), right.getTypedPath().getPath());
+        }
+      };
+
+  /**
+   * Compares two paths name by name. Unlike {@link Path#compareTo(Path)}, the name separator sorts
+   * before every other character so that, e.g., /foo/bar sorts before /foo-bar because /foo sorts
+   * before /foo-bar.
+   *
+   * @param left the left path
+   * @param right the right path
+   * @return a negative integer, zero or a positive integer if the left path sorts before, is equal
+   *     to or sorts after the right path.
+   */
+  static int comparePaths(final Path left, final Path right) {
+    final String leftString = left.toString();
+    final String rightString = right.toString();
+    final int length = Math.min(leftString.length(), rightString.length());
+    for (int i = 0; i < length; ++i) {
+      final char leftChar = leftString.charAt(i);
+      final char rightChar = rightString.charAt(i);
+      if (leftChar != rightChar) {
+        return leftChar == File.separatorChar
+            ? -1
+            : rightChar == File.separatorChar ? 1 : leftChar - rightChar;
+      }
+    }
+    return leftString.length() - rightString.length();
+  }
+
+  /**
+   * Diffs two lists of entries. The lists are sorted in place by {@link MapOps#ENTRY_ORDER} and
+   * then merged in a single linear pass so that, unlike a diff based on hash maps, no intermediate
+   * collections need to be allocated. When the lists are already sorted, sorting them is linear.
+   * {@link CachedDirectoryImpl} stores the children of each directory in hash maps, so it sorts
+   * them while it lists the entries that it diffs. That costs O(k log k) for a directory with k
+   * children, which is less than sorting the whole list, but it isn't free: for trees of around
+   * ten thousand entries, the hash map diff that this replaced was slightly faster. Paths that are
+   * in both lists are reported with {@link CacheObserver#onUpdate}, paths that are only in the new
+   * list are reported with {@link CacheObserver#onCreate} and paths that are only in the old list
+   * are reported with {@link CacheObserver#onDelete}. If a path appears more than once in either
+   * list, only the last entry for that path is used.
+   *
+   * @param oldEntries the previous entries. This list will be sorted.
+   * @param newEntries the current entries. This list will be sorted.
+   * @param cacheObserver the observer of the differences
+   * @param <T> the cached value type
+   */
   static <T> void diffDirectoryEntries(
       final List<FileTreeDataViews.Entry<T>> oldEntries,
       final List<FileTreeDataViews.Entry<T>> newEntries,
       final CacheObserver<T> cacheObserver) {
-    final Map<Path, FileTreeDataViews.Entry<T>> oldMap = new HashMap<>();
-    final Iterator<FileTreeDataViews.Entry<T>> oldIterator = oldEntries.iterator();
-    while (oldIterator.hasNext()) {
-      final FileTreeDataViews.Entry<T> entry = oldIterator.next();
-      oldMap.put(entry.getTypedPath().getPath(), entry);
-    }
-    final Map<Path, FileTreeDataViews.Entry<T>> newMap = new HashMap<>();
-    final Iterator<FileTreeDataViews.Entry<T>> newIterator = newEntries.iterator();
-    while (newIterator.hasNext()) {
-      final FileTreeDataViews.Entry<T> entry = newIterator.next();
-      newMap.put(entry.getTypedPath().getPath(), entry);
-    }
-    diffDirectoryEntries(oldMap, newMap, cacheObserver);
-  }
-
-  static <K, V> void diffDirectoryEntries(
-      final Map<K, FileTreeDataViews.Entry<V>> oldMap,
-      final Map<K, FileTreeDataViews.Entry<V>> newMap,
-      final CacheObserver<V> cacheObserver) {
-    final Iterator<Entry<K, FileTreeDataViews.Entry<V>>> newIterator =
-        new ArrayList<>(newMap.entrySet()).iterator();
-    final Iterator<Entry<K, FileTreeDataViews.Entry<V>>> oldIterator =
-        new ArrayList<>(oldMap.entrySet()).iterator();
-    while (newIterator.hasNext()) {
-      final Entry<K, FileTreeDataViews.Entry<V>> entry = newIterator.next();
-      final FileTreeDataViews.Entry<V> oldValue = oldMap.get(entry.getKey());
-      if (oldValue != null) {
-        cacheObserver.onUpdate(oldValue, entry.getValue());
+    Collections.sort(oldEntries, ENTRY_ORDER);
+    Collections.sort(newEntries, ENTRY_ORDER);
+    final int oldSize = oldEntries.size();
+    final int newSize = newEntries.size();
+    int i = skipDuplicates(oldEntries, 0);
+    int j = skipDuplicates(newEntries, 0);
+    while (i < oldSize || j < newSize) {
+      final FileTreeDataViews.Entry<T> oldEntry = i < oldSize ? oldEntries.get(i) : null;
+      final FileTreeDataViews.Entry<T> newEntry = j < newSize ? newEntries.get(j) : null;
+      final int comparison =
+          oldEntry == null ? 1 : newEntry == null ? -1 : ENTRY_ORDER.compare(oldEntry, newEntry);
+      if (comparison < 0) {
+        cacheObserver.onDelete(oldEntry);
+        i = skipDuplicates(oldEntries, i + 1);
+      } else if (comparison > 0) {
+        cacheObserver.onCreate(newEntry);
+        j = skipDuplicates(newEntries, j + 1);
       } else {
-        cacheObserver.onCreate(entry.getValue());
+        cacheObserver.onUpdate(oldEntry, newEntry);
+        i = skipDuplicates(oldEntries, i + 1);
+        j = skipDuplicates(newEntries, j + 1);
       }
     }
-    while (oldIterator.hasNext()) {
-      final Entry<K, FileTreeDataViews.Entry<V>> entry = oldIterator.next();
-      if (!newMap.containsKey(entry.getKey())) {
-        cacheObserver.onDelete(entry.getValue());
+  }
+
+  /*
+   * Returns the index of the last entry whose path is the same as the path of the entry at the
+   * index. This mirrors the semantics of adding the entries to a map in order.
+   */
+  private static <T> int skipDuplicates(
+      final List<FileTreeDataViews.Entry<T>> entries, final int index) {
+    int result = index;
+    if (result < entries.size()) {
+      final Path path = entries.get(result).getTypedPath().getPath();
+      while (result + 1 < entries.size()
+          && entries.get(result + 1).getTypedPath().getPath().equals(path)) {
+        result += 1;
       }
     }
+    return result;
   }
 }
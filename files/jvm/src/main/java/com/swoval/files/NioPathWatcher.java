@@ -2,6 +2,7 @@ package com.swoval.files;
 
 import static com.swoval.files.PathWatchers.Event.Kind.Create;
 import static com.swoval.files.PathWatchers.Event.Kind.Delete;
+import static com.swoval.files.PathWatchers.Event.Kind.Move;
 import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
 import static com.swoval.functional.Filters.AllPass;
 import static java.util.Map.Entry;
@@ -11,6 +12,7 @@ import com.swoval.files.FileTreeDataViews.Converter;
 import com.swoval.files.FileTreeViews.Observer;
 import com.swoval.files.PathWatchers.Event;
 import com.swoval.files.PathWatchers.Event.Kind;
+import com.swoval.files.PathWatchers.Options;
 import com.swoval.files.PathWatchers.Overflow;
 import com.swoval.functional.Consumer;
 import com.swoval.functional.Either;
@@ -24,20 +26,30 @@ import java.nio.file.FileSystems;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class RootDirectories extends LockableMap<Path, CachedDirectory<WatchedDirectory>> {}
-/** Provides a PathWatcher that is backed by a {@link java.nio.file.WatchService}. */
+/**
+ * Provides a PathWatcher that is backed by a {@link java.nio.file.WatchService}. In addition to the
+ * usual observers, which receive the events one at a time, batch observers receive all of the
+ * events that result from each batch of events that the handler thread drains from the watch
+ * service.
+ */
 class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   private final AtomicBoolean closed = new AtomicBoolean(false);
   private final Observers<PathWatchers.Event> observers = new Observers<>();
+  private final Observers<List<PathWatchers.Event>> batchObservers = new Observers<>();
   private final RootDirectories rootDirectories = new RootDirectories();
   private final DirectoryRegistry directoryRegistry;
   private final Converter<WatchedDirectory> converter;
+  private final Filter<TypedPath> directoryFilter;
   private final Logger logger;
 
   private CacheObserver<WatchedDirectory> updateCacheObserver(final List<Event> events) {
@@ -95,24 +107,50 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
       final RegisterableWatchService watchService,
       final Logger logger)
       throws InterruptedException {
+    this(directoryRegistry, watchService, new Options(), logger);
+  }
+
+  NioPathWatcher(
+      final DirectoryRegistry directoryRegistry,
+      final RegisterableWatchService watchService,
+      final Options options,
+      final Logger logger)
+      throws InterruptedException {
+    this(directoryRegistry, watchService, options, WatchBudget.get(), logger);
+  }
+
+  NioPathWatcher(
+      final DirectoryRegistry directoryRegistry,
+      final RegisterableWatchService watchService,
+      final Options options,
+      final WatchBudget budget,
+      final Logger logger)
+      throws InterruptedException {
     this.directoryRegistry = directoryRegistry;
     this.logger = logger;
     this.service =
         new NioPathWatcherService(
-            new Consumer<Either<Overflow, Event>>() {
+            new Consumer<List<Either<Overflow, Event>>>() {
               @Override
-              public void accept(final Either<Overflow, Event> either) {
+              public void accept(final List<Either<Overflow, Event>> batch) {
                 if (!closed.get()) {
-                  if (either.isRight()) {
-                    final Event event = either.get();
-                    handleEvent(event);
-                  } else {
-                    handleOverflow(Either.leftProjection(either).getValue());
+                  final List<Event> accepted = new ArrayList<>();
+                  final Iterator<Either<Overflow, Event>> it = batch.iterator();
+                  while (it.hasNext()) {
+                    final Either<Overflow, Event> either = it.next();
+                    if (either.isRight()) {
+                      handleEvent(either.get(), accepted);
+                    } else {
+                      handleOverflow(Either.leftProjection(either).getValue(), accepted);
+                    }
                   }
+                  runCallbacks(accepted);
                 }
               }
             },
             watchService,
+            options,
+            budget,
             logger);
     this.converter =
         new Converter<WatchedDirectory>() {
@@ -124,6 +162,15 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                 : WatchedDirectories.INVALID;
           }
         };
+    this.directoryFilter =
+        new Filter<TypedPath>() {
+          @Override
+          public boolean accept(final TypedPath typedPath) {
+            return typedPath.isDirectory()
+                && !typedPath.isSymbolicLink()
+                && directoryRegistry.acceptPrefix(typedPath.getPath());
+          }
+        };
   }
 
   /**
@@ -177,8 +224,10 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   }
 
   @Override
+  @SuppressWarnings("EmptyCatchBlock")
   public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    if (directoryRegistry.exclusions().isExcluded(absolutePath)) return Either.right(false);
     final int existingMaxDepth = directoryRegistry.maxDepthFor(absolutePath);
     boolean result = existingMaxDepth < maxDepth;
     final TypedPath typedPath = TypedPaths.get(absolutePath);
@@ -191,9 +240,32 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
     if (result) {
       directoryRegistry.addDirectory(typedPath.getPath(), maxDepth);
     }
-    final CachedDirectory<WatchedDirectory> dir = getOrAdd(realPath);
+    /*
+     * Watch and list the new directories concurrently before they are cached. The cache is then
+     * built from those listings, so it doesn't list them again, and any directory that was created
+     * in the meantime is reported by the watch of its parent.
+     */
+    final Map<Path, WatchedDirectory> created = new HashMap<>();
+    final FileTreeView fileTreeView =
+        result
+            ? service.registerTree(realPath, directoryFilter, created)
+            : FileTreeViews.getDefault(false);
+    CachedDirectory<WatchedDirectory> dir = null;
+    boolean isNewRoot = false;
+    if (rootDirectories.lock()) {
+      try {
+        isNewRoot = find(realPath) == null;
+        dir = getOrAdd(realPath, fileTreeView);
+      } finally {
+        rootDirectories.unlock();
+      }
+    }
     final List<Event> events = new ArrayList<>();
-    if (dir != null) {
+    /*
+     * A new root has just listed the entire tree after watching it, so rescanning it could only
+     * find the directories that were created since, which the watches report anyway.
+     */
+    if (dir != null && !(isNewRoot && realPath.equals(typedPath.getPath()))) {
       final List<FileTreeDataViews.Entry<WatchedDirectory>> directories =
           dir.listEntries(typedPath.getPath(), -1, AllPass);
       if (result || directories.isEmpty() || directories.get(0).getValue().isRight()) {
@@ -201,12 +273,46 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
         if (toUpdate != null) update(dir, typedPath, events, true);
       }
     }
-    runCallbacks(events);
+    try {
+      fileTreeView.close();
+    } catch (final Exception e) {
+    }
+    closeUnused(created);
+    final List<Event> accepted = new ArrayList<>();
+    addAccepted(events, accepted);
+    runCallbacks(accepted);
     if (Loggers.shouldLog(logger, Level.DEBUG))
       logger.debug(this + " registered " + path + " with max depth " + maxDepth);
     return Either.right(result);
   }
 
+  /*
+   * Closes the watches that were created by registerTree for the directories that aren't cached,
+   * e.g. because they were deleted before their parent was cached.
+   */
+  private void closeUnused(final Map<Path, WatchedDirectory> created) {
+    if (!created.isEmpty() && rootDirectories.lock()) {
+      try {
+        final Iterator<Entry<Path, WatchedDirectory>> it = created.entrySet().iterator();
+        while (it.hasNext()) {
+          final Entry<Path, WatchedDirectory> entry = it.next();
+          final CachedDirectory<WatchedDirectory> root = find(entry.getKey());
+          final List<FileTreeDataViews.Entry<WatchedDirectory>> entries =
+              root == null
+                  ? Collections.<FileTreeDataViews.Entry<WatchedDirectory>>emptyList()
+                  : root.listEntries(entry.getKey(), -1, AllPass);
+          if (entries.isEmpty()
+              || entries.get(0).getValue().isLeft()
+              || entries.get(0).getValue().get() != entry.getValue()) {
+            entry.getValue().close();
+          }
+        }
+      } finally {
+        rootDirectories.unlock();
+      }
+    }
+  }
+
   private CachedDirectory<WatchedDirectory> find(final Path rawPath) {
     return find(rawPath, null);
   }
@@ -245,7 +351,8 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
     return it.next();
   }
 
-  private CachedDirectory<WatchedDirectory> findOrAddRoot(final Path rawPath) {
+  private CachedDirectory<WatchedDirectory> findOrAddRoot(
+      final Path rawPath, final FileTreeView fileTreeView) {
     final List<Path> toRemove = new ArrayList<>();
     CachedDirectory<WatchedDirectory> result = find(rawPath, toRemove);
     if (result == null) {
@@ -263,16 +370,9 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                       TypedPaths.get(path),
                       converter,
                       Integer.MAX_VALUE,
-                      new Filter<TypedPath>() {
-                        @Override
-                        public boolean accept(final TypedPath typedPath) {
-                          return typedPath.isDirectory()
-                              && !typedPath.isSymbolicLink()
-                              && directoryRegistry.acceptPrefix(typedPath.getPath());
-                        }
-                      },
+                      directoryFilter,
                       false)
-                  .init();
+                  .init(fileTreeView);
           init = true;
           rootDirectories.put(path, result);
         } catch (final IOException e) {
@@ -288,11 +388,16 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   }
 
   private CachedDirectory<WatchedDirectory> getOrAdd(final Path path) {
+    return getOrAdd(path, FileTreeViews.getDefault(false));
+  }
+
+  private CachedDirectory<WatchedDirectory> getOrAdd(
+      final Path path, final FileTreeView fileTreeView) {
     CachedDirectory<WatchedDirectory> result = null;
     if (rootDirectories.lock()) {
       try {
         if (!closed.get()) {
-          result = findOrAddRoot(path);
+          result = findOrAddRoot(path, fileTreeView);
         }
       } finally {
         rootDirectories.unlock();
@@ -368,7 +473,7 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
     }
   }
 
-  private void handleOverflow(final Overflow overflow) {
+  private void handleOverflow(final Overflow overflow, final List<Event> accepted) {
     final Path path = overflow.getPath();
     if (Loggers.shouldLog(logger, Level.DEBUG))
       logger.debug(this + " received overflow for " + path);
@@ -410,41 +515,92 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
     }
     final TypedPath tp = TypedPaths.get(path);
     events.add(new Event(tp, tp.exists() ? Overflow : Delete));
-    runCallbacks(events);
+    addAccepted(events, accepted);
   }
 
-  private void runCallbacks(final List<Event> events) {
+  /*
+   * Adds the first event for each of the paths that the registry accepts to the accepted events.
+   */
+  private void addAccepted(final List<Event> events, final List<Event> accepted) {
     final Iterator<Event> it = events.iterator();
     final Set<Path> handled = new HashSet<>();
     while (it.hasNext()) {
       final Event event = it.next();
       final Path path = event.getTypedPath().getPath();
       if (directoryRegistry.accept(path) && handled.add(path)) {
-        observers.onNext(new Event(TypedPaths.get(path), event.getKind()));
+        final TypedPath typedPath =
+            TypedPaths.isKnown(event.getTypedPath()) ? event.getTypedPath() : TypedPaths.get(path);
+        accepted.add(new Event(typedPath, event.getKind(), event.getPreviousTypedPath()));
       }
     }
   }
 
-  private void handleEvent(final Event event) {
+  private void runCallbacks(final List<Event> events) {
+    final Iterator<Event> it = events.iterator();
+    while (it.hasNext()) observers.onNext(it.next());
+    if (!events.isEmpty()) batchObservers.onNext(Collections.unmodifiableList(events));
+  }
+
+  private void handleEvent(final Event event, final List<Event> accepted) {
     if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " received event " + event);
     final List<Event> events = new ArrayList<>();
     if (!closed.get() && rootDirectories.lock()) {
       try {
-        if (directoryRegistry.acceptPrefix(event.getTypedPath().getPath())) {
+        if (event.getKind() == Move && event.getPreviousTypedPath() != null) {
+          handleMove(event, events);
+        } else if (directoryRegistry.acceptPrefix(event.getTypedPath().getPath())) {
           final boolean isDelete = event.getKind() == Delete;
-          final TypedPath typedPath = TypedPaths.get(event.getTypedPath().getPath());
+          final TypedPath typedPath =
+              TypedPaths.isKnown(event.getTypedPath())
+                  ? event.getTypedPath()
+                  : TypedPaths.get(event.getTypedPath().getPath());
+          final Event typedEvent = new Event(typedPath, event.getKind());
           if (isDelete) remove(typedPath.getPath(), events);
           if (typedPath.exists()) {
             if (typedPath.isDirectory() && !typedPath.isSymbolicLink()) add(typedPath, events);
-            events.add(event);
+            events.add(typedEvent);
           } else if (!isDelete) remove(typedPath.getPath(), events);
-          else events.add(event);
+          else events.add(typedEvent);
+        }
+        if (directoryRegistry.exclusions().invalidate(event.getTypedPath().getPath())) {
+          // Watch or stop watching the directories whose ignore rules have changed.
+          final TypedPath parent = TypedPaths.get(event.getTypedPath().getPath().getParent());
+          if (parent.isDirectory()) add(parent, events);
         }
       } finally {
         rootDirectories.unlock();
       }
     }
-    runCallbacks(events);
+    addAccepted(events, accepted);
+  }
+
+  /**
+   * Moves the watches of a renamed directory to its new path. The watch service has already
+   * reported the entries below the new path, so the events for the watches that are closed and
+   * opened are discarded. Only the move itself is reported, unless just one of the paths is
+   * accepted by the registry, in which case the move is reported as a deletion or a creation.
+   */
+  private void handleMove(final Event event, final List<Event> events) {
+    final TypedPath previousTypedPath = event.getPreviousTypedPath();
+    final TypedPath typedPath =
+        TypedPaths.isKnown(event.getTypedPath())
+            ? event.getTypedPath()
+            : TypedPaths.get(event.getTypedPath().getPath());
+    final List<Event> discarded = new ArrayList<>();
+    remove(previousTypedPath.getPath(), discarded);
+    final boolean accepted = directoryRegistry.acceptPrefix(typedPath.getPath());
+    if (accepted && typedPath.isDirectory() && !typedPath.isSymbolicLink()) {
+      add(typedPath, discarded);
+    }
+    final boolean previousAccepted = directoryRegistry.accept(previousTypedPath.getPath());
+    if (accepted && typedPath.exists()) {
+      events.add(
+          previousAccepted
+              ? new Event(typedPath, Move, previousTypedPath)
+              : new Event(typedPath, Create));
+    } else if (previousAccepted) {
+      events.add(new Event(previousTypedPath, Delete));
+    }
   }
 
   @Override
@@ -456,4 +612,24 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   public void removeObserver(final int handle) {
     observers.removeObserver(handle);
   }
+
+  /**
+   * Add an observer of the batches of events. Each batch contains the events that result from one
+   * batch of events drained from the watch service, or from one registration.
+   *
+   * @param observer the observer to add
+   * @return the handle to the observer.
+   */
+  int addBatchObserver(final Observer<? super List<PathWatchers.Event>> observer) {
+    return batchObservers.addObserver(observer);
+  }
+
+  /**
+   * Remove a batch observer.
+   *
+   * @param handle the handle that was returned by addBatchObserver
+   */
+  void removeBatchObserver(final int handle) {
+    batchObservers.removeObserver(handle);
+  }
 }
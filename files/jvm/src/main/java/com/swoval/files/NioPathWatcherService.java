@@ -4,15 +4,21 @@ import static com.swoval.files.Entries.UNKNOWN;
 import static com.swoval.files.PathWatchers.Event.Kind.Create;
 import static com.swoval.files.PathWatchers.Event.Kind.Delete;
 import static com.swoval.files.PathWatchers.Event.Kind.Modify;
+import static com.swoval.files.PathWatchers.Event.Kind.Move;
+import static com.swoval.files.RegisterableWatchServices.ENTRY_MOVE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
+import com.swoval.concurrent.ThreadFactory;
 import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Options;
 import com.swoval.files.PathWatchers.Overflow;
+import com.swoval.files.RegisterableWatchServices.TypedWatchEvent;
 import com.swoval.functional.Consumer;
 import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
 import com.swoval.logging.Logger;
 import com.swoval.logging.Loggers;
 import com.swoval.logging.Loggers.Level;
@@ -24,31 +30,113 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class WatchedDirectoriesByPath extends LockableMap<Path, WatchedDirectory> {}
 
+/**
+ * Reads the events of a {@link RegisterableWatchService} and hands them to a consumer. The events
+ * are read on a loop thread that never runs the consumer. Instead, it converts each event and
+ * appends it to a bounded ring buffer that is drained by a handler thread, so reading the kernel
+ * queue never waits for the consumer to list or register a new directory. The handler thread hands
+ * the consumer everything that it drains from the ring buffer in one go as a single batch. There
+ * may be several handler threads, each with its own ring buffer. A directory is handled by the same
+ * thread as the directory in which it was created, so all of the events below a registered root are
+ * handled by one thread and in order. When a ring buffer is full, the events for a directory are
+ * dropped and the consumer is sent an overflow for the directory once the ring buffer has been
+ * drained. Renames are only read as moves if {@link Options#reportMoves(boolean)} is set.
+ * Otherwise, the watch service reports them as a deletion followed by a creation.
+ *
+ * <p>The number of handler threads is set by {@link Options#handlerThreads(int)}. It defaults to
+ * the value of the <code>swoval.watcher.handler.threads</code> system property, or one if it isn't
+ * set. The number of threads that {@link #registerTree} uses defaults to the value of the <code>
+ * swoval.watcher.registration.threads</code> system property, or the number of processors if it
+ * isn't set.
+ *
+ * <p>A directory is only watched if the {@link WatchBudget} has room for it. Otherwise, it is
+ * polled every <code>swoval.watcher.poll.interval</code> milliseconds, one second by default, and
+ * the changes to its children are handed to the consumer by the same handler thread that would
+ * have handled its events. A polled directory is watched once it changes and the budget has room
+ * for it again.
+ *
+ * <p>If {@link Options#verifyInterval(long, TimeUnit)} is positive, the watched directories are
+ * also verified in the background at that interval by a {@link DirectoryVerifier}, in case the
+ * watch service dropped some of their events. The interval defaults to the value of the <code>
+ * swoval.watcher.verify.interval</code> system property in milliseconds, or zero if it isn't set.
+ */
 class NioPathWatcherService implements AutoCloseable {
+  private static final int RING_CAPACITY = 8192;
+  private static final int DEFAULT_HANDLER_THREADS =
+      Math.max(1, Integer.getInteger("swoval.watcher.handler.threads", 1));
+  private static final int REGISTRATION_THREADS =
+      Integer.getInteger(
+          "swoval.watcher.registration.threads", Runtime.getRuntime().availableProcessors());
+  private static final long POLL_INTERVAL_MS =
+      Math.max(1, Long.getLong("swoval.watcher.poll.interval", 1000L));
+  private static final long VERIFY_INTERVAL_MS =
+      Long.getLong("swoval.watcher.verify.interval", 0L);
+  private final WatchBudget budget;
+  private final DirectoryPoller poller;
+  private final DirectoryVerifier verifier;
+  private ThreadPoolExecutor registrationExecutor = null;
   private final Thread loopThread;
+  private final EventShard[] shards;
+  private final ConcurrentHashMap<WatchKey, CachedWatchDirectory> directoriesByKey =
+      new ConcurrentHashMap<>();
   private final AtomicBoolean isStopped = new AtomicBoolean(false);
   private static final AtomicInteger threadId = new AtomicInteger(0);
   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
   private final CountDownLatch shutdownLatch = new CountDownLatch(1);
   private final RegisterableWatchService watchService;
+  private final WatchEvent.Kind<?>[] kinds;
   private final WatchedDirectoriesByPath watchedDirectoriesByPath = new WatchedDirectoriesByPath();
   private final int shutdownHookId;
   private final Logger logger;
 
   NioPathWatcherService(
-      final Consumer<Either<Overflow, Event>> eventConsumer,
+      final Consumer<List<Either<Overflow, Event>>> eventConsumer,
       final RegisterableWatchService watchService,
       final Logger logger)
       throws InterruptedException {
+    this(eventConsumer, watchService, new Options(), logger);
+  }
+
+  NioPathWatcherService(
+      final Consumer<List<Either<Overflow, Event>>> eventConsumer,
+      final RegisterableWatchService watchService,
+      final Options options,
+      final Logger logger)
+      throws InterruptedException {
+    this(eventConsumer, watchService, options, WatchBudget.get(), logger);
+  }
+
+  NioPathWatcherService(
+      final Consumer<List<Either<Overflow, Event>>> eventConsumer,
+      final RegisterableWatchService watchService,
+      final Options options,
+      final WatchBudget budget,
+      final Logger logger)
+      throws InterruptedException {
     this.watchService = watchService;
     this.logger = logger;
+    this.budget = budget;
+    this.poller = new DirectoryPoller(POLL_INTERVAL_MS, budget, logger);
+    this.kinds =
+        options.reportMoveEvents
+            ? new WatchEvent.Kind<?>[] {ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY, ENTRY_MOVE}
+            : new WatchEvent.Kind<?>[] {ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY};
+    final long verifyIntervalMs =
+        options.verifyIntervalMillis >= 0 ? options.verifyIntervalMillis : VERIFY_INTERVAL_MS;
+    this.verifier =
+        verifyIntervalMs > 0 ? new DirectoryVerifier(verifyIntervalMs, logger) : null;
     this.shutdownHookId =
         ShutdownHooks.addHook(
             1,
@@ -58,10 +146,23 @@ class NioPathWatcherService implements AutoCloseable {
                 close();
               }
             });
+    final int id = threadId.incrementAndGet();
+    final int handlerThreads =
+        options.handlerThreadCount > 0 ? options.handlerThreadCount : DEFAULT_HANDLER_THREADS;
+    this.shards = new EventShard[handlerThreads];
+    for (int i = 0; i < shards.length; ++i) {
+      shards[i] =
+          new EventShard(
+              "NioPathWatcher-handler-thread-" + id + "-" + i,
+              RING_CAPACITY,
+              eventConsumer,
+              logger);
+      shards[i].start();
+    }
     final CountDownLatch latch = new CountDownLatch(1);
     final String prefix = this.toString();
     loopThread =
-        new Thread("NioPathWatcher-loop-thread-" + threadId.incrementAndGet()) {
+        new Thread("NioPathWatcher-loop-thread-" + id) {
           @Override
           public void run() {
             latch.countDown();
@@ -73,6 +174,9 @@ class NioPathWatcherService implements AutoCloseable {
                 if (!key.reset()) {
                   key.cancel();
                 }
+                final CachedWatchDirectory directory = directoriesByKey.get(key);
+                final EventShard eventShard = shards[directory == null ? 0 : directory.shard];
+                if (verifier != null) verifier.eventReceived();
                 final Iterator<WatchEvent<?>> it = events.iterator();
                 while (it.hasNext()) {
                   final WatchEvent<?> e = it.next();
@@ -81,18 +185,39 @@ class NioPathWatcherService implements AutoCloseable {
                     logger.debug(
                         prefix + " received event for path " + e.context() + " with kind " + k);
                   if (OVERFLOW.equals(k)) {
+                    if (directory != null) directory.rebaseline();
                     final Either<Overflow, Event> result =
                         Either.left(new Overflow((Path) key.watchable()));
-                    eventConsumer.accept(result);
+                    eventShard.offer((Path) key.watchable(), result);
                   } else if (k != null) {
-                    final Event.Kind kind =
-                        k.equals(ENTRY_DELETE) ? Delete : k.equals(ENTRY_CREATE) ? Create : Modify;
+                    final Path previousPath =
+                        e instanceof TypedWatchEvent
+                            ? ((TypedWatchEvent<?>) e).getPreviousPath()
+                            : null;
+                    final Event.Kind kind;
+                    if (k.equals(ENTRY_DELETE)) kind = Delete;
+                    else if (k.equals(ENTRY_MOVE)) kind = previousPath == null ? Create : Move;
+                    else kind = k.equals(ENTRY_CREATE) ? Create : Modify;
                     final Path watchKey = (Path) key.watchable();
                     final Path path =
                         e.context() == null ? watchKey : watchKey.resolve((Path) e.context());
+                    final int fileKind =
+                        e instanceof TypedWatchEvent
+                            ? ((TypedWatchEvent<?>) e).getFileKind()
+                            : UNKNOWN;
+                    if (verifier != null && kind != Modify) {
+                      verifier.reported(path);
+                      if (previousPath != null) verifier.reported(previousPath);
+                    }
+                    final TypedPath previousTypedPath =
+                        kind == Move
+                            ? TypedPaths.get(
+                                previousPath, Entries.NONEXISTENT | (fileKind & Entries.DIRECTORY))
+                            : null;
                     final Either<Overflow, Event> result =
-                        Either.right(new Event(TypedPaths.get(path, UNKNOWN), kind));
-                    eventConsumer.accept(result);
+                        Either.right(
+                            new Event(TypedPaths.get(path, fileKind), kind, previousTypedPath));
+                    eventShard.offer(watchKey, result);
                   }
                 }
               } catch (final ClosedWatchServiceException | InterruptedException e) {
@@ -107,14 +232,74 @@ class NioPathWatcherService implements AutoCloseable {
     latch.await(5, TimeUnit.SECONDS);
   }
 
-  private final class CachedWatchDirectory implements WatchedDirectory {
+  /**
+   * A directory that is watched by the watch service if the {@link WatchBudget} has room for it
+   * and polled otherwise. The key is null while the directory is polled.
+   */
+  private final class CachedWatchDirectory implements WatchedDirectory, DirectoryPoller.Directory {
     private final Path path;
-    private final WatchKey key;
+    private final int shard;
+    private final int depth;
+    private WatchKey key = null;
+    private DirectoryPoller.Polled polled = null;
+    private DirectoryVerifier.Verified verified = null;
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
-    CachedWatchDirectory(final Path path) throws IOException {
+    CachedWatchDirectory(final Path path, final int shard, final int depth) throws IOException {
       this.path = path;
-      this.key = watchService.register(path, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      this.shard = shard;
+      this.depth = depth;
+      synchronized (this) {
+        if (!watchIfPossible()) {
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " polling " + path + " because the watch budget is exhausted");
+          polled = poller.poll(path, this);
+        }
+      }
+    }
+
+    /*
+     * Only ENOSPC, i.e. the operating system having no watches left for the user, exhausts the
+     * budget. Any other failure, e.g. a missing or inaccessible directory, is rethrown.
+     */
+    private boolean watchIfPossible() throws IOException {
+      if (!budget.tryAcquire(depth)) return false;
+      boolean watched = false;
+      try {
+        key = watchService.register(path, kinds);
+        directoriesByKey.put(key, this);
+        if (verifier != null) verified = verifier.verify(path, this);
+        watched = true;
+      } catch (final IOException e) {
+        if (!budget.exhausted(e)) throw e;
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " couldn't watch " + path + ": " + e);
+      } finally {
+        if (!watched) budget.release();
+      }
+      return watched;
+    }
+
+    @Override
+    public synchronized boolean watch() {
+      if (closed.get() || key != null) return false;
+      try {
+        if (!watchIfPossible()) return false;
+      } catch (final IOException | RuntimeException e) {
+        return false;
+      }
+      polled = null;
+      return true;
+    }
+
+    @Override
+    public void accept(final Either<Overflow, Event> event) {
+      shards[shard].offerPolled(event);
+    }
+
+    void rebaseline() {
+      final DirectoryVerifier.Verified v = verified;
+      if (v != null) v.rebaseline();
     }
 
     @Override
@@ -122,8 +307,17 @@ class NioPathWatcherService implements AutoCloseable {
       if (!isShutdown.get() && closed.compareAndSet(false, true)) {
         if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " stopping watch");
         watchedDirectoriesByPath.remove(path);
-        key.reset();
-        key.cancel();
+        synchronized (this) {
+          if (key != null) {
+            directoriesByKey.remove(key);
+            if (verified != null) verified.close();
+            key.reset();
+            key.cancel();
+            budget.release();
+          } else if (polled != null) {
+            polled.close();
+          }
+        }
       }
     }
 
@@ -134,6 +328,176 @@ class NioPathWatcherService implements AutoCloseable {
   }
 
   Either<IOException, WatchedDirectory> register(final Path path) {
+    return register(path, null, false);
+  }
+
+  /**
+   * Registers a directory and every subdirectory that the filter accepts, using several threads.
+   * Each directory is watched before it is listed. A file that is created during registration is
+   * therefore either found by the listing or reported by the watch service. The listings are
+   * returned as a view that serves each one once, to the first caller that lists the same
+   * directory with the same filter. A cache built from the view then doesn't list the tree again.
+   * Every other listing falls back to the default view. The watches that didn't exist before are
+   * added to the created map so that the caller can close the ones it doesn't use. Without
+   * registration threads only the root is watched here and the cache watches the rest.
+   *
+   * @param path the root of the tree
+   * @param filter accepts the directories to register
+   * @param created the map to which the newly watched directories are added
+   * @return the view of the listings made while registering the tree.
+   */
+  FileTreeView registerTree(
+      final Path path,
+      final Filter<? super TypedPath> filter,
+      final Map<Path, WatchedDirectory> created) {
+    final FileTreeView fallback = FileTreeViews.getDefault(false);
+    if (watchedDirectoriesByPath.get(path) != null) return fallback;
+    final ThreadPoolExecutor executor = registrationExecutor();
+    if (executor == null) {
+      register(path, created, true);
+      return fallback;
+    }
+    final PrefetchedFileTreeView view = new PrefetchedFileTreeView(filter, fallback);
+    final AtomicInteger pending = new AtomicInteger(0);
+    final CountDownLatch done = new CountDownLatch(1);
+    final Map<Path, WatchedDirectory> newDirectories = new ConcurrentHashMap<>();
+    final long start = System.nanoTime();
+    submit(executor, new RegisterTask(path, true, view, newDirectories, executor, pending, done));
+    boolean interrupted = false;
+    while (done.getCount() > 0) {
+      try {
+        done.await();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    created.putAll(newDirectories);
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(
+          this
+              + " registered "
+              + newDirectories.size()
+              + " directories below "
+              + path
+              + " in "
+              + (System.nanoTime() - start) / 1000000
+              + "ms");
+    return view;
+  }
+
+  private synchronized ThreadPoolExecutor registrationExecutor() {
+    if (REGISTRATION_THREADS > 1 && registrationExecutor == null && !isStopped.get()) {
+      registrationExecutor =
+          new ThreadPoolExecutor(
+              REGISTRATION_THREADS,
+              REGISTRATION_THREADS,
+              1,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(),
+              new ThreadFactory("NioPathWatcher-registration-thread-" + this.hashCode()));
+      registrationExecutor.allowCoreThreadTimeOut(true);
+    }
+    return isStopped.get() ? null : registrationExecutor;
+  }
+
+  private void submit(final ThreadPoolExecutor executor, final RegisterTask task) {
+    task.pending.incrementAndGet();
+    try {
+      executor.execute(task);
+    } catch (final RejectedExecutionException e) {
+      task.complete();
+    }
+  }
+
+  private final class RegisterTask implements Runnable {
+    private final Path path;
+    private final boolean root;
+    private final PrefetchedFileTreeView view;
+    private final Map<Path, WatchedDirectory> created;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger pending;
+    private final CountDownLatch done;
+
+    RegisterTask(
+        final Path path,
+        final boolean root,
+        final PrefetchedFileTreeView view,
+        final Map<Path, WatchedDirectory> created,
+        final ThreadPoolExecutor executor,
+        final AtomicInteger pending,
+        final CountDownLatch done) {
+      this.path = path;
+      this.root = root;
+      this.view = view;
+      this.created = created;
+      this.executor = executor;
+      this.pending = pending;
+      this.done = done;
+    }
+
+    @SuppressWarnings("EmptyCatchBlock")
+    @Override
+    public void run() {
+      try {
+        final Either<IOException, WatchedDirectory> watchedDirectory =
+            register(path, created, root);
+        if (watchedDirectory.isRight() && watchedDirectory.get() != null && !isStopped.get()) {
+          final List<TypedPath> listing = view.fallback.list(path, 0, view.filter);
+          view.listings.put(path, listing);
+          final Iterator<TypedPath> it = listing.iterator();
+          while (it.hasNext()) {
+            final TypedPath typedPath = it.next();
+            if (typedPath.isDirectory() && !typedPath.isSymbolicLink()) {
+              submit(
+                  executor,
+                  new RegisterTask(
+                      typedPath.getPath(), false, view, created, executor, pending, done));
+            }
+          }
+        }
+      } catch (final IOException e) {
+      } finally {
+        complete();
+      }
+    }
+
+    void complete() {
+      if (pending.decrementAndGet() == 0) done.countDown();
+    }
+  }
+
+  /**
+   * Serves each of the listings made by {@link #registerTree} once. A listing is only served for
+   * the filter that it was made with, since it doesn't contain the paths that the filter rejected.
+   */
+  private static final class PrefetchedFileTreeView implements FileTreeView {
+    private final Map<Path, List<TypedPath>> listings = new ConcurrentHashMap<>();
+    private final Filter<? super TypedPath> filter;
+    private final FileTreeView fallback;
+
+    PrefetchedFileTreeView(final Filter<? super TypedPath> filter, final FileTreeView fallback) {
+      this.filter = filter;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public List<TypedPath> list(
+        final Path path, final int maxDepth, final Filter<? super TypedPath> filter)
+        throws IOException {
+      final List<TypedPath> listing =
+          maxDepth == 0 && filter == this.filter ? listings.remove(path) : null;
+      return listing != null ? listing : fallback.list(path, maxDepth, filter);
+    }
+
+    @Override
+    public void close() {
+      listings.clear();
+    }
+  }
+
+  private Either<IOException, WatchedDirectory> register(
+      final Path path, final Map<Path, WatchedDirectory> created, final boolean root) {
     Either<IOException, WatchedDirectory> result;
     if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " registering " + path);
     try {
@@ -141,8 +505,14 @@ class NioPathWatcherService implements AutoCloseable {
         try {
           final WatchedDirectory previousWatchedDirectory = watchedDirectoriesByPath.get(path);
           if (previousWatchedDirectory == null) {
-            final WatchedDirectory watchedDirectory = new CachedWatchDirectory(path);
+            final CachedWatchDirectory parent = root ? null : parentOf(path);
+            final WatchedDirectory watchedDirectory =
+                parent == null
+                    ? new CachedWatchDirectory(
+                        path, (path.hashCode() & Integer.MAX_VALUE) % shards.length, 0)
+                    : new CachedWatchDirectory(path, parent.shard, parent.depth + 1);
             watchedDirectoriesByPath.put(path, watchedDirectory);
+            if (created != null) created.put(path, watchedDirectory);
             if (Loggers.shouldLog(logger, Level.DEBUG))
               logger.debug(this + " creating new watch key for " + path);
             result = Either.right(watchedDirectory);
@@ -170,13 +540,35 @@ class NioPathWatcherService implements AutoCloseable {
     return result;
   }
 
+  /*
+   * A new directory is handled by the same thread as its parent so that the events for a tree are
+   * always handled in order. The roots of registered trees and the directories that have no watched
+   * parent are distributed by their hash. A root is often a sibling of other roots whose common
+   * parent is watched to detect their deletion; inheriting its thread would put all of them on
+   * one thread. The depth below the root decides whether the directory may use the
+   * part of the watch budget that is reserved for shallow directories.
+   */
+  private CachedWatchDirectory parentOf(final Path path) {
+    final Path parent = path.getParent();
+    final WatchedDirectory parentDirectory =
+        parent == null ? null : watchedDirectoriesByPath.get(parent);
+    return parentDirectory instanceof CachedWatchDirectory
+        ? (CachedWatchDirectory) parentDirectory
+        : null;
+  }
+
   @SuppressWarnings("EmptyCatchBlock")
   @Override
   public void close() {
     if (isStopped.compareAndSet(false, true)) {
       ShutdownHooks.removeHook(shutdownHookId);
+      synchronized (this) {
+        if (registrationExecutor != null) registrationExecutor.shutdownNow();
+      }
       loopThread.interrupt();
       try {
+        poller.close();
+        if (verifier != null) verifier.close();
         final Iterator<WatchedDirectory> it = watchedDirectoriesByPath.values().iterator();
         while (it.hasNext()) {
           it.next().close();
@@ -185,6 +577,9 @@ class NioPathWatcherService implements AutoCloseable {
         watchService.close();
         shutdownLatch.await(5, TimeUnit.SECONDS);
         loopThread.join(5000);
+        for (int i = 0; i < shards.length; ++i) {
+          shards[i].shutdown();
+        }
       } catch (final InterruptedException | IOException e) {
         throw new RuntimeException(e);
       }
@@ -3,6 +3,7 @@ package com.swoval.files;
 import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeViews.Observer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -11,21 +12,19 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Container class that wraps multiple {@link FileTreeViews.Observer} and runs the callbacks for
- * each whenever the {@link PathWatcher} detects an event.
+ * each whenever the {@link PathWatcher} detects an event. The observers are copied on write when an
+ * observer is added or removed, so running the callbacks neither locks nor copies the observers.
  *
  * @param <T> the data type for the {@link PathWatcher} to which the observers correspond
  */
 class Observers<T> implements FileTreeViews.Observer<T>, AutoCloseable {
   private final AtomicInteger counter = new AtomicInteger(0);
   private final Map<Integer, FileTreeViews.Observer<T>> observers = new LinkedHashMap<>();
+  private volatile List<FileTreeViews.Observer<T>> snapshot = Collections.emptyList();
 
   @Override
   public void onNext(final T t) {
-    final List<FileTreeViews.Observer<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<FileTreeViews.Observer<T>> it = cbs.iterator();
+    final Iterator<FileTreeViews.Observer<T>> it = snapshot.iterator();
     while (it.hasNext()) {
       try {
         it.next().onNext(t);
@@ -37,11 +36,7 @@ class Observers<T> implements FileTreeViews.Observer<T>, AutoCloseable {
 
   @Override
   public void onError(final Throwable throwable) {
-    final List<FileTreeViews.Observer<T>> cbs;
-    synchronized (observers) {
-      cbs = new ArrayList<>(observers.values());
-    }
-    final Iterator<FileTreeViews.Observer<T>> it = cbs.iterator();
+    final Iterator<FileTreeViews.Observer<T>> it = snapshot.iterator();
     while (it.hasNext()) {
       try {
         it.next().onError(throwable);
@@ -63,6 +58,7 @@ class Observers<T> implements FileTreeViews.Observer<T>, AutoCloseable {
     final int key = counter.getAndIncrement();
     synchronized (observers) {
       observers.put(key, (Observer<T>) observer);
+      snapshot = Collections.unmodifiableList(new ArrayList<>(observers.values()));
     }
     return key;
   }
@@ -75,12 +71,17 @@ class Observers<T> implements FileTreeViews.Observer<T>, AutoCloseable {
    */
   void removeObserver(int handle) {
     synchronized (observers) {
-      observers.remove(handle);
+      if (observers.remove(handle) != null) {
+        snapshot = Collections.unmodifiableList(new ArrayList<>(observers.values()));
+      }
     }
   }
 
   @Override
   public void close() {
-    observers.clear();
+    synchronized (observers) {
+      observers.clear();
+      snapshot = Collections.emptyList();
+    }
   }
 }
@@ -1,6 +1,7 @@
 package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.LongConverter;
 import com.swoval.logging.Logger;
 import com.swoval.logging.Loggers;
 import com.swoval.runtime.Platform;
@@ -29,6 +30,72 @@ public class PathWatchers {
     return get(followLinks, new DirectoryRegistryImpl(), Loggers.getLogger());
   }
 
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in {@link
+   * PathWatchers#polling(boolean, long, TimeUnit, Iterable)}.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return PathWatcher for the runtime platform
+   * @throws IOException when the underlying {@link java.nio.file.WatchService} cannot be
+   *     initialized
+   * @throws InterruptedException when the {@link PathWatcher} is interrupted during initialization
+   */
+  public static PathWatcher<PathWatchers.Event> get(
+      final boolean followLinks, final Iterable<String> exclusions)
+      throws IOException, InterruptedException {
+    return get(followLinks, exclusions, false);
+  }
+
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in {@link
+   * PathWatchers#polling(boolean, long, TimeUnit, Iterable)}. In write completion mode, a modified
+   * file is only reported once it is closed after being written, so a file that is written in many
+   * chunks is reported once instead of once per chunk. Only the linux path watcher supports write
+   * completion mode. The path watchers for the other platforms report every modification.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @param writeCompletion toggles whether or not modifications are only reported for completed
+   *     writes
+   * @return PathWatcher for the runtime platform
+   * @throws IOException when the underlying {@link java.nio.file.WatchService} cannot be
+   *     initialized
+   * @throws InterruptedException when the {@link PathWatcher} is interrupted during initialization
+   */
+  public static PathWatcher<PathWatchers.Event> get(
+      final boolean followLinks, final Iterable<String> exclusions, final boolean writeCompletion)
+      throws IOException, InterruptedException {
+    return get(followLinks, exclusions, new Options().writeCompletion(writeCompletion));
+  }
+
+  /**
+   * Create a PathWatcher for the runtime platform that neither watches nor reports events for the
+   * paths that match any of the exclusion globs. The glob syntax is described in {@link
+   * PathWatchers#polling(boolean, long, TimeUnit, Iterable)}. The path watcher is configured by
+   * the {@link Options}. The default options create the same path watcher as {@link
+   * PathWatchers#get(boolean, Iterable)}.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @param options the options for the path watcher
+   * @return PathWatcher for the runtime platform
+   * @throws IOException when the underlying {@link java.nio.file.WatchService} cannot be
+   *     initialized
+   * @throws InterruptedException when the {@link PathWatcher} is interrupted during initialization
+   */
+  public static PathWatcher<PathWatchers.Event> get(
+      final boolean followLinks, final Iterable<String> exclusions, final Options options)
+      throws IOException, InterruptedException {
+    return get(
+        followLinks,
+        new DirectoryRegistryImpl(Exclusions.get(exclusions)),
+        options.copy(),
+        Loggers.getLogger());
+  }
+
   /**
    * Create a path watcher that periodically polls the file system to detect changes
    *
@@ -51,6 +118,29 @@ public class PathWatchers {
     return new PollingPathWatcher(converter, followLinks, pollInterval, timeUnit);
   }
 
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Unlike {@link
+   * PathWatchers#polling(Converter, boolean, long, TimeUnit)}, the converter returns a primitive
+   * long, so the last modified times are never boxed, even while they are being computed. This
+   * method has a different name than the {@link Converter} overload so that a lambda converter is
+   * never ambiguous.
+   *
+   * @param converter calculates the last modified time in milliseconds for the path watcher.
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval corresponds
+   * @return the polling path watcher.
+   * @throws InterruptedException if the polling thread cannot be started.
+   */
+  public static PathWatcher<PathWatchers.Event> pollingLong(
+      final LongConverter converter,
+      final boolean followLinks,
+      final long pollInterval,
+      final TimeUnit timeUnit)
+      throws InterruptedException {
+    return new PollingPathWatcher(converter, followLinks, pollInterval, timeUnit);
+  }
+
   /**
    * Create a path watcher that periodically polls the file system to detect changes
    *
@@ -66,6 +156,64 @@ public class PathWatchers {
     return new PollingPathWatcher(followLinks, pollInterval, timeUnit);
   }
 
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Paths that
+   * match any of the exclusion globs are never polled. The globs are matched one path name at a
+   * time: '*' matches any characters within a name, '?' matches a single character within a name
+   * and '**' matches any number of names. Globs that do not start with '/' may match at any depth,
+   * e.g. 'target' or '.git/objects'. Excluding a directory excludes all of its children.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval corresponds
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return the polling path watcher.
+   * @throws InterruptedException if the polling thread cannot be started.
+   */
+  public static PathWatcher<PathWatchers.Event> polling(
+      final boolean followLinks,
+      final long pollInterval,
+      final TimeUnit timeUnit,
+      final Iterable<String> exclusions)
+      throws InterruptedException {
+    return new PollingPathWatcher(
+        followLinks, pollInterval, timeUnit, Exclusions.get(exclusions));
+  }
+
+  /**
+   * Create a path watcher that periodically polls the file system to detect changes. Each
+   * registered directory is polled every pollInterval while it is changing. While it stays
+   * unchanged, the interval between its polls is doubled after each poll until it reaches
+   * maxLatency, which therefore bounds the time it may take to detect a change in a directory that
+   * has been idle. The polls of every polling path watcher share a small pool of threads, so a slow
+   * poll may delay the polls of the other directories while every thread is busy. Paths that match
+   * any of the exclusion globs are never polled. The glob syntax is described in {@link
+   * PathWatchers#polling(boolean, long, TimeUnit, Iterable)}.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param pollInterval minimum duration between when polling ends and the next poll begins
+   * @param maxLatency maximum duration between when polling ends and the next poll begins
+   * @param timeUnit the time unit for which the pollInterval and maxLatency correspond
+   * @param exclusions glob patterns for the paths that should not be monitored
+   * @return the polling path watcher.
+   * @throws InterruptedException if the polling thread cannot be started.
+   * @throws IllegalArgumentException if maxLatency is less than pollInterval.
+   */
+  public static PathWatcher<PathWatchers.Event> polling(
+      final boolean followLinks,
+      final long pollInterval,
+      final long maxLatency,
+      final TimeUnit timeUnit,
+      final Iterable<String> exclusions)
+      throws InterruptedException {
+    if (maxLatency < pollInterval) {
+      throw new IllegalArgumentException(
+          "The max latency " + maxLatency + " is less than the poll interval " + pollInterval);
+    }
+    return new PollingPathWatcher(
+        followLinks, pollInterval, maxLatency, timeUnit, Exclusions.get(exclusions));
+  }
+
   /**
    * Create a PathWatcher for the runtime platform.
    *
@@ -80,9 +228,35 @@ public class PathWatchers {
   static PathWatcher<Event> get(
       final boolean followLinks, final DirectoryRegistry registry, final Logger logger)
       throws InterruptedException, IOException {
+    return get(followLinks, registry, new Options(), logger);
+  }
+
+  /**
+   * Create a PathWatcher for the runtime platform.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param registry The registry of directories to monitor
+   * @param options the options for the path watcher
+   * @param logger the logger
+   * @return PathWatcher for the runtime platform
+   * @throws IOException when the underlying {@link java.nio.file.WatchService} cannot be
+   *     initialized
+   * @throws InterruptedException when the {@link PathWatcher} is interrupted during initialization
+   */
+  static PathWatcher<Event> get(
+      final boolean followLinks,
+      final DirectoryRegistry registry,
+      final Options options,
+      final Logger logger)
+      throws InterruptedException, IOException {
     return Platform.isMac()
         ? ApplePathWatchers.get(followLinks, registry, logger)
-        : PlatformWatcher.make(followLinks, registry, logger);
+        : PlatformWatcher.make(
+            followLinks,
+            RegisterableWatchServices.get(options.writeCompletionMode),
+            registry,
+            options,
+            logger);
   }
 
   /**
@@ -116,6 +290,96 @@ public class PathWatchers {
     return PlatformWatcher.make(followLinks, service, registry, logger);
   }
 
+  /**
+   * The options for the path watchers created by {@link PathWatchers#get(boolean, Iterable,
+   * Options)}. The default options create the same path watcher as {@link PathWatchers#get(boolean,
+   * Iterable)}. The path watcher is created with a copy of the options, so changing the options
+   * later doesn't affect it.
+   */
+  public static final class Options {
+    boolean writeCompletionMode = false;
+    boolean reportMoveEvents = false;
+    int handlerThreadCount = 0;
+    long verifyIntervalMillis = -1;
+
+    /**
+     * Toggles whether or not a modified file is only reported once it is closed after being
+     * written, so that a file that is written in many chunks is reported once instead of once per
+     * chunk. Only the linux path watcher supports write completion mode. The path watchers for the
+     * other platforms report every modification. It is off by default.
+     *
+     * @param writeCompletion toggles whether or not modifications are only reported for completed
+     *     writes
+     * @return these options
+     */
+    public Options writeCompletion(final boolean writeCompletion) {
+      this.writeCompletionMode = writeCompletion;
+      return this;
+    }
+
+    /**
+     * Toggles whether or not a path that is renamed within the watched directories is reported as
+     * a single {@link Event.Kind#Move} event for the new path, whose {@link
+     * Event#getPreviousTypedPath()} is the old path. Otherwise, the rename is reported as a {@link
+     * Event.Kind#Delete} event for the old path followed by a {@link Event.Kind#Create} event for
+     * the new path. Only the linux path watcher can pair the two halves of a rename. The path
+     * watchers for the other platforms always report a rename as a deletion and a creation. It is
+     * off by default.
+     *
+     * @param reportMoves toggles whether or not renames are reported as move events
+     * @return these options
+     */
+    public Options reportMoves(final boolean reportMoves) {
+      this.reportMoveEvents = reportMoves;
+      return this;
+    }
+
+    /**
+     * Sets the number of threads that handle the events of the path watcher. The events below a
+     * registered path are always handled by the same thread and in order, so more threads only
+     * help when several paths are registered. The observers of a path watcher with more than one
+     * handler thread must be thread safe. Only the path watchers that are backed by a {@link
+     * java.nio.file.WatchService}, i.e. the path watchers for linux and windows, use more than one
+     * thread. By default, it is the value of the <code>swoval.watcher.handler.threads</code>
+     * system property, or one if it isn't set.
+     *
+     * @param handlerThreads the number of handler threads. Values that aren't positive select the
+     *     default.
+     * @return these options
+     */
+    public Options handlerThreads(final int handlerThreads) {
+      this.handlerThreadCount = handlerThreads;
+      return this;
+    }
+
+    /**
+     * Sets the interval at which the watched directories are verified in the background, in
+     * case the watch service dropped some of their events. A directory is only listed if its last
+     * modified time has changed since it was last verified, and only the creations and deletions
+     * that the watch service didn't report are reported. An interval of zero turns the
+     * verification off. Only the path watchers for linux and windows verify their directories. By
+     * default, the interval is the value of the <code>swoval.watcher.verify.interval</code> system
+     * property in milliseconds, or zero if it isn't set.
+     *
+     * @param interval the verification interval. Negative values select the default.
+     * @param timeUnit the unit of the interval
+     * @return these options
+     */
+    public Options verifyInterval(final long interval, final TimeUnit timeUnit) {
+      this.verifyIntervalMillis =
+          interval > 0 ? Math.max(1, timeUnit.toMillis(interval)) : interval < 0 ? -1 : 0;
+      return this;
+    }
+
+    Options copy() {
+      return new Options()
+          .writeCompletion(writeCompletionMode)
+          .reportMoves(reportMoveEvents)
+          .handlerThreads(handlerThreadCount)
+          .verifyInterval(verifyIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
   static final class Overflow {
     private final Path path;
 
@@ -131,6 +395,7 @@ public class PathWatchers {
   public static final class Event {
     private final TypedPath typedPath;
     private final Event.Kind kind;
+    private final TypedPath previousTypedPath;
 
     /**
      * Return the {@link TypedPath} associated with this Event.
@@ -150,16 +415,44 @@ public class PathWatchers {
       return kind;
     }
 
+    /**
+     * Returns the {@link TypedPath} from which the file was moved if this is a {@link Kind#Move}
+     * event.
+     *
+     * @return the previous {@link TypedPath} or null if this isn't a {@link Kind#Move} event.
+     */
+    public TypedPath getPreviousTypedPath() {
+      return previousTypedPath;
+    }
+
     public Event(final TypedPath typedPath, final Event.Kind kind) {
+      this(typedPath, kind, null);
+    }
+
+    /**
+     * Creates a new Event.
+     *
+     * @param typedPath the {@link TypedPath} of the event
+     * @param kind the kind of event
+     * @param previousTypedPath the {@link TypedPath} from which the file was moved if the kind is
+     *     {@link Kind#Move}
+     */
+    public Event(
+        final TypedPath typedPath, final Event.Kind kind, final TypedPath previousTypedPath) {
       this.typedPath = typedPath;
       this.kind = kind;
+      this.previousTypedPath = previousTypedPath;
     }
 
     @Override
     public boolean equals(Object other) {
       if (other instanceof Event) {
         Event that = (Event) other;
-        return this.typedPath.equals(that.typedPath) && this.kind.equals(that.kind);
+        return this.typedPath.equals(that.typedPath)
+            && this.kind.equals(that.kind)
+            && (this.previousTypedPath == null
+                ? that.previousTypedPath == null
+                : this.previousTypedPath.equals(that.previousTypedPath));
       } else {
         return false;
       }
@@ -172,7 +465,9 @@ public class PathWatchers {
 
     @Override
     public String toString() {
-      return "Event(" + typedPath.getPath() + ", " + kind + ")";
+      return previousTypedPath == null
+          ? "Event(" + typedPath.getPath() + ", " + kind + ")"
+          : "Event(" + typedPath.getPath() + ", " + kind + ", " + previousTypedPath.getPath() + ")";
     }
 
     /**
@@ -189,6 +484,13 @@ public class PathWatchers {
       public static final Kind Error = new Kind("Error");
       /** An existing file was modified. */
       public static final Kind Modify = new Kind("Modify");
+      /**
+       * A file was moved from the path returned by {@link Event#getPreviousTypedPath()}, which no
+       * longer exists. If the file is a directory, its children were moved with it. Moves are
+       * only reported by the path watchers that were created with {@link
+       * Options#reportMoves(boolean)}.
+       */
+      public static final Kind Move = new Kind("Move");
       /** The watching service overflowed so it may be necessary to poll. */
       public static final Kind Overflow = new Kind("Overflow");
 
@@ -1,6 +1,7 @@
 package com.swoval.files;
 
 import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Options;
 import com.swoval.logging.Logger;
 import java.io.IOException;
 
@@ -17,8 +18,19 @@ class PlatformWatcher {
       final DirectoryRegistry directoryRegistry,
       final Logger logger)
       throws InterruptedException, IOException {
+    return make(
+        followLinks, registerableWatchService, directoryRegistry, new Options(), logger);
+  }
+
+  static PathWatcher<Event> make(
+      final boolean followLinks,
+      final RegisterableWatchService registerableWatchService,
+      final DirectoryRegistry directoryRegistry,
+      final Options options,
+      final Logger logger)
+      throws InterruptedException, IOException {
     final PathWatcher<Event> pathWatcher =
-        new NioPathWatcher(directoryRegistry, registerableWatchService, logger);
+        new NioPathWatcher(directoryRegistry, registerableWatchService, options, logger);
     return followLinks
         ? new SymlinkFollowingPathWatcher(pathWatcher, directoryRegistry, logger)
         : pathWatcher;
@@ -1,54 +1,128 @@
 package com.swoval.files;
 
-import static com.swoval.functional.Filters.AllPass;
-
-import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.LongConverter;
 import com.swoval.files.FileTreeViews.Observer;
 import com.swoval.files.PathWatchers.Event;
 import com.swoval.files.PathWatchers.Event.Kind;
 import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * A {@link PathWatcher} that periodically polls the file system for changes. Each registered path
+ * is cached in a {@link LongCachedDirectory} that stores the last modified time of every path as a
+ * primitive long. On each poll, the snapshot of each registered path is brought up to date in
+ * place. Only the directories whose last modified time has changed are listed again, but the last
+ * modified time of every file is still read, since writing to a file doesn't change the last
+ * modified time of its directory.
+ *
+ * <p>Each registered path is polled by its own task on the shared {@link PollingScheduler}. The
+ * path is polled again after the poll interval once a change is found and progressively less
+ * often while it stays unchanged, but never less often than the maximum poll interval. A
+ * registered path that is entirely contained in the tree of another registered path is not polled
+ * separately.
+ */
 class PollingPathWatcher implements PathWatcher<PathWatchers.Event> {
   private final AtomicBoolean isClosed = new AtomicBoolean(false);
   private final boolean followLinks;
-  private final DirectoryRegistry registry = new DirectoryRegistryImpl();
+  private final FileTreeView fileTreeView;
+  private final DirectoryRegistry registry;
+  private final Filter<TypedPath> filter;
   private final Observers<PathWatchers.Event> observers = new Observers<>();
-  private Map<Path, FileTreeDataViews.Entry<Long>> oldEntries;
-  private final PeriodicTask periodicTask;
-  private final Converter<Long> converter;
+  private final Map<Path, Root> roots = new HashMap<>();
+  private final long pollIntervalNanos;
+  private final long maxPollIntervalNanos;
+  private final LongConverter converter;
 
   PollingPathWatcher(
-      final Converter<Long> converter,
+      final LongConverter converter,
       final boolean followLinks,
       final long pollInterval,
       final TimeUnit timeUnit)
       throws InterruptedException {
+    this(converter, followLinks, pollInterval, timeUnit, Exclusions.NONE);
+  }
+
+  PollingPathWatcher(
+      final LongConverter converter,
+      final boolean followLinks,
+      final long pollInterval,
+      final TimeUnit timeUnit,
+      final Exclusions exclusions)
+      throws InterruptedException {
+    this(converter, followLinks, pollInterval, pollInterval, timeUnit, exclusions);
+  }
+
+  PollingPathWatcher(
+      final LongConverter converter,
+      final boolean followLinks,
+      final long pollInterval,
+      final long maxPollInterval,
+      final TimeUnit timeUnit,
+      final Exclusions exclusions)
+      throws InterruptedException {
     this.converter = converter;
     this.followLinks = followLinks;
-    oldEntries = getEntries();
-    periodicTask = new PeriodicTask(new PollingRunnable(), timeUnit.toMillis(pollInterval));
+    this.registry = new DirectoryRegistryImpl(exclusions);
+    this.filter = exclusions.toTypedPathFilter();
+    this.fileTreeView = FileTreeViews.getDefault(followLinks);
+    this.pollIntervalNanos = timeUnit.toNanos(pollInterval);
+    this.maxPollIntervalNanos = Math.max(pollIntervalNanos, timeUnit.toNanos(maxPollInterval));
+  }
+
+  PollingPathWatcher(
+      final Converter<Long> converter,
+      final boolean followLinks,
+      final long pollInterval,
+      final TimeUnit timeUnit)
+      throws InterruptedException {
+    this(
+        new LongConverter() {
+          @Override
+          public long apply(final TypedPath typedPath) throws IOException {
+            return converter.apply(typedPath);
+          }
+        },
+        followLinks,
+        pollInterval,
+        timeUnit);
   }
 
   PollingPathWatcher(final boolean followLinks, final long pollInterval, final TimeUnit timeUnit)
       throws InterruptedException {
+    this(followLinks, pollInterval, timeUnit, Exclusions.NONE);
+  }
+
+  PollingPathWatcher(
+      final boolean followLinks,
+      final long pollInterval,
+      final TimeUnit timeUnit,
+      final Exclusions exclusions)
+      throws InterruptedException {
+    this(followLinks, pollInterval, pollInterval, timeUnit, exclusions);
+  }
+
+  PollingPathWatcher(
+      final boolean followLinks,
+      final long pollInterval,
+      final long maxPollInterval,
+      final TimeUnit timeUnit,
+      final Exclusions exclusions)
+      throws InterruptedException {
     this(
-        new Converter<Long>() {
+        new LongConverter() {
           @Override
-          public Long apply(final TypedPath typedPath) {
+          public long apply(final TypedPath typedPath) {
             try {
               return Files.getLastModifiedTime(typedPath.getPath()).toMillis();
             } catch (final Exception e) {
@@ -58,17 +132,44 @@ class PollingPathWatcher implements PathWatcher<PathWatchers.Event> {
         },
         followLinks,
         pollInterval,
-        timeUnit);
+        maxPollInterval,
+        timeUnit,
+        exclusions);
   }
 
   @Override
   public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    if (registry.exclusions().isExcluded(absolutePath)) return Either.right(false);
+    final LongCachedDirectory snapshot = getSnapshot(absolutePath, maxDepth);
     boolean result;
-    final List<FileTreeDataViews.Entry<Long>> entries = getEntries(absolutePath, maxDepth);
-    synchronized (this) {
-      addAll(oldEntries, entries);
-      result = registry.addDirectory(absolutePath, maxDepth);
+    boolean isNew = false;
+    Root root = null;
+    synchronized (roots) {
+      result = !isClosed.get() && registry.addDirectory(absolutePath, maxDepth);
+      if (result) {
+        root = roots.get(absolutePath);
+        if (root == null) {
+          root = new Root(absolutePath);
+          roots.put(absolutePath, root);
+          isNew = true;
+        }
+        root.maxDepth = maxDepth;
+        root.snapshot = snapshot;
+        root.stale = false;
+        updateCoverage();
+      }
+    }
+    if (isNew) {
+      final PollingScheduler.Handle handle =
+          PollingScheduler.get()
+              .schedule(root, pollIntervalNanos, maxPollIntervalNanos, TimeUnit.NANOSECONDS);
+      boolean cancel = false;
+      synchronized (roots) {
+        if (roots.get(absolutePath) == root) root.handle = handle;
+        else cancel = true;
+      }
+      if (cancel) handle.cancel();
     }
     return Either.right(result);
   }
@@ -76,17 +177,28 @@ class PollingPathWatcher implements PathWatcher<PathWatchers.Event> {
   @Override
   public void unregister(final Path path) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
-    registry.removeDirectory(absolutePath);
+    final Root root;
+    synchronized (roots) {
+      registry.removeDirectory(absolutePath);
+      root = roots.remove(absolutePath);
+      if (root != null) updateCoverage();
+    }
+    if (root != null && root.handle != null) root.handle.cancel();
   }
 
   @Override
   public void close() {
     if (isClosed.compareAndSet(false, true)) {
       registry.close();
-      try {
-        periodicTask.close();
-      } catch (final InterruptedException e) {
-        e.printStackTrace(System.err);
+      final List<Root> closed;
+      synchronized (roots) {
+        closed = new ArrayList<>(roots.values());
+        roots.clear();
+      }
+      final Iterator<Root> it = closed.iterator();
+      while (it.hasNext()) {
+        final Root root = it.next();
+        if (root.handle != null) root.handle.cancel();
       }
     }
   }
@@ -101,86 +213,109 @@ class PollingPathWatcher implements PathWatcher<PathWatchers.Event> {
     observers.removeObserver(handle);
   }
 
-  private void addAll(
-      final Map<Path, FileTreeDataViews.Entry<Long>> map,
-      final List<FileTreeDataViews.Entry<Long>> list) {
-    final Iterator<FileTreeDataViews.Entry<Long>> it = list.iterator();
-    while (it.hasNext()) {
-      final FileTreeDataViews.Entry<Long> entry = it.next();
-      map.put(entry.getTypedPath().getPath(), entry);
-    }
-  }
-
-  private List<FileTreeDataViews.Entry<Long>> getEntries(final Path path, final int maxDepth) {
+  private LongCachedDirectory getSnapshot(final Path path, final int maxDepth) {
     try {
-      final DirectoryDataView<Long> view =
-          FileTreeDataViews.cached(path, converter, maxDepth, followLinks);
-      final List<FileTreeDataViews.Entry<Long>> newEntries = view.listEntries(maxDepth, AllPass);
-      final List<FileTreeDataViews.Entry<Long>> pathEntry = view.listEntries(-1, AllPass);
-      if (pathEntry.size() == 1) newEntries.add(pathEntry.get(0));
-      return newEntries;
-    } catch (final NotDirectoryException e) {
-      final List<FileTreeDataViews.Entry<Long>> result = new ArrayList<>();
-      final TypedPath typedPath = TypedPaths.get(path);
-      result.add(Entries.get(typedPath, converter, typedPath));
-      return result;
+      return LongCachedDirectory.get(
+          TypedPaths.get(path), converter, maxDepth, filter, fileTreeView);
     } catch (final IOException e) {
-      return Collections.emptyList();
+      return null;
     }
   }
 
-  private Map<Path, FileTreeDataViews.Entry<Long>> getEntries() {
-    // I have to use putAll because scala.js doesn't handle new HashMap(registry.registered()).
-    final Map<Path, Integer> map = new ConcurrentHashMap<>();
-    synchronized (this) {
-      map.putAll(registry.registered());
-    }
-    final Iterator<Entry<Path, Integer>> it = map.entrySet().iterator();
-    final Map<Path, FileTreeDataViews.Entry<Long>> result = new ConcurrentHashMap<>();
+  /*
+   * Marks the roots whose entire tree is polled by the root of one of their ancestors. The
+   * snapshot of a covered root isn't updated, so it is marked stale and replaced without reporting
+   * any changes if the root is ever uncovered. This must be called while holding the roots lock.
+   */
+  private void updateCoverage() {
+    final Iterator<Root> it = roots.values().iterator();
     while (it.hasNext()) {
-      final Entry<Path, Integer> entry = it.next();
-      final List<FileTreeDataViews.Entry<Long>> entries =
-          getEntries(entry.getKey(), entry.getValue());
-      addAll(result, entries);
+      final Root root = it.next();
+      boolean covered = false;
+      final Iterator<Root> ancestors = roots.values().iterator();
+      while (!covered && ancestors.hasNext()) {
+        final Root ancestor = ancestors.next();
+        if (ancestor != root && root.path.startsWith(ancestor.path)) {
+          final int distance = root.path.getNameCount() - ancestor.path.getNameCount();
+          covered =
+              ancestor.maxDepth == Integer.MAX_VALUE
+                  || (root.maxDepth != Integer.MAX_VALUE
+                      && ancestor.maxDepth - distance >= root.maxDepth);
+        }
+      }
+      if (covered) root.stale = true;
+      root.covered = covered;
     }
-    return result;
   }
 
-  private class PollingRunnable implements Runnable {
-    final CacheObserver<Long> cacheObserver =
-        new CacheObserver<Long>() {
-          @Override
-          public void onCreate(final FileTreeDataViews.Entry<Long> newEntry) {
-            observers.onNext(new Event(newEntry.getTypedPath(), Kind.Create));
-          }
+  private class Root implements PollingScheduler.Task {
+    private final Path path;
+    private int maxDepth;
+    private LongCachedDirectory snapshot;
+    private boolean covered;
+    private boolean stale;
+    private PollingScheduler.Handle handle;
 
-          @Override
-          public void onDelete(final FileTreeDataViews.Entry<Long> oldEntry) {
-            observers.onNext(new Event(oldEntry.getTypedPath(), Kind.Delete));
-          }
+    Root(final Path path) {
+      this.path = path;
+    }
 
-          @Override
-          public void onUpdate(
-              final FileTreeDataViews.Entry<Long> oldEntry,
-              FileTreeDataViews.Entry<Long> newEntry) {
-            if (!oldEntry.getValue().equals(newEntry.getValue())) {
-              observers.onNext(new Event(newEntry.getTypedPath(), Kind.Modify));
-            }
-          }
+    @Override
+    public boolean run() {
+      final int depth;
+      final LongCachedDirectory oldSnapshot;
+      final boolean isStale;
+      synchronized (roots) {
+        if (roots.get(path) != this || covered) return false;
+        depth = maxDepth;
+        oldSnapshot = snapshot;
+        isStale = stale;
+      }
+      final AtomicBoolean changed = new AtomicBoolean(false);
+      final LongCachedDirectory newSnapshot;
+      if (isStale) {
+        newSnapshot = getSnapshot(path, depth);
+      } else {
+        final LongCacheObserver cacheObserver =
+            new LongCacheObserver() {
+              @Override
+              public void onCreate(final LongEntry newEntry) {
+                emit(newEntry.getTypedPath(), Kind.Create);
+              }
 
-          @Override
-          public void onError(final IOException exception) {
-            observers.onError(exception);
-          }
-        };
+              @Override
+              public void onDelete(final LongEntry oldEntry) {
+                emit(oldEntry.getTypedPath(), Kind.Delete);
+              }
 
-    @Override
-    public void run() {
-      final Map<Path, FileTreeDataViews.Entry<Long>> newEntries = getEntries();
-      MapOps.diffDirectoryEntries(oldEntries, newEntries, cacheObserver);
-      synchronized (this) {
-        oldEntries = newEntries;
+              @Override
+              public void onUpdate(final LongEntry oldEntry, final LongEntry newEntry) {
+                emit(newEntry.getTypedPath(), Kind.Modify);
+              }
+
+              private void emit(final TypedPath typedPath, final Kind kind) {
+                changed.set(true);
+                observers.onNext(new Event(typedPath, kind));
+              }
+            };
+        newSnapshot =
+            LongCachedDirectory.update(
+                oldSnapshot,
+                TypedPaths.get(path),
+                converter,
+                depth,
+                filter,
+                fileTreeView,
+                cacheObserver);
+      }
+      synchronized (roots) {
+        // The path may have been registered again, with a new snapshot, during the update.
+        if (roots.get(path) == this && snapshot == oldSnapshot) {
+          snapshot = newSnapshot;
+          if (isStale && !covered) stale = false;
+        }
       }
+      return changed.get();
     }
   }
 }
@@ -0,0 +1,187 @@
+package com.swoval.files;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the polls of every polling path watcher in the jvm on a small pool of daemon threads. Each
+ * task is run again once its interval has elapsed after it finished. The interval of a task is
+ * reset to its minimum whenever the task reports a change and is doubled, up to its maximum,
+ * whenever it doesn't. A frequently changing path is therefore polled often while an idle path is
+ * polled rarely, but never less often than the maximum interval allows. Each interval is randomly
+ * lengthened or shortened by up to a tenth so that the tasks that were scheduled together don't
+ * keep running in lockstep.
+ *
+ * <p>The pool has at most as many threads as the <code>swoval.polling.threads</code> system
+ * property specifies, which defaults to the smaller of four and the number of processors. A task
+ * never runs on two threads at once. A slow task only delays the other tasks while every thread of
+ * the pool is busy, which is whenever it runs if the pool has a single thread.
+ */
+final class PollingScheduler {
+  /** A task that polls the file system. */
+  interface Task {
+    /**
+     * Polls the file system.
+     *
+     * @return true if the poll found a change.
+     */
+    boolean run();
+  }
+
+  private static final int THREADS =
+      Math.max(
+          1,
+          Integer.getInteger(
+              "swoval.polling.threads",
+              Math.min(4, Runtime.getRuntime().availableProcessors())));
+  private static final PollingScheduler INSTANCE = new PollingScheduler();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition ready = lock.newCondition();
+  private final PriorityQueue<Handle> queue = new PriorityQueue<>();
+  private int scheduled = 0;
+  private int threads = 0;
+
+  private PollingScheduler() {}
+
+  static PollingScheduler get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Schedules a task to run as soon as possible and then repeatedly.
+   *
+   * @param task the task to run
+   * @param minimumInterval the interval after a poll that found a change
+   * @param maximumInterval the longest interval after a sequence of polls that found no change
+   * @param timeUnit the time unit of the intervals
+   * @return the handle with which the task is cancelled.
+   */
+  Handle schedule(
+      final Task task,
+      final long minimumInterval,
+      final long maximumInterval,
+      final TimeUnit timeUnit) {
+    final long minimum = Math.max(1, timeUnit.toNanos(minimumInterval));
+    final Handle handle =
+        new Handle(task, minimum, Math.max(minimum, timeUnit.toNanos(maximumInterval)));
+    lock.lock();
+    try {
+      handle.deadline = System.nanoTime();
+      queue.add(handle);
+      scheduled += 1;
+      if (threads < Math.min(THREADS, scheduled)) {
+        threads += 1;
+        new SchedulerThread(threads).start();
+      }
+      ready.signal();
+    } finally {
+      lock.unlock();
+    }
+    return handle;
+  }
+
+  /** A scheduled task. */
+  final class Handle implements Comparable<Handle> {
+    private final Task task;
+    private final long minimumNanos;
+    private final long maximumNanos;
+    private long intervalNanos;
+    private long deadline;
+    // Only written while the lock is held.
+    private volatile boolean cancelled = false;
+
+    private Handle(final Task task, final long minimumNanos, final long maximumNanos) {
+      this.task = task;
+      this.minimumNanos = minimumNanos;
+      this.maximumNanos = maximumNanos;
+      this.intervalNanos = minimumNanos;
+    }
+
+    /**
+     * Stops running the task. If the task is running on a scheduler thread, this waits for it to
+     * finish, unless it is called by the task itself.
+     */
+    void cancel() {
+      lock.lock();
+      try {
+        if (!cancelled) {
+          cancelled = true;
+          scheduled -= 1;
+          queue.remove(this);
+        }
+      } finally {
+        lock.unlock();
+      }
+      synchronized (this) {
+        // Waits for a run of the task that is in progress.
+      }
+    }
+
+    @Override
+    public int compareTo(final Handle that) {
+      final long difference = this.deadline - that.deadline;
+      return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+    }
+
+    /*
+     * Every throwable is caught, since an error that escaped would kill the scheduler thread. The
+     * pool would then be a thread short for good, or stall entirely if it only had the one thread.
+     */
+    private synchronized void run() {
+      if (!cancelled) {
+        boolean changed = false;
+        try {
+          changed = task.run();
+        } catch (final Throwable e) {
+          e.printStackTrace(System.err);
+        }
+        intervalNanos = changed ? minimumNanos : Math.min(maximumNanos, intervalNanos * 2);
+      }
+    }
+  }
+
+  private final class SchedulerThread extends Thread {
+    SchedulerThread(final int index) {
+      super("com.swoval.files.PollingScheduler-" + index);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Handle handle;
+        lock.lock();
+        try {
+          handle = queue.peek();
+          while (handle == null || handle.deadline - System.nanoTime() > 0) {
+            if (handle == null) ready.awaitUninterruptibly();
+            else ready.awaitNanos(handle.deadline - System.nanoTime());
+            handle = queue.peek();
+          }
+          queue.poll();
+        } catch (final InterruptedException e) {
+          continue;
+        } finally {
+          lock.unlock();
+        }
+        handle.run();
+        final long jitter = handle.intervalNanos / 10;
+        final long delay =
+            handle.intervalNanos + ThreadLocalRandom.current().nextLong(2 * jitter + 1) - jitter;
+        lock.lock();
+        try {
+          if (!handle.cancelled) {
+            handle.deadline = System.nanoTime() + delay;
+            queue.add(handle);
+            ready.signal();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+}
@@ -4,21 +4,94 @@ import com.swoval.runtime.Platform;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a platform dependent implementation of {@link
  * com.swoval.files.RegisterableWatchService}. On osx, the implementation will be {@link
- * MacOSXWatchService}. On linux and windows, it will be an object that implements {@link
- * com.swoval.files.RegisterableWatchService} by delegation with an instance of {@link
- * java.nio.file.WatchService}.
+ * MacOSXWatchService}. On linux, it will be an {@link InotifyWatchService} unless the native
+ * library can't be loaded or the system property swoval.inotify is set to false. Otherwise it will
+ * be an object that implements {@link com.swoval.files.RegisterableWatchService} by delegation with
+ * an instance of {@link java.nio.file.WatchService}.
  */
 public class RegisterableWatchServices {
   public static RegisterableWatchService get() throws IOException, InterruptedException {
-    return Platform.isMac() ? new MacOSXWatchService() : new RegisterableWatchServiceImpl();
+    return get(false);
+  }
+
+  /**
+   * Returns a watch service for the runtime platform.
+   *
+   * @param writeCompletion toggles whether the modifications of a file are only reported once the
+   *     file is closed after being written. Only the inotify watch service supports this. The other
+   *     watch services report every modification.
+   * @return the watch service.
+   * @throws IOException if the watch service cannot be created
+   * @throws InterruptedException if the watch service is interrupted during initialization
+   */
+  public static RegisterableWatchService get(final boolean writeCompletion)
+      throws IOException, InterruptedException {
+    if (Platform.isMac()) {
+      return new MacOSXWatchService();
+    } else if (Platform.isLinux() && useInotify) {
+      try {
+        return new InotifyWatchService(writeCompletion);
+      } catch (final LinkageError | RuntimeException e) {
+        useInotify = false;
+      }
+    }
+    return new RegisterableWatchServiceImpl();
+  }
+
+  private static volatile boolean useInotify =
+      !System.getProperty("swoval.inotify", "true").equals("false");
+
+  /**
+   * The kind of event for a file that was moved within or between watched directories. It is only
+   * reported by watch services that can pair the two halves of a move, and only for directories
+   * that were registered with it. Its events implement {@link TypedWatchEvent} and their context is
+   * the new name of the file.
+   */
+  static final WatchEvent.Kind<Path> ENTRY_MOVE =
+      new WatchEvent.Kind<Path>() {
+        @Override
+        public String name() {
+          return "ENTRY_MOVE";
+        }
+
+        @Override
+        public Class<Path> type() {
+          return Path.class;
+        }
+
+        @Override
+        public String toString() {
+          return name();
+        }
+      };
+
+  /**
+   * A watch event for which the watch service already knows the kind of file, e.g. because the
+   * kernel reported it along with the event. The kind is a combination of the flags in {@link
+   * Entries}, which is {@link Entries#UNKNOWN} if it isn't known.
+   *
+   * @param <T> the type of the event context
+   */
+  interface TypedWatchEvent<T> extends WatchEvent<T> {
+    int getFileKind();
+
+    /**
+     * Returns the absolute path from which the file was moved.
+     *
+     * @return the path or null if the kind of the event isn't {@link #ENTRY_MOVE}.
+     */
+    Path getPreviousPath();
   }
 
   /** Wraps a WatchService and implements {@link com.swoval.files.RegisterableWatchService} */
@@ -36,9 +109,18 @@ public class RegisterableWatchServices {
 
     @Override
     public WatchKey register(final Path path, final Kind<?>... kinds) throws IOException {
-      return watchService instanceof com.swoval.files.RegisterableWatchService
-          ? ((com.swoval.files.RegisterableWatchService) watchService).register(path, kinds)
-          : path.register(watchService, kinds);
+      if (watchService instanceof com.swoval.files.RegisterableWatchService) {
+        return ((com.swoval.files.RegisterableWatchService) watchService).register(path, kinds);
+      } else {
+        // The jdk watch services reject the kinds that they don't support.
+        final List<Kind<?>> supported = new ArrayList<>(kinds.length);
+        int i = 0;
+        while (i < kinds.length) {
+          if (kinds[i] != ENTRY_MOVE) supported.add(kinds[i]);
+          i += 1;
+        }
+        return path.register(watchService, supported.toArray(new Kind<?>[0]));
+      }
     }
 
     @Override
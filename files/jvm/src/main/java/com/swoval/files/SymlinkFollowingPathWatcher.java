@@ -29,8 +29,10 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
     this.symlinkWatcher =
         new SymlinkWatcher(
             Platform.isMac()
-                ? new ApplePathWatcher(new DirectoryRegistryImpl(), logger)
-                : PlatformWatcher.make(false, new DirectoryRegistryImpl(), logger),
+                ? new ApplePathWatcher(
+                    new DirectoryRegistryImpl(directoryRegistry.exclusions()), logger)
+                : PlatformWatcher.make(
+                    false, new DirectoryRegistryImpl(directoryRegistry.exclusions()), logger),
             logger);
     pathWatcher.addObserver(
         new Observer<Event>() {
@@ -42,6 +44,8 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
           @Override
           public void onNext(final Event event) {
             final TypedPath typedPath = event.getTypedPath();
+            final TypedPath previousTypedPath = event.getPreviousTypedPath();
+            if (previousTypedPath != null) symlinkWatcher.remove(previousTypedPath.getPath());
             if (typedPath.exists() && typedPath.isSymbolicLink()) {
               try {
                 final int maxDepth = directoryRegistry.maxDepthFor(typedPath.getPath());
@@ -52,6 +56,15 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
               } catch (final IOException e) {
                 observers.onError(e);
               }
+            } else if (previousTypedPath != null && typedPath.isDirectory()) {
+              // The watcher doesn't report the entries of a moved directory, so the symlinks
+              // below its new path have to be found by listing it.
+              try {
+                final Path path = typedPath.getPath();
+                handleNewDirectory(path, directoryRegistry.maxDepthFor(path), false);
+              } catch (final IOException e) {
+                observers.onError(e);
+              }
             } else if (!typedPath.exists()) {
               symlinkWatcher.remove(typedPath.getPath());
             }
@@ -62,9 +62,12 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
             if (Loggers.shouldLog(logger, Level.DEBUG))
               logger.debug(this + " received event " + event);
             if (!isClosed.get()) {
+              final TypedPath previousTypedPath = event.getPreviousTypedPath();
+              // A move is reported through the links as a delete of its source and a create.
+              if (previousTypedPath != null) onNext(new Event(previousTypedPath, Kind.Delete));
               final List<Path> paths = new ArrayList<>();
               final Path path = event.getTypedPath().getPath();
-              final Kind kind = event.getKind();
+              final Kind kind = event.getKind().equals(Kind.Move) ? Kind.Create : event.getKind();
               if (watchedSymlinksByTarget.lock()) {
                 try {
                   final RegisteredPath registeredPath = find(path, watchedSymlinksByTarget);
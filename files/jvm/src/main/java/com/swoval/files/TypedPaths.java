@@ -118,6 +118,20 @@ public class TypedPaths {
         | (typedPath.isSymbolicLink() ? Entries.LINK : 0);
   }
 
+  /**
+   * Returns true if the kind of the typed path was determined when it was created, i.e. it wasn't
+   * created with {@link Entries#UNKNOWN}, so it doesn't need to be read from the file system again.
+   *
+   * @param typedPath the typed path
+   * @return true if the typed path is known to be a file, directory or symbolic link or to not exist.
+   */
+  static boolean isKnown(final TypedPath typedPath) {
+    return !typedPath.exists()
+        || typedPath.isDirectory()
+        || typedPath.isFile()
+        || typedPath.isSymbolicLink();
+  }
+
   static TypedPath get(final Path path, final int kind) {
     return new TypedPathImpl(path.isAbsolute() ? path : path.toAbsolutePath()) {
       @Override
@@ -41,4 +41,15 @@ interface UpdatableFileTreeDataView<T> {
    *     the cache entries for any children of the path when the path is a non-empty directory.
    */
   List<Entry<T>> remove(final Path path);
+
+  /**
+   * Move a path, and its subtree when it is a directory, to a new path without recomputing the
+   * cache values.
+   *
+   * @param source the path that was moved
+   * @param destination the new path
+   * @return the updates for the moved entries or null if the move could not be applied, in which
+   *     case nothing was changed.
+   */
+  FileTreeViews.Updates<T> move(final Path source, final TypedPath destination);
 }
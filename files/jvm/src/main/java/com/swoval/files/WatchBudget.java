@@ -0,0 +1,171 @@
+package com.swoval.files;
+
+import com.swoval.runtime.Platform;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the number of directories that the path watchers in this jvm watch with the operating
+ * system. On linux, each watched directory uses one of the inotify watches that are available to
+ * the user, of which there are at most <code>fs.inotify.max_user_watches</code>. A directory that
+ * doesn't fit in the budget is polled for changes instead of being left unwatched, so that a tree
+ * with more directories than the limit is still fully monitored.
+ *
+ * <p>The limit is read from <code>/proc/sys/fs/inotify/max_user_watches</code> and may be lowered
+ * with the <code>swoval.watcher.max.watches</code> system property. Every directory in a tree is
+ * watched until the budget is nearly exhausted. The last sixteenth of the budget is reserved for
+ * the registered directories and their direct children, so that the directories closest to the
+ * roots keep their watches when a deep tree exhausts the budget. If the operating system refuses
+ * a watch before the limit is reached, e.g. because another process uses the remaining watches,
+ * the budget is treated as exhausted for a minute. A polled directory is watched again once it
+ * changes and the budget has room for it.
+ *
+ * <p>Every path watcher uses the budget that is returned by {@link #get()}, since the limit is
+ * shared by all of the watches of the user.
+ */
+public final class WatchBudget {
+  private static final WatchBudget INSTANCE = new WatchBudget(readLimit());
+  private static final long EXHAUSTED_NANOS = TimeUnit.MINUTES.toNanos(1);
+  // The message with which the jdk watch service on linux reports ENOSPC.
+  private static final String JDK_LIMIT_MESSAGE = "User limit of inotify watches reached";
+  private final int limit;
+  private final AtomicInteger watchCount = new AtomicInteger(0);
+  private final Map<Path, Integer> polledDirectories = new HashMap<>();
+  private volatile int exhaustedLimit = Integer.MAX_VALUE;
+  private volatile long exhaustedAt = 0;
+
+  WatchBudget(final int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Returns the budget that is shared by the path watchers in this jvm.
+   *
+   * @return the budget that is shared by the path watchers in this jvm.
+   */
+  public static WatchBudget get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the maximum number of directories that may be watched by the operating system.
+   *
+   * @return the maximum number of directories that may be watched by the operating system.
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Returns the number of directories that are currently watched by the operating system.
+   *
+   * @return the number of directories that are currently watched by the operating system.
+   */
+  public int getWatchCount() {
+    return watchCount.get();
+  }
+
+  /**
+   * Returns the directories that are currently polled because they didn't fit in the budget. Every
+   * other directory that is monitored by a path watcher is watched by the operating system.
+   *
+   * @return the sorted list of polled directories.
+   */
+  public List<Path> getPolledDirectories() {
+    final List<Path> result;
+    synchronized (polledDirectories) {
+      result = new ArrayList<>(polledDirectories.keySet());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Tries to reserve a watch for a directory.
+   *
+   * @param depth the depth of the directory below the closest registered directory
+   * @return true if the directory may be watched. The caller must {@link #release} the watch once
+   *     the directory is no longer watched.
+   */
+  boolean tryAcquire(final int depth) {
+    int available = limit;
+    if (exhaustedLimit < available) {
+      if (System.nanoTime() - exhaustedAt < EXHAUSTED_NANOS) available = exhaustedLimit;
+      else exhaustedLimit = Integer.MAX_VALUE;
+    }
+    if (depth > 1) available -= available / 16;
+    while (true) {
+      final int count = watchCount.get();
+      if (count >= available) return false;
+      if (watchCount.compareAndSet(count, count + 1)) return true;
+    }
+  }
+
+  void release() {
+    watchCount.decrementAndGet();
+  }
+
+  /**
+   * Treats the budget as exhausted if the operating system refused to add a watch because it has
+   * no watches left for the user. Any other failure is specific to the directory.
+   *
+   * @param exception the exception with which the watch service refused the watch
+   * @return true if the budget is now exhausted.
+   */
+  boolean exhausted(final IOException exception) {
+    if (!(exception instanceof LimitReachedException)
+        && !JDK_LIMIT_MESSAGE.equals(exception.getMessage())) return false;
+    exhaustedAt = System.nanoTime();
+    exhaustedLimit = watchCount.get();
+    return true;
+  }
+
+  void addPolled(final Path path) {
+    synchronized (polledDirectories) {
+      final Integer count = polledDirectories.get(path);
+      polledDirectories.put(path, count == null ? 1 : count + 1);
+    }
+  }
+
+  void removePolled(final Path path) {
+    synchronized (polledDirectories) {
+      final Integer count = polledDirectories.get(path);
+      if (count == null || count <= 1) polledDirectories.remove(path);
+      else polledDirectories.put(path, count - 1);
+    }
+  }
+
+  /** Thrown by a watch service when the operating system has no watches left for the user. */
+  static final class LimitReachedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    LimitReachedException(final String message) {
+      super(message);
+    }
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  static int readLimit() {
+    int limit = Integer.MAX_VALUE;
+    if (Platform.isLinux()) {
+      final Path path = Paths.get("/proc/sys/fs/inotify/max_user_watches");
+      try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        final String line = reader.readLine();
+        if (line != null) limit = Integer.parseInt(line.trim());
+      } catch (final IOException | NumberFormatException e) {
+      }
+    }
+    return Math.max(1, Math.min(limit, Integer.getInteger("swoval.watcher.max.watches", limit)));
+  }
+}
@@ -0,0 +1,109 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_swoval_files_InotifyWatchService */
+
+#ifndef _Included_com_swoval_files_InotifyWatchService
+#define _Included_com_swoval_files_InotifyWatchService
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef com_swoval_files_InotifyWatchService_ENOENT
+#define com_swoval_files_InotifyWatchService_ENOENT -1L
+#undef com_swoval_files_InotifyWatchService_EACCES
+#define com_swoval_files_InotifyWatchService_EACCES -2L
+#undef com_swoval_files_InotifyWatchService_ENOTDIR
+#define com_swoval_files_InotifyWatchService_ENOTDIR -3L
+#undef com_swoval_files_InotifyWatchService_ENOSPC
+#define com_swoval_files_InotifyWatchService_ENOSPC -4L
+#undef com_swoval_files_InotifyWatchService_IN_MODIFY
+#define com_swoval_files_InotifyWatchService_IN_MODIFY 2L
+#undef com_swoval_files_InotifyWatchService_IN_ATTRIB
+#define com_swoval_files_InotifyWatchService_IN_ATTRIB 4L
+#undef com_swoval_files_InotifyWatchService_IN_MOVED_FROM
+#define com_swoval_files_InotifyWatchService_IN_MOVED_FROM 64L
+#undef com_swoval_files_InotifyWatchService_IN_MOVED_TO
+#define com_swoval_files_InotifyWatchService_IN_MOVED_TO 128L
+#undef com_swoval_files_InotifyWatchService_IN_CREATE
+#define com_swoval_files_InotifyWatchService_IN_CREATE 256L
+#undef com_swoval_files_InotifyWatchService_IN_DELETE
+#define com_swoval_files_InotifyWatchService_IN_DELETE 512L
+#undef com_swoval_files_InotifyWatchService_IN_Q_OVERFLOW
+#define com_swoval_files_InotifyWatchService_IN_Q_OVERFLOW 16384L
+#undef com_swoval_files_InotifyWatchService_IN_IGNORED
+#define com_swoval_files_InotifyWatchService_IN_IGNORED 32768L
+#undef com_swoval_files_InotifyWatchService_IN_ONLYDIR
+#define com_swoval_files_InotifyWatchService_IN_ONLYDIR 16777216L
+#undef com_swoval_files_InotifyWatchService_IN_ISDIR
+#define com_swoval_files_InotifyWatchService_IN_ISDIR 1073741824L
+#undef com_swoval_files_InotifyWatchService_EVENT_HEADER_SIZE
+#define com_swoval_files_InotifyWatchService_EVENT_HEADER_SIZE 16L
+#undef com_swoval_files_InotifyWatchService_BUFFER_SIZE
+#define com_swoval_files_InotifyWatchService_BUFFER_SIZE 65536L
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    openHandle
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_com_swoval_files_InotifyWatchService_openHandle
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    closeHandle
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_closeHandle
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    wakeup
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_wakeup
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    errno
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_errno
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_com_swoval_files_InotifyWatchService_strerror
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    addWatch
+ * Signature: (J[BI)I
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_addWatch
+  (JNIEnv *, jobject, jlong, jbyteArray, jint);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    removeWatch
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_removeWatch
+  (JNIEnv *, jobject, jlong, jint);
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    read
+ * Signature: (JLjava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_read
+  (JNIEnv *, jobject, jlong, jobject);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -0,0 +1,176 @@
+#include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/inotify.h>
+#include <unistd.h>
+#include "jni/com_swoval_files_InotifyWatchService.h"
+
+typedef struct Handle {
+    int fd;
+    int pipe[2];
+    int err;
+} Handle;
+
+static jint map_errno(int err) {
+    switch (err) {
+    case ENOENT:
+        return com_swoval_files_InotifyWatchService_ENOENT;
+    case EACCES:
+        return com_swoval_files_InotifyWatchService_EACCES;
+    case ENOTDIR:
+        return com_swoval_files_InotifyWatchService_ENOTDIR;
+    case ENOSPC:
+        return com_swoval_files_InotifyWatchService_ENOSPC;
+    default:
+        return err;
+    }
+}
+
+extern "C" {
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    openHandle
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_com_swoval_files_InotifyWatchService_openHandle(JNIEnv *env,
+                                                                           jobject service) {
+    Handle *handle  = (Handle *)malloc(sizeof(Handle));
+    if (!handle) return 0;
+    handle->pipe[0] = -1;
+    handle->pipe[1] = -1;
+    handle->err     = 0;
+    handle->fd      = inotify_init1(IN_CLOEXEC | IN_NONBLOCK);
+    if (handle->fd < 0) {
+        handle->err = errno;
+    } else if (pipe2(handle->pipe, O_CLOEXEC | O_NONBLOCK)) {
+        handle->err = errno;
+    }
+    return (jlong)handle;
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    closeHandle
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_closeHandle(JNIEnv *env,
+                                                                           jobject service,
+                                                                           jlong handlep) {
+    Handle *handle = (Handle *)handlep;
+    if (handle->fd >= 0)
+        close(handle->fd);
+    if (handle->pipe[0] >= 0)
+        close(handle->pipe[0]);
+    if (handle->pipe[1] >= 0)
+        close(handle->pipe[1]);
+    free(handle);
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    wakeup
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_wakeup(JNIEnv *env,
+                                                                      jobject service,
+                                                                      jlong handlep) {
+    Handle *handle = (Handle *)handlep;
+    char byte      = 0;
+    (void)!write(handle->pipe[1], &byte, 1);
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    errno
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_errno(JNIEnv *env,
+                                                                     jobject service,
+                                                                     jlong handlep) {
+    return map_errno(((Handle *)handlep)->err);
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_com_swoval_files_InotifyWatchService_strerror(JNIEnv *env,
+                                                                           jobject service,
+                                                                           jint err) {
+    return env->NewStringUTF(strerror(err));
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    addWatch
+ * Signature: (J[BI)I
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_addWatch(JNIEnv *env,
+                                                                        jobject service,
+                                                                        jlong handlep,
+                                                                        jbyteArray path,
+                                                                        jint mask) {
+    Handle *handle = (Handle *)handlep;
+    jbyte *name    = env->GetByteArrayElements(path, 0);
+    if (!name) {
+        handle->err = ENOMEM;
+        return -1;
+    }
+    int descriptor = inotify_add_watch(handle->fd, (const char *)name, (uint32_t)mask);
+    handle->err    = descriptor < 0 ? errno : 0;
+    env->ReleaseByteArrayElements(path, name, JNI_ABORT);
+    return descriptor;
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    removeWatch
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_com_swoval_files_InotifyWatchService_removeWatch(JNIEnv *env,
+                                                                           jobject service,
+                                                                           jlong handlep,
+                                                                           jint descriptor) {
+    (void)inotify_rm_watch(((Handle *)handlep)->fd, descriptor);
+}
+
+/*
+ * Class:     com_swoval_files_InotifyWatchService
+ * Method:    read
+ * Signature: (JLjava/nio/ByteBuffer;)I
+ *
+ * Blocks until events are available or wakeup is called. Returns the number of bytes of events
+ * that were copied into the direct buffer, zero after a wakeup or the negated errno on failure.
+ */
+JNIEXPORT jint JNICALL Java_com_swoval_files_InotifyWatchService_read(JNIEnv *env,
+                                                                    jobject service,
+                                                                    jlong handlep,
+                                                                    jobject buffer) {
+    Handle *handle = (Handle *)handlep;
+    void *address  = env->GetDirectBufferAddress(buffer);
+    jlong capacity = env->GetDirectBufferCapacity(buffer);
+    struct pollfd fds[2];
+    fds[0].fd      = handle->fd;
+    fds[0].events  = POLLIN;
+    fds[0].revents = 0;
+    fds[1].fd      = handle->pipe[0];
+    fds[1].events  = POLLIN;
+    fds[1].revents = 0;
+    if (poll(fds, 2, -1) < 0) {
+        return errno == EINTR ? 0 : -errno;
+    }
+    if (fds[1].revents) {
+        return 0;
+    }
+    ssize_t bytes = read(handle->fd, address, (size_t)capacity);
+    if (bytes < 0) {
+        return errno == EAGAIN || errno == EINTR ? 0 : -errno;
+    }
+    return (jint)bytes;
+}
+}
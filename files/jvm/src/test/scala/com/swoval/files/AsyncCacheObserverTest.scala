@@ -0,0 +1,96 @@
+package com.swoval.files
+
+import java.io.IOException
+import java.nio.file.{ Path, Paths }
+import java.util.concurrent.{ LinkedBlockingQueue, TimeUnit, CountDownLatch => JCountDownLatch }
+
+import com.swoval.files.AsyncCacheObserver.{ OverflowPolicy, RescanException }
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import utest._
+
+object AsyncCacheObserverTest extends TestSuite {
+  private val base: Path = Paths.get("").toAbsolutePath.resolve("async")
+  private val converter: Converter[Path] = new Converter[Path] {
+    override def apply(typedPath: TypedPath): Path = typedPath.getPath
+  }
+  private def entry(parts: String*): Entry[Path] = {
+    val typedPath = TypedPaths.get(parts.foldLeft(base)(_ resolve _), Entries.FILE)
+    Entries.get(typedPath, converter, typedPath)
+  }
+  /*
+   * An observer that blocks on its first notification until the gate is opened and records
+   * everything that it is notified of.
+   */
+  private class GatedObserver extends CacheObserver[Path] {
+    val started = new JCountDownLatch(1)
+    val gate = new JCountDownLatch(1)
+    val received = new LinkedBlockingQueue[AnyRef]()
+    private def record(value: AnyRef): Unit = {
+      started.countDown()
+      gate.await(5, TimeUnit.SECONDS)
+      received.add(value)
+    }
+    override def onCreate(newEntry: Entry[Path]): Unit = record(newEntry.getTypedPath.getPath)
+    override def onDelete(oldEntry: Entry[Path]): Unit = record(oldEntry.getTypedPath.getPath)
+    override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit =
+      record(newEntry.getTypedPath.getPath)
+    override def onError(exception: IOException): Unit = record(exception)
+    def next(): AnyRef = received.poll(5, TimeUnit.SECONDS)
+  }
+  private def withObserver(policy: OverflowPolicy)(
+      f: (GatedObserver, AsyncCacheObserver[Path]) => Unit
+  ): Unit = {
+    val observer = new GatedObserver
+    val async = new AsyncCacheObserver[Path](observer, 2, policy)
+    try {
+      async.onCreate(entry("blocked"))
+      assert(observer.started.await(5, TimeUnit.SECONDS))
+      f(observer, async)
+    } finally {
+      observer.gate.countDown()
+      async.close()
+    }
+  }
+  val tests = Tests {
+    'dropOldest - withObserver(OverflowPolicy.DropOldest) { (observer, async) =>
+      async.onCreate(entry("a"))
+      async.onCreate(entry("b"))
+      async.onCreate(entry("c"))
+      assert(async.getOverflowCount == 1)
+      observer.gate.countDown()
+      assert(observer.next() == base.resolve("blocked"))
+      assert(observer.next() == base.resolve("b"))
+      assert(observer.next() == base.resolve("c"))
+    }
+    'rescan - withObserver(OverflowPolicy.Rescan) { (observer, async) =>
+      async.onCreate(entry("foo", "a"))
+      async.onUpdate(entry("foo", "bar", "b"), entry("foo", "bar", "b"))
+      async.onDelete(entry("foo", "c"))
+      async.onCreate(entry("foo", "d"))
+      assert(async.getOverflowCount == 1)
+      observer.gate.countDown()
+      assert(observer.next() == base.resolve("blocked"))
+      observer.next() match {
+        case e: RescanException => assert(e.getPath == base.resolve("foo"))
+        case other              => throw new AssertionError(s"Expected a rescan, got $other")
+      }
+      assert(observer.next() == base.resolve("foo").resolve("d"))
+    }
+    'block - withObserver(OverflowPolicy.Block) { (observer, async) =>
+      async.onCreate(entry("a"))
+      async.onCreate(entry("b"))
+      val thread = new Thread(new Runnable {
+        override def run(): Unit = async.onCreate(entry("c"))
+      })
+      thread.start()
+      val deadline = System.nanoTime + TimeUnit.SECONDS.toNanos(5)
+      while (thread.getState != Thread.State.WAITING && System.nanoTime < deadline) Thread.sleep(1)
+      observer.gate.countDown()
+      thread.join(5000)
+      assert(async.getOverflowCount == 1)
+      assert(
+        Seq.fill(4)(observer.next()) == Seq("blocked", "a", "b", "c").map(base.resolve)
+      )
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.{ ConcurrentLinkedQueue, LinkedBlockingQueue, TimeUnit }
+
+import com.swoval.files.PathWatchers.{ Event, Overflow }
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test.{ CachingLogger, TestLogger }
+import com.swoval.functional.{ Consumer, Either }
+import com.swoval.logging.Loggers
+import com.swoval.runtime.Platform
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+object EventShardTest extends TestSuite {
+  private val base = Paths.get("").toAbsolutePath.resolve("shard")
+  private def event(name: String): Either[Overflow, Event] =
+    Either.right(new Event(TypedPaths.get(base.resolve(name)), Kind.Create))
+  private def describe(either: Either[Overflow, Event]): String =
+    if (either.isRight) either.get.getTypedPath.getPath.getFileName.toString
+    else s"overflow(${Either.leftProjection(either).getValue.getPath.getFileName})"
+  private def shard(capacity: Int)(f: (EventShard, LinkedBlockingQueue[Seq[String]]) => Unit) = {
+    val batches = new LinkedBlockingQueue[Seq[String]]
+    val consumer = new Consumer[java.util.List[Either[Overflow, Event]]] {
+      override def accept(batch: java.util.List[Either[Overflow, Event]]): Unit =
+        batches.add(batch.asScala.map(describe))
+    }
+    val eventShard = new EventShard("event-shard-test", capacity, consumer, Loggers.getLogger)
+    try f(eventShard, batches)
+    finally eventShard.shutdown()
+  }
+  private def next(batches: LinkedBlockingQueue[Seq[String]]): Seq[String] =
+    Option(batches.poll(5, TimeUnit.SECONDS)).getOrElse(throw new IllegalStateException("timeout"))
+
+  val tests = Tests {
+    'capacity - {
+      intercept[IllegalArgumentException](shard(6)((_, _) => ()))
+      ()
+    }
+    'overflow - shard(4) { (eventShard, batches) =>
+      // The handler thread isn't started, so the ring buffer fills up.
+      Seq("a", "b", "c", "d", "e").foreach(n => eventShard.offer(base.resolve("a"), event(n)))
+      eventShard.offer(base.resolve("b"), event("f"))
+      eventShard.start()
+      next(batches) ==> Seq("a", "b", "c", "d")
+      next(batches).toSet ==> Set("overflow(a)", "overflow(b)")
+      // Once the overflows are reported, the shard accepts events again.
+      eventShard.offer(base.resolve("a"), event("g"))
+      next(batches) ==> Seq("g")
+    }
+    'polled - shard(4) { (eventShard, batches) =>
+      Seq("a", "b").foreach(n => eventShard.offer(base, event(n)))
+      eventShard.offerPolled(event("c"))
+      eventShard.start()
+      next(batches) ==> Seq("a", "b", "c")
+    }
+    'order - withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      // The mac watch service batches file system events, so this only checks linux and windows.
+      if (!Platform.isMac) checkOrder(dir)
+    }
+  }
+  private def checkOrder(dir: Path)(implicit logger: TestLogger): Unit = {
+    val roots = (1 to 4).map(i => Files.createDirectory(dir.resolve(s"root-$i")))
+    val files = roots.map(root => root -> (1 to 50).map(i => root.resolve(s"file-$i"))).toMap
+    val received = roots.map(_ -> new ConcurrentLinkedQueue[(Path, String)]).toMap
+    val options = new PathWatchers.Options().handlerThreads(4)
+    val watcher = PlatformWatcher.make(
+      false,
+      RegisterableWatchServices.get(),
+      new DirectoryRegistryImpl(),
+      options,
+      logger
+    )
+    watcher.addObserver((e: Event) => {
+      if (e.getKind == Kind.Create)
+        received.get(e.path.getParent).foreach(_.add(e.path -> Thread.currentThread.getName))
+    })
+    try {
+      roots.foreach(watcher.register(_, Integer.MAX_VALUE))
+      (1 to 50).foreach(i => roots.foreach(_.resolve(s"file-$i").createFile()))
+      val deadline = System.nanoTime + TimeUnit.SECONDS.toNanos(10)
+      def done = roots.forall(r => received(r).size >= files(r).size)
+      while (!done && System.nanoTime < deadline) Thread.sleep(10)
+      roots.foreach { root =>
+        val events = received(root).asScala.toIndexedSeq
+        events.map(_._1) ==> files(root)
+        // All of the events below a root are handled by one thread.
+        events.map(_._2).distinct.size ==> 1
+      }
+      // The roots are siblings, but they don't inherit the thread of their watched parent.
+      assert(roots.flatMap(received(_).asScala.map(_._2)).distinct.size > 1)
+    } finally watcher.close()
+  }
+}
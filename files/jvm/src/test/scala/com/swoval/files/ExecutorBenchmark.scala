@@ -0,0 +1,88 @@
+package com.swoval.files
+
+import java.util
+import java.util.concurrent.{ CountDownLatch, LinkedBlockingQueue, TimeUnit }
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Compares the throughput of the executor returned by [[Executor.make]] with the executor that it
+ * replaced, which synchronized every submission and allocated a priority queue every time its
+ * thread woke up. Several producer threads submit tasks concurrently, like the watcher and
+ * callback threads of a cache do, and the time until the last task has run is measured.
+ *
+ * Run with `filesJVM/test:runMain com.swoval.files.ExecutorBenchmark [iterations]`.
+ */
+object ExecutorBenchmark {
+  private class LockingExecutor extends Executor {
+    private val closed = new AtomicBoolean(false)
+    private val consumers = new LinkedBlockingQueue[Runnable]()
+    private val thread = new Thread("LockingExecutor") {
+      setDaemon(true)
+      override def run(): Unit = {
+        try {
+          while (!closed.get) {
+            val queue = new util.PriorityQueue[Runnable](11, new util.Comparator[Runnable] {
+              override def compare(left: Runnable, right: Runnable): Int = 0
+            })
+            queue.add(consumers.take())
+            drain(queue)
+            while (queue.peek() != null) {
+              drain(queue)
+              queue.poll().run()
+            }
+          }
+        } catch { case _: InterruptedException => }
+      }
+    }
+    thread.start()
+    private def drain(queue: util.PriorityQueue[Runnable]): Unit = consumers.synchronized {
+      if (consumers.size > 0) {
+        val list = new util.ArrayList[Runnable]
+        consumers.drainTo(list)
+        queue.addAll(list)
+      }
+    }
+    override def run(runnable: Runnable, priority: Int): Unit = consumers.synchronized {
+      consumers.offer(runnable)
+    }
+    override def close(): Unit = if (closed.compareAndSet(false, true)) thread.interrupt()
+  }
+  private def time(name: String, producers: Int, tasks: Int, iterations: Int)(
+      makeExecutor: () => Executor): Unit = {
+    var elapsed = 0L
+    (0 until iterations).foreach { _ =>
+      val executor = makeExecutor()
+      val latch = new CountDownLatch(producers * tasks)
+      val task: Runnable = new Runnable { override def run(): Unit = latch.countDown() }
+      val threads = (0 until producers).map { _ =>
+        new Thread() {
+          override def run(): Unit = {
+            var i = 0
+            while (i < tasks) {
+              executor.run(task)
+              i += 1
+            }
+          }
+        }
+      }
+      val start = System.nanoTime
+      threads.foreach(_.start())
+      latch.await(1, TimeUnit.MINUTES)
+      elapsed += System.nanoTime - start
+      executor.close()
+    }
+    val average = elapsed / iterations / 1e6
+    println(f"$name%-8s $producers%2d producers: $average%10.2f ms for ${producers * tasks} tasks")
+  }
+  def main(args: Array[String]): Unit = {
+    val iterations = args.headOption.map(_.toInt).getOrElse(10)
+    val tasks = 250000
+    Seq(1, 2, 4, 8).foreach { producers =>
+      // Warm up both implementations before measuring.
+      time("warmup", producers, tasks, 2)(() => new LockingExecutor)
+      time("warmup", producers, tasks, 2)(() => Executor.make("benchmark"))
+      time("locking", producers, tasks, iterations)(() => new LockingExecutor)
+      time("mpsc", producers, tasks, iterations)(() => Executor.make("benchmark"))
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.swoval.files
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ TimeUnit, CountDownLatch => JCountDownLatch }
+
+import utest._
+
+import scala.collection.JavaConverters._
+
+object ExecutorTest extends TestSuite {
+  val tests = Tests {
+    'order - {
+      val executor = Executor.make("executor-order-test")
+      try {
+        val values = new java.util.concurrent.ConcurrentLinkedQueue[Int]
+        val done = new JCountDownLatch(1)
+        (1 to 100).foreach { i =>
+          executor.run(new Runnable { override def run(): Unit = values.add(i) })
+        }
+        executor.run(new Runnable { override def run(): Unit = done.countDown() })
+        done.await(5, TimeUnit.SECONDS) ==> true
+        values.asScala.toSeq ==> (1 to 100)
+      } finally executor.close()
+    }
+    'close - {
+      'discardsPendingTasks - {
+        val executor = Executor.make("executor-close-test")
+        val started = new JCountDownLatch(1)
+        val ran = new AtomicInteger(0)
+        executor.run(new Runnable {
+          override def run(): Unit = {
+            started.countDown()
+            // close interrupts the consumer, which ends the wait.
+            try new JCountDownLatch(1).await(5, TimeUnit.SECONDS)
+            catch { case _: InterruptedException => }
+          }
+        })
+        started.await(5, TimeUnit.SECONDS) ==> true
+        (1 to 100).foreach { _ =>
+          executor.run(new Runnable { override def run(): Unit = ran.incrementAndGet() })
+        }
+        executor.close()
+        ran.get ==> 0
+      }
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, StandardWatchEventKinds }
+import java.util.concurrent.{ LinkedBlockingQueue, TimeUnit }
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileTreeDataViews.Entry
+import com.swoval.files.InotifyWatchService.WatchDescriptors
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.RegisterableWatchServices.{
+  ENTRY_MOVE,
+  RegisterableWatchServiceImpl,
+  TypedWatchEvent
+}
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test.{ CachingLogger, TestLogger }
+import com.swoval.functional.Filters
+import com.swoval.runtime.Platform
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.util.Random
+
+/*
+ * The inotify library is only packaged by the native build, so the tests that need the inotify
+ * watch service only run where it can be loaded.
+ */
+private[files] object InotifyLibrary {
+  lazy val available: Boolean =
+    Platform.isLinux && (try {
+      new InotifyWatchService().close()
+      true
+    } catch {
+      case _: LinkageError | _: RuntimeException => false
+    })
+}
+
+object InotifyPathWatcherTest extends PathWatcherTest {
+  val tests =
+    if (InotifyLibrary.available) testsImpl
+    else
+      Tests {
+        'ignore - {
+          if (swoval.test.verbose)
+            println("Not running InotifyPathWatcherTest without the linux inotify library")
+        }
+      }
+
+  override def defaultWatcher(callback: PathWatchers.Event => _, followLinks: Boolean)(implicit
+      testLogger: TestLogger
+  ): PathWatcher[PathWatchers.Event] = {
+    val res = PlatformWatcher.make(
+      followLinks,
+      new InotifyWatchService(),
+      new DirectoryRegistryImpl(),
+      testLogger
+    )
+    res.addObserver(callback)
+    res
+  }
+}
+
+/*
+ * RegisterableWatchServices prefers the inotify watch service on linux, so this runs the path
+ * watcher tests against the jdk watch service that it falls back to.
+ */
+object JdkPathWatcherTest extends PathWatcherTest {
+  val tests =
+    if (Platform.isLinux) testsImpl
+    else
+      Tests {
+        'ignore - {
+          if (swoval.test.verbose)
+            println("Not running JdkPathWatcherTest on platform other than linux")
+        }
+      }
+
+  override def defaultWatcher(callback: PathWatchers.Event => _, followLinks: Boolean)(implicit
+      testLogger: TestLogger
+  ): PathWatcher[PathWatchers.Event] = {
+    val res = PlatformWatcher.make(
+      followLinks,
+      new RegisterableWatchServiceImpl(),
+      new DirectoryRegistryImpl(),
+      testLogger
+    )
+    res.addObserver(callback)
+    res
+  }
+}
+
+object WatchDescriptorsTest extends TestSuite {
+  private def check(descriptors: WatchDescriptors[String], expected: mutable.Map[Int, String]) = {
+    descriptors.size ==> expected.size
+    expected.foreach { case (k, v) => descriptors.get(k) ==> v }
+    descriptors.values.asScala.toSet ==> expected.values.toSet
+  }
+  val tests = Tests {
+    'put - {
+      val descriptors = new WatchDescriptors[String]
+      descriptors.put(1, "foo")
+      descriptors.put(2, "bar")
+      descriptors.put(1, "baz")
+      check(descriptors, mutable.Map(1 -> "baz", 2 -> "bar"))
+      descriptors.get(3) ==> null
+    }
+    'remove - {
+      val descriptors = new WatchDescriptors[String]
+      val expected = mutable.Map.empty[Int, String]
+      (0 until 7).foreach { i =>
+        descriptors.put(i, i.toString)
+        expected.put(i, i.toString)
+      }
+      Seq(3, 0, 6, 3).foreach { i =>
+        descriptors.remove(i)
+        expected.remove(i)
+        check(descriptors, expected)
+      }
+      descriptors.get(3) ==> null
+    }
+    'resize - {
+      val descriptors = new WatchDescriptors[String]
+      val initialCapacity = descriptors.capacity
+      (0 until initialCapacity * 4).foreach(i => descriptors.put(i, i.toString))
+      assert(descriptors.capacity >= initialCapacity * 8)
+      check(descriptors, mutable.Map((0 until initialCapacity * 4).map(i => i -> i.toString): _*))
+      descriptors.clear()
+      descriptors.size ==> 0
+      descriptors.capacity ==> initialCapacity
+    }
+    'random - {
+      // Removing from a table with many collisions exercises the backfilling across the wrap.
+      val random = new Random(0)
+      val descriptors = new WatchDescriptors[String]
+      val expected = mutable.Map.empty[Int, String]
+      (1 to 20000).foreach { i =>
+        val key = random.nextInt(200)
+        if (random.nextBoolean()) {
+          descriptors.put(key, i.toString)
+          expected.put(key, i.toString)
+        } else {
+          descriptors.remove(key)
+          expected.remove(key)
+        }
+        if (i % 1000 == 0) check(descriptors, expected)
+      }
+      check(descriptors, expected)
+      (0 until 200).filterNot(expected.contains).foreach(k => descriptors.get(k) ==> null)
+    }
+  }
+}
+
+object InotifyMoveTest extends TestSuite {
+  private val timeout = TimeUnit.SECONDS.toNanos(5)
+  private def read(service: InotifyWatchService, count: Int): Seq[(String, Path, Path)] = {
+    val result = mutable.Buffer.empty[(String, Path, Path)]
+    val deadline = System.nanoTime + timeout
+    while (result.size < count && System.nanoTime < deadline) {
+      service.poll(100, TimeUnit.MILLISECONDS) match {
+        case null =>
+        case key =>
+          val dir = key.watchable.asInstanceOf[Path]
+          key.pollEvents.asScala.foreach { e =>
+            val previous = e match {
+              case t: TypedWatchEvent[_] => t.getPreviousPath
+              case _                     => null
+            }
+            result += ((e.kind.name, dir.resolve(e.context.asInstanceOf[Path]), previous))
+          }
+          key.reset()
+      }
+    }
+    result
+  }
+  private def receive(queue: LinkedBlockingQueue[PathWatchers.Event])(
+      done: Seq[PathWatchers.Event] => Boolean): Seq[PathWatchers.Event] = {
+    val result = mutable.Buffer.empty[PathWatchers.Event]
+    val deadline = System.nanoTime + timeout
+    while (!done(result) && System.nanoTime < deadline) {
+      Option(queue.poll(100, TimeUnit.MILLISECONDS)).foreach(result += _)
+    }
+    result
+  }
+  private def watcher(reportMoves: Boolean, queue: LinkedBlockingQueue[PathWatchers.Event])(
+      implicit logger: TestLogger): PathWatcher[PathWatchers.Event] = {
+    val res = PlatformWatcher.make(
+      false,
+      new InotifyWatchService(),
+      new DirectoryRegistryImpl(),
+      new PathWatchers.Options().reportMoves(reportMoves),
+      logger
+    )
+    res.addObserver((e: PathWatchers.Event) => queue.add(e))
+    res
+  }
+  val testsImpl = Tests {
+    'watchService - {
+      val kinds = Array(
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE,
+        StandardWatchEventKinds.ENTRY_MODIFY
+      )
+      'paired - withTempDirectorySync { dir =>
+        val source = Files.createDirectory(dir.resolve("source"))
+        val target = Files.createDirectory(dir.resolve("target"))
+        val file = source.resolve("file").createFile()
+        val service = new InotifyWatchService()
+        try {
+          service.register(source, kinds :+ ENTRY_MOVE: _*)
+          service.register(target, kinds :+ ENTRY_MOVE: _*)
+          file.renameTo(target.resolve("file"))
+          read(service, 1) ==> Seq((ENTRY_MOVE.name, target.resolve("file"), file))
+        } finally service.close()
+      }
+      'unpaired - withTempDirectorySync { dir =>
+        val source = Files.createDirectory(dir.resolve("source"))
+        val target = Files.createDirectory(dir.resolve("target"))
+        val file = source.resolve("file").createFile()
+        val service = new InotifyWatchService()
+        try {
+          service.register(source, kinds: _*)
+          service.register(target, kinds: _*)
+          file.renameTo(target.resolve("file"))
+          read(service, 2).toSet ==> Set(
+            ("ENTRY_DELETE", file, null),
+            ("ENTRY_CREATE", target.resolve("file"), null)
+          )
+        } finally service.close()
+      }
+      'unwatched - withTempDirectorySync { dir =>
+        val source = Files.createDirectory(dir.resolve("source"))
+        val file = source.resolve("file").createFile()
+        val service = new InotifyWatchService()
+        try {
+          service.register(source, kinds :+ ENTRY_MOVE: _*)
+          file.renameTo(dir.resolve("file"))
+          read(service, 1) ==> Seq(("ENTRY_DELETE", file, null))
+        } finally service.close()
+      }
+    }
+    'pathWatcher - {
+      'default - withTempDirectorySync { dir =>
+        implicit val logger: TestLogger = new CachingLogger
+        val source = Files.createDirectory(dir.resolve("source"))
+        source.resolve("file").createFile()
+        val target = dir.resolve("target")
+        val queue = new LinkedBlockingQueue[PathWatchers.Event]
+        val w = watcher(reportMoves = false, queue)
+        try {
+          w.register(dir, Integer.MAX_VALUE)
+          source.renameTo(target)
+          val events = receive(queue)(_.exists(_.path == target.resolve("file")))
+          events.filter(_.path == source).map(_.getKind) ==> Seq(Kind.Delete)
+          events.filter(_.path == target).map(_.getKind) ==> Seq(Kind.Create)
+          events.exists(_.getKind == Kind.Move) ==> false
+        } finally w.close()
+      }
+      'reportMoves - withTempDirectorySync { dir =>
+        implicit val logger: TestLogger = new CachingLogger
+        val source = Files.createDirectory(dir.resolve("source"))
+        source.resolve("file").createFile()
+        val target = dir.resolve("target")
+        val queue = new LinkedBlockingQueue[PathWatchers.Event]
+        val w = watcher(reportMoves = true, queue)
+        try {
+          w.register(dir, Integer.MAX_VALUE)
+          source.renameTo(target)
+          val moves = receive(queue)(_.nonEmpty)
+          moves.map(e => (e.path, e.getKind, e.getPreviousTypedPath.getPath)) ==>
+            Seq((target, Kind.Move, source))
+          // The watch on the renamed directory moved with it, so it reports its new children.
+          val file = target.resolve("new").createFile()
+          receive(queue)(_.exists(_.path == file)).map(_.path) ==> Seq(file)
+        } finally w.close()
+      }
+    }
+    'repository - withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val source = Files.createDirectory(dir.resolve("source"))
+      val file = source.resolve("file").createFile()
+      val target = dir.resolve("target")
+      val converter = (_: TypedPath).getPath
+      val deletions = new LinkedBlockingQueue[Path]
+      val creations = new LinkedBlockingQueue[Path]
+      val repository = FileTreeRepositories.get[Path](converter, false, false, logger)
+      repository.addCacheObserver(
+        getObserver[Path](
+          (e: Entry[Path]) => creations.add(e.path),
+          (_: Entry[Path], _: Entry[Path]) => {},
+          (e: Entry[Path]) => deletions.add(e.path),
+          (_: java.io.IOException) => {}
+        )
+      )
+      try {
+        repository.register(dir, Integer.MAX_VALUE)
+        source.renameTo(target)
+        val deadline = System.nanoTime + timeout
+        while (creations.size < 2 && System.nanoTime < deadline) Thread.sleep(10)
+        deletions.asScala.toSet ==> Set(source, file)
+        creations.asScala.toSet ==> Set(target, target.resolve("file"))
+        val entries = repository.listEntries(dir, Integer.MAX_VALUE, Filters.AllPass).asScala
+        // The cached values are moved with the directory rather than computed again.
+        entries.map(e => e.path -> e.value).toSet ==>
+          Set(target -> source, target.resolve("file") -> file)
+      } finally repository.close()
+    }
+  }
+  val tests =
+    if (InotifyLibrary.available) testsImpl
+    else
+      Tests {
+        'ignore - {
+          if (swoval.test.verbose)
+            println("Not running InotifyMoveTest without the linux inotify library")
+        }
+      }
+}
+
+object WriteCompletionTest extends TestSuite {
+  val testsImpl = Tests {
+    'repository - withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val file = dir.resolve("file").createFile()
+      val conversions = new AtomicInteger(0)
+      val converter = (typedPath: TypedPath) => {
+        if (typedPath.getPath == file) conversions.incrementAndGet()
+        typedPath.getPath
+      }
+      val options = new FileTreeRepositories.Options()
+        .watcherOptions(new PathWatchers.Options().writeCompletion(true))
+        .logger(logger)
+      val repository = FileTreeRepositories.get[Path](converter, false, options)
+      try {
+        repository.register(dir, Integer.MAX_VALUE)
+        conversions.set(0)
+        val out = Files.newOutputStream(file)
+        try (1 to 500).foreach { _ =>
+          out.write(new Array[Byte](1024))
+          out.flush()
+        } finally out.close()
+        val deadline = System.nanoTime + TimeUnit.SECONDS.toNanos(5)
+        while (conversions.get == 0 && System.nanoTime < deadline) Thread.sleep(10)
+        // Give any events for the individual writes the chance to arrive.
+        Thread.sleep(200)
+        conversions.get ==> 1
+      } finally repository.close()
+    }
+  }
+  val tests =
+    if (InotifyLibrary.available) testsImpl
+    else
+      Tests {
+        'ignore - {
+          if (swoval.test.verbose)
+            println("Not running WriteCompletionTest without the linux inotify library")
+        }
+      }
+}
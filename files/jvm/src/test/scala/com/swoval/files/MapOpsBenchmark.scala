@@ -0,0 +1,127 @@
+package com.swoval.files
+
+import java.io.IOException
+import java.nio.file.{ Path, Paths }
+import java.util
+
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Entry }
+
+import scala.util.Random
+
+/**
+ * Compares [[MapOps.diffDirectoryEntries]] with the hash map based diff that it replaced. The
+ * hash map diff is measured with shuffled entries, as they were listed by the cache in hash order.
+ * The merge diff is measured both with entries that are already sorted, as they are listed by the
+ * cache, and with shuffled entries, which is its worst case. The sorted case doesn't include the
+ * cost of sorting the children of each directory, which the cache pays while it lists them.
+ *
+ * Run with `filesJVM/test:runMain com.swoval.files.MapOpsBenchmark [iterations]`.
+ */
+object MapOpsBenchmark {
+  private type EntryList = util.List[Entry[java.lang.Long]]
+  private val random = new Random(0)
+  private class CountingObserver extends CacheObserver[java.lang.Long] {
+    var count = 0
+    override def onCreate(newEntry: Entry[java.lang.Long]): Unit = count += 1
+    override def onDelete(oldEntry: Entry[java.lang.Long]): Unit = count += 1
+    override def onUpdate(oldEntry: Entry[java.lang.Long], newEntry: Entry[java.lang.Long]): Unit =
+      count += 1
+    override def onError(exception: IOException): Unit = {}
+  }
+  private def hashMapDiff[T](
+      oldEntries: util.List[Entry[T]],
+      newEntries: util.List[Entry[T]],
+      cacheObserver: CacheObserver[T]
+  ): Unit = {
+    val oldMap = new util.HashMap[Path, Entry[T]]
+    val oldIterator = oldEntries.iterator
+    while (oldIterator.hasNext) {
+      val entry = oldIterator.next()
+      oldMap.put(entry.getTypedPath.getPath, entry)
+    }
+    val newMap = new util.HashMap[Path, Entry[T]]
+    val newIterator = newEntries.iterator
+    while (newIterator.hasNext) {
+      val entry = newIterator.next()
+      newMap.put(entry.getTypedPath.getPath, entry)
+    }
+    val newEntryIterator = new util.ArrayList(newMap.entrySet).iterator
+    val oldEntryIterator = new util.ArrayList(oldMap.entrySet).iterator
+    while (newEntryIterator.hasNext) {
+      val entry = newEntryIterator.next()
+      val oldValue = oldMap.get(entry.getKey)
+      if (oldValue != null) cacheObserver.onUpdate(oldValue, entry.getValue)
+      else cacheObserver.onCreate(entry.getValue)
+    }
+    while (oldEntryIterator.hasNext) {
+      val entry = oldEntryIterator.next()
+      if (!newMap.containsKey(entry.getKey)) cacheObserver.onDelete(entry.getValue)
+    }
+  }
+  private def entries(size: Int): (EntryList, EntryList) = {
+    val base = Paths.get("/benchmark").toAbsolutePath
+    val converter: FileTreeDataViews.Converter[java.lang.Long] = (_: TypedPath) => 1L
+    def entry(i: Int): Entry[java.lang.Long] = {
+      val typedPath =
+        TypedPaths.get(base.resolve(s"dir-${i % 100}").resolve(s"file-$i"), Entries.FILE)
+      Entries.get(typedPath, converter, typedPath)
+    }
+    val oldEntries = new util.ArrayList[Entry[java.lang.Long]]
+    val newEntries = new util.ArrayList[Entry[java.lang.Long]]
+    // One percent of the old entries are deleted and one percent of the new entries are created.
+    (0 until size).foreach { i =>
+      val e = entry(i)
+      if (i % 100 != 0) newEntries.add(e)
+      oldEntries.add(e)
+    }
+    (size until size + size / 100).foreach(i => newEntries.add(entry(i)))
+    (oldEntries, newEntries)
+  }
+  private def time(
+      name: String,
+      size: Int,
+      iterations: Int,
+      shuffle: Boolean,
+      oldEntries: EntryList,
+      newEntries: EntryList
+  )(diff: (EntryList, EntryList, CacheObserver[java.lang.Long]) => Unit): Unit = {
+    var elapsed = 0L
+    var count = 0
+    (0 until iterations).foreach { _ =>
+      val oldCopy = new util.ArrayList(oldEntries)
+      val newCopy = new util.ArrayList(newEntries)
+      if (shuffle) {
+        util.Collections.shuffle(oldCopy, random.self)
+        util.Collections.shuffle(newCopy, random.self)
+      } else {
+        util.Collections.sort[Entry[java.lang.Long]](oldCopy, MapOps.ENTRY_ORDER)
+        util.Collections.sort[Entry[java.lang.Long]](newCopy, MapOps.ENTRY_ORDER)
+      }
+      val observer = new CountingObserver
+      val start = System.nanoTime
+      diff(oldCopy, newCopy, observer)
+      elapsed += System.nanoTime - start
+      count = observer.count
+    }
+    val average = elapsed / iterations / 1e6
+    println(f"$name%-8s $size%8d entries: $average%10.2f ms ($count callbacks)")
+  }
+  def main(args: Array[String]): Unit = {
+    val iterations = args.headOption.map(_.toInt).getOrElse(10)
+    Seq(10000, 100000, 1000000).foreach { size =>
+      val (oldEntries, newEntries) = entries(size)
+      // Warm up both implementations before measuring.
+      time("warmup", size, 2, true, oldEntries, newEntries)(hashMapDiff[java.lang.Long])
+      time("warmup", size, 2, true, oldEntries, newEntries)(
+        MapOps.diffDirectoryEntries[java.lang.Long]
+      )
+      time("hashmap", size, iterations, true, oldEntries, newEntries)(hashMapDiff[java.lang.Long])
+      time("merge", size, iterations, false, oldEntries, newEntries)(
+        MapOps.diffDirectoryEntries[java.lang.Long]
+      )
+      time("shuffled", size, iterations, true, oldEntries, newEntries)(
+        MapOps.diffDirectoryEntries[java.lang.Long]
+      )
+    }
+  }
+}
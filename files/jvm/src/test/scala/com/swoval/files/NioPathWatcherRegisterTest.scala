@@ -0,0 +1,149 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, WatchEvent, WatchKey }
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit }
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test.{ CachingLogger, TestLogger }
+import com.swoval.runtime.Platform
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+/**
+ * Checks registration when the tree changes while it is walked. The tree is changed by a hook
+ * that runs when the directory registry first filters a path, i.e. while its parent is listed.
+ * The results are the same with and without registration threads.
+ */
+object NioPathWatcherRegisterTest extends TestSuite {
+  private class HookedRegistry extends DirectoryRegistry {
+    private[this] val underlying = new DirectoryRegistryImpl()
+    private[this] val hooks = new ConcurrentHashMap[Path, () => Unit]
+    private[this] val counts = new ConcurrentHashMap[Path, AtomicInteger]
+    def hook(path: Path)(f: => Unit): Unit = hooks.put(path, () => f)
+    def filtered(path: Path): Int = Option(counts.get(path)).fold(0)(_.get)
+    override def acceptPrefix(path: Path): Boolean = {
+      counts.putIfAbsent(path, new AtomicInteger(0))
+      counts.get(path).incrementAndGet()
+      Option(hooks.remove(path)).foreach(_.apply())
+      underlying.acceptPrefix(path)
+    }
+    override def addDirectory(path: Path, maxDepth: Int): Boolean =
+      underlying.addDirectory(path, maxDepth)
+    override def maxDepthFor(path: Path): Int = underlying.maxDepthFor(path)
+    override def registered(): java.util.Map[Path, Integer] = underlying.registered()
+    override def removeDirectory(path: Path): Unit = underlying.removeDirectory(path)
+    override def exclusions(): Exclusions = underlying.exclusions()
+    override def accept(path: Path): Boolean = underlying.accept(path)
+    override def close(): Unit = underlying.close()
+  }
+  private class TrackingWatchService(underlying: RegisterableWatchService)
+      extends RegisterableWatchService {
+    private[this] val keys = new ConcurrentLinkedQueue[WatchKey]
+    def watched: Set[Path] =
+      keys.asScala.filter(_.isValid).map(_.watchable.asInstanceOf[Path]).toSet
+    override def register(path: Path, kinds: WatchEvent.Kind[_]*): WatchKey = {
+      val key = underlying.register(path, kinds: _*)
+      keys.add(key)
+      key
+    }
+    override def poll(): WatchKey = underlying.poll()
+    override def poll(timeout: Long, unit: TimeUnit): WatchKey = underlying.poll(timeout, unit)
+    override def take(): WatchKey = underlying.take()
+    override def close(): Unit = underlying.close()
+  }
+  private class Fixture(val root: Path) {
+    val registry = new HookedRegistry
+    val watchService = new TrackingWatchService(RegisterableWatchServices.get())
+    val events = ConcurrentHashMap.newKeySet[Path]
+  }
+  /*
+   * Builds root/{a,b}/x. The hooks are installed by setup before root is registered.
+   */
+  private def withFixture(setup: Fixture => Unit)(f: (Fixture, PathWatcher[Event]) => Unit) =
+    withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val root = dir.resolve("root")
+      Seq("a", "b").foreach(name => Files.createDirectories(root.resolve(name).resolve("x")))
+      val fixture = new Fixture(root)
+      setup(fixture)
+      val watcher = PlatformWatcher.make(
+        false,
+        fixture.watchService,
+        fixture.registry,
+        new PathWatchers.Options(),
+        logger
+      )
+      watcher.addObserver((e: Event) => fixture.events.add(e.path))
+      try {
+        watcher.register(root, Integer.MAX_VALUE)
+        f(fixture, watcher)
+      } finally watcher.close()
+    }
+  private def eventually(condition: => Boolean): Boolean = {
+    val deadline = System.nanoTime + DEFAULT_TIMEOUT.toNanos
+    while (!condition && System.nanoTime < deadline) Thread.sleep(10)
+    condition
+  }
+
+  // The mac watch service polls, so it doesn't report the changes made during the walk in time.
+  val tests = if (!Platform.isMac) Tests {
+    'created - withFixture { fixture =>
+      fixture.registry.hook(fixture.root.resolve("a/x")) {
+        fixture.root.resolve("c").createDirectory()
+        fixture.root.resolve("a/y").createDirectory()
+      }
+    } { (fixture, _) =>
+      // Both directories were created after their parents were watched, so they are watched too.
+      val files = Seq("c/file", "a/y/file").map(fixture.root.resolve)
+      files.foreach(_.createFile())
+      assert(eventually(files.forall(fixture.events.contains)))
+    }
+    'deleted - withFixture { fixture =>
+      fixture.registry.hook(fixture.root.resolve("a/x")) {
+        Files.delete(fixture.root.resolve("b/x"))
+        Files.delete(fixture.root.resolve("b"))
+      }
+    } { (fixture, _) =>
+      val deleted = Seq("b", "b/x").map(fixture.root.resolve)
+      assert(eventually((fixture.watchService.watched intersect deleted.toSet).isEmpty))
+      // The directory is watched again once it is recreated.
+      val file = fixture.root.resolve("b").createDirectory().resolve("file")
+      assert(eventually(fixture.watchService.watched.contains(fixture.root.resolve("b"))))
+      file.createFile()
+      assert(eventually(fixture.events.contains(file)))
+    }
+    'closeUnused - withFixture { fixture =>
+      fixture.registry.hook(fixture.root.resolve("a/x")) {
+        fixture.root.resolve("b").renameTo(fixture.root.resolveSibling("moved"))
+      }
+    } { (fixture, _) =>
+      // A moved directory keeps its watch, which still reports its old path, until it is closed.
+      val moved = Seq("b", "b/x").map(fixture.root.resolve)
+      assert(eventually((fixture.watchService.watched intersect moved.toSet).isEmpty))
+      fixture.root.resolveSibling("moved").resolve("file").createFile()
+      fixture.root.resolve("a/file").createFile()
+      assert(eventually(fixture.events.contains(fixture.root.resolve("a/file"))))
+      assert(!fixture.events.contains(fixture.root.resolve("b/file")))
+    }
+    'rescan - {
+      'newRoot - withFixture(_ => ()) { (fixture, _) =>
+        // A new root is listed once, while it is registered, and isn't rescanned afterwards.
+        Seq("a", "b", "a/x", "b/x").map(fixture.root.resolve).foreach { path =>
+          fixture.registry.filtered(path) ==> 1
+        }
+      }
+      'existingRoot - withFixture(_ => ()) { (fixture, watcher) =>
+        watcher.register(fixture.root.resolve("a"), Integer.MAX_VALUE)
+        fixture.registry.filtered(fixture.root.resolve("a/x")) ==> 2
+        fixture.registry.filtered(fixture.root.resolve("b/x")) ==> 1
+      }
+    }
+  }
+  else Tests('ignore - { if (swoval.test.verbose) println("Not running on osx") })
+}
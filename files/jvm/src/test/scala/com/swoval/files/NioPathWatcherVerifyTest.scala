@@ -0,0 +1,96 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, WatchEvent, WatchKey, Watchable }
+import java.util.concurrent.{ ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit }
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test.{ CachingLogger, TestLogger }
+import com.swoval.runtime.Platform
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+object NioPathWatcherVerifyTest extends TestSuite {
+  /*
+   * Drops the events for the paths whose names start with "dropped". The same wrapper is returned
+   * for a key every time, since the path watcher looks its directories up by key.
+   */
+  private class DroppingWatchService(underlying: RegisterableWatchService)
+      extends RegisterableWatchService {
+    private[this] val keys = new ConcurrentHashMap[WatchKey, WatchKey]
+    def keyFor(path: Path): Option[WatchKey] = keys.keySet.asScala.find(_.watchable == path)
+    private def wrap(key: WatchKey): WatchKey =
+      if (key == null) null
+      else {
+        keys.putIfAbsent(key, new DroppingWatchKey(key))
+        keys.get(key)
+      }
+    override def register(path: Path, kinds: WatchEvent.Kind[_]*): WatchKey =
+      wrap(underlying.register(path, kinds: _*))
+    override def poll(): WatchKey = wrap(underlying.poll())
+    override def poll(timeout: Long, unit: TimeUnit): WatchKey =
+      wrap(underlying.poll(timeout, unit))
+    override def take(): WatchKey = wrap(underlying.take())
+    override def close(): Unit = underlying.close()
+  }
+  private class DroppingWatchKey(underlying: WatchKey) extends WatchKey {
+    override def isValid: Boolean = underlying.isValid
+    override def pollEvents(): java.util.List[WatchEvent[_]] =
+      underlying.pollEvents.asScala.filterNot { e =>
+        e.context match {
+          case p: Path => p.getFileName.toString.startsWith("dropped")
+          case _       => false
+        }
+      }.asJava
+    override def reset(): Boolean = underlying.reset()
+    override def cancel(): Unit = underlying.cancel()
+    override def watchable(): Watchable = underlying.watchable
+  }
+  private def eventually(condition: => Boolean): Boolean = {
+    val deadline = System.nanoTime + DEFAULT_TIMEOUT.toNanos
+    while (!condition && System.nanoTime < deadline) Thread.sleep(10)
+    condition
+  }
+  private def withWatcher(
+      f: (Path, DroppingWatchService, ConcurrentLinkedQueue[(Kind, Path)]) => Unit) =
+    withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val root = dir.resolve("root").createDirectory()
+      root.resolve("dropped-existing").createFile()
+      val watchService = new DroppingWatchService(RegisterableWatchServices.get())
+      val events = new ConcurrentLinkedQueue[(Kind, Path)]
+      val options = new PathWatchers.Options().verifyInterval(50, TimeUnit.MILLISECONDS)
+      val watcher =
+        PlatformWatcher.make(false, watchService, new DirectoryRegistryImpl(), options, logger)
+      watcher.addObserver((e: Event) => events.add(e.getKind -> e.path))
+      try {
+        watcher.register(root, Integer.MAX_VALUE)
+        // A directory is first listed by the verifier a second after it is watched.
+        Thread.sleep(1500)
+        f(root, watchService, events)
+      } finally watcher.close()
+    }
+
+  // The mac watch service doesn't lose events, since it polls every directory.
+  val tests = if (!Platform.isMac) Tests {
+    'dropped - withWatcher { (root, _, events) =>
+      val created = root.resolve("dropped-new").createFile()
+      val deleted = root.resolve("dropped-existing")
+      Files.delete(deleted)
+      assert(eventually(events.contains(Kind.Create -> created)))
+      assert(eventually(events.contains(Kind.Delete -> deleted)))
+    }
+    'cancelled - withWatcher { (root, watchService, events) =>
+      watchService.keyFor(root).foreach(_.cancel())
+      val created = root.resolve("created").createFile()
+      assert(eventually(events.contains(Kind.Create -> created)))
+      events.asScala.count(_ == (Kind.Create -> created)) ==> 1
+    }
+  }
+  else Tests('ignore - { if (swoval.test.verbose) println("Not running on osx") })
+}
@@ -0,0 +1,58 @@
+package com
+package swoval
+package files
+
+import java.io.PrintStream
+import java.util.concurrent.{ CountDownLatch, TimeUnit }
+
+import com.swoval.test._
+import utest._
+
+object PollingSchedulerTest extends TestSuite {
+  // Doesn't print its stack trace, which the scheduler would otherwise print on every run.
+  private class QuietError extends Error("die") {
+    override def printStackTrace(s: PrintStream): Unit = ()
+  }
+  private def schedule(f: => Boolean): PollingScheduler.Handle =
+    PollingScheduler
+      .get()
+      .schedule(
+        new PollingScheduler.Task {
+          override def run(): Boolean = f
+        },
+        1,
+        1,
+        TimeUnit.MILLISECONDS
+      )
+  private def await(latch: CountDownLatch): Boolean =
+    latch.await(DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS)
+
+  val tests = Tests {
+    'errors - {
+      val failing = new CountDownLatch(3)
+      val other = new CountDownLatch(3)
+      val failingHandle = schedule { failing.countDown(); throw new QuietError }
+      val otherHandle = schedule { other.countDown(); false }
+      try {
+        // Neither the failing task nor the other tasks stop running after an error.
+        assert(await(failing))
+        assert(await(other))
+      } finally {
+        failingHandle.cancel()
+        otherHandle.cancel()
+      }
+    }
+    'maxLatency - {
+      intercept[IllegalArgumentException] {
+        PathWatchers.polling(
+          false,
+          100,
+          10,
+          TimeUnit.MILLISECONDS,
+          java.util.Collections.emptyList[String]
+        )
+      }
+      ()
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path, WatchEvent, WatchKey }
+import java.util.concurrent.{ ConcurrentHashMap, TimeUnit }
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test.{ CachingLogger, TestLogger }
+import com.swoval.runtime.Platform
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+object WatchBudgetTest extends TestSuite {
+  private class FailingWatchService(failed: Path, exception: IOException)
+      extends RegisterableWatchService {
+    private[this] val underlying = RegisterableWatchServices.get()
+    override def register(path: Path, kinds: WatchEvent.Kind[_]*): WatchKey =
+      if (path == failed) throw exception else underlying.register(path, kinds: _*)
+    override def poll(): WatchKey = underlying.poll()
+    override def poll(timeout: Long, unit: TimeUnit): WatchKey = underlying.poll(timeout, unit)
+    override def take(): WatchKey = underlying.take()
+    override def close(): Unit = underlying.close()
+  }
+  private def eventually(condition: => Boolean): Boolean = {
+    val deadline = System.nanoTime + DEFAULT_TIMEOUT.toNanos
+    while (!condition && System.nanoTime < deadline) Thread.sleep(10)
+    condition
+  }
+  private val children = Seq("a", "b", "c", "d", "e")
+  /*
+   * Registers root/{a,b,c,d,e} with a watcher that uses its own budget.
+   */
+  private def withWatcher(budget: WatchBudget, watchService: Path => RegisterableWatchService)(
+      f: (Path, NioPathWatcher, java.util.Set[Path]) => Unit) =
+    withTempDirectorySync { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val root = dir.resolve("root")
+      children.foreach(name => Files.createDirectories(root.resolve(name)))
+      val events = ConcurrentHashMap.newKeySet[Path]
+      val watcher = new NioPathWatcher(
+        new DirectoryRegistryImpl(),
+        watchService(root),
+        new PathWatchers.Options(),
+        budget,
+        logger
+      )
+      watcher.addObserver((e: Event) => events.add(e.path))
+      try {
+        watcher.register(root, Integer.MAX_VALUE)
+        f(root, watcher, events)
+      } finally watcher.close()
+    }
+
+  val tests = Tests {
+    'limit - {
+      System.setProperty("swoval.watcher.max.watches", "3")
+      try WatchBudget.readLimit() ==> 3
+      finally System.clearProperty("swoval.watcher.max.watches")
+    }
+    // The mac watch service polls every directory anyway.
+    'polling - {
+      if (!Platform.isMac) {
+        System.setProperty("swoval.watcher.max.watches", "4")
+        val budget =
+          try new WatchBudget(WatchBudget.readLimit())
+          finally System.clearProperty("swoval.watcher.max.watches")
+        withWatcher(budget, _ => RegisterableWatchServices.get()) { (root, watcher, events) =>
+          // The parent of the root, the root and two of its children are watched.
+          budget.getWatchCount ==> 4
+          val polled = budget.getPolledDirectories.asScala
+          polled.size ==> 3
+          assert(polled.forall(p => children.map(root.resolve).contains(p)))
+          val file = polled.head.resolve("file").createFile()
+          assert(eventually(events.contains(file)))
+
+          // Deleting a watched directory makes room for a polled one once that one changes.
+          val watched = children.map(root.resolve).filterNot(polled.contains)
+          Files.delete(watched.head)
+          assert(eventually(budget.getWatchCount == 3))
+          val promoted = polled.last
+          promoted.resolve("file").createFile()
+          assert(eventually(!budget.getPolledDirectories.contains(promoted)))
+          budget.getWatchCount ==> 4
+          val watchedFile = promoted.resolve("watched").createFile()
+          assert(eventually(events.contains(watchedFile)))
+        }
+        budget.getWatchCount ==> 0
+        budget.getPolledDirectories.asScala ==> Nil
+      }
+    }
+    'failures - {
+      'limit - {
+        if (!Platform.isMac) {
+          val budget = new WatchBudget(100)
+          val exception = new WatchBudget.LimitReachedException("no watches left")
+          withWatcher(budget, root => new FailingWatchService(root.resolve("a"), exception)) {
+            (root, _, _) =>
+              assert(budget.getPolledDirectories.contains(root.resolve("a")))
+          }
+        }
+      }
+      'other - {
+        if (!Platform.isMac) {
+          val budget = new WatchBudget(100)
+          val exception = new IOException("not a watch limit")
+          withWatcher(budget, root => new FailingWatchService(root.resolve("a"), exception)) {
+            (root, _, _) =>
+              // The directory can't be monitored, but the budget isn't exhausted by its failure.
+              budget.getPolledDirectories.asScala ==> Nil
+              budget.getWatchCount ==> children.size + 1
+          }
+        }
+      }
+    }
+  }
+}
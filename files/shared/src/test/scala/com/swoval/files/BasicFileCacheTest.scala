@@ -4,9 +4,12 @@ package files
 
 import java.io.IOException
 import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.TimeUnit
 
 import com.swoval.files.FileCacheTest.FileCacheOps
-import com.swoval.files.FileTreeDataViews.Entry
+import com.swoval.files.FileTreeDataViews.{ BatchCacheObserver, BatchObservable, ChangeSet, Entry }
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind.{ Create, Move }
 import com.swoval.files.TestHelpers.EntryOps._
 import com.swoval.files.TestHelpers._
 import com.swoval.files.test._
@@ -24,6 +27,21 @@ import scala.concurrent.duration._
 trait BasicFileCacheTest extends TestSuite with FileCacheTest {
   def ignore[T]: Entry[T] => Unit = (_: Entry[T]) => ()
   def ignoreOld[T](f: Entry[T] => Unit): (Entry[T], Entry[T]) => Unit = (_, e) => f(e)
+  /*
+   * Doesn't watch anything, so that the only events that a tree receives are those that a test
+   * hands to it.
+   */
+  private object UnwatchedPathWatcher extends PathWatcher[Event] {
+    override def register(
+        path: Path,
+        maxDepth: Int
+    ): com.swoval.functional.Either[IOException, java.lang.Boolean] =
+      com.swoval.functional.Either.right[IOException, java.lang.Boolean](true)
+    override def unregister(path: Path): Unit = {}
+    override def addObserver(observer: FileTreeViews.Observer[_ >: Event]): Int = 0
+    override def removeObserver(handle: Int): Unit = {}
+    override def close(): Unit = {}
+  }
   val testsImpl: Tests = Tests {
     'directory - {
       'subdirectories - {
@@ -63,6 +81,117 @@ trait BasicFileCacheTest extends TestSuite with FileCacheTest {
             c.ls(parent) === Seq(f)
           }
         }
+        'excluded - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          dir.resolve("target").resolve("file").createFile(mkdirs = true)
+          val source = dir.resolve("source").createFile()
+          val exclusions = Seq("target").asJava
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options().exclusions(exclusions).logger(logger)
+          using(FileTreeRepositories.get[Path](converter, false, options)) { c =>
+            c.reg(dir)
+            c.ls(dir) === Seq(source)
+          }
+        }
+        'ignored - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          dir.resolve(".git").createDirectory()
+          dir.resolve(".gitignore").write("*.log\n!keep.log\n")
+          dir.resolve("debug.log").createFile()
+          val keep = dir.resolve("keep.log").createFile()
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options().respectIgnoreFiles(true).logger(logger)
+          using(FileTreeRepositories.get[Path](converter, false, options)) { c =>
+            c.reg(dir)
+            c.ls(dir).filter(_.getFileName.toString.endsWith(".log")) === Seq(keep)
+          }
+        }
+        'coalesced - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          val files = Seq("a", "b", "c").map(dir.resolve)
+          val latch = new CountDownLatch(files.size)
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options()
+            .coalescingLatency(20, TimeUnit.MILLISECONDS)
+            .logger(logger)
+          val repository = FileTreeRepositories.get[Path](converter, false, options)
+          repository.addCacheObserver(getObserver[Path]((e: Entry[Path]) => {
+            if (files.contains(e.path)) latch.countDown()
+          }))
+          usingAsync(repository) { c =>
+            c.reg(dir)
+            files.foreach(_.createFile())
+            latch.waitFor(DEFAULT_TIMEOUT) {
+              c.ls(dir) === files
+            }
+          }
+        }
+        'batch - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          val files = Seq("a", "b", "c").map(dir.resolve)
+          val latch = new CountDownLatch(files.size)
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options()
+            .coalescingLatency(20, TimeUnit.MILLISECONDS)
+            .logger(logger)
+          val repository = FileTreeRepositories.get[Path](converter, false, options)
+          val batches = repository.asInstanceOf[BatchObservable[Path]]
+          batches.addBatchObserver(new BatchCacheObserver[Path] {
+            override def onChanges(changes: ChangeSet[Path]): Unit =
+              changes.getCreations.asScala.foreach { e =>
+                if (files.contains(e.path)) latch.countDown()
+              }
+            override def onError(exception: IOException): Unit = {}
+          })
+          usingAsync(repository) { c =>
+            c.reg(dir)
+            files.foreach(_.createFile())
+            latch.waitFor(DEFAULT_TIMEOUT) {
+              c.ls(dir) === files
+            }
+          }
+        }
+        'uncoalesced - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          val files = (1 to 8).map(i => dir.resolve(s"file-$i"))
+          val latch = new CountDownLatch(files.size)
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options().logger(logger)
+          val repository = FileTreeRepositories.get[Path](converter, false, options)
+          val batches = repository.asInstanceOf[BatchObservable[Path]]
+          batches.addBatchObserver(new BatchCacheObserver[Path] {
+            override def onChanges(changes: ChangeSet[Path]): Unit =
+              changes.getCreations.asScala.foreach { e =>
+                if (files.contains(e.path)) latch.countDown()
+              }
+            override def onError(exception: IOException): Unit = {}
+          })
+          usingAsync(repository) { c =>
+            c.reg(dir)
+            files.foreach(_.createFile())
+            latch.waitFor(DEFAULT_TIMEOUT) {
+              c.ls(dir) === files.toSet
+            }
+          }
+        }
+        'parallel - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          val files = (1 to 8).map(i => dir.resolve(s"file-$i"))
+          val latch = new CountDownLatch(files.size)
+          val converter = (_: TypedPath).getPath
+          val options = new FileTreeRepositories.Options().callbackThreads(4).logger(logger)
+          val repository = FileTreeRepositories.get[Path](converter, false, options)
+          repository.addCacheObserver(getObserver[Path]((e: Entry[Path]) => {
+            if (files.contains(e.path)) latch.countDown()
+          }))
+          usingAsync(repository) { c =>
+            c.reg(dir)
+            files.foreach(_.createFile())
+            latch.waitFor(DEFAULT_TIMEOUT) {
+              c.ls(dir) === files.toSet
+            }
+          }
+        }
         'monitor - {
           'new - {
             'files - withTempDirectory { dir =>
@@ -113,6 +242,56 @@ trait BasicFileCacheTest extends TestSuite with FileCacheTest {
             }
           }
         }
+        'moveAndRecreate - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          // An editor that keeps a backup renames the file and then writes a new one. The watcher
+          // usually drains both events in the same batch.
+          val file = dir.resolve("file")
+          val backup = dir.resolve("file~")
+          file.write("old")
+          val tree = new FileCacheDirectoryTree[String](
+            (typedPath: TypedPath) => typedPath.getPath.read,
+            Executor.make("move-and-recreate-callback-executor"),
+            null,
+            false,
+            logger
+          )
+          using(tree) { t =>
+            t.register(dir, Integer.MAX_VALUE, UnwatchedPathWatcher)
+            file.renameTo(backup)
+            file.write("new")
+            t.handleEvents(
+              Seq(
+                new Event(TypedPaths.get(backup), Move, TypedPaths.get(file)),
+                new Event(TypedPaths.get(file), Create)
+              ).asJava
+            )
+            val entries = t.listEntries(dir, Integer.MAX_VALUE, AllPass).asScala
+            entries.map(e => e.path -> e.getValue.get).toMap ==> Map(file -> "new", backup -> "old")
+          }
+        }
+        'moveRecreatedSource - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          // The event for the new file is in a later batch, so only the move is handed to the tree.
+          val file = dir.resolve("file")
+          val backup = dir.resolve("file~")
+          file.write("old")
+          val tree = new FileCacheDirectoryTree[String](
+            (typedPath: TypedPath) => typedPath.getPath.read,
+            Executor.make("move-recreated-source-callback-executor"),
+            null,
+            false,
+            logger
+          )
+          using(tree) { t =>
+            t.register(dir, Integer.MAX_VALUE, UnwatchedPathWatcher)
+            file.renameTo(backup)
+            file.write("new")
+            t.handleEvent(new Event(TypedPaths.get(backup), Move, TypedPaths.get(file)))
+            val entries = t.listEntries(dir, Integer.MAX_VALUE, AllPass).asScala
+            entries.map(e => e.path -> e.getValue.get).toMap ==> Map(file -> "new", backup -> "old")
+          }
+        }
       }
     }
     'register - {
@@ -167,6 +346,27 @@ trait BasicFileCacheTest extends TestSuite with FileCacheTest {
             }
           }
         }
+        'siblings - withTempDirectory { dir =>
+          implicit val logger: TestLogger = new CachingLogger
+          withTempDirectory(dir) { subdir =>
+            withTempDirectory(dir) { otherSubdir =>
+              withTempFile(subdir) { file =>
+                withTempFile(otherSubdir) { otherFile =>
+                  using(simpleCache(ignore)) { c =>
+                    c.register(subdir, Integer.MAX_VALUE)
+                    c.register(otherSubdir, Integer.MAX_VALUE)
+                    c.ls(subdir) === Set(file)
+                    c.ls(otherSubdir) === Set(otherFile)
+                    c.ls(dir) === Set.empty[Path]
+                    c.register(dir, Integer.MAX_VALUE)
+                    c.ls(dir) === Set(subdir, otherSubdir, file, otherFile)
+                    c.ls(subdir) === Set(file)
+                  }
+                }
+              }
+            }
+          }
+        }
         'overlap - {
           'infinite - withTempDirectory { dir =>
             implicit val logger: TestLogger = new CachingLogger
@@ -0,0 +1,87 @@
+package com.swoval.files
+
+import java.io.IOException
+import java.nio.file.Path
+
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.test._
+import com.swoval.test._
+import utest._
+
+import scala.collection.mutable
+
+object CacheObserversTest extends TestSuite {
+  private val converter: Converter[Path] = new Converter[Path] {
+    override def apply(typedPath: TypedPath): Path = typedPath.getPath
+  }
+  private def entry(path: Path): Entry[Path] = {
+    val typedPath = TypedPaths.get(path, Entries.FILE)
+    Entries.get(typedPath, converter, typedPath)
+  }
+  private class RecordingObserver extends CacheObserver[Path] {
+    val paths = mutable.Buffer.empty[Path]
+    override def onCreate(newEntry: Entry[Path]): Unit = paths += newEntry.getTypedPath.getPath
+    override def onDelete(oldEntry: Entry[Path]): Unit = paths += oldEntry.getTypedPath.getPath
+    override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit =
+      paths += newEntry.getTypedPath.getPath
+    override def onError(exception: IOException): Unit = {}
+  }
+  val tests = Tests {
+    'prefix - withTempDirectorySync { dir =>
+      val observers = new CacheObservers[Path]
+      val all = new RecordingObserver
+      val foo = new RecordingObserver
+      val bar = new RecordingObserver
+      observers.addCacheObserver(all)
+      observers.addCacheObserver(foo, dir.resolve("foo"))
+      observers.addCacheObserver(bar, dir.resolve("bar"))
+      val paths = Seq(dir.resolve("foo"), dir.resolve("foo").resolve("a"), dir.resolve("bar"))
+      paths.foreach(p => observers.onCreate(entry(p)))
+      all.paths ==> paths
+      foo.paths ==> paths.take(2)
+      bar.paths ==> paths.drop(2)
+    }
+    'glob - withTempDirectorySync { dir =>
+      val observers = new CacheObservers[Path]
+      val anchored = new RecordingObserver
+      val unanchored = new RecordingObserver
+      observers.addCacheObserver(anchored, s"$dir/foo/**/*.scala")
+      observers.addCacheObserver(unanchored, "*.java")
+      val scala = dir.resolve("foo").resolve("bar").resolve("Foo.scala")
+      val java = dir.resolve("foo").resolve("Foo.java")
+      val other = dir.resolve("Bar.scala")
+      Seq(scala, java, other).foreach(p => observers.onCreate(entry(p)))
+      anchored.paths ==> Seq(scala)
+      unanchored.paths ==> Seq(java)
+    }
+    'exclusions - withTempDirectorySync { dir =>
+      val globs = Seq("target", s"$dir/foo/*.txt", "**/node_modules/*.js")
+      val paths = Seq(
+        dir.resolve("target"),
+        dir.resolve("a").resolve("target").resolve("A.class"),
+        dir.resolve("targets"),
+        dir.resolve("foo").resolve("a.txt"),
+        dir.resolve("foo").resolve("bar").resolve("b.txt"),
+        dir.resolve("node_modules").resolve("a.js").resolve("b"),
+        dir.resolve("node_modules").resolve("a.ts")
+      )
+      globs.foreach { glob =>
+        val observers = new CacheObservers[Path]
+        val observer = new RecordingObserver
+        observers.addCacheObserver(observer, glob)
+        paths.foreach(p => observers.onCreate(entry(p)))
+        val exclusions = Exclusions.get(java.util.Collections.singletonList(glob))
+        observer.paths ==> paths.filter(exclusions.isExcluded)
+      }
+    }
+    'remove - withTempDirectorySync { dir =>
+      val observers = new CacheObservers[Path]
+      val observer = new RecordingObserver
+      val handle = observers.addCacheObserver(observer, dir)
+      observers.onCreate(entry(dir.resolve("a")))
+      observers.removeObserver(handle)
+      observers.onCreate(entry(dir.resolve("b")))
+      observer.paths ==> Seq(dir.resolve("a"))
+    }
+  }
+}
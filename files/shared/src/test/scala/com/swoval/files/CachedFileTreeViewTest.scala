@@ -357,6 +357,112 @@ object CachedFileTreeViewTest extends TestSuite {
       }
   }
 
+  object forEach {
+    private def visit(
+        directory: CachedDirectory[Path],
+        path: Path,
+        maxDepth: Int
+    ): Seq[(Path, Int, Path)] = {
+      val result = mutable.ArrayBuffer.empty[(Path, Int, Path)]
+      directory.forEach(
+        path,
+        maxDepth,
+        (cursor: EntryCursor[Path]) =>
+          result += ((cursor.getPath, cursor.getKind, cursor.getValue.getOrElse(null)))
+      )
+      result
+    }
+    def recursive: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = dir.resolve("subdir").createDirectory()
+        val nestedFile = subdir.resolve("nested").createFile()
+        val file = dir.resolve("file").createFile()
+        val directory = newCachedView(dir)
+        visit(directory, dir, Integer.MAX_VALUE).toSet ==> Set(
+          (subdir, Entries.DIRECTORY, subdir),
+          (nestedFile, Entries.FILE, nestedFile),
+          (file, Entries.FILE, file)
+        )
+        visit(directory, dir, 0).map(_._1).toSet ==> Set(subdir, file)
+        visit(directory, subdir, Integer.MAX_VALUE).map(_._1) ==> Seq(nestedFile)
+      }
+    def file: Future[Unit] =
+      withTempFileSync { file =>
+        val directory = newCachedView(file.getParent)
+        visit(directory, file, -1) ==> Seq((file, Entries.FILE, file))
+        visit(directory, file.getParent.resolve("foo"), -1) ==> Seq.empty
+      }
+    def matchesListEntries: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = dir.resolve("subdir").resolve("nested").createDirectories()
+        (1 to 3).foreach(i => subdir.resolve(s"file-$i").createFile())
+        (1 to 3).foreach(i => dir.resolve(s"file-$i").createFile())
+        val directory = newCachedView(dir)
+        (-1 to 2).foreach { depth =>
+          visit(directory, dir, depth).map(_._1).toSet ==>
+            directory.listEntries(depth, AllPass).asScala.map(_.getTypedPath.getPath).toSet
+        }
+      }
+  }
+
+  object diff {
+    def order: Future[Unit] = withTempDirectorySync { dir =>
+      val paths = Seq(dir.resolve("a-b"), dir.resolve("a").resolve("b"), dir.resolve("a"))
+      paths.sortWith(MapOps.comparePaths(_, _) < 0) ==> Seq(
+        dir.resolve("a"),
+        dir.resolve("a").resolve("b"),
+        dir.resolve("a-b")
+      )
+    }
+    def merge: Future[Unit] = withTempDirectorySync { dir =>
+      def entry(name: String): Entry[Path] = {
+        val typedPath = TypedPaths.get(dir.resolve(name), Entries.FILE)
+        Entries.get(typedPath, (_: TypedPath).getPath, typedPath)
+      }
+      val oldEntries = new java.util.ArrayList(Seq(entry("c"), entry("a"), entry("b")).asJava)
+      val newEntries = new java.util.ArrayList(Seq(entry("d"), entry("b"), entry("c")).asJava)
+      newEntries.add(entry("d"))
+      val updates = new FileTreeViews.Updates[Path]
+      MapOps.diffDirectoryEntries(oldEntries, newEntries, updates)
+      val result = updates.toUpdates
+      result.creations.map(_.getTypedPath.getPath) ==> Seq(dir.resolve("d"))
+      result.deletions.map(_.getTypedPath.getPath) ==> Seq(dir.resolve("a"))
+      result.updates.map(_._1.getTypedPath.getPath) ==> Seq(dir.resolve("b"), dir.resolve("c"))
+    }
+  }
+
+  object move {
+    def directory: Future[Unit] = withTempDirectorySync { dir =>
+      val file = dir.resolve("source").resolve("subdir").resolve("file").createFile(mkdirs = true)
+      val converted = mutable.Set.empty[Path]
+      val directory = new CachedDirectoryImpl(
+        TypedPaths.get(dir),
+        (typedPath: TypedPath) => { converted += typedPath.getPath; typedPath.getPath },
+        Integer.MAX_VALUE,
+        AllPass,
+        true
+      ).init()
+      converted.clear()
+      val destination = dir.resolve("source").renameTo(dir.resolve("destination"))
+      val subdir = destination.resolve("subdir")
+      val updates = directory.move(dir.resolve("source"), TypedPaths.get(destination)).toUpdates
+      val source = file.getParent.getParent
+      updates.creations.map(_.getTypedPath.getPath) ==>
+        Seq(destination, subdir, subdir.resolve("file"))
+      updates.deletions.map(_.getTypedPath.getPath) ==> Seq(source, file.getParent, file)
+      directory.ls(recursive = true, AllPass) === Set(destination, subdir, subdir.resolve("file"))
+      // The values are moved rather than recomputed.
+      converted.isEmpty ==> true
+      directory.listEntries(subdir.resolve("file"), -1, AllPass).get(0).getValue.get ==> file
+    }
+    def uncached: Future[Unit] = withTempDirectorySync { dir =>
+      val directory = newCachedView(dir)
+      val file = dir.resolve("file").createFile()
+      directory.move(dir.resolve("missing"), TypedPaths.get(file)) ==> null
+      directory.ls(recursive = true, AllPass) === Seq.empty[Path]
+    }
+  }
+
   val tests = Tests {
     'add - {
       'file - add.file
@@ -397,5 +503,18 @@ object CachedFileTreeViewTest extends TestSuite {
       }
       'direct - symlinks.direct
     }
+    'diff - {
+      'order - diff.order
+      'merge - diff.merge
+    }
+    'move - {
+      'directory - move.directory
+      'uncached - move.uncached
+    }
+    'forEach - {
+      'recursive - forEach.recursive
+      'file - forEach.file
+      'matchesListEntries - forEach.matchesListEntries
+    }
   }
 }
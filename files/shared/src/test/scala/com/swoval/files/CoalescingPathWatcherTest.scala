@@ -0,0 +1,46 @@
+package com.swoval.files
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind._
+import com.swoval.files.test._
+import com.swoval.test._
+import utest._
+
+object CoalescingPathWatcherTest extends TestSuite {
+  private def merge(kinds: Event.Kind*)(typedPath: TypedPath): Event.Kind =
+    kinds.tail
+      .foldLeft(new Event(typedPath, kinds.head)) { (e, k) =>
+        CoalescingPathWatcher.merge(e, new Event(typedPath, k))
+      }
+      .getKind
+  val tests = Tests {
+    'merge - {
+      'create - withTempDirectorySync { dir =>
+        val file = TypedPaths.get(dir.resolve("file").createFile())
+        merge(Create, Modify, Modify)(file) ==> Create
+        merge(Create, Delete)(file) ==> Delete
+        merge(Create, Delete, Create)(file) ==> Modify
+      }
+      'modify - withTempDirectorySync { dir =>
+        val file = TypedPaths.get(dir.resolve("file").createFile())
+        merge(Modify, Modify)(file) ==> Modify
+        merge(Modify, Delete)(file) ==> Delete
+        merge(Delete, Create)(file) ==> Modify
+      }
+      'directory - withTempDirectorySync { dir =>
+        merge(Delete, Create)(TypedPaths.get(dir)) ==> Overflow
+      }
+      'move - withTempDirectorySync { dir =>
+        val file = TypedPaths.get(dir.resolve("file").createFile())
+        merge(Create, Move)(file) ==> Move
+        merge(Move, Modify)(file) ==> Create
+        merge(Move, Modify)(TypedPaths.get(dir)) ==> Move
+      }
+      'overflow - withTempDirectorySync { dir =>
+        val file = TypedPaths.get(dir.resolve("file").createFile())
+        merge(Overflow, Delete)(file) ==> Overflow
+        merge(Create, Overflow)(file) ==> Overflow
+      }
+    }
+  }
+}
@@ -5,6 +5,7 @@ import java.io.IOException
 import java.nio.file.{ Files, Paths }
 
 import com.swoval.files.test._
+import com.swoval.functional.Filter
 import com.swoval.functional.Filters.AllPass
 import com.swoval.test._
 import utest._
@@ -70,6 +71,159 @@ object DataViewTest extends TestSuite {
         .map(e => e.getTypedPath.getPath -> e.getValue.getOrElse(3))
         .toSeq === Seq(file -> 3)
     }
+  object long {
+    private class Recorder extends LongCacheObserver {
+      val events = new scala.collection.mutable.ArrayBuffer[(String, java.nio.file.Path)]
+      override def onCreate(newEntry: LongEntry): Unit =
+        events += ("create" -> newEntry.getTypedPath.getPath)
+      override def onDelete(oldEntry: LongEntry): Unit =
+        events += ("delete" -> oldEntry.getTypedPath.getPath)
+      override def onUpdate(oldEntry: LongEntry, newEntry: LongEntry): Unit =
+        events += ("update" -> newEntry.getTypedPath.getPath)
+    }
+    private def snapshot(
+        dir: java.nio.file.Path,
+        values: scala.collection.Map[java.nio.file.Path, Long],
+        depth: Int = Integer.MAX_VALUE
+    ): LongCachedDirectory =
+      LongCachedDirectory.get(
+        TypedPaths.get(dir),
+        (p: TypedPath) => values.getOrElse(p.getPath, 0L),
+        depth,
+        AllPass,
+        FileTreeViews.getDefault(true)
+      )
+    def diff: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = Files.createDirectory(dir.resolve("subdir"))
+        val file = Files.createFile(subdir.resolve("file"))
+        val other = Files.createFile(dir.resolve("other"))
+        val values = scala.collection.mutable.Map[java.nio.file.Path, Long](file -> 1L)
+        val original = snapshot(dir, values)
+        val unchanged = new Recorder
+        LongCachedDirectory.diff(original, snapshot(dir, values), unchanged)
+        unchanged.events ==> Seq.empty
+
+        values(file) = 2L
+        Files.delete(other)
+        val added = Files.createFile(subdir.resolve("added"))
+        val recorder = new Recorder
+        LongCachedDirectory.diff(original, snapshot(dir, values), recorder)
+        recorder.events.toSet ==> Set(
+          "update" -> file,
+          "delete" -> other,
+          "create" -> added
+        )
+      }
+    def subtree: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val original = snapshot(dir, Map.empty)
+        val subdir = Files.createDirectories(dir.resolve("subdir").resolve("nested"))
+        val file = Files.createFile(subdir.resolve("file"))
+        val created = new Recorder
+        val updated = snapshot(dir, Map.empty)
+        LongCachedDirectory.diff(original, updated, created)
+        created.events ==> Seq(
+          "create" -> subdir.getParent,
+          "create" -> subdir,
+          "create" -> file
+        )
+        val deleted = new Recorder
+        LongCachedDirectory.diff(updated, null, deleted)
+        deleted.events ==> Seq(
+          "delete" -> file,
+          "delete" -> subdir,
+          "delete" -> subdir.getParent,
+          "delete" -> dir
+        )
+      }
+    def depth: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = Files.createDirectory(dir.resolve("subdir"))
+        val original = snapshot(dir, Map.empty, 0)
+        Files.createFile(subdir.resolve("file"))
+        val recorder = new Recorder
+        LongCachedDirectory.diff(original, snapshot(dir, Map.empty, 0), recorder)
+        recorder.events ==> Seq.empty
+      }
+    private class CountingView extends FileTreeView {
+      private[this] val underlying = FileTreeViews.getDefault(true)
+      var listed = 0
+      override def list(
+          path: java.nio.file.Path,
+          maxDepth: Int,
+          filter: Filter[_ >: TypedPath]
+      ): java.util.List[TypedPath] = {
+        listed += 1
+        underlying.list(path, maxDepth, filter)
+      }
+      override def close(): Unit = underlying.close()
+    }
+    private def update(
+        directory: LongCachedDirectory,
+        dir: java.nio.file.Path,
+        converter: TypedPath => Long,
+        view: FileTreeView
+    ): Seq[(String, java.nio.file.Path)] = {
+      val recorder = new Recorder
+      LongCachedDirectory.update(
+        directory,
+        TypedPaths.get(dir),
+        (p: TypedPath) => converter(p),
+        Integer.MAX_VALUE,
+        AllPass,
+        view,
+        recorder
+      )
+      recorder.events
+    }
+    // Recent last modified times aren't trusted, so the directories are made older.
+    private def makeOld(directories: java.nio.file.Path*): Unit =
+      directories.foreach(_.setLastModifiedTime(System.currentTimeMillis - 10000))
+    def customConverter: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = Files.createDirectory(dir.resolve("subdir"))
+        val deleted = Files.createFile(subdir.resolve("deleted"))
+        makeOld(dir, subdir)
+        val view = new CountingView
+        // The values never change, so only the last modified times show that subdir changed.
+        val converter = (_: TypedPath) => 1L
+        val directory = LongCachedDirectory.get(
+          TypedPaths.get(dir),
+          (p: TypedPath) => converter(p),
+          Integer.MAX_VALUE,
+          AllPass,
+          view
+        )
+        Files.delete(deleted)
+        val created = Files.createFile(subdir.resolve("created"))
+        update(directory, dir, converter, view).toSet ==> Set(
+          "delete" -> deleted,
+          "create" -> created
+        )
+      }
+    def unchanged: Future[Unit] =
+      withTempDirectorySync { dir =>
+        val subdir = Files.createDirectory(dir.resolve("subdir"))
+        val file = Files.createFile(subdir.resolve("file"))
+        makeOld(dir, subdir)
+        val view = new CountingView
+        val converter = (p: TypedPath) => if (p.getPath == file) 1L else 0L
+        val directory = LongCachedDirectory.get(
+          TypedPaths.get(dir),
+          (p: TypedPath) => converter(p),
+          Integer.MAX_VALUE,
+          AllPass,
+          view
+        )
+        view.listed ==> 2
+        update(directory, dir, converter, view) ==> Seq.empty
+        view.listed ==> 2
+        update(directory, dir, (p: TypedPath) => if (p.getPath == file) 2L else 0L, view) ==>
+          Seq("update" -> file)
+        view.listed ==> 2
+      }
+  }
   val tests = Tests {
     'converter - {
       'exceptions - {
@@ -78,5 +232,14 @@ object DataViewTest extends TestSuite {
         'file - file
       }
     }
+    'long - {
+      'diff - long.diff
+      'subtree - long.subtree
+      'depth - long.depth
+      'update - {
+        'customConverter - long.customConverter
+        'unchanged - long.unchanged
+      }
+    }
   }
 }
@@ -0,0 +1,163 @@
+package com.swoval.files
+
+import java.nio.file.{ Path, Paths }
+
+import com.swoval.files.test._
+import com.swoval.runtime.Platform
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+object DirectoryRegistryTest extends TestSuite {
+  private val base: Path = Paths.get("").toAbsolutePath.resolve("registry")
+  private def path(parts: String*): Path = parts.foldLeft(base)(_ resolve _)
+  val tests = Tests {
+    'accept - {
+      'depth - {
+        val registry = new DirectoryRegistryImpl
+        registry.addDirectory(path("foo"), 1)
+        assert(registry.accept(path("foo")))
+        assert(registry.accept(path("foo", "bar")))
+        assert(registry.accept(path("foo", "bar", "baz")))
+        assert(!registry.accept(path("foo", "bar", "baz", "buzz")))
+        assert(!registry.accept(path("fo")))
+        assert(!registry.accept(base))
+      }
+      'recursive - {
+        val registry = new DirectoryRegistryImpl
+        registry.addDirectory(path("foo"), 0)
+        registry.addDirectory(path("foo", "bar"), Integer.MAX_VALUE)
+        assert(registry.accept(path("foo", "baz")))
+        assert(!registry.accept(path("foo", "baz", "buzz")))
+        assert(registry.accept(path("foo", "bar", "baz", "buzz")))
+      }
+      'file - {
+        val registry = new DirectoryRegistryImpl
+        registry.addDirectory(path("foo"), -1)
+        assert(registry.accept(path("foo")))
+        assert(!registry.accept(path("foo", "bar")))
+      }
+      'prefix - {
+        val registry = new DirectoryRegistryImpl
+        registry.addDirectory(path("foo", "bar", "baz"), 0)
+        assert(registry.acceptPrefix(path("foo", "bar")))
+        assert(registry.acceptPrefix(base.getRoot))
+        assert(!registry.acceptPrefix(path("foo", "buzz")))
+        assert(!registry.accept(path("foo", "bar")))
+      }
+    }
+    'maxDepthFor - {
+      val registry = new DirectoryRegistryImpl
+      registry.addDirectory(path("foo"), 3)
+      registry.addDirectory(path("foo", "bar"), 1)
+      registry.maxDepthFor(path("foo")) ==> 3
+      registry.maxDepthFor(path("foo", "bar")) ==> 2
+      registry.maxDepthFor(path("foo", "bar", "baz")) ==> 1
+      registry.maxDepthFor(path("buzz")) ==> Integer.MIN_VALUE
+      registry.addDirectory(path("foo", "bar"), Integer.MAX_VALUE)
+      registry.maxDepthFor(path("foo", "bar", "baz")) ==> Integer.MAX_VALUE - 1
+    }
+    'add - {
+      val registry = new DirectoryRegistryImpl
+      assert(registry.addDirectory(path("foo"), 1))
+      assert(!registry.addDirectory(path("foo"), 0))
+      assert(!registry.addDirectory(path("foo"), 1))
+      assert(registry.addDirectory(path("foo"), 2))
+      registry.registered().asScala.toMap ==> Map(path("foo") -> (2: Integer))
+    }
+    'remove - {
+      val registry = new DirectoryRegistryImpl
+      registry.addDirectory(path("foo"), 0)
+      registry.addDirectory(path("foo", "bar", "baz"), 0)
+      registry.removeDirectory(path("foo", "bar"))
+      registry.registered().asScala.keySet ==> Set(path("foo"), path("foo", "bar", "baz"))
+      registry.removeDirectory(path("foo", "bar", "baz"))
+      assert(!registry.acceptPrefix(path("foo", "bar")))
+      assert(registry.accept(path("foo", "bar")))
+      registry.removeDirectory(path("foo"))
+      assert(registry.registered().isEmpty)
+      assert(!registry.acceptPrefix(base))
+    }
+    'exclusions - {
+      'glob - {
+        val exclusions =
+          Exclusions.get(Seq("target", "**/node_modules", ".git/objects", "*.tmp").asJava)
+        assert(exclusions.isExcluded(path("target")))
+        assert(exclusions.isExcluded(path("foo", "target", "classes")))
+        assert(!exclusions.isExcluded(path("foo", "targets")))
+        assert(exclusions.isExcluded(path("foo", "node_modules", "bar")))
+        assert(exclusions.isExcluded(path(".git", "objects", "ab")))
+        assert(!exclusions.isExcluded(path(".git", "refs")))
+        assert(exclusions.isExcluded(path("foo", "bar.tmp")))
+        assert(!exclusions.isExcluded(path("foo", "bar.tmpx")))
+      }
+      'anchored - {
+        val anchor = base.iterator.asScala.mkString("/", "/", "")
+        val exclusions = Exclusions.get(Seq(s"$anchor/foo/**/b?z").asJava)
+        assert(exclusions.isExcluded(path("foo", "baz")))
+        assert(exclusions.isExcluded(path("foo", "bar", "buz", "buzz")))
+        assert(!exclusions.isExcluded(path("bar", "baz")))
+      }
+      'relative - {
+        val exclusions = Exclusions.get(Seq("foo/b*").asJava)
+        assert(exclusions.isExcluded(Paths.get("foo", "bar")))
+        assert(exclusions.isExcluded(Paths.get("baz", "foo", "bar", "buzz")))
+        assert(!exclusions.isExcluded(Paths.get("foo")))
+        assert(!exclusions.isExcluded(base.getRoot))
+      }
+      'escaped - {
+        // A backslash is a separator on windows, where '*' can't be in a file name anyway.
+        if (!Platform.isWin) {
+          val exclusions = Exclusions.get(Seq("foo\\*").asJava)
+          assert(exclusions.isExcluded(path("foo*")))
+          assert(!exclusions.isExcluded(path("foobar")))
+          assert(!exclusions.isExcluded(path("foo")))
+        }
+      }
+      'limit - {
+        val names = Seq.fill(Exclusions.MAX_NAMES)("a")
+        assert(!Exclusions.get(Seq(names.mkString("/", "/", "")).asJava).isExcluded(path("a")))
+        intercept[IllegalArgumentException](Exclusions.get(Seq(names.mkString("/")).asJava))
+      }
+      'registry - {
+        val registry = new DirectoryRegistryImpl(Exclusions.get(Seq("target").asJava))
+        assert(!registry.addDirectory(path("foo", "target"), Integer.MAX_VALUE))
+        assert(registry.addDirectory(path("foo"), Integer.MAX_VALUE))
+        assert(registry.accept(path("foo", "bar")))
+        assert(!registry.accept(path("foo", "target")))
+        assert(!registry.accept(path("foo", "target", "bar")))
+        assert(!registry.acceptPrefix(path("foo", "target")))
+        registry.maxDepthFor(path("foo", "target")) ==> Integer.MIN_VALUE
+        registry.registered().asScala.keySet ==> Set(path("foo"))
+      }
+    }
+    'ignoreFiles - {
+      'invalidate - withTempDirectorySync { dir =>
+        dir.resolve(".git").createDirectory()
+        dir.resolve(".gitignore").write("*.log\n")
+        val exclusions = Exclusions.get(null, true)
+        assert(exclusions.isExcluded(dir.resolve("a.log")))
+        dir.resolve(".gitignore").write("*.tmp\n")
+        assert(exclusions.isExcluded(dir.resolve("a.log")))
+        assert(!exclusions.invalidate(dir.resolve("a.log")))
+        assert(exclusions.invalidate(dir.resolve(".gitignore")))
+        assert(!exclusions.isExcluded(dir.resolve("a.log")))
+        assert(exclusions.isExcluded(dir.resolve("a.tmp")))
+      }
+      'root - withTempDirectorySync { dir =>
+        val inner = dir.resolve("inner").createDirectory()
+        dir.resolve(".gitignore").write("*.log\n")
+        val exclusions = Exclusions.get(null, true)
+        val registry = new DirectoryRegistryImpl(exclusions)
+        registry.addDirectory(inner, Integer.MAX_VALUE)
+        // Without a repository, the ignore files above the registered directory don't apply.
+        assert(registry.accept(inner.resolve("a.log")))
+        dir.resolve(".git").createDirectory()
+        assert(exclusions.invalidate(dir.resolve(".git")))
+        assert(!registry.accept(inner.resolve("a.log")))
+      }
+    }
+  }
+}
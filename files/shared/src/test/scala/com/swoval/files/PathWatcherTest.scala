@@ -137,6 +137,24 @@ trait PathWatcherTest extends TestSuite {
           }
         }
       }
+      'kind - withTempDirectory { dir =>
+        implicit val logger: TestLogger = new CachingLogger
+        val subdir = dir.resolve("subdir")
+        val deletions = new ArrayBlockingQueue[PathWatchers.Event](10)
+        val callback = (e: PathWatchers.Event) => {
+          if (e.path == subdir) {
+            if (e.getTypedPath.exists) events.add(e) else deletions.add(e)
+          }
+        }
+        usingAsync(defaultWatcher(callback)) { w =>
+          w.register(dir)
+          subdir.createDirectory()
+          events.poll(DEFAULT_TIMEOUT)(e => assert(e.getTypedPath.isDirectory)).flatMap { _ =>
+            subdir.delete()
+            deletions.poll(DEFAULT_TIMEOUT)(e => assert(!e.getTypedPath.exists))
+          }
+        }
+      }
       'redundant - withTempDirectory { dir =>
         implicit val logger: TestLogger = new CachingLogger
         if (Platform.isMac && this != PollingPathWatcherTest) {
@@ -469,3 +487,21 @@ object PollingPathWatcherTest extends PathWatcherTest {
     res
   }
 }
+
+object AdaptivePollingPathWatcherTest extends PathWatcherTest {
+  val tests = testsImpl
+  override def checkModified(event: PathWatchers.Event): Boolean = event.getKind != Delete
+  override def defaultWatcher(callback: PathWatchers.Event => _, followLinks: Boolean)(implicit
+      testLogger: TestLogger
+  ): PathWatcher[PathWatchers.Event] = {
+    val res = PathWatchers.polling(
+      followLinks,
+      20,
+      400,
+      TimeUnit.MILLISECONDS,
+      java.util.Collections.emptyList[String]
+    )
+    res.addObserver(callback)
+    res
+  }
+}
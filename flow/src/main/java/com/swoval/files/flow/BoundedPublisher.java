@@ -0,0 +1,265 @@
+package com.swoval.files.flow;
+
+import com.swoval.files.FileTreeViews.Observable;
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.flow.FlowPublishers.Strategy;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+/**
+ * A {@link Flow.Publisher} of the values of an {@link Observable}. Each subscription buffers at
+ * most capacity values until the subscriber requests them. What happens to a value that arrives
+ * while the buffer is full is determined by the {@link Strategy} of the publisher.
+ *
+ * <p>The values are delivered either on the thread of the observable or on the thread that
+ * requests them, but never concurrently. The {@link Strategy#Buffer} and {@link
+ * Strategy#Coalesce} strategies wait for demand on the thread of the observable, which delays
+ * every other observer of the observable until the subscriber requests more values.
+ *
+ * <p>A subscription ends with {@link Flow.Subscriber#onError} when the observable reports an
+ * error, when the subscriber throws while it receives a value or when the thread of the observable
+ * is interrupted while it waits for demand. The subscription is cancelled before the error is
+ * delivered.
+ *
+ * @param <T> the type of the published values
+ */
+abstract class BoundedPublisher<T> implements Flow.Publisher<T> {
+  private final Observable<T> source;
+  private final int capacity;
+  private final Strategy strategy;
+
+  BoundedPublisher(final Observable<T> source, final int capacity, final Strategy strategy) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    this.source = source;
+    this.capacity = capacity;
+    this.strategy = strategy;
+  }
+
+  /**
+   * Returns the path of a value. Values for the same path are coalesced by the {@link
+   * Strategy#Coalesce} strategy.
+   *
+   * @param value the value
+   * @return the path of the value.
+   */
+  abstract Path pathOf(final T value);
+
+  /**
+   * Combines two consecutive values for the same path.
+   *
+   * @param previous the buffered value
+   * @param next the value that just arrived
+   * @return the value that replaces the buffered value.
+   */
+  abstract T merge(final T previous, final T next);
+
+  /**
+   * Returns the value that replaces all of the buffered values when the buffer of the {@link
+   * Strategy#Overflow} strategy is full.
+   *
+   * @param directory the deepest directory that contains the paths of all of the buffered values
+   * @return the value or null if the buffered values should just be discarded.
+   */
+  abstract T overflow(final Path directory);
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+    if (subscriber == null) throw new NullPointerException("Subscriber must not be null");
+    final BoundedSubscription subscription = new BoundedSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedPublisher(" + source + ", " + capacity + ", " + strategy + ")";
+  }
+
+  private final class BoundedSubscription implements Flow.Subscription, Observer<T> {
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Object lock = new Object();
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    private final LinkedHashMap<Path, T> pending = new LinkedHashMap<>();
+    private long demand = 0;
+    private boolean cancelled = false;
+    private boolean draining = false;
+    private int handle = -1;
+
+    BoundedSubscription(final Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    void start() {
+      synchronized (lock) {
+        if (cancelled) return;
+      }
+      final int newHandle = source.addObserver(this);
+      boolean remove = false;
+      synchronized (lock) {
+        if (cancelled) {
+          remove = true;
+        } else {
+          handle = newHandle;
+        }
+      }
+      if (remove) source.removeObserver(newHandle);
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        if (cancelSubscription()) {
+          subscriber.onError(
+              new IllegalArgumentException("Requested a non-positive number of values: " + n));
+        }
+        return;
+      }
+      synchronized (lock) {
+        if (cancelled) return;
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelSubscription();
+    }
+
+    /*
+     * Returns true if this call cancelled the subscription, i.e. if it was still active.
+     */
+    private boolean cancelSubscription() {
+      final int oldHandle;
+      synchronized (lock) {
+        if (cancelled) return false;
+        cancelled = true;
+        queue.clear();
+        pending.clear();
+        oldHandle = handle;
+        lock.notifyAll();
+      }
+      if (oldHandle >= 0) source.removeObserver(oldHandle);
+      return true;
+    }
+
+    @Override
+    public void onNext(final T value) {
+      try {
+        synchronized (lock) {
+          if (cancelled) return;
+          if (strategy == Strategy.Coalesce) {
+            final Path path = pathOf(value);
+            final T previous = pending.get(path);
+            if (previous != null) {
+              pending.put(path, merge(previous, value));
+            } else if (awaitCapacity()) {
+              pending.put(path, value);
+            }
+          } else if (queue.size() < capacity) {
+            queue.add(value);
+          } else if (strategy == Strategy.Overflow) {
+            queue.add(value);
+            final T overflow = overflow(commonDirectory());
+            queue.clear();
+            if (overflow != null) queue.add(overflow);
+          } else if (awaitCapacity()) {
+            queue.add(value);
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (cancelSubscription()) subscriber.onError(e);
+        return;
+      }
+      drain();
+    }
+
+    /*
+     * Errors for individual paths are reported with values, e.g. events of kind Error, so an error
+     * of the observable itself ends the subscription.
+     */
+    @Override
+    public void onError(final Throwable t) {
+      if (cancelSubscription()) subscriber.onError(t);
+    }
+
+    /*
+     * Must be called while holding the lock. Returns false if the subscription was cancelled while
+     * waiting.
+     */
+    private boolean awaitCapacity() throws InterruptedException {
+      while (size() >= capacity && !cancelled) lock.wait();
+      return !cancelled;
+    }
+
+    private int size() {
+      return strategy == Strategy.Coalesce ? pending.size() : queue.size();
+    }
+
+    private T poll() {
+      if (strategy == Strategy.Coalesce) {
+        final Iterator<Map.Entry<Path, T>> it = pending.entrySet().iterator();
+        final T result = it.next().getValue();
+        it.remove();
+        return result;
+      } else {
+        return queue.poll();
+      }
+    }
+
+    private Path commonDirectory() {
+      Path result = null;
+      final Iterator<T> it = queue.iterator();
+      while (it.hasNext()) {
+        final Path path = pathOf(it.next());
+        final Path parent = path.getParent() == null ? path : path.getParent();
+        if (result == null) {
+          result = parent;
+        } else {
+          while (result != null && !parent.startsWith(result)) result = result.getParent();
+          if (result == null) return parent.getRoot();
+        }
+      }
+      return result;
+    }
+
+    /*
+     * Delivers the buffered values while there is demand. Only one thread delivers values at a
+     * time. Any other thread that calls drain while values are being delivered returns immediately
+     * because the delivering thread checks for more values before it stops.
+     */
+    private void drain() {
+      synchronized (lock) {
+        if (draining) return;
+        draining = true;
+      }
+      while (true) {
+        final T value;
+        synchronized (lock) {
+          if (cancelled || demand == 0 || size() == 0) {
+            draining = false;
+            return;
+          }
+          value = poll();
+          if (demand != Long.MAX_VALUE) demand -= 1;
+          lock.notifyAll();
+        }
+        try {
+          subscriber.onNext(value);
+        } catch (final Throwable t) {
+          synchronized (lock) {
+            draining = false;
+          }
+          if (cancelSubscription()) subscriber.onError(t);
+          if (t instanceof Error) throw (Error) t;
+          return;
+        }
+      }
+    }
+  }
+}
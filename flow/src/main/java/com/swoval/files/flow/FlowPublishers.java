@@ -0,0 +1,167 @@
+package com.swoval.files.flow;
+
+import static com.swoval.functional.Filters.AllPass;
+
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeRepositories;
+import com.swoval.files.FileTreeRepository;
+import com.swoval.files.PathWatcher;
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Event.Kind;
+import com.swoval.files.TypedPath;
+import com.swoval.files.TypedPaths;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Provides {@link Flow.Publisher} views of {@link PathWatcher} and {@link FileTreeRepository}
+ * instances. Unlike the observers of a watcher or repository, a subscriber is only sent as many
+ * values as it has requested. The values that it hasn't requested yet are buffered per subscription
+ * in a buffer of bounded capacity, so the memory used by a slow subscriber stays bounded no matter
+ * how many file events occur. The {@link Strategy} of a publisher determines what happens when a
+ * value arrives while the buffer of a subscription is full.
+ *
+ * <p>Each subscription adds an observer to the watcher or repository that is removed when the
+ * subscription is cancelled. The publishers never complete, so subscribers should cancel their
+ * subscriptions before the watcher or repository is closed. A subscription ends with {@link
+ * Flow.Subscriber#onError} if the watcher or repository reports an error to its observers or if
+ * the subscriber throws an exception from {@link Flow.Subscriber#onNext}. Errors for individual
+ * paths, e.g. events of kind {@link Kind#Error}, are published like any other value.
+ *
+ * <p>The values are offered to each subscription on the thread that notifies the observers of the
+ * watcher or repository. The {@link Strategy#Buffer} and {@link Strategy#Coalesce} strategies
+ * block that thread while the buffer is full, so a slow subscriber delays every other observer of
+ * the same watcher or repository, and possibly of other watchers that share its event thread, until
+ * it requests more values. Use {@link Strategy#Overflow} when that isn't acceptable.
+ */
+public final class FlowPublishers {
+  private FlowPublishers() {}
+
+  /** Determines what happens to a value that arrives while the buffer of a subscription is full. */
+  public enum Strategy {
+    /**
+     * Buffer the values in the order in which they arrive and block the thread of the watcher or
+     * repository until the subscriber requests more values. While the thread is blocked, no other
+     * observer of the watcher or repository is notified. Once the thread is blocked, the
+     * backpressure reaches the file system, which reports an overflow if it drops events.
+     */
+    Buffer,
+    /**
+     * Buffer at most one value per path by combining the values for paths that are already
+     * buffered. A value for a new path blocks the thread of the watcher or repository, as with
+     * {@link Strategy#Buffer}, until the subscriber requests more values.
+     */
+    Coalesce,
+    /**
+     * Buffer the values in the order in which they arrive and replace the full buffer with a
+     * single value for the deepest directory that contains all of the buffered paths. The
+     * subscriber should list that directory again when it receives the value. This never blocks
+     * the thread of the watcher or repository.
+     */
+    Overflow
+  }
+
+  /**
+   * Returns a publisher of the events of a path watcher. The {@link Strategy#Coalesce} strategy
+   * combines the events for the same path like the coalescing latency of {@link
+   * FileTreeRepositories} does. The {@link Strategy#Overflow} strategy replaces the buffered events
+   * with an event of kind {@link Kind#Overflow}.
+   *
+   * @param pathWatcher the path watcher whose events are published
+   * @param capacity the maximum number of buffered events per subscription. Must be positive.
+   * @param strategy determines what happens to an event that arrives while the buffer is full
+   * @return the publisher.
+   */
+  public static Flow.Publisher<Event> fromPathWatcher(
+      final PathWatcher<Event> pathWatcher, final int capacity, final Strategy strategy) {
+    return new BoundedPublisher<Event>(pathWatcher, capacity, strategy) {
+      @Override
+      Path pathOf(final Event event) {
+        return event.getTypedPath().getPath();
+      }
+
+      @Override
+      Event merge(final Event previous, final Event next) {
+        return mergeEvents(previous, next);
+      }
+
+      @Override
+      Event overflow(final Path directory) {
+        return new Event(TypedPaths.get(directory), Kind.Overflow);
+      }
+    };
+  }
+
+  /**
+   * Returns a publisher of the entries of a repository that are created, updated or deleted. The
+   * {@link Strategy#Coalesce} strategy keeps the latest entry for each path. The {@link
+   * Strategy#Overflow} strategy replaces the buffered entries with the cached entry for their
+   * deepest common directory or, if it isn't cached, for its nearest cached parent.
+   *
+   * @param repository the repository whose entries are published
+   * @param capacity the maximum number of buffered entries per subscription. Must be positive.
+   * @param strategy determines what happens to an entry that arrives while the buffer is full
+   * @param <T> the value type of the repository
+   * @return the publisher.
+   */
+  public static <T> Flow.Publisher<Entry<T>> fromRepository(
+      final FileTreeRepository<T> repository, final int capacity, final Strategy strategy) {
+    return new BoundedPublisher<Entry<T>>(repository, capacity, strategy) {
+      @Override
+      Path pathOf(final Entry<T> entry) {
+        return entry.getTypedPath().getPath();
+      }
+
+      @Override
+      Entry<T> merge(final Entry<T> previous, final Entry<T> next) {
+        return next;
+      }
+
+      @SuppressWarnings("EmptyCatchBlock")
+      @Override
+      Entry<T> overflow(final Path directory) {
+        Path path = directory;
+        while (path != null) {
+          try {
+            final List<Entry<T>> entries = repository.listEntries(path, -1, AllPass);
+            if (!entries.isEmpty()) return entries.get(0);
+          } catch (final IOException e) {
+          }
+          path = path.getParent();
+        }
+        return null;
+      }
+    };
+  }
+
+  /*
+   * Combines two consecutive events for the same path into an event that has the same effect on a
+   * cache as both events. These are the same rules that the coalescing latency of
+   * FileTreeRepositories applies.
+   */
+  private static Event mergeEvents(final Event previous, final Event next) {
+    final Kind previousKind = previous.getKind();
+    final Kind nextKind = next.getKind();
+    final TypedPath typedPath = next.getTypedPath();
+    if (previousKind.equals(Kind.Error) || previousKind.equals(Kind.Overflow)) {
+      return new Event(typedPath, previousKind);
+    } else if (nextKind.equals(Kind.Error)
+        || nextKind.equals(Kind.Overflow)
+        || nextKind.equals(Kind.Delete)
+        || nextKind.equals(Kind.Move)) {
+      return next;
+    } else if (previousKind.equals(Kind.Move)
+        && nextKind.equals(Kind.Modify)
+        && typedPath.isDirectory()) {
+      return new Event(typedPath, Kind.Move, previous.getPreviousTypedPath());
+    } else if (previousKind.equals(Kind.Create) || previousKind.equals(Kind.Move)) {
+      return new Event(typedPath, Kind.Create);
+    } else if (previousKind.equals(Kind.Delete) && typedPath.isDirectory()) {
+      return new Event(typedPath, Kind.Overflow);
+    } else {
+      return new Event(typedPath, Kind.Modify);
+    }
+  }
+}
@@ -0,0 +1,2 @@
+/** Provides java.util.concurrent.Flow publishers of file events */
+package com.swoval.files.flow;
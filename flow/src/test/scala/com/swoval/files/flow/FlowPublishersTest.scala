@@ -0,0 +1,108 @@
+package com.swoval.files.flow
+
+import java.io.IOException
+import java.nio.file.{ Path, Paths }
+import java.util.concurrent.{ ConcurrentHashMap, Flow }
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.{ FileTreeViews, PathWatcher, TypedPaths }
+import com.swoval.files.flow.FlowPublishers.Strategy
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.functional.Either
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+object FlowPublishersTest extends TestSuite {
+  private val base: Path = Paths.get("").toAbsolutePath.resolve("flow")
+  private class TestPathWatcher extends PathWatcher[Event] {
+    private val counter = new AtomicInteger(0)
+    val observers = new ConcurrentHashMap[Int, FileTreeViews.Observer[_ >: Event]]
+    override def register(path: Path, maxDepth: Int): Either[IOException, java.lang.Boolean] =
+      Either.right[IOException, java.lang.Boolean](true)
+    override def unregister(path: Path): Unit = {}
+    override def close(): Unit = observers.clear()
+    override def addObserver(observer: FileTreeViews.Observer[_ >: Event]): Int = {
+      val handle = counter.getAndIncrement()
+      observers.put(handle, observer)
+      handle
+    }
+    override def removeObserver(handle: Int): Unit = observers.remove(handle)
+    def emit(name: String, kind: Kind): Unit = {
+      val event = new Event(TypedPaths.get(base.resolve(name)), kind)
+      observers.values.asScala.foreach(_.onNext(event))
+    }
+    def fail(t: Throwable): Unit = observers.values.asScala.foreach(_.onError(t))
+  }
+  private class TestSubscriber(initialDemand: Long) extends Flow.Subscriber[Event] {
+    val events = mutable.Buffer.empty[(Path, Kind)]
+    val errors = mutable.Buffer.empty[Throwable]
+    var subscription: Flow.Subscription = _
+    override def onSubscribe(s: Flow.Subscription): Unit = {
+      subscription = s
+      s.request(initialDemand)
+    }
+    override def onNext(event: Event): Unit =
+      events += (event.getTypedPath.getPath -> event.getKind)
+    override def onError(t: Throwable): Unit = errors += t
+    override def onComplete(): Unit = {}
+  }
+  private def subscribe(strategy: Strategy, initialDemand: Long)(
+      f: (TestPathWatcher, TestSubscriber) => Unit): Unit = {
+    val watcher = new TestPathWatcher
+    val subscriber = new TestSubscriber(initialDemand)
+    FlowPublishers.fromPathWatcher(watcher, 3, strategy).subscribe(subscriber)
+    try f(watcher, subscriber)
+    finally subscriber.subscription.cancel()
+  }
+  val tests = Tests {
+    'demand - subscribe(Strategy.Buffer, 1) { (watcher, subscriber) =>
+      watcher.emit("a", Kind.Create)
+      watcher.emit("b", Kind.Create)
+      subscriber.events ==> Seq(base.resolve("a") -> Kind.Create)
+      subscriber.subscription.request(1)
+      subscriber.events.map(_._1) ==> Seq("a", "b").map(base.resolve)
+    }
+    'coalesce - subscribe(Strategy.Coalesce, 0) { (watcher, subscriber) =>
+      watcher.emit("a", Kind.Create)
+      watcher.emit("a", Kind.Modify)
+      watcher.emit("b", Kind.Modify)
+      watcher.emit("b", Kind.Delete)
+      subscriber.subscription.request(Long.MaxValue)
+      subscriber.events ==> Seq(base.resolve("a") -> Kind.Create, base.resolve("b") -> Kind.Delete)
+    }
+    'overflow - subscribe(Strategy.Overflow, 0) { (watcher, subscriber) =>
+      Seq("a", "b", "c", "d").foreach(watcher.emit(_, Kind.Create))
+      watcher.emit("e", Kind.Create)
+      subscriber.subscription.request(Long.MaxValue)
+      subscriber.events ==> Seq(base -> Kind.Overflow, base.resolve("e") -> Kind.Create)
+    }
+    'cancel - subscribe(Strategy.Buffer, Long.MaxValue) { (watcher, subscriber) =>
+      watcher.emit("a", Kind.Create)
+      subscriber.subscription.cancel()
+      watcher.emit("b", Kind.Create)
+      subscriber.events.map(_._1) ==> Seq(base.resolve("a"))
+    }
+    'errors - {
+      'source - subscribe(Strategy.Buffer, Long.MaxValue) { (watcher, subscriber) =>
+        val exception = new IOException("watch service closed")
+        watcher.fail(exception)
+        subscriber.errors ==> Seq(exception)
+        watcher.observers.isEmpty ==> true
+      }
+      'subscriber - {
+        val watcher = new TestPathWatcher
+        val exception = new IllegalStateException("bad subscriber")
+        val subscriber = new TestSubscriber(Long.MaxValue) {
+          override def onNext(event: Event): Unit = throw exception
+        }
+        FlowPublishers.fromPathWatcher(watcher, 3, Strategy.Buffer).subscribe(subscriber)
+        watcher.emit("a", Kind.Create)
+        subscriber.errors ==> Seq(exception)
+        watcher.observers.isEmpty ==> true
+      }
+    }
+  }
+}
@@ -127,6 +127,7 @@ object Build {
     Seq[ProjectReference](
       files.js,
       files.jvm,
+      flow,
       nio.js,
       testing.js,
       testing.jvm
@@ -461,11 +462,15 @@ object Build {
                 "CachedDirectory",
                 "CachedDirectoryImpl",
                 "CacheObservers",
+                "CoalescingPathWatcher",
                 "DirectoryDataView",
                 "DirectoryLister",
                 "DirectoryView",
                 "DirectoryRegistry",
                 "Entries",
+                "EntryCursor",
+                "EntryVisitor",
+                "Exclusions",
                 "FileCacheDirectoryTree",
                 "FileCachePathWatcher",
                 "FileTreeDataView",
@@ -475,7 +480,11 @@ object Build {
                 "FileTreeRepositories",
                 "FileTreeView",
                 "FileTreeViews",
+                "IgnoreFiles",
                 "Lockable",
+                "LongCacheObserver",
+                "LongCachedDirectory",
+                "LongEntry",
                 "MapOps",
                 "NioDirectoryLister",
                 "NioPathWatcher",
@@ -653,6 +662,21 @@ object Build {
     )
     .dependsOn(testing % "test->compile")
 
+  lazy val flow: Project = project
+    .in(file("flow"))
+    .dependsOn(files.jvm)
+    .settings(
+      commonSettings,
+      name := "file-tree-views-flow",
+      description := "java.util.concurrent.Flow publishers for the file tree views.",
+      crossScalaVersions := scalaCrossVersions,
+      crossPaths := false,
+      autoScalaLibrary := false,
+      javacOptions ++= Seq("-source", "9", "-target", "9"),
+      libraryDependencies += utest,
+      utestFramework
+    )
+
   lazy val scalagen: Project = project
     .in(file("scalagen"))
     .settings(